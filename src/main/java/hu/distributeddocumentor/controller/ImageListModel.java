@@ -1,18 +1,19 @@
 package hu.distributeddocumentor.controller;
 
 import hu.distributeddocumentor.model.Images;
-import java.util.Observable;
-import java.util.Observer;
+import hu.distributeddocumentor.model.events.DispatchPolicy;
+import hu.distributeddocumentor.model.events.ImagesEvent;
+import hu.distributeddocumentor.model.events.EventSubscriber;
 import javax.swing.table.AbstractTableModel;
 
-public class ImageListModel extends AbstractTableModel implements Observer {
+public class ImageListModel extends AbstractTableModel implements EventSubscriber<ImagesEvent> {
     
     private final Images images;
 
     public ImageListModel(Images images) {
         this.images = images;
         
-        images.addObserver(this);
+        images.getEvents().subscribe(this, DispatchPolicy.COALESCED);
     }
 
     @Override
@@ -48,7 +49,7 @@ public class ImageListModel extends AbstractTableModel implements Observer {
     }
 
     @Override
-    public void update(Observable o, Object o1) {
+    public void onEvent(ImagesEvent event) {
         fireTableDataChanged();
     }
     
@@ -2,18 +2,19 @@ package hu.distributeddocumentor.controller;
 
 import hu.distributeddocumentor.model.Documentation;
 import hu.distributeddocumentor.model.Snippet;
-import java.util.Observable;
-import java.util.Observer;
+import hu.distributeddocumentor.model.events.DispatchPolicy;
+import hu.distributeddocumentor.model.events.DocumentationEvent;
+import hu.distributeddocumentor.model.events.EventSubscriber;
 import javax.swing.table.AbstractTableModel;
 
 
-public class SnippetListModel extends AbstractTableModel implements Observer { 
+public class SnippetListModel extends AbstractTableModel implements EventSubscriber<DocumentationEvent> { 
 
     private final Documentation doc;
 
     public SnippetListModel(Documentation doc) {
         this.doc = doc;
-        doc.addObserver(this);
+        doc.getEvents().subscribe(this, DispatchPolicy.COALESCED);
     }
         
     @Override
@@ -49,7 +50,7 @@ public class SnippetListModel extends AbstractTableModel implements Observer {
     }
 
     @Override
-    public void update(Observable o, Object o1) {
+    public void onEvent(DocumentationEvent event) {
         fireTableDataChanged();
     }        
 }
\ No newline at end of file
@@ -1,13 +1,14 @@
 package hu.distributeddocumentor.exporters;
 
 import hu.distributeddocumentor.model.ExportableNode;
-import hu.distributeddocumentor.model.Page;
-import hu.distributeddocumentor.model.toc.TOCNode;
+import hu.distributeddocumentor.model.PageSnapshot;
+import hu.distributeddocumentor.model.toc.TOCSnapshot;
 import hu.distributeddocumentor.model.virtual.builders.VirtualNodeException;
 import hu.distributeddocumentor.prefs.DocumentorPreferences;
 import hu.distributeddocumentor.utils.ResourceUtils;
 import java.io.*;
 import java.nio.charset.Charset;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
@@ -17,7 +18,7 @@ import java.util.concurrent.ExecutionException;
 public abstract class HTMLBasedExporter {
     
     protected final static String CHARSET = "UTF-8";
-    protected final Map<TOCNode, ExportableNode> realNodes;                    
+    protected final Map<TOCSnapshot.Node, ExportedNode> realNodes;                    
     protected final DocumentorPreferences prefs;
 
     public HTMLBasedExporter(DocumentorPreferences prefs) {       
@@ -25,17 +26,29 @@ public abstract class HTMLBasedExporter {
         realNodes = new HashMap<>();
     }        
 
-    protected void exportReferencedPages(File repositoryRoot, File targetDir, TOCNode node) throws FileNotFoundException, IOException, VirtualNodeException {
+    protected void exportReferencedPages(File repositoryRoot, File targetDir, TOCSnapshot toc, TOCSnapshot.Node node) throws FileNotFoundException, IOException, VirtualNodeException {
         
-        final ExportableNode exportable = node.getRealNode(repositoryRoot, prefs);        
-        final TOCNode realNode = exportable.getNode();
+        // Only the snapshot is used, the live TOC may be edited during the export
+        final ExportableNode virtual = node.buildVirtualHierarchy(repositoryRoot, prefs);
+        final TOCSnapshot.Node realNode;
+        final String scope;
+        final Set<File> extraImages;
+        if (virtual == null) {
+            realNode = node;
+            scope = null;
+            extraImages = Collections.emptySet();
+        } else {
+            realNode = toc.capture(virtual.getNode());
+            scope = virtual.getScope();
+            extraImages = virtual.getExtraImages();
+        }
         
-        realNodes.put(node, exportable);
+        realNodes.put(node, new ExportedNode(realNode, scope));
         
-        final Page page = realNode.getTarget();
+        final PageSnapshot page = realNode.getTarget();
         final File newTargetDir;        
-        if (exportable.getScope() != null) {
-            newTargetDir = new File(targetDir, exportable.getScope());
+        if (scope != null) {
+            newTargetDir = new File(targetDir, scope);
             
             if (!newTargetDir.exists()) {
                 if (!newTargetDir.mkdirs()) {
@@ -47,7 +60,6 @@ public abstract class HTMLBasedExporter {
             newTargetDir = targetDir;
         }
         
-        Set<File> extraImages = exportable.getExtraImages();
         if (extraImages.size() > 0) {
             exportExtraImages(extraImages, newTargetDir);
         }
@@ -56,12 +68,12 @@ public abstract class HTMLBasedExporter {
             exportPage(page, newTargetDir);
         }
         
-        for (TOCNode childNode : realNode.getChildren()) {
-            exportReferencedPages(repositoryRoot, newTargetDir, childNode);
+        for (TOCSnapshot.Node childNode : realNode.getChildren()) {
+            exportReferencedPages(repositoryRoot, newTargetDir, toc, childNode);
         }
     }
 
-    protected File exportPage(Page page, File targetDir) throws FileNotFoundException {        
+    protected File exportPage(PageSnapshot page, File targetDir) throws FileNotFoundException {        
         
         File target = new File(targetDir, page.getId()+".html");
         String html = page.asHTML(ResourceUtils.getRelativePath(getTargetRootDir().getAbsolutePath(), targetDir.getAbsolutePath())+"/");
@@ -123,4 +135,32 @@ public abstract class HTMLBasedExporter {
         
         return ex;
     }
+    
+    /**
+     * The real (non-virtual) node exported in place of a TOC node
+     */
+    protected static class ExportedNode {
+        private final TOCSnapshot.Node node;
+        private final String scope;
+
+        public ExportedNode(TOCSnapshot.Node node, String scope) {
+            this.node = node;
+            this.scope = scope;
+        }
+
+        /**
+         * Gets the snapshot of the real node
+         */
+        public TOCSnapshot.Node getNode() {
+            return node;
+        }
+
+        /**
+         * Gets the optional scope of the subtree represented by the node
+         * @return Returns the scope or null if it should not be changed
+         */
+        public String getScope() {
+            return scope;
+        }
+    }
 }
@@ -9,10 +9,8 @@ import hu.distributeddocumentor.gui.LongOperationRunner;
 import hu.distributeddocumentor.gui.ProgressUI;
 import hu.distributeddocumentor.gui.RunnableWithProgress;
 import hu.distributeddocumentor.model.Documentation;
-import hu.distributeddocumentor.model.ExportableNode;
-import hu.distributeddocumentor.model.Page;
-import hu.distributeddocumentor.model.toc.TOC;
-import hu.distributeddocumentor.model.toc.TOCNode;
+import hu.distributeddocumentor.model.PageSnapshot;
+import hu.distributeddocumentor.model.toc.TOCSnapshot;
 import hu.distributeddocumentor.model.virtual.builders.VirtualNodeException;
 import hu.distributeddocumentor.prefs.DocumentorPreferences;
 import hu.distributeddocumentor.utils.ResourceUtils;
@@ -48,12 +46,14 @@ public class CHMExporter extends HTMLBasedExporter implements Exporter {
     public void export(final Documentation doc, final File targetDir, LongOperationRunner longOp) throws FileNotFoundException, IOException, VirtualNodeException {
         
            try {
+            final TOCSnapshot toc = doc.getTOC().snapshot();
+            
             longOp.run(new RunnableWithProgress() {
 
                 @Override
                 public void run(ProgressUI progress) {                        
                     try {
-                        export(doc, targetDir, progress);
+                        export(doc, toc, targetDir, progress);
                     } catch (IOException|InterruptedException|VirtualNodeException ex) {
                         throw new RuntimeException(ex);
                     }
@@ -73,7 +73,7 @@ public class CHMExporter extends HTMLBasedExporter implements Exporter {
         }
     }
      
-    private void export(Documentation doc, File targetDir, ProgressUI progress) throws FileNotFoundException, IOException, InterruptedException, VirtualNodeException {
+    private void export(Documentation doc, TOCSnapshot toc, File targetDir, ProgressUI progress) throws FileNotFoundException, IOException, InterruptedException, VirtualNodeException {
            
         this.targetDir = targetDir;
         
@@ -133,12 +133,11 @@ public class CHMExporter extends HTMLBasedExporter implements Exporter {
         progress.setStatus("Exporting pages...");
         
         // Exporting the pages
-        final TOC toc = doc.getTOC();
         final File repoRoot = new File(doc.getRepositoryRoot());
         
-        for (TOCNode node : toc.getRoot().getChildren()) {
+        for (TOCSnapshot.Node node : toc.getRoot().getChildren()) {
             if (node != toc.getRecycleBin()) {                
-                exportReferencedPages(repoRoot, targetDir, node);
+                exportReferencedPages(repoRoot, targetDir, toc, node);
             }
         }
         
@@ -203,7 +202,7 @@ public class CHMExporter extends HTMLBasedExporter implements Exporter {
     }
             
     @Override
-    protected File exportPage(Page page, File targetDir) throws FileNotFoundException {
+    protected File exportPage(PageSnapshot page, File targetDir) throws FileNotFoundException {
         File target = super.exportPage(page, targetDir);
                         
         contentFiles.add(ResourceUtils.getRelativePath(target.getAbsolutePath(), this.targetDir.getAbsolutePath()));
@@ -271,7 +270,7 @@ public class CHMExporter extends HTMLBasedExporter implements Exporter {
         return charset;
     }
 
-    private void createHHC(File file, TOC toc, Language language) throws FileNotFoundException {
+    private void createHHC(File file, TOCSnapshot toc, Language language) throws FileNotFoundException {
         
         // http://www.nongnu.org/chmspec/latest/Sitemap.html
         
@@ -284,7 +283,7 @@ public class CHMExporter extends HTMLBasedExporter implements Exporter {
             out.println("</OBJECT>");
             out.println("<UL>");
             
-            for (TOCNode node : toc.getRoot().getChildren()) {
+            for (TOCSnapshot.Node node : toc.getRoot().getChildren()) {
                 if (node != toc.getRecycleBin() &&
                     ((node != toc.getUnorganized()) ||
                      (node == toc.getUnorganized() && node.getChildren().size() > 0))) {
@@ -297,9 +296,9 @@ public class CHMExporter extends HTMLBasedExporter implements Exporter {
         }
     }
 
-    private void exportTOCNode(TOCNode node, PrintWriter out, int indent, String scope) {        
-        final ExportableNode exportable = realNodes.get(node);
-        final TOCNode realNode = exportable.getNode();
+    private void exportTOCNode(TOCSnapshot.Node node, PrintWriter out, int indent, String scope) {        
+        final ExportedNode exportable = realNodes.get(node);
+        final TOCSnapshot.Node realNode = exportable.getNode();
                 
         if (exportable.getScope() != null) {
             scope = scope + exportable.getScope() + "/";
@@ -319,7 +318,7 @@ public class CHMExporter extends HTMLBasedExporter implements Exporter {
             
             out.println(i + "<UL>");
             
-            for (TOCNode child : realNode.getChildren()) {
+            for (TOCSnapshot.Node child : realNode.getChildren()) {
                 exportTOCNode(child, out, indent+2, scope);
             }
             
@@ -8,10 +8,8 @@ import hu.distributeddocumentor.gui.LongOperationRunner;
 import hu.distributeddocumentor.gui.ProgressUI;
 import hu.distributeddocumentor.gui.RunnableWithProgress;
 import hu.distributeddocumentor.model.Documentation;
-import hu.distributeddocumentor.model.ExportableNode;
 import hu.distributeddocumentor.model.Language;
-import hu.distributeddocumentor.model.toc.TOC;
-import hu.distributeddocumentor.model.toc.TOCNode;
+import hu.distributeddocumentor.model.toc.TOCSnapshot;
 import hu.distributeddocumentor.model.virtual.builders.VirtualNodeException;
 import hu.distributeddocumentor.prefs.DocumentorPreferences;
 import java.io.File;
@@ -37,12 +35,14 @@ public class HTMLExporter extends HTMLBasedExporter implements Exporter {
     public void export(final Documentation doc, final File targetDir, LongOperationRunner longOp) throws FileNotFoundException, IOException, VirtualNodeException {
         
         try {
+            final TOCSnapshot toc = doc.getTOC().snapshot();
+            
             longOp.run(new RunnableWithProgress() {
 
                 @Override
                 public void run(ProgressUI progress) {
                     try {
-                        export(doc, targetDir, progress);
+                        export(doc, toc, targetDir, progress);
                     } catch (IOException|VirtualNodeException ex) {
                         throw new RuntimeException(ex);
                     }
@@ -62,7 +62,7 @@ public class HTMLExporter extends HTMLBasedExporter implements Exporter {
         }
     }
     
-    private void export(Documentation doc, File targetDir, ProgressUI progress) throws IOException, FileNotFoundException, VirtualNodeException {
+    private void export(Documentation doc, TOCSnapshot toc, File targetDir, ProgressUI progress) throws IOException, FileNotFoundException, VirtualNodeException {
                         
         this.targetDir = targetDir;
         File repositoryRoot = new File(doc.getRepositoryRoot());
@@ -76,11 +76,10 @@ public class HTMLExporter extends HTMLBasedExporter implements Exporter {
         }               
         
         // Exporting the pages
-        final TOC toc = doc.getTOC();
         
-        for (TOCNode node : toc.getRoot().getChildren()) {
+        for (TOCSnapshot.Node node : toc.getRoot().getChildren()) {
             if (node != toc.getRecycleBin()) {
-                exportReferencedPages(repositoryRoot, targetDir, node);
+                exportReferencedPages(repositoryRoot, targetDir, toc, node);
             }
         }
 
@@ -178,13 +177,13 @@ public class HTMLExporter extends HTMLBasedExporter implements Exporter {
         extractResource("/syntaxhighlighter/shBrushXml.js", "shBrushXml.js", shDir);       
     }
 
-    private void createTreeItemsJS(File file, TOC toc) throws FileNotFoundException {
+    private void createTreeItemsJS(File file, TOCSnapshot toc) throws FileNotFoundException {
         
         try (PrintWriter out = new PrintWriter(
                 new OutputStreamWriter(new FileOutputStream(file), Charset.forName(CHARSET)))) {
             out.println("var TREE_ITEMS = [");
                         
-            for (TOCNode node : toc.getRoot().getChildren()) {
+            for (TOCSnapshot.Node node : toc.getRoot().getChildren()) {
                 if (node != toc.getRecycleBin() &&
                     ((node != toc.getUnorganized()) ||
                      (node == toc.getUnorganized() && node.getChildren().size() > 0))) {
@@ -197,10 +196,10 @@ public class HTMLExporter extends HTMLBasedExporter implements Exporter {
         }
     }
 
-    private void exportTOCNode(TOCNode node, PrintWriter out, int indent, String scope, boolean isFirst) {
+    private void exportTOCNode(TOCSnapshot.Node node, PrintWriter out, int indent, String scope, boolean isFirst) {
         
-        final ExportableNode exportable = realNodes.get(node);
-        final TOCNode realNode = exportable.getNode();
+        final ExportedNode exportable = realNodes.get(node);
+        final TOCSnapshot.Node realNode = exportable.getNode();
         
         if (exportable.getScope() != null) {
             scope = scope + exportable.getScope() + "/";
@@ -228,7 +227,7 @@ public class HTMLExporter extends HTMLBasedExporter implements Exporter {
             
             for (int j = 0; j < realNode.getChildren().size(); j++) {
                 
-                TOCNode child = realNode.getChildren().get(j);
+                TOCSnapshot.Node child = realNode.getChildren().get(j);
                 exportTOCNode(child, out, indent + 4, scope, j == 0);
             }
             
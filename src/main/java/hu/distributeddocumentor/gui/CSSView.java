@@ -6,9 +6,6 @@
 package hu.distributeddocumentor.gui;
 
 import hu.distributeddocumentor.model.Documentation;
-import hu.distributeddocumentor.model.FailedToLoadMetadataException;
-import hu.distributeddocumentor.model.FailedToLoadPageException;
-import hu.distributeddocumentor.model.FailedToLoadTOCException;
 import hu.distributeddocumentor.model.Page;
 import hu.distributeddocumentor.prefs.DocumentorPreferences;
 import java.io.IOException;
@@ -94,7 +91,7 @@ public class CSSView extends javax.swing.JPanel {
         try {
             Files.write(doc.getCustomStylesheet().toPath(), editorPane.getDocument().getText(0, editorPane.getDocument().getLength()).getBytes(Page.CHARSET));
             doc.markCustomStylesheetDirty();
-        } catch (IOException | FailedToLoadMetadataException | FailedToLoadPageException | FailedToLoadTOCException | BadLocationException ex) {
+        } catch (IOException | BadLocationException ex) {
             ErrorDialog.show(null, "Failed to save the custom stylesheet", ex);
         }
     }
@@ -1,10 +1,19 @@
 package hu.distributeddocumentor.gui;
 
+import hu.distributeddocumentor.gui.htmlpreview.BoxIndex;
+import hu.distributeddocumentor.gui.htmlpreview.PreviewDocument;
+import hu.distributeddocumentor.gui.htmlpreview.PreviewRenderer;
+import hu.distributeddocumentor.gui.htmlpreview.PreviewResourceCache;
+import hu.distributeddocumentor.gui.htmlpreview.PreviewUserAgent;
 import hu.distributeddocumentor.gui.htmlpreview.SVGSalamanderReplacedElementFactory;
 import hu.distributeddocumentor.model.Page;
+import hu.distributeddocumentor.model.events.DispatchPolicy;
+import hu.distributeddocumentor.model.events.EventSubscriber;
+import hu.distributeddocumentor.model.events.PageEvent;
 import java.awt.BorderLayout;
 import java.awt.Desktop;
 import java.awt.Font;
+import java.awt.Graphics;
 import java.awt.Point;
 import java.io.ByteArrayInputStream;
 import java.io.File;
@@ -12,11 +21,7 @@ import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.charset.Charset;
-import java.util.Iterator;
-import java.util.Observable;
-import java.util.Observer;
 import org.apache.commons.lang3.StringEscapeUtils;
-import org.w3c.dom.Element;
 import org.xhtmlrenderer.extend.NamespaceHandler;
 import org.xhtmlrenderer.render.Box;
 import org.xhtmlrenderer.simple.FSScrollPane;
@@ -24,18 +29,23 @@ import org.xhtmlrenderer.simple.XHTMLPanel;
 import org.xhtmlrenderer.swing.BasicPanel;
 import org.xhtmlrenderer.swing.FSMouseListener;
 import org.xhtmlrenderer.swing.LinkListener;
-import org.xhtmlrenderer.swing.NaiveUserAgent;
 import org.xhtmlrenderer.swing.SwingReplacedElementFactory;
 
-public final class HTMLPreview extends javax.swing.JPanel implements Observer, PreviewSync {
+public final class HTMLPreview extends javax.swing.JPanel implements EventSubscriber<PageEvent>, PreviewSync {
 
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(HTMLPreview.class.getName());
 
     private final File root;
     private final FSScrollPane scrollPane;
     private final XHTMLPanel htmlPanel;
-    private final NaiveUserAgent uac;
     private Page page;    
+    private final PreviewRenderer renderer;
+    private long renderedVersion;
+    private boolean rendering;
+    private boolean layoutRequired;
+    private PreviewDocument shownDocument;
+    private BoxIndex boxIndex;
+    private String pendingScrollId;
     
     /**
      * Creates new form HTMLPreview
@@ -45,29 +55,23 @@ public final class HTMLPreview extends javax.swing.JPanel implements Observer, P
                 
         this.root = root;                
         
-        htmlPanel = new XHTMLPanel();
+        final String rootUri = root.toURI().toString();        
+        
+        // Every preview shares the same cache of decoded images
+        PreviewUserAgent uac = new PreviewUserAgent(PreviewResourceCache.getShared());
+        uac.setBaseURL(rootUri);
+        
+        htmlPanel = new XHTMLPanel(uac);
         htmlPanel.setVisible(true);
         
         scrollPane = new FSScrollPane(htmlPanel);
                 
         add(scrollPane, BorderLayout.CENTER);
 
-        final String rootUri = root.toURI().toString();        
-        
-        NaiveUserAgent existingUac = (NaiveUserAgent) htmlPanel.getSharedContext().getUserAgentCallback();
-        if (existingUac == null) {
-            uac = new NaiveUserAgent();
-
-            uac.setBaseURL(rootUri);
-
-            htmlPanel.getSharedContext().setUserAgentCallback(uac);        
-        } else {
-            uac = existingUac;
-        }
-        
         htmlPanel.getSharedContext().setReplacedElementFactory(
                 new SVGSalamanderReplacedElementFactory(
-                    new SwingReplacedElementFactory()));
+                    new SwingReplacedElementFactory(),
+                    PreviewResourceCache.getShared()));
                        
         for (Object listener : htmlPanel.getMouseTrackingListeners()) {
             if (listener instanceof LinkListener) {
@@ -108,6 +112,14 @@ public final class HTMLPreview extends javax.swing.JPanel implements Observer, P
                     }                    
                 });
         
+        renderer = new PreviewRenderer(new PreviewRenderer.Target() {
+
+            @Override
+            public void show(PreviewDocument document) {
+                showDocument(document);
+            }
+        });
+        
         switchPage(page);
     }
 
@@ -116,20 +128,27 @@ public final class HTMLPreview extends javax.swing.JPanel implements Observer, P
      */
     public void refresh() {
             
-        uac.clearImageCache();
+        // The shared resource cache reloads the changed files, but the
+        // replaced elements of the laid out images have to be recreated
+        htmlPanel.getSharedContext().getReplacedElementFactory().reset();
+        layoutRequired = true;
         renderPage();
     }
     
     public void switchPage(Page newPage) {
         if (page != newPage) {
             if (page != null) {
-                page.deleteObserver(this);
+                page.getEvents().unsubscribe(this);
             }
 
             page = newPage;
+            renderer.cancel();
+            shownDocument = null;
+            rendering = false;
+            pendingScrollId = null;
 
             if (page != null) {
-                page.addObserver(this);
+                page.getEvents().subscribe(this, DispatchPolicy.COALESCED);
                 renderPage();
             }
         }
@@ -148,19 +167,21 @@ public final class HTMLPreview extends javax.swing.JPanel implements Observer, P
        
         log.debug("Trying to scroll to " + id);
         
-        Box rootBox = htmlPanel.getRootBox();
-        if (rootBox != null) {
-            Box lineAnnotation = findId(rootBox, id);
-
-            if (lineAnnotation != null) {
+        if (rendering) {
+            // Scrolling after the new document has been laid out
+            pendingScrollId = id;
+            return;
+        }
+        
+        Box lineAnnotation = findId(id);
+        if (lineAnnotation != null) {
 
-                Point pt = new Point(lineAnnotation.getAbsX(), lineAnnotation.getAbsY());
-                int top = scrollPane.getVerticalScrollBar().getValue();
-                int bottom = top + scrollPane.getHeight();
+            Point pt = new Point(lineAnnotation.getAbsX(), lineAnnotation.getAbsY());
+            int top = scrollPane.getVerticalScrollBar().getValue();
+            int bottom = top + scrollPane.getHeight();
 
-                if (pt.y < top || pt.y > bottom) {
-                    htmlPanel.scrollTo(pt);
-                }
+            if (pt.y < top || pt.y > bottom) {
+                htmlPanel.scrollTo(pt);
             }
         }
     }
@@ -183,7 +204,8 @@ public final class HTMLPreview extends javax.swing.JPanel implements Observer, P
     }// </editor-fold>//GEN-END:initComponents
 
     private void formComponentResized(java.awt.event.ComponentEvent evt) {//GEN-FIRST:event_formComponentResized
-        renderPage();
+        // The HTML panel lays out its document again when it is resized, 
+        // the page does not have to be rendered again
     }//GEN-LAST:event_formComponentResized
 
     // Variables declaration - do not modify//GEN-BEGIN:variables
@@ -191,70 +213,118 @@ public final class HTMLPreview extends javax.swing.JPanel implements Observer, P
 
 
     private void renderPage() {
-        // Getting the HTML representation of the page
-        String html = page.asAnnotatedHTMLembeddingCSS();
-        byte[] htmlBytes = html.getBytes(Charset.forName(Page.CHARSET));
+        if (page != null) {
+            renderedVersion = page.getVersion();
+            rendering = true;
+            renderer.render(page.snapshot());
+        }
+    }
+
+    private void showDocument(PreviewDocument document) {
+        rendering = false;
+        
+        boolean forceLayout = layoutRequired;
+        layoutRequired = false;
         
         try {
-            log.debug("Setting HTML renderer's document");
-            htmlPanel.setDocument(new ByteArrayInputStream(htmlBytes), root.toURI().toString());            
+            if (!updateShownDocument(document, forceLayout)) {
+                log.debug("Setting HTML renderer's document");
+                htmlPanel.setDocument(document.getDocument(), root.toURI().toString());
+                shownDocument = document;
+            }
             
         } catch (Exception ex) {
-            log.error(null, ex);            
+            shownDocument = null;
+            log.error(null, ex);
+            
+            String errorHtml = "<?xml version='1.0' encoding='utf-8'?><html xmlns='http://www.w3.org/1999/xhtml'><body><h1>Failed to render page</h1><pre>"+
+                            StringEscapeUtils.escapeXml(ex.toString())+
+                            "</pre></body></html>";
+            
+            byte[] htmlBytes = errorHtml.getBytes(Charset.forName(Page.CHARSET));
             
-            String simpleHtml = page.asHTMLembeddingCSS();
-            htmlBytes = simpleHtml.getBytes(Charset.forName(Page.CHARSET));
-        
             try {
                 htmlPanel.setDocument(new ByteArrayInputStream(htmlBytes), root.toURI().toString());            
 
             } catch (Exception iex) {
-            
-                String errorHtml = "<?xml version='1.0' encoding='utf-8'?><html xmlns='http://www.w3.org/1999/xhtml'><body><h1>Failed to render page</h1><pre>"+
-                                StringEscapeUtils.escapeXml(iex.toString())+
-                                "</pre></body></html>";
-            
-                htmlBytes = errorHtml.getBytes(Charset.forName(Page.CHARSET));
+                log.error(null, iex);            
+            }
+        }
         
-                try {
-                    htmlPanel.setDocument(new ByteArrayInputStream(htmlBytes), root.toURI().toString());            
+        if (pendingScrollId != null) {
+            String id = pendingScrollId;
+            pendingScrollId = null;
+            scrollToId(id);
+        }
+    }
 
-                } catch (Exception iiex) {
-                    log.error(null, iiex);            
+    /**
+     * Applies the changed blocks of a new rendering to the document being shown
+     * 
+     * <p>
+     * The document is laid out again only if it has been changed, keeping
+     * the scroll position. 
+     * 
+     * @param document the new rendering of the page
+     * @param forceLayout if true, the document is laid out even if it did not change
+     * @return false if the document must be replaced instead
+     */
+    private boolean updateShownDocument(PreviewDocument document, boolean forceLayout) {
+        if (shownDocument == null || htmlPanel.getDocument() != shownDocument.getDocument()) {
+            return false;
+        }
+        
+        int changedBlocks = document != shownDocument ? shownDocument.update(document) : 0;
+        if (changedBlocks < 0) {
+            return false;
+        }
+        
+        log.debug("Patched " + changedBlocks + " of " + shownDocument.getBlockCount() + " preview blocks");
+        
+        if (changedBlocks > 0 || forceLayout) {
+            Graphics graphics = htmlPanel.getGraphics();
+            if (graphics != null) {
+                int scrollPosition = scrollPane.getVerticalScrollBar().getValue();
+                try {
+                    htmlPanel.doDocumentLayout(graphics);
+                } catch (RuntimeException ex) {
+                    // Falling back to a full reload of the document
+                    log.warn("Failed to lay out the patched preview", ex);
+                    return false;
+                } finally {
+                    graphics.dispose();
                 }
+                
+                scrollPane.getVerticalScrollBar().setValue(scrollPosition);
+                htmlPanel.repaint();
             }
         }
+        return true;
     }
 
     @Override
-    public void update(Observable o, Object o1) {
-        renderPage();
+    public void onEvent(PageEvent event) {
+        // The events are coalesced while typing, so a references or metadata
+        // update may stand for markup changes which have not been rendered yet
+        if (event.getType() == PageEvent.Type.CHANGED ||
+            event.getType() == PageEvent.Type.STYLESHEET_CHANGED ||
+            event.getPage().getVersion() != renderedVersion) {
+            renderPage();
+        }
     }
     
-    private Box findId(Box box, String id) {
-        
-        Element elem = box.getElement();
-        if (elem != null) {
-            if (elem.hasAttribute("id")) {                
-                // We are using 'endsWith' here because the adding the line number 
-                // spans to header elements corrupts their id which is otherwise used
-                // as anchors. This way the method can work with both the line number spans
-                // and the mediawiki style automatic anchors.
-                if (elem.getAttribute("id").endsWith(id)) {
-                    return box;
-                }                                    
-            }
+    private Box findId(String id) {
+        Box rootBox = htmlPanel.getRootBox();
+        if (rootBox == null) {
+            return null;
         }
         
-        for (Iterator it = box.getChildIterator(); it.hasNext();) {
-            Box child = (Box) it.next();
-            Box result = findId(child, id);
-            if (result != null) {
-                return result;
-            }
+        // The index is built once after every layout
+        if (boxIndex == null || !boxIndex.isCurrent(rootBox)) {
+            boxIndex = new BoxIndex(rootBox);
         }
         
-        return null;
+        return boxIndex.findId(id);
     }
 
    
@@ -9,6 +9,7 @@ import hu.distributeddocumentor.controller.CommandLineExporter;
 import hu.distributeddocumentor.controller.sync.DialogBasedSyncInteraction;
 import hu.distributeddocumentor.controller.sync.MercurialSync;
 import hu.distributeddocumentor.controller.sync.SyncController;
+import hu.distributeddocumentor.gui.spellcheck.SpellCheckService;
 import hu.distributeddocumentor.model.CouldNotSaveDocumentationException;
 import hu.distributeddocumentor.model.Documentation;
 import hu.distributeddocumentor.model.FailedToLoadMetadataException;
@@ -33,6 +34,7 @@ import java.util.LinkedList;
 import java.util.Properties;
 import javax.swing.AbstractAction;
 import javax.swing.JMenuItem;
+import javax.swing.JPanel;
 import javax.swing.JPopupMenu;
 import javax.swing.JSeparator;
 import javax.swing.KeyStroke;
@@ -59,7 +61,7 @@ public final class MainWindow extends javax.swing.JFrame implements PageEditorHo
     private final Timer statusCheckTimer;
     private final Timer removeOrphanedPagesTimer;
     private final FloatingPreview floatingPreview;
-    private SpellChecker spellChecker;
+    private SpellCheckService spellCheckService;
 
     private UndoManager currentUndoManager;
     private ToolWindow twImages;
@@ -69,10 +71,10 @@ public final class MainWindow extends javax.swing.JFrame implements PageEditorHo
     private final SnippetManagerPanel snippetsView;
 
     @Override
-    public SpellChecker getSpellChecker() {
+    public SpellCheckService getSpellCheckService() {
 
         if (prefs.isSpellCheckingEnabled()) {
-            return spellChecker;
+            return spellCheckService;
         } else {
             return null;
         }
@@ -119,9 +121,9 @@ public final class MainWindow extends javax.swing.JFrame implements PageEditorHo
             SpellDictionary dictionary = new SpellDictionaryHashMap(
                     new BufferedReader(
                             new InputStreamReader(WikiMarkupEditor.class.getResourceAsStream("/dict/en.txt"))));
-            spellChecker = new SpellChecker(dictionary);
+            spellCheckService = new SpellCheckService(new SpellChecker(dictionary));
         } catch (Exception ex) {
-            spellChecker = null;
+            spellCheckService = null;
             ErrorDialog.show(this, "Failed to initialize spell checker", ex);
         }
 
@@ -549,6 +551,11 @@ public final class MainWindow extends javax.swing.JFrame implements PageEditorHo
 
     private void formWindowClosing(java.awt.event.WindowEvent evt) {//GEN-FIRST:event_formWindowClosing
 
+        if (saveTimer != null) {
+            saveNow();
+            doc.saveSnapshot();
+        }
+        
         saveLayout();
         LongOperation.shutdown();
     }
@@ -568,12 +575,16 @@ public final class MainWindow extends javax.swing.JFrame implements PageEditorHo
 
     private void btCommitActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_btCommitActionPerformed
 
+        saveNow();
+        
         final CommitDialog dlg = new CommitDialog(this, doc);
         dlg.setVisible(true);
     }//GEN-LAST:event_btCommitActionPerformed
 
     private void btRevertActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_btRevertActionPerformed
 
+        saveNow();
+        
         final RevertDialog dlg = new RevertDialog(this, doc, this);
         dlg.setVisible(true);
     }//GEN-LAST:event_btRevertActionPerformed
@@ -587,6 +598,7 @@ public final class MainWindow extends javax.swing.JFrame implements PageEditorHo
         saveTimer.stop();
         statusCheckTimer.stop();
         removeOrphanedPagesTimer.stop();
+        saveNow();
 
         try {
             SyncController controller = createSyncConrtoller();
@@ -605,6 +617,7 @@ public final class MainWindow extends javax.swing.JFrame implements PageEditorHo
         saveTimer.stop();
         statusCheckTimer.stop();
         removeOrphanedPagesTimer.stop();
+        saveNow();
 
         try {
             SyncController controller = createSyncConrtoller();
@@ -943,6 +956,14 @@ public final class MainWindow extends javax.swing.JFrame implements PageEditorHo
     }
 
     private void onSaveTimerTick() {
+        try {
+            doc.scheduleSave();
+        } catch (CouldNotSaveDocumentationException ex) {
+            log.error("Failed to save documentation: ", ex);
+        }
+    }
+
+    private void saveNow() {
         try {
             doc.saveAll();
         } catch (CouldNotSaveDocumentationException ex) {
@@ -979,6 +1000,34 @@ public final class MainWindow extends javax.swing.JFrame implements PageEditorHo
         // 3. TOC tree is updated automatically through the tree model listeners
     }
 
+    @Override
+    public void pageRenamed(String oldId, String newId) {
+
+        // The page object is kept alive, so its editor is moved to a content
+        // registered with the new identifier
+        ContentManager contentManager = toolWindowManager.getContentManager();
+        Content content = contentManager.getContent(oldId);
+        if (content != null) {
+            boolean selected = content.isSelected();
+            Component view = content.getComponent();
+
+            // Detaching the view so removing the content does not dispose it
+            content.setComponent(new JPanel());
+            contentManager.removeContent(content);
+
+            Content newContent = contentManager.addContent(
+                    newId,
+                    "Page: " + newId,
+                    null,
+                    view);
+            addSyncTOCItem(newContent, doc.getPage(newId));
+
+            if (selected) {
+                newContent.setSelected(true);
+            }
+        }
+    }
+
     @Override
     public Frame getMainFrame() {
         return this;
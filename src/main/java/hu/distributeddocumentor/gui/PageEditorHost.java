@@ -1,6 +1,6 @@
 package hu.distributeddocumentor.gui;
 
-import com.swabunga.spell.event.SpellChecker;
+import hu.distributeddocumentor.gui.spellcheck.SpellCheckService;
 import java.awt.Frame;
 
 public interface PageEditorHost {
@@ -9,11 +9,12 @@ public interface PageEditorHost {
     void openOrFocusStylesheet();
     
     void documentationReloaded();
+    void pageRenamed(String oldId, String newId);
     void updateUndoRedoItems();
 
     public Frame getMainFrame();
 
-    public SpellChecker getSpellChecker();
+    public SpellCheckService getSpellCheckService();
     
     public FloatingPreview getFloatingPreview();
 }
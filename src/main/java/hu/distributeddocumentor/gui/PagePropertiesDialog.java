@@ -2,9 +2,6 @@ package hu.distributeddocumentor.gui;
 
 import hu.distributeddocumentor.model.CouldNotSaveDocumentationException;
 import hu.distributeddocumentor.model.Documentation;
-import hu.distributeddocumentor.model.FailedToLoadMetadataException;
-import hu.distributeddocumentor.model.FailedToLoadPageException;
-import hu.distributeddocumentor.model.FailedToLoadTOCException;
 import hu.distributeddocumentor.model.Page;
 import hu.distributeddocumentor.model.toc.TOCNode;
 import java.awt.event.ActionEvent;
@@ -257,9 +254,10 @@ public class PagePropertiesDialog extends javax.swing.JDialog {
             
             if (response == JOptionPane.YES_OPTION) {
                 try {
+                    String oldId = page.getId();
                     doc.renamePage(page, newId);
-                    host.documentationReloaded();
-                } catch (CouldNotSaveDocumentationException | FailedToLoadPageException | FailedToLoadTOCException | FailedToLoadMetadataException ex) {
+                    host.pageRenamed(oldId, newId);
+                } catch (CouldNotSaveDocumentationException ex) {
                     ErrorDialog.show(null, "Failed to rename page", ex);
                 }
             }
@@ -1,9 +1,11 @@
 package hu.distributeddocumentor.gui;
 
+import com.google.common.base.Joiner;
 import com.jidesoft.swing.SearchableUtils;
 import hu.distributeddocumentor.controller.SnippetListModel;
 import hu.distributeddocumentor.model.Conditions;
 import hu.distributeddocumentor.model.Documentation;
+import hu.distributeddocumentor.model.Page;
 import hu.distributeddocumentor.model.PageAlreadyExistsException;
 import hu.distributeddocumentor.model.Snippet;
 import hu.distributeddocumentor.utils.StringUtils;
@@ -11,7 +13,11 @@ import java.awt.Color;
 import java.awt.Component;
 import java.awt.datatransfer.StringSelection;
 import java.awt.datatransfer.Transferable;
+import java.awt.event.MouseEvent;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import javax.swing.JComponent;
 import javax.swing.JTable;
 import javax.swing.TransferHandler;
@@ -65,10 +71,13 @@ public class SnippetManagerPanel extends javax.swing.JPanel {
         TableColumn col = snippetTable.getColumnModel().getColumn(0);
         col.setCellRenderer(new DefaultTableCellRenderer() {
 
+            private String renderedSnippetId;
+            
             @Override
             public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected, boolean hasFocus, int row, int column) {
                 
                 String snippetId = (String)value;
+                renderedSnippetId = snippetId;
                 if (snippetId != null) {
                     Snippet snippet = doc.getSnippet(snippetId);
 
@@ -84,6 +93,27 @@ public class SnippetManagerPanel extends javax.swing.JPanel {
                 
                 return this;
             }
+
+            @Override
+            public String getToolTipText(MouseEvent event) {
+                // The table asks the renderer prepared for the hovered cell,
+                // so the users are only collected when a tooltip is shown
+                if (renderedSnippetId == null) {
+                    return null;
+                }
+                
+                List<String> users = new ArrayList<>();
+                for (Page page : doc.getPagesUsingSnippet(renderedSnippetId)) {
+                    users.add(page.getId());
+                }
+                Collections.sort(users, String.CASE_INSENSITIVE_ORDER);
+
+                if (users.isEmpty()) {
+                    return "Not used by any page";
+                } else {
+                    return "Used by " + Joiner.on(", ").join(users);
+                }
+            }
                         
         });
         
@@ -31,6 +31,8 @@ public final class SplittedPageView extends javax.swing.JPanel implements Observ
         this.prefs = prefs;
         this.host = host;
         
+        page.markOpened();
+        
         prefs.addObserver(this);
                 
         metadata = page.getMetadata();
@@ -197,7 +199,7 @@ public final class SplittedPageView extends javax.swing.JPanel implements Observ
 
     private void cbStatusActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_cbStatusActionPerformed
         
-        metadata.put("Status", cbStatus.getSelectedItem().toString());
+        page.putMetadata("Status", cbStatus.getSelectedItem().toString());
     }//GEN-LAST:event_cbStatusActionPerformed
 
     private void tbtVerticalSplitActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_tbtVerticalSplitActionPerformed
@@ -249,6 +251,7 @@ public final class SplittedPageView extends javax.swing.JPanel implements Observ
     
     public void dispose() {      
         prefs.deleteObserver(this);
+        page.markClosed();
     }
 
     @Override
@@ -1,15 +1,9 @@
 package hu.distributeddocumentor.gui;
 
-import com.google.common.base.Supplier;
 import com.jidesoft.popup.JidePopup;
-import com.swabunga.spell.engine.Word;
-import com.swabunga.spell.event.DocumentWordTokenizer;
-import com.swabunga.spell.event.SpellCheckEvent;
-import com.swabunga.spell.event.SpellCheckListener;
-import com.swabunga.spell.event.SpellChecker;
 import hu.distributeddocumentor.controller.MediaWikiEditor;
 import hu.distributeddocumentor.controller.WikiEditor;
-import hu.distributeddocumentor.model.IntRange;
+import hu.distributeddocumentor.gui.spellcheck.SpellCheckService;
 import hu.distributeddocumentor.model.Page;
 import hu.distributeddocumentor.prefs.DocumentorPreferences;
 import java.awt.BorderLayout;
@@ -28,21 +22,24 @@ import java.awt.event.KeyEvent;
 import java.awt.event.MouseEvent;
 import java.io.IOException;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Future;
 import javax.swing.*;
 import javax.swing.event.*;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.Highlighter;
 import javax.swing.text.Highlighter.HighlightPainter;
+import javax.swing.text.Position;
 import javax.swing.undo.CannotUndoException;
 import javax.swing.undo.UndoManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 
-public final class WikiMarkupEditor extends javax.swing.JPanel implements SpellCheckListener {
+public final class WikiMarkupEditor extends javax.swing.JPanel {
 
     private static final Logger log = LoggerFactory.getLogger(WikiMarkupEditor.class.getName());
     
@@ -54,9 +51,11 @@ public final class WikiMarkupEditor extends javax.swing.JPanel implements SpellC
     private WikiEditor editor;
     
     private final Timer spellCheckTimer;
-    private boolean isSpellChecking;
-    private String lastCheckedMarkup;
-    private Map<IntRange, Supplier<List<String>>> suggestions;
+    private Position dirtyStart;
+    private Position dirtyEnd;
+    private int editCount;
+    private Future<?> pendingSpellCheck;
+    private final Map<Highlighter.Highlight, String> misspelledWords;
         
     private int lastCurrentLine;
     private final PreviewSync previewSync;
@@ -74,7 +73,7 @@ public final class WikiMarkupEditor extends javax.swing.JPanel implements SpellC
         
         spellCheckHighlightPainter = new SquiggleUnderlineHighlightPainter(Color.red);
         
-        suggestions = new HashMap<>();
+        misspelledWords = new HashMap<>();
                 
         updateFont();
                      
@@ -97,39 +96,36 @@ public final class WikiMarkupEditor extends javax.swing.JPanel implements SpellC
             @Override
             public void insertUpdate(DocumentEvent de) {
                 
-                if (!isSpellChecking) {
-                    try {
-                        page.setMarkup(de.getDocument().getText(0, de.getDocument().getLength()));
-                    } catch (BadLocationException ex) {
-                        log.error(null, ex);
-                    }
+                markSpellCheckDirty(de.getOffset(), de.getOffset() + de.getLength());
+                try {
+                    page.setMarkup(de.getDocument().getText(0, de.getDocument().getLength()));
+                } catch (BadLocationException ex) {
+                    log.error(null, ex);
                 }
             }
 
             @Override
             public void removeUpdate(DocumentEvent de) {
                 
-                if (!isSpellChecking) {
-                    try {
-                        page.setMarkup(de.getDocument().getText(0, de.getDocument().getLength()));
-                    } catch (BadLocationException ex) {
-                        log.error(null, ex);
-                    }
+                markSpellCheckDirty(de.getOffset(), de.getOffset());
+                try {
+                    page.setMarkup(de.getDocument().getText(0, de.getDocument().getLength()));
+                } catch (BadLocationException ex) {
+                    log.error(null, ex);
                 }
             }
 
             @Override
             public void changedUpdate(DocumentEvent de) {
                 
-                if (!isSpellChecking) {
-                    try {
-                        page.setMarkup(de.getDocument().getText(0, de.getDocument().getLength()));
-                    } catch (BadLocationException ex) {
-                        log.error(null, ex);
-                    }
+                try {
+                    page.setMarkup(de.getDocument().getText(0, de.getDocument().getLength()));
+                } catch (BadLocationException ex) {
+                    log.error(null, ex);
                 }
             }                        
         });
+        markSpellCheckDirty(0, document.getLength());
         
         document.addUndoableEditListener(
                 new UndoableEditListener() {
@@ -586,16 +582,28 @@ public final class WikiMarkupEditor extends javax.swing.JPanel implements SpellC
         }             
     }//GEN-LAST:event_editorPaneMousePressed
 
-    private void showSuggestions(MouseEvent evt) {
+    private void showSuggestions(final MouseEvent evt) {
         int pos = editorPane.viewToModel(new Point(evt.getX(), evt.getY()));
         
-        for (final IntRange range : suggestions.keySet()) {
-            
-            if (range.contains(pos)) {
+        final Highlighter.Highlight highlight = findMisspelledWord(pos);
+        SpellCheckService spellCheckService = host.getSpellCheckService();
+        if (highlight == null || spellCheckService == null) {
+            return;
+        }
+        
+        // The suggestions are looked up in the background, the popup is shown
+        // when they are ready
+        spellCheckService.suggest(misspelledWords.get(highlight), 
+                new SpellCheckService.SuggestionCallback() {
+
+            @Override
+            public void suggested(List<String> sgs) {
+                if (!misspelledWords.containsKey(highlight) || !editorPane.isShowing()) {
+                    return;
+                }
                 
                 JPopupMenu popup = new JPopupMenu();
-                                                
-                List<String> sgs = suggestions.get(range).get();
+                
                 for (final String suggestion : sgs) {
                     JMenuItem item = new JMenuItem(suggestion);                        
                     item.addActionListener(
@@ -603,8 +611,8 @@ public final class WikiMarkupEditor extends javax.swing.JPanel implements SpellC
 
                                 @Override
                                 public void actionPerformed(ActionEvent ae) {
-                                    editorPane.setSelectionStart(range.getStart());
-                                    editorPane.setSelectionEnd(range.getEnd());
+                                    editorPane.setSelectionStart(highlight.getStartOffset());
+                                    editorPane.setSelectionEnd(highlight.getEndOffset());
                                     editorPane.replaceSelection(suggestion);
                                 }
                     });
@@ -614,7 +622,16 @@ public final class WikiMarkupEditor extends javax.swing.JPanel implements SpellC
                 
                 popup.show(editorPane, evt.getX(), evt.getY());
             }
-        }   
+        });
+    }
+    
+    private Highlighter.Highlight findMisspelledWord(int pos) {
+        for (Highlighter.Highlight highlight : misspelledWords.keySet()) {
+            if (highlight.getStartOffset() <= pos && pos <= highlight.getEndOffset()) {
+                return highlight;
+            }
+        }
+        return null;
     }
     
     private void editorPaneMouseReleased(java.awt.event.MouseEvent evt) {//GEN-FIRST:event_editorPaneMouseReleased
@@ -672,15 +689,48 @@ public final class WikiMarkupEditor extends javax.swing.JPanel implements SpellC
         return undoManager;
     }
     
-    private void removeSpellCheckerHighlights() {
+    /**
+     * Extends the range of the document to be spell checked again
+     * 
+     * <p>
+     * The range is kept as document positions, so it follows the further
+     * edits. It is extended to whole lines when it is checked.
+     */
+    private void markSpellCheckDirty(int start, int end) {
+        editCount++;
+        
+        if (dirtyStart != null) {
+            start = Math.min(start, dirtyStart.getOffset());
+            end = Math.max(end, dirtyEnd.getOffset());
+        }
         
-        editorPane.getHighlighter().removeAllHighlights();
+        try {
+            Document document = editorPane.getDocument();
+            dirtyStart = document.createPosition(start);
+            dirtyEnd = document.createPosition(Math.min(end, document.getLength()));
+        } catch (BadLocationException ex) {
+            log.error(null, ex);
+        }
     }
     
-    private void addSpellCheckerHighlight(int start, int end) {
+    private void removeSpellCheckerHighlights(int start, int end) {
+        
+        Highlighter highlighter = editorPane.getHighlighter();
+        for (Highlighter.Highlight highlight : highlighter.getHighlights()) {
+            if (highlight.getPainter() == spellCheckHighlightPainter &&
+                highlight.getEndOffset() >= start && highlight.getStartOffset() < end) {
+                
+                highlighter.removeHighlight(highlight);
+                misspelledWords.remove(highlight);
+            }
+        }
+    }
+    
+    private void addSpellCheckerHighlight(int start, String word) {
         
         try {
-            editorPane.getHighlighter().addHighlight(start, end, spellCheckHighlightPainter);
+            Object tag = editorPane.getHighlighter().addHighlight(start, start + word.length(), spellCheckHighlightPainter);
+            misspelledWords.put((Highlighter.Highlight) tag, word);
         } catch (BadLocationException ble) {
             log.error("addSpellCheckerHighlight called with bad location: " + ble.getMessage());
         }
@@ -688,77 +738,66 @@ public final class WikiMarkupEditor extends javax.swing.JPanel implements SpellC
     
     private void performSpellCheck() {
 
-        if (!page.getMarkup().equals(lastCheckedMarkup)) {
-            
-            lastCheckedMarkup = page.getMarkup();
-            suggestions.clear();
-
-            removeSpellCheckerHighlights();
-
-            SpellChecker spellChecker = host.getSpellChecker();
-            if (spellChecker != null) {
-
-                log.debug("Starting spell check for " + page.getId());
-
-                synchronized (spellChecker) {
-
-                    isSpellChecking = true;
-
-                    spellChecker.reset();
-                    spellChecker.addSpellCheckListener(this);                                 
-
-                    try {
-                        spellChecker.checkSpelling(
-                                new DocumentWordTokenizer(editorPane.getDocument()));
-                    }
-                    finally {
-                        spellChecker.removeSpellCheckListener(this);
-                        isSpellChecking = false;
-                    }
-                    
-                    log.debug("Finished spell check for " + page.getId());
-                }
-            }
+        if (dirtyStart == null || pendingSpellCheck != null) {
+            return;
         }
-    }
-
-    @Override
-    public void spellingError(final SpellCheckEvent event) {
-        log.info("Spelling error: ''" + event.getInvalidWord() + "''");
         
-        int start = event.getWordContextPosition();
-        int length = event.getInvalidWord().length();
-        int end = start + length;
+        Document document = editorPane.getDocument();
         
-        addSpellCheckerHighlight(start, end);        
+        SpellCheckService spellCheckService = host.getSpellCheckService();
+        if (spellCheckService == null) {
+            // Checking the whole document when the spell checking is enabled again
+            removeSpellCheckerHighlights(0, document.getLength() + 1);
+            markSpellCheckDirty(0, document.getLength());
+            return;
+        }
         
-        final SpellChecker spellChecker = host.getSpellChecker();
+        // Only the lines touched since the last check are checked again
+        Element root = document.getDefaultRootElement();
+        Element firstLine = root.getElement(root.getElementIndex(dirtyStart.getOffset()));
+        Element lastLine = root.getElement(root.getElementIndex(dirtyEnd.getOffset()));
+        int start = firstLine.getStartOffset();
+        int end = Math.min(lastLine.getEndOffset(), document.getLength());
+        dirtyStart = null;
+        dirtyEnd = null;
+        
+        final String text;
+        final Position rangeStart;
+        final Position rangeEnd;
+        try {
+            text = document.getText(start, end - start);
+            rangeStart = document.createPosition(start);
+            rangeEnd = document.createPosition(end);
+        } catch (BadLocationException ex) {
+            log.error(null, ex);
+            return;
+        }
         
-        if (spellChecker != null) {
-            
-            final Supplier<List<String>> suggestionSupplier = new Supplier<List<String>>() {            
-
-                @Override
-                public List<String> get() {
-                    List wordSuggestions = spellChecker.getSuggestions(event.getInvalidWord(), 0);
-                    List<String> sgs = new LinkedList<>();                
+        log.debug("Starting spell check for " + page.getId() + " [" + start + ", " + end + ")");
+        
+        final int checkedEditCount = editCount;
+        pendingSpellCheck = spellCheckService.check(text, new SpellCheckService.CheckCallback() {
 
-                    if (wordSuggestions != null && !wordSuggestions.isEmpty()) {
-                        for (Object suggestion : wordSuggestions) {
-                            Word word = (Word)suggestion;
-                            sgs.add(word.getWord());
-                        }
-                        
-                        return sgs;
-                    }
-                    else {
-                        return new LinkedList<>();
-                    }
+            @Override
+            public void checked(List<SpellCheckService.SpellingError> errors) {
+                pendingSpellCheck = null;
+                
+                if (editCount != checkedEditCount) {
+                    // The document has been edited since the range was taken, 
+                    // the offsets of the errors may be invalid
+                    markSpellCheckDirty(rangeStart.getOffset(), rangeEnd.getOffset());
+                    return;
                 }
-            };            
-
-            suggestions.put(new IntRange(start, end), suggestionSupplier);
-        }
+                
+                int start = rangeStart.getOffset();
+                removeSpellCheckerHighlights(start, rangeEnd.getOffset());
+                for (SpellCheckService.SpellingError error : errors) {
+                    addSpellCheckerHighlight(start + error.getOffset(), error.getWord());
+                }
+                
+                log.debug("Finished spell check for " + page.getId() + ", " + errors.size() + " error(s)");
+            }
+        });
     }
 
     private void addUndoAction(ActionMap actionMap, final PageEditorHost host, InputMap inputMap) throws HeadlessException {
@@ -0,0 +1,128 @@
+package hu.distributeddocumentor.gui.htmlpreview;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.w3c.dom.Element;
+import org.xhtmlrenderer.render.Box;
+
+/**
+ * Index of the laid out boxes of a preview by their elements' identifiers
+ *
+ * <p>
+ * The index is built by a single traversal of the box tree after a layout,
+ * so the preview can follow the editor's caret without walking the whole
+ * tree on every line change. The <code>line&lt;N&gt;</code> annotations
+ * are indexed by their line numbers; lines which are not annotated (for
+ * example empty lines) are mapped to the nearest preceding annotated line.
+ * <p>
+ * If a box tree contains more boxes for the same identifier, the first one
+ * in document order is used.
+ *
+ * @author Daniel Vigovszky
+ */
+public class BoxIndex {
+
+    private static final Pattern linePattern = Pattern.compile("line(\\d+)");
+
+    private final Box root;
+    private final Box firstChild;
+    private final NavigableMap<Integer, Box> lines = new TreeMap<>();
+    private final Map<String, Box> ids = new LinkedHashMap<>();
+
+    /**
+     * Indexes a box tree
+     *
+     * @param root the root box of the layout
+     */
+    public BoxIndex(Box root) {
+        this.root = root;
+        this.firstChild = getFirstChild(root);
+
+        Deque<Box> pending = new ArrayDeque<>();
+        pending.push(root);
+
+        while (!pending.isEmpty()) {
+            Box box = pending.pop();
+
+            Element element = box.getElement();
+            if (element != null && element.hasAttribute("id")) {
+                String id = element.getAttribute("id");
+                if (!ids.containsKey(id)) {
+                    ids.put(id, box);
+
+                    Matcher matcher = linePattern.matcher(id);
+                    if (matcher.matches()) {
+                        lines.put(Integer.parseInt(matcher.group(1)), box);
+                    }
+                }
+            }
+
+            // Pushing the children in reverse order to visit them in document order
+            for (int i = box.getChildCount() - 1; i >= 0; i--) {
+                pending.push(box.getChild(i));
+            }
+        }
+    }
+
+    /**
+     * Checks whether the index describes the current layout
+     *
+     * <p>
+     * A new layout either creates a new root box, or resets the existing
+     * one and creates new child boxes for it.
+     *
+     * @param currentRoot the current root box of the preview
+     * @return false if the index must be built again
+     */
+    public boolean isCurrent(Box currentRoot) {
+        return root == currentRoot && firstChild == getFirstChild(currentRoot);
+    }
+
+    private static Box getFirstChild(Box box) {
+        return box.getChildCount() > 0 ? box.getChild(0) : null;
+    }
+
+    /**
+     * Finds the box of a line annotation
+     *
+     * @param line the zero based line index in the page's markup
+     * @return the box of the line, or of the nearest preceding annotated
+     *         line, or null if there is no such line
+     */
+    public Box findLine(int line) {
+        Map.Entry<Integer, Box> entry = lines.floorEntry(line);
+        return entry != null ? entry.getValue() : null;
+    }
+
+    /**
+     * Finds the box of an element by its identifier
+     *
+     * <p>
+     * Line annotations are looked up with {@link #findLine(int)}. Other
+     * identifiers are matched exactly first, then by their suffix, because
+     * the line annotations added to the headers are included in the
+     * automatically generated anchors.
+     *
+     * @param id the element's identifier
+     * @return the box, or null if there is no element with the given identifier
+     */
+    public Box findId(String id) {
+        Matcher matcher = linePattern.matcher(id);
+        if (matcher.matches()) {
+            return findLine(Integer.parseInt(matcher.group(1)));
+        }
+
+        Box box = ids.get(id);
+        if (box != null) {
+            return box;
+        }
+
+        for (Map.Entry<String, Box> entry : ids.entrySet()) {
+            if (entry.getKey().endsWith(id)) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,271 @@
+package hu.distributeddocumentor.gui.htmlpreview;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.w3c.dom.*;
+
+/**
+ * Rendered preview document split into its top-level blocks
+ *
+ * <p>
+ * Every child node of the document's body is a block, identified by a
+ * signature describing its whole subtree. The <code>line&lt;N&gt;</code>
+ * annotations emitted by {@link hu.distributeddocumentor.model.Page} are
+ * recorded relative to the block's first annotated line, so inserting or
+ * removing lines does not change the signatures of the blocks below the
+ * edited one.
+ * <p>
+ * The preview keeps the document being shown, and applies the changed
+ * blocks of the newly rendered versions to it with {@link #update(PreviewDocument)}
+ * instead of replacing the whole document.
+ *
+ * @author Daniel Vigovszky
+ */
+public final class PreviewDocument {
+
+    private static final Pattern linePattern = Pattern.compile("line(\\d+)");
+
+    /**
+     * Maximal number of changed blocks which are patched into the shown
+     * document, above this the whole document is replaced
+     */
+    private static final int MAX_PATCHED_BLOCKS = 64;
+
+    private final Document document;
+    private final String head;
+    private final Element body;
+    private final List<Block> blocks;
+
+    private PreviewDocument(Document document, String head, Element body, List<Block> blocks) {
+        this.document = document;
+        this.head = head;
+        this.body = body;
+        this.blocks = blocks;
+    }
+
+    /**
+     * Splits a document to blocks
+     *
+     * @param document the rendered XHTML document
+     * @return the analyzed document
+     */
+    public static PreviewDocument analyze(Document document) {
+        Element root = document.getDocumentElement();
+        Element head = findChild(root, "head");
+        Element body = findChild(root, "body");
+
+        List<Block> blocks = new ArrayList<>();
+        if (body != null) {
+            for (Node child = body.getFirstChild(); child != null; child = child.getNextSibling()) {
+                blocks.add(new Block(child));
+            }
+        }
+
+        return new PreviewDocument(document, head != null ? signature(head, -1) : "", body, blocks);
+    }
+
+    /**
+     * Gets the XHTML document
+     *
+     * @return the document, including the changes applied by {@link #update(PreviewDocument)}
+     */
+    public Document getDocument() {
+        return document;
+    }
+
+    /**
+     * Gets the number of top-level blocks
+     *
+     * @return the number of the body's child nodes
+     */
+    public int getBlockCount() {
+        return blocks.size();
+    }
+
+    /**
+     * Applies the changes of a newer rendering of the same page to this document
+     *
+     * <p>
+     * The unchanged blocks at the beginning and the end of the body are
+     * kept, only their line annotations are renumbered. The blocks between
+     * them are replaced by copies of the updated document's blocks. The
+     * updated document itself is not modified.
+     *
+     * @param updated the newly rendered document
+     * @return the number of removed and inserted blocks, 0 if the documents
+     *         are equivalent, or -1 if the document cannot be patched and
+     *         must be replaced
+     */
+    public int update(PreviewDocument updated) {
+        if (body == null || updated.body == null || !head.equals(updated.head)) {
+            return -1;
+        }
+
+        List<Block> newBlocks = updated.blocks;
+        int oldCount = blocks.size();
+        int newCount = newBlocks.size();
+
+        int prefix = 0;
+        while (prefix < oldCount && prefix < newCount &&
+               blocks.get(prefix).matches(newBlocks.get(prefix))) {
+            prefix++;
+        }
+
+        int suffix = 0;
+        while (suffix < oldCount - prefix && suffix < newCount - prefix &&
+               blocks.get(oldCount - suffix - 1).matches(newBlocks.get(newCount - suffix - 1))) {
+            suffix++;
+        }
+
+        int removed = oldCount - prefix - suffix;
+        int inserted = newCount - prefix - suffix;
+        if (removed + inserted > MAX_PATCHED_BLOCKS) {
+            return -1;
+        }
+
+        for (int i = 0; i < prefix; i++) {
+            blocks.get(i).renumber(newBlocks.get(i));
+        }
+        for (int i = 0; i < suffix; i++) {
+            blocks.get(oldCount - i - 1).renumber(newBlocks.get(newCount - i - 1));
+        }
+
+        Node next = suffix > 0 ? blocks.get(oldCount - suffix).node : null;
+        for (int i = 0; i < removed; i++) {
+            body.removeChild(blocks.remove(prefix).node);
+        }
+        for (int i = 0; i < inserted; i++) {
+            Block source = newBlocks.get(prefix + i);
+            Node copy = document.importNode(source.node, true);
+            body.insertBefore(copy, next);
+            blocks.add(prefix + i, new Block(copy, source.signature, source.firstLine));
+        }
+
+        return removed + inserted;
+    }
+
+    private static Element findChild(Element parent, String localName) {
+        for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child instanceof Element) {
+                String name = child.getLocalName() != null ? child.getLocalName() : child.getNodeName();
+                if (name.equalsIgnoreCase(localName)) {
+                    return (Element) child;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static int findFirstLine(Node node) {
+        if (node instanceof Element) {
+            int line = getLine((Element) node);
+            if (line >= 0) {
+                return line;
+            }
+            for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+                line = findFirstLine(child);
+                if (line >= 0) {
+                    return line;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static int getLine(Element element) {
+        String id = element.getAttribute("id");
+        if (id.startsWith("line")) {
+            Matcher matcher = linePattern.matcher(id);
+            if (matcher.matches()) {
+                return Integer.parseInt(matcher.group(1));
+            }
+        }
+        return -1;
+    }
+
+    private static String signature(Node node, int firstLine) {
+        StringBuilder builder = new StringBuilder();
+        appendSignature(builder, node, firstLine);
+        return builder.toString();
+    }
+
+    private static void appendSignature(StringBuilder builder, Node node, int firstLine) {
+        switch (node.getNodeType()) {
+            case Node.ELEMENT_NODE:
+                Element element = (Element) node;
+                builder.append('<').append(element.getNodeName());
+
+                NamedNodeMap attributes = element.getAttributes();
+                for (int i = 0; i < attributes.getLength(); i++) {
+                    Node attribute = attributes.item(i);
+                    builder.append(' ').append(attribute.getNodeName()).append("=\"");
+
+                    int line = getLine(element);
+                    if (line >= 0 && attribute.getNodeName().equals("id")) {
+                        builder.append("line+").append(line - firstLine);
+                    } else {
+                        builder.append(attribute.getNodeValue());
+                    }
+                    builder.append('"');
+                }
+                builder.append('>');
+
+                for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+                    appendSignature(builder, child, firstLine);
+                }
+                builder.append("</>");
+                break;
+            case Node.TEXT_NODE:
+            case Node.CDATA_SECTION_NODE:
+                builder.append('"').append(node.getNodeValue()).append('"');
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static void shiftLines(Node node, int delta) {
+        if (node instanceof Element) {
+            Element element = (Element) node;
+            int line = getLine(element);
+            if (line >= 0) {
+                element.setAttribute("id", "line" + (line + delta));
+            }
+            for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+                shiftLines(child, delta);
+            }
+        }
+    }
+
+    private static final class Block {
+
+        private final Node node;
+        private final String signature;
+        private int firstLine;
+
+        Block(Node node) {
+            this.node = node;
+            this.firstLine = findFirstLine(node);
+            this.signature = signature(node, firstLine);
+        }
+
+        Block(Node node, String signature, int firstLine) {
+            this.node = node;
+            this.signature = signature;
+            this.firstLine = firstLine;
+        }
+
+        boolean matches(Block other) {
+            return signature.equals(other.signature);
+        }
+
+        void renumber(Block other) {
+            if (firstLine != other.firstLine) {
+                shiftLines(node, other.firstLine - firstLine);
+                firstLine = other.firstLine;
+            }
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package hu.distributeddocumentor.gui.htmlpreview;
+
+import hu.distributeddocumentor.model.Page;
+import hu.distributeddocumentor.model.PageSnapshot;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.swing.SwingUtilities;
+import org.apache.commons.lang3.StringEscapeUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.xhtmlrenderer.resource.XMLResource;
+
+/**
+ * Builds the preview documents of pages on a background thread
+ *
+ * <p>
+ * Converting a page to HTML and parsing the result is too slow to be done on
+ * the Swing event dispatch thread for every keystroke. The renderer works on
+ * page snapshots taken on the event dispatch thread, and only the result of
+ * the latest request is passed to the target: requests which have not been
+ * started yet when a newer one arrives are cancelled, and the results of the
+ * stale ones are dropped.
+ * <p>
+ * The parsed documents are split into blocks on the background thread as
+ * well, so the target can apply only the changed blocks to the document
+ * being shown.
+ * <p>
+ * If the annotated HTML of a page cannot be parsed, the renderer falls back
+ * to the page's plain HTML, and finally to a document describing the error.
+ *
+ * @author Daniel Vigovszky
+ */
+public class PreviewRenderer {
+
+    private static final Logger log = LoggerFactory.getLogger(PreviewRenderer.class.getName());
+
+    private static final ExecutorService worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "Preview rendering");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * Receives the rendered documents on the Swing event dispatch thread
+     */
+    public interface Target {
+
+        /**
+         * Shows a rendered document
+         *
+         * @param document the parsed XHTML document of the page
+         */
+        void show(PreviewDocument document);
+    }
+
+    private final Target target;
+    private final AtomicLong generation = new AtomicLong();
+    private Future<?> pending;
+
+    private PageSnapshot lastSnapshot;
+    private PreviewDocument lastDocument;
+
+    private volatile long lastBuildTime;
+    private volatile long lastParseTime;
+    private volatile long lastShowTime;
+
+    /**
+     * Creates the renderer
+     *
+     * @param target the target of the rendered documents
+     */
+    public PreviewRenderer(Target target) {
+        this.target = target;
+    }
+
+    /**
+     * Requests the rendering of a page, replacing any earlier request
+     *
+     * <p>
+     * Must be called on the Swing event dispatch thread.
+     *
+     * @param snapshot snapshot of the page to be rendered
+     */
+    public void render(final PageSnapshot snapshot) {
+        final long requested = cancel();
+
+        pending = worker.submit(new Runnable() {
+
+            @Override
+            public void run() {
+                build(requested, snapshot);
+            }
+        });
+    }
+
+    /**
+     * Cancels the pending request, if any
+     *
+     * <p>
+     * Must be called on the Swing event dispatch thread.
+     *
+     * @return the generation of the next request
+     */
+    public long cancel() {
+        if (pending != null) {
+            pending.cancel(false);
+            pending = null;
+        }
+
+        return generation.incrementAndGet();
+    }
+
+    /**
+     * Gets the time spent converting the last rendered page to HTML
+     *
+     * @return the build time in milliseconds
+     */
+    public long getLastBuildTime() {
+        return lastBuildTime;
+    }
+
+    /**
+     * Gets the time spent parsing the HTML of the last rendered page
+     *
+     * @return the parse time in milliseconds
+     */
+    public long getLastParseTime() {
+        return lastParseTime;
+    }
+
+    /**
+     * Gets the time the target spent showing the last rendered document
+     *
+     * @return the layout time in milliseconds on the event dispatch thread
+     */
+    public long getLastShowTime() {
+        return lastShowTime;
+    }
+
+    private void build(final long requested, PageSnapshot snapshot) {
+        if (requested != generation.get()) {
+            return;
+        }
+
+        final PreviewDocument document;
+        if (snapshot == lastSnapshot) {
+            // Only the layout has to be refreshed, for example after the
+            // images have been changed
+            document = lastDocument;
+        } else {
+            document = PreviewDocument.analyze(createDocument(snapshot));
+
+            lastSnapshot = snapshot;
+            lastDocument = document;
+        }
+
+        if (requested != generation.get()) {
+            return;
+        }
+
+        SwingUtilities.invokeLater(new Runnable() {
+
+            @Override
+            public void run() {
+                if (requested == generation.get()) {
+                    long start = System.nanoTime();
+                    target.show(document);
+                    lastShowTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+                    log.debug("Preview rendered: build " + lastBuildTime + " ms, parse " + lastParseTime + " ms, layout " + lastShowTime + " ms");
+                }
+            }
+        });
+    }
+
+    private Document createDocument(PageSnapshot snapshot) {
+        long start = System.nanoTime();
+        String html;
+        try {
+            html = snapshot.asAnnotatedHTMLembeddingCSS();
+        } catch (RuntimeException ex) {
+            log.error(null, ex);
+            return createErrorDocument(ex);
+        }
+
+        long built = System.nanoTime();
+        lastBuildTime = TimeUnit.NANOSECONDS.toMillis(built - start);
+
+        try {
+            return parse(html);
+        } catch (RuntimeException ex) {
+            log.error(null, ex);
+
+            try {
+                return parse(snapshot.asHTMLembeddingCSS());
+            } catch (RuntimeException iex) {
+                return createErrorDocument(iex);
+            }
+        } finally {
+            lastParseTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - built);
+        }
+    }
+
+    private static Document createErrorDocument(Exception ex) {
+        return parse("<?xml version='1.0' encoding='utf-8'?><html xmlns='http://www.w3.org/1999/xhtml'><body><h1>Failed to render page</h1><pre>"+
+                     StringEscapeUtils.escapeXml(ex.toString())+
+                     "</pre></body></html>");
+    }
+
+    private static Document parse(String html) {
+        byte[] htmlBytes = html.getBytes(Charset.forName(Page.CHARSET));
+        return XMLResource.load(new ByteArrayInputStream(htmlBytes)).getDocument();
+    }
+}
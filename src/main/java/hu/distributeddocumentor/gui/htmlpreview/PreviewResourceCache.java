@@ -0,0 +1,250 @@
+package hu.distributeddocumentor.gui.htmlpreview;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded cache of the decoded images and parsed SVG documents shown in the
+ * previews
+ *
+ * <p>
+ * A single instance is shared by every preview panel, including the floating
+ * preview, so an image referenced from multiple open pages is decoded only
+ * once. Every entry is keyed by its kind and resolved URI, and remembers the
+ * modification time and size of the file it was loaded from. A resource is
+ * loaded again only if its file has changed on disk since then; resources
+ * which are not files are kept until they are evicted.
+ * <p>
+ * The entries are evicted in least recently used order once the total size
+ * of the decoded resources exceeds the limit.
+ * <p>
+ * The cache can be used from multiple threads.
+ *
+ * @author Daniel Vigovszky
+ */
+public class PreviewResourceCache {
+
+    private static final Logger log = LoggerFactory.getLogger(PreviewResourceCache.class.getName());
+
+    /**
+     * Default limit of the decoded resources' total size in bytes
+     */
+    public static final long DEFAULT_MAX_SIZE = 64L * 1024 * 1024;
+
+    private static final PreviewResourceCache shared = new PreviewResourceCache(DEFAULT_MAX_SIZE);
+
+    /**
+     * Loads a kind of resource
+     *
+     * @param <T> type of the loaded resources
+     */
+    public interface Loader<T> {
+
+        /**
+         * Loads a resource
+         *
+         * @param uri the resolved URI of the resource
+         * @return the loaded resource, or null if it cannot be loaded
+         * @throws IOException if the resource cannot be read
+         */
+        T load(String uri) throws IOException;
+
+        /**
+         * Estimates the memory used by a loaded resource
+         *
+         * @param resource the resource returned by {@link #load(String)}
+         * @return the size in bytes
+         */
+        long getSize(T resource);
+    }
+
+    private static class Key {
+
+        private final Loader<?> loader;
+        private final String uri;
+
+        Key(Loader<?> loader, String uri) {
+            this.loader = loader;
+            this.uri = uri;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+
+            Key other = (Key) obj;
+            return loader == other.loader && uri.equals(other.uri);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(loader) + uri.hashCode();
+        }
+    }
+
+    private static class Entry {
+
+        private final Object resource;
+        private final long size;
+        private final long lastModified;
+        private final long length;
+
+        Entry(Object resource, long size, long lastModified, long length) {
+            this.resource = resource;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+    }
+
+    private final long maxSize;
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Creates the cache
+     *
+     * @param maxSize maximum total size of the cached resources in bytes
+     */
+    public PreviewResourceCache(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Gets the cache shared by the preview panels
+     *
+     * @return the shared instance
+     */
+    public static PreviewResourceCache getShared() {
+        return shared;
+    }
+
+    /**
+     * Gets a resource, loading it if it is not cached or its file has changed
+     *
+     * <p>
+     * The loaders are compared by identity, so they should be kept in
+     * constants. Resources which cannot be loaded are not cached.
+     *
+     * @param <T> type of the resource
+     * @param uri the resolved URI of the resource
+     * @param loader the loader of this kind of resources
+     * @return the resource, or null if it cannot be loaded
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String uri, Loader<T> loader) {
+        Key key = new Key(loader, uri);
+
+        File file = toFile(uri);
+        long lastModified = file != null ? file.lastModified() : -1;
+        long length = file != null ? file.length() : -1;
+
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.lastModified == lastModified && entry.length == length) {
+                hits.incrementAndGet();
+                return (T) entry.resource;
+            }
+        }
+        misses.incrementAndGet();
+
+        // Loading outside of the lock, a resource may be loaded twice
+        // concurrently but the lookups of other resources are not blocked
+        T resource;
+        try {
+            resource = loader.load(uri);
+        } catch (IOException | RuntimeException ex) {
+            log.warn("Failed to load " + uri, ex);
+            resource = null;
+        }
+
+        synchronized (this) {
+            Entry previous = entries.remove(key);
+            if (previous != null) {
+                size -= previous.size;
+            }
+
+            if (resource != null) {
+                long resourceSize = loader.getSize(resource);
+                if (resourceSize <= maxSize) {
+                    entries.put(key, new Entry(resource, resourceSize, lastModified, length));
+                    size += resourceSize;
+
+                    Iterator<Entry> iterator = entries.values().iterator();
+                    while (size > maxSize && iterator.hasNext()) {
+                        size -= iterator.next().size;
+                        iterator.remove();
+                    }
+                }
+            }
+        }
+
+        return resource;
+    }
+
+    private static File toFile(String uri) {
+        if (uri.startsWith("file:")) {
+            try {
+                return new File(new URI(uri));
+            } catch (URISyntaxException | IllegalArgumentException ex) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes every cached resource
+     */
+    public synchronized void clear() {
+        entries.clear();
+        size = 0;
+    }
+
+    /**
+     * Gets the number of cached resources
+     *
+     * @return the number of entries
+     */
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    /**
+     * Gets the total size of the cached resources
+     *
+     * @return the estimated size in bytes
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Gets how many times a resource was found in the cache
+     *
+     * @return the number of cache hits
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Gets how many times a resource had to be loaded
+     *
+     * @return the number of cache misses
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+}
@@ -0,0 +1,58 @@
+package hu.distributeddocumentor.gui.htmlpreview;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import javax.imageio.ImageIO;
+import org.xhtmlrenderer.resource.ImageResource;
+import org.xhtmlrenderer.swing.NaiveUserAgent;
+
+/**
+ * User agent of the preview panels loading the images through the shared
+ * {@link PreviewResourceCache}
+ *
+ * <p>
+ * The default user agent keeps a separate image cache for every panel, which
+ * had to be cleared completely to show the changed images.
+ *
+ * @author Daniel Vigovszky
+ */
+public class PreviewUserAgent extends NaiveUserAgent {
+
+    private static final PreviewResourceCache.Loader<BufferedImage> imageLoader = new PreviewResourceCache.Loader<BufferedImage>() {
+
+        @Override
+        public BufferedImage load(String uri) throws IOException {
+            try (InputStream stream = new URL(uri).openStream()) {
+                return ImageIO.read(stream);
+            }
+        }
+
+        @Override
+        public long getSize(BufferedImage image) {
+            return 4L * image.getWidth() * image.getHeight();
+        }
+    };
+
+    private final PreviewResourceCache cache;
+
+    /**
+     * Creates the user agent
+     *
+     * @param cache the cache of the decoded images
+     */
+    public PreviewUserAgent(PreviewResourceCache cache) {
+        this.cache = cache;
+    }
+
+    @Override
+    public ImageResource getImageResource(String uri) {
+        String resolved = resolveURI(uri);
+        BufferedImage image = resolved != null ? cache.get(resolved, imageLoader) : null;
+
+        // The cached image is wrapped for every request, because the
+        // renderer may scale the wrapped image in place
+        return createImageResource(resolved, image);
+    }
+}
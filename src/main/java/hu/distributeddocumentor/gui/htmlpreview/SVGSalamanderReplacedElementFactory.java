@@ -1,9 +1,13 @@
 package hu.distributeddocumentor.gui.htmlpreview;
 
+import com.kitfox.svg.SVGUniverse;
 import com.kitfox.svg.app.beans.SVGPanel;
 import java.awt.*;
+import java.io.File;
+import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.net.URL;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.w3c.dom.Element;
@@ -18,14 +22,57 @@ import org.xhtmlrenderer.swing.SwingReplacedElement;
 
 /**
  * Factory to replace image elements referring to SVG files to SVGPanel controls
+ * 
+ * <p>
+ * The parsed SVG documents are kept in a {@link PreviewResourceCache}, every
+ * document in its own SVG universe, so a document is parsed again only if
+ * its file has been changed.
+ * 
  * @author Daniel Vigovszky
  */
 public class SVGSalamanderReplacedElementFactory implements ReplacedElementFactory {
 
+    private static final PreviewResourceCache.Loader<LoadedSVG> svgLoader = new PreviewResourceCache.Loader<LoadedSVG>() {
+
+        @Override
+        public LoadedSVG load(String uri) throws IOException {
+            SVGUniverse universe = new SVGUniverse();
+            URI svgUri = universe.loadSVG(new URL(uri));
+            
+            if (svgUri == null || universe.getDiagram(svgUri) == null) {
+                return null;
+            }
+            
+            // The parsed document is estimated to be a few times larger than its source
+            long size = uri.startsWith("file:") ? 4 * new File(URI.create(uri)).length() : 0;
+            return new LoadedSVG(universe, svgUri, size);
+        }
+
+        @Override
+        public long getSize(LoadedSVG svg) {
+            return svg.size;
+        }
+    };
+    
+    private static class LoadedSVG {
+        
+        private final SVGUniverse universe;
+        private final URI uri;
+        private final long size;
+
+        LoadedSVG(SVGUniverse universe, URI uri, long size) {
+            this.universe = universe;
+            this.uri = uri;
+            this.size = size;
+        }
+    }
+    
     private final ReplacedElementFactory baseFactory;
+    private final PreviewResourceCache cache;
     
-    public SVGSalamanderReplacedElementFactory(ReplacedElementFactory baseFactory) {
+    public SVGSalamanderReplacedElementFactory(ReplacedElementFactory baseFactory, PreviewResourceCache cache) {
         this.baseFactory = baseFactory;                
+        this.cache = cache;
     }
     
     @Override
@@ -43,7 +90,8 @@ public class SVGSalamanderReplacedElementFactory implements ReplacedElementFacto
                 if (ruri.toLowerCase().endsWith(".svg")) {
                     
                     try {
-                        return createSVGPanel(context, new URI(ruri), cssWidth, cssHeight);
+                        LoadedSVG svg = cache.get(new URI(ruri).toString(), svgLoader);
+                        return svg != null ? createSVGPanel(context, svg, cssWidth, cssHeight) : null;
                     } catch (URISyntaxException ex) {
                         Logger.getLogger(SVGSalamanderReplacedElementFactory.class.getName()).log(Level.SEVERE, null, ex);
                         return null;
@@ -70,11 +118,12 @@ public class SVGSalamanderReplacedElementFactory implements ReplacedElementFacto
         baseFactory.setFormSubmissionListener(fl);
     }
 
-    private ReplacedElement createSVGPanel(LayoutContext context, URI uri, int cssWidth, int cssHeight) {
+    private ReplacedElement createSVGPanel(LayoutContext context, LoadedSVG svg, int cssWidth, int cssHeight) {
         
         SVGPanel panel = new SVGPanel();
         panel.setAntiAlias(true);                
-        panel.setSvgURI(uri);
+        panel.setSvgUniverse(svg.universe);
+        panel.setSvgURI(svg.uri);
         
         int width = cssWidth > 0 ? cssWidth : panel.getSVGWidth();
         int height = cssHeight > 0 ? cssHeight : panel.getSVGHeight();
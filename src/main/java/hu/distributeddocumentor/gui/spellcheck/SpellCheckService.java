@@ -0,0 +1,237 @@
+package hu.distributeddocumentor.gui.spellcheck;
+
+import com.swabunga.spell.engine.Word;
+import com.swabunga.spell.event.SpellCheckEvent;
+import com.swabunga.spell.event.SpellCheckListener;
+import com.swabunga.spell.event.SpellChecker;
+import com.swabunga.spell.event.StringWordTokenizer;
+import com.swabunga.spell.event.WordTokenizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import javax.swing.SwingUtilities;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Checks the spelling of text ranges on a background thread
+ *
+ * <p>
+ * A single service is shared by every editor. The result of checking a word
+ * is kept in a concurrent map, so the words which occur repeatedly, or are
+ * checked again after an edit of their line, do not have to be looked up in
+ * the dictionary again. The Jazzy spell checker itself is not thread safe,
+ * it is only used by the service's thread.
+ * <p>
+ * The results are delivered on the Swing event dispatch thread. A callback
+ * is always called, even if the spell checker fails, in which case no errors
+ * or suggestions are reported.
+ *
+ * @author Daniel Vigovszky
+ */
+public class SpellCheckService {
+
+    private static final Logger log = LoggerFactory.getLogger(SpellCheckService.class.getName());
+
+    /**
+     * Number of cached word results above which the cache is cleared
+     */
+    private static final int MAX_CACHED_WORDS = 100000;
+
+    /**
+     * Receives the misspelled words of a checked text
+     */
+    public interface CheckCallback {
+
+        /**
+         * Called on the Swing event dispatch thread when the text has been checked
+         *
+         * @param errors the misspelled words of the text
+         */
+        void checked(List<SpellingError> errors);
+    }
+
+    /**
+     * Receives the suggestions for a misspelled word
+     */
+    public interface SuggestionCallback {
+
+        /**
+         * Called on the Swing event dispatch thread when the suggestions are ready
+         *
+         * @param suggestions the suggested replacements, may be empty
+         */
+        void suggested(List<String> suggestions);
+    }
+
+    /**
+     * A misspelled word in a checked text
+     */
+    public static final class SpellingError {
+
+        private final int offset;
+        private final String word;
+
+        SpellingError(int offset, String word) {
+            this.offset = offset;
+            this.word = word;
+        }
+
+        /**
+         * Gets the position of the word
+         *
+         * @return offset of the word's first character in the checked text
+         */
+        public int getOffset() {
+            return offset;
+        }
+
+        /**
+         * Gets the misspelled word
+         *
+         * @return the word as it appears in the text
+         */
+        public String getWord() {
+            return word;
+        }
+    }
+
+    private final SpellChecker spellChecker;
+    private final ConcurrentMap<String, Boolean> wordCache = new ConcurrentHashMap<>();
+    private final ExecutorService worker;
+
+    private boolean lastWordCorrect;
+
+    /**
+     * Creates the service
+     *
+     * @param spellChecker the spell checker to be used, which must not be
+     *                     used by anything else
+     */
+    public SpellCheckService(SpellChecker spellChecker) {
+        this.spellChecker = spellChecker;
+
+        spellChecker.addSpellCheckListener(new SpellCheckListener() {
+
+            @Override
+            public void spellingError(SpellCheckEvent event) {
+                lastWordCorrect = false;
+            }
+        });
+
+        worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Spell checking");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Checks the spelling of a text in the background
+     *
+     * @param text the text to be checked
+     * @param callback receives the misspelled words
+     * @return future which can be used to cancel the check
+     */
+    public Future<?> check(final String text, final CheckCallback callback) {
+        return worker.submit(new Runnable() {
+
+            @Override
+            public void run() {
+                List<SpellingError> found = new ArrayList<>();
+
+                try {
+                    WordTokenizer tokenizer = new StringWordTokenizer(text);
+                    while (tokenizer.hasMoreWords()) {
+                        String word = tokenizer.nextWord();
+                        if (!isCorrect(word)) {
+                            found.add(new SpellingError(tokenizer.getCurrentWordPosition(), word));
+                        }
+                    }
+                } catch (RuntimeException ex) {
+                    log.error("Failed to check the spelling", ex);
+                    found.clear();
+                }
+
+                final List<SpellingError> errors = found;
+
+                SwingUtilities.invokeLater(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        callback.checked(errors);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Collects the suggestions for a misspelled word in the background
+     *
+     * @param word the misspelled word
+     * @param callback receives the suggestions
+     */
+    public void suggest(final String word, final SuggestionCallback callback) {
+        worker.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                final List<String> suggestions = new ArrayList<>();
+                try {
+                    for (Object suggestion : spellChecker.getSuggestions(word, 0)) {
+                        suggestions.add(((Word) suggestion).getWord());
+                    }
+                } catch (RuntimeException ex) {
+                    log.error("Failed to collect the suggestions for " + word, ex);
+                    suggestions.clear();
+                }
+
+                SwingUtilities.invokeLater(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        callback.suggested(suggestions);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Gets the number of words with a cached result
+     *
+     * @return the size of the word cache
+     */
+    public int getCachedWordCount() {
+        return wordCache.size();
+    }
+
+    /**
+     * Checks a single word, using the cached result if possible
+     *
+     * <p>
+     * Must be called on the service's thread.
+     */
+    private boolean isCorrect(String word) {
+        Boolean cached = wordCache.get(word);
+        if (cached != null) {
+            return cached;
+        }
+
+        // Letting Jazzy apply its configuration, such as ignoring upper case
+        // words and internet addresses
+        lastWordCorrect = true;
+        spellChecker.checkSpelling(new StringWordTokenizer(word));
+
+        if (wordCache.size() >= MAX_CACHED_WORDS) {
+            wordCache.clear();
+        }
+        wordCache.put(word, lastWordCorrect);
+        return lastWordCorrect;
+    }
+}
@@ -0,0 +1,237 @@
+package hu.distributeddocumentor.model;
+
+import hu.distributeddocumentor.utils.AtomicFiles;
+import hu.distributeddocumentor.utils.PropertiesUtils;
+import hu.distributeddocumentor.vcs.VersionControl;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes the modified pages and snippets to the file system on a background
+ * thread
+ *
+ * <p>
+ * The contents to be written are captured on the caller's thread by
+ * {@link Page#prepareSave(File)}, so the pages can be edited while their
+ * previous versions are being written. Every file is replaced atomically,
+ * and the files which did not exist before are added to the version control
+ * system in a single batch per flush, instead of querying the status of every
+ * written file.
+ * <p>
+ * The writes are performed in the order they were queued. Failed writes are
+ * retried before the next batch, followed by any newer write of the same
+ * file.
+ *
+ * @author Daniel Vigovszky
+ * @see Documentation#saveAll()
+ */
+public class BackgroundSaver {
+
+    private static final Logger log = LoggerFactory.getLogger(BackgroundSaver.class.getName());
+
+    private final VersionControl versionControl;
+    private final Executor completionExecutor;
+    private final ExecutorService writer;
+
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final Map<File, Write> failedWrites = new LinkedHashMap<>();
+    private volatile IOException lastFailure;
+    private volatile long lastFlushLatency;
+    private volatile long maxFlushLatency;
+    private volatile long writtenFiles;
+
+    /**
+     * Creates the saver
+     *
+     * @param versionControl the version control system the new files are added to
+     * @param completionExecutor executor used to notify the pages about the
+     *                           finished writes, typically the UI thread
+     */
+    public BackgroundSaver(VersionControl versionControl, Executor completionExecutor) {
+        this.versionControl = versionControl;
+        this.completionExecutor = completionExecutor;
+
+        writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Background saver");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Queues a batch of writes
+     *
+     * @param batch the writes prepared by the pages
+     */
+    void queue(final List<Write> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        final long queued = System.nanoTime();
+        queueDepth.addAndGet(batch.size());
+
+        writer.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                write(batch, queued);
+            }
+        });
+    }
+
+    /**
+     * Waits until every queued write has been performed
+     *
+     * @throws IOException if any of the writes failed
+     */
+    public void flush() throws IOException {
+        try {
+            writer.submit(new Runnable() {
+
+                @Override
+                public void run() {
+                    if (!failedWrites.isEmpty()) {
+                        write(Collections.<Write>emptyList(), System.nanoTime());
+                    }
+                }
+            }).get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the background saver", ex);
+        } catch (ExecutionException ex) {
+            throw new IOException(ex.getCause());
+        }
+
+        IOException failure = lastFailure;
+        if (failure != null) {
+            lastFailure = null;
+            throw failure;
+        }
+    }
+
+    /**
+     * Gets the number of writes waiting to be performed
+     *
+     * @return the current queue depth
+     */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    /**
+     * Gets the time elapsed between queueing and finishing the last batch
+     *
+     * @return latency of the last flush in milliseconds
+     */
+    public long getLastFlushLatency() {
+        return lastFlushLatency;
+    }
+
+    /**
+     * Gets the longest time elapsed between queueing and finishing a batch
+     *
+     * @return the maximal flush latency in milliseconds
+     */
+    public long getMaxFlushLatency() {
+        return maxFlushLatency;
+    }
+
+    /**
+     * Gets the number of files written since the saver has been created
+     *
+     * @return the number of written files
+     */
+    public long getWrittenFiles() {
+        return writtenFiles;
+    }
+
+    private void write(List<Write> batch, long queued) {
+        List<File> newFiles = new ArrayList<>();
+
+        List<Write> writes = new ArrayList<>(failedWrites.values());
+        failedWrites.clear();
+        writes.addAll(batch);
+
+        for (final Write write : writes) {
+            try {
+                write.perform(newFiles);
+                writtenFiles += 2;
+                failedWrites.remove(write.markupFile);
+
+                completionExecutor.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        write.page.saveCompleted(write.markupFile);
+                    }
+                });
+            } catch (IOException ex) {
+                log.error("Failed to save " + write.markupFile.getName(), ex);
+
+                failedWrites.put(write.markupFile, write);
+                lastFailure = ex;
+            }
+        }
+        queueDepth.addAndGet(-batch.size());
+
+        if (failedWrites.isEmpty()) {
+            // Every failed write has been retried successfully
+            lastFailure = null;
+        }
+
+        if (!newFiles.isEmpty()) {
+            log.info("Adding new files to repository: " + newFiles);
+            versionControl.add(newFiles.toArray(new File[0]));
+        }
+
+        lastFlushLatency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - queued);
+        maxFlushLatency = Math.max(maxFlushLatency, lastFlushLatency);
+        log.debug("Saved " + writes.size() + " page(s) in " + lastFlushLatency + " ms, " + queueDepth.get() + " write(s) pending");
+    }
+
+    /**
+     * The captured contents of a page and its metadata to be written
+     */
+    static final class Write {
+
+        private final Page page;
+        private final File markupFile;
+        private final String markup;
+        private final File metadataFile;
+        private final Map<String, String> metadata;
+
+        Write(Page page, File markupFile, String markup, File metadataFile, Map<String, String> metadata) {
+            this.page = page;
+            this.markupFile = markupFile;
+            this.markup = markup;
+            this.metadataFile = metadataFile;
+            this.metadata = metadata;
+        }
+
+        private void perform(List<File> newFiles) throws IOException {
+            boolean newMarkupFile = !markupFile.exists();
+            boolean newMetadataFile = !metadataFile.exists();
+
+            AtomicFiles.write(markupFile, markup, Charset.forName(Page.CHARSET));
+            PropertiesUtils.store(metadata, metadataFile);
+
+            if (newMarkupFile) {
+                newFiles.add(markupFile);
+            }
+            if (newMetadataFile) {
+                newFiles.add(metadataFile);
+            }
+        }
+    }
+}
@@ -15,6 +15,10 @@ public class Conditions {
         return conditions.containsAll(required);
     }
 
+    public boolean isEnabled(String condition) {
+        return conditions.contains(condition);
+    }
+
     public void enable(String condition) {
         conditions.add(condition);
     }
@@ -31,5 +35,26 @@ public class Conditions {
         conditions.clear();
     }
     
+    /**
+     * Creates an independent copy of the enabled conditions
+     * 
+     * @return a new set of conditions which is not affected by later changes
+     */
+    public Conditions copy() {
+        Conditions result = new Conditions();
+        result.conditions.addAll(conditions);
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof Conditions && conditions.equals(((Conditions) obj).conditions);
+    }
+
+    @Override
+    public int hashCode() {
+        return conditions.hashCode();
+    }
+    
     
 }
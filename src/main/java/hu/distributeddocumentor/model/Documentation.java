@@ -1,15 +1,19 @@
 package hu.distributeddocumentor.model;
 
-import com.google.common.base.Joiner;
-import com.google.common.io.Files;
 import com.google.inject.Inject;
 import hu.distributeddocumentor.gui.LongOperationRunner;
 import hu.distributeddocumentor.gui.ProgressUI;
 import hu.distributeddocumentor.gui.RunnableWithProgress;
+import hu.distributeddocumentor.model.events.DispatchPolicy;
+import hu.distributeddocumentor.model.events.DocumentationEvent;
+import hu.distributeddocumentor.model.events.EventBus;
+import hu.distributeddocumentor.model.events.EventSubscriber;
+import hu.distributeddocumentor.model.events.PageEvent;
 import hu.distributeddocumentor.model.toc.DefaultTOCNodeFactory;
 import hu.distributeddocumentor.model.toc.TOC;
 import hu.distributeddocumentor.prefs.DocumentorPreferences;
-import hu.distributeddocumentor.utils.CaseInsensitiveMap;
+import hu.distributeddocumentor.utils.CaseFoldingMap;
+import hu.distributeddocumentor.utils.PropertiesUtils;
 import hu.distributeddocumentor.utils.RepositoryUriGenerator;
 import hu.distributeddocumentor.utils.ResourceUtils;
 import hu.distributeddocumentor.vcs.VersionControl;
@@ -17,18 +21,17 @@ import java.awt.Color;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
-import java.nio.charset.Charset;
 import java.util.*;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.TransformerException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+import javax.swing.SwingUtilities;
+import javax.xml.stream.XMLStreamException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.xml.sax.SAXException;
 
 /**
  * Documentation is the root of the data model storing a documentation
@@ -39,17 +42,58 @@ import org.xml.sax.SAXException;
  * <p>
  * The documentation itself is stored in a version controlled repository, which
  * is currently fixed to Mercurial.
+ * <p>
+ * <strong>Concurrency model</strong><br />
+ * The structure of the model (the page and snippet collections, the TOC and
+ * the reference indices) is guarded by the documentation's read/write lock,
+ * returned by {@link #getLock()}. Every method modifying the structure takes
+ * the write lock, and the accessors take the read lock and return copies, so
+ * background readers (exporters, indexers, the autosaver) can use them while
+ * the user keeps editing. The documentation subscribes synchronously to the
+ * events of its pages, so the indices are updated before the modifying call
+ * returns. {@link DocumentationEvent}s are published while the write lock is
+ * held; subscribers doing expensive work should use a coalesced or
+ * background {@link DispatchPolicy}.
+ * <p>
+ * The contents of the pages and snippets are confined to the Swing event
+ * dispatch thread. Background readers must work on {@link PageSnapshot}
+ * and {@link hu.distributeddocumentor.model.toc.TOCSnapshot} instances
+ * taken on the event dispatch thread; a page snapshot captures the markup of
+ * the included snippets and the enabled conditions too, so rendering it does
+ * not touch the live snippets. Code holding the read lock must never
+ * wait for the event dispatch thread, as it may be waiting for the write
+ * lock.
  *
  * @author Daniel Vigovszky
  */
-public class Documentation extends Observable implements Observer, SnippetCollection {
+public class Documentation implements SnippetCollection {
     // TODO: separate into smaller classes
 
     private static final Logger log = LoggerFactory.getLogger(Documentation.class.getName());
+    
+    /**
+     * Milliseconds to wait after the last edit of a page before its references are extracted
+     */
+    private static final long REFERENCE_EXTRACTION_DELAY = 300;
+
+    private static final ProgressUI silentProgress = new ProgressUI() {
+        @Override
+        public void setStatus(String status) {
+        }
+
+        @Override
+        public void setProgress(double percentage) {
+        }
+
+        @Override
+        public void setIndeterminate() {
+        }
+    };
 
     private final VersionControl versionControl;    
     private File repositoryRoot;
     private final TOC toc;
+    private final PageLinkGraph linkGraph;
     private final Map<String, Page> pages;
     private final Map<String, Snippet> snippets;
     private Images images;
@@ -60,6 +104,42 @@ public class Documentation extends Observable implements Observer, SnippetCollec
     private String relativeRoot;
     private final DocumentorPreferences prefs;
     private int orphanedPageProcessingSuspended;
+    private final ReferenceExtractionScheduler refScheduler;
+    private final SnippetDependencyIndex snippetIndex = new SnippetDependencyIndex();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final EventBus<DocumentationEvent> events = new EventBus<>();
+    private final Set<Page> dirtyPages = new LinkedHashSet<>();
+    private final BackgroundSaver saver;
+    
+    private final EventSubscriber<PageEvent> pageSubscriber = new EventSubscriber<PageEvent>() {
+        @Override
+        public void onEvent(PageEvent event) {
+            pageChanged(event);
+        }
+    };
+
+    /**
+     * Gets the lock guarding the structure of the documentation model
+     * 
+     * <p>
+     * The lock is reentrant, and the write lock's owner may also take the 
+     * read lock, but the read lock cannot be upgraded.
+     *
+     * @return the documentation's read/write lock
+     */
+    public ReadWriteLock getLock() {
+        return lock;
+    }
+
+    /**
+     * Gets the bus publishing the modifications of the documentation's
+     * page and snippet collections
+     *
+     * @return the documentation's event bus
+     */
+    public EventBus<DocumentationEvent> getEvents() {
+        return events;
+    }
 
     /**
      * Gets the table of contents for this documentation
@@ -90,7 +170,12 @@ public class Documentation extends Observable implements Observer, SnippetCollec
      */
     @Override
     public Collection<Snippet> getSnippets() {
-        return snippets.values();
+        lock.readLock().lock();
+        try {
+            return Collections.unmodifiableList(new ArrayList<>(snippets.values()));
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
     /**
@@ -99,7 +184,12 @@ public class Documentation extends Observable implements Observer, SnippetCollec
      * @return title of the documentation
      */
     public String getTitle() {
-        return title;
+        lock.readLock().lock();
+        try {
+            return title;
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
     /**
@@ -108,10 +198,14 @@ public class Documentation extends Observable implements Observer, SnippetCollec
      * @param title title of the documentation
      */
     public void setTitle(String title) {
-
-        if (!title.equals(this.title)) {
-            this.title = title;
-            globalMetadataChanged = true;
+        lock.writeLock().lock();
+        try {
+            if (!title.equals(this.title)) {
+                this.title = title;
+                globalMetadataChanged = true;
+            }
+        } finally {
+            lock.writeLock().unlock();
         }
     }
     
@@ -121,7 +215,12 @@ public class Documentation extends Observable implements Observer, SnippetCollec
      * @return language of the documentation
      */
     public Language getLanguage() {
-        return language;
+        lock.readLock().lock();
+        try {
+            return language;
+        } finally {
+            lock.readLock().unlock();
+        }
     }
     
     /**
@@ -130,9 +229,14 @@ public class Documentation extends Observable implements Observer, SnippetCollec
      * @param language the new language
      */
     public void setLanguage(Language language) {
-        if (this.language != language) {
-            this.language = language;
-            globalMetadataChanged = true;
+        lock.writeLock().lock();
+        try {
+            if (this.language != language) {
+                this.language = language;
+                globalMetadataChanged = true;
+            }
+        } finally {
+            lock.writeLock().unlock();
         }
     }
 
@@ -152,10 +256,21 @@ public class Documentation extends Observable implements Observer, SnippetCollec
         this.versionControl = versionControl; 
         
         toc = new TOC(this, new DefaultTOCNodeFactory(getCustomStylesheet()));
-        pages = new CaseInsensitiveMap<>();
-        snippets = new CaseInsensitiveMap<>();
+        linkGraph = new PageLinkGraph(toc);
+        pages = new CaseFoldingMap<>();
+        snippets = new CaseFoldingMap<>();
 
         this.prefs = prefs;
+        
+        Executor swingExecutor = new Executor() {
+
+            @Override
+            public void execute(Runnable command) {
+                SwingUtilities.invokeLater(command);
+            }
+        };
+        refScheduler = new ReferenceExtractionScheduler(swingExecutor, REFERENCE_EXTRACTION_DELAY);
+        saver = new BackgroundSaver(versionControl, swingExecutor);
     }
 
     /**
@@ -170,35 +285,39 @@ public class Documentation extends Observable implements Observer, SnippetCollec
      * @throws IOException
      */
     public void initAsNew(File repositoryRoot) throws IOException {
+        lock.writeLock().lock();
+        try {
+            versionControl.create(repositoryRoot);
+            this.repositoryRoot = repositoryRoot;
+            relativeRoot = "";
 
-        versionControl.create(repositoryRoot);
-        this.repositoryRoot = repositoryRoot;
-        relativeRoot = "";
-
-        images = new Images(versionControl, relativeRoot);
+            images = new Images(versionControl, relativeRoot);
 
-        Page first = new Page("start", this, prefs.getConditions(), getCustomStylesheet());
+            Page first = new Page("start", this, prefs.getConditions(), getCustomStylesheet());
 
-        try {
-            addNewPage(first);
-        } catch (PageAlreadyExistsException ex) {
-            throw new IllegalStateException("Must be called on a fresh instance!");
-        }
+            try {
+                addNewPage(first);
+            } catch (PageAlreadyExistsException ex) {
+                throw new IllegalStateException("Must be called on a fresh instance!");
+            }
 
-        try {
-            toc.save(repositoryRoot);            
-            versionControl.add(new File(repositoryRoot, "toc.xml"));            
-        } catch (FileNotFoundException | TransformerException ex) {
-            log.error(null, ex);
+            try {
+                toc.save(repositoryRoot);            
+                versionControl.add(new File(repositoryRoot, "toc.xml"));            
+            } catch (IOException ex) {
+                log.error(null, ex);
 
-            throw new IllegalStateException("Must be called on a fresh instance!");
-        }
+                throw new IllegalStateException("Must be called on a fresh instance!");
+            }
 
-        File snippetsDir = getSnippetsDirectory();
-        if (!snippetsDir.exists()) {
-            if (!snippetsDir.mkdirs()) {
-                throw new RuntimeException("Failed to create snippets directory!");
+            File snippetsDir = getSnippetsDirectory();
+            if (!snippetsDir.exists()) {
+                if (!snippetsDir.mkdirs()) {
+                    throw new RuntimeException("Failed to create snippets directory!");
+                }
             }
+        } finally {
+            lock.writeLock().unlock();
         }
     }
 
@@ -228,11 +347,24 @@ public class Documentation extends Observable implements Observer, SnippetCollec
                 versionControl.open(realRepositoryRoot);
                 images = new Images(versionControl, relativeRoot);
 
+                ModelSnapshot snapshot = loadSnapshot();
+                if (snapshot != null) {
+                    try {
+                        progress.setStatus("Loading documentation...");
+                        loadRepository(progress, snapshot);
+                        return;
+                    } catch (FailedToLoadPageException | FailedToLoadTOCException | FailedToLoadMetadataException ex) {
+                        log.warn("Failed to restore documentation from snapshot, loading it from scratch", ex);
+
+                        clearModel();
+                    }
+                }
+
                 progress.setStatus("Fixing missing files...");
                 fixMissingFiles();
                 try {
                     progress.setStatus("Loading documentation...");
-                    loadRepository();
+                    loadRepository(progress);
                 } catch (FailedToLoadPageException | FailedToLoadTOCException | FailedToLoadMetadataException ex) {
                     throw new RuntimeException(ex);
                 }
@@ -266,7 +398,7 @@ public class Documentation extends Observable implements Observer, SnippetCollec
                 fixMissingFiles();
                 try {
                     progress.setStatus("Loading documentation...");
-                    loadRepository();
+                    loadRepository(progress);
                 } catch (FailedToLoadPageException | FailedToLoadTOCException | FailedToLoadMetadataException ex) {
                     throw new RuntimeException(ex);
                 }
@@ -282,69 +414,206 @@ public class Documentation extends Observable implements Observer, SnippetCollec
         return new File(getDocumentationDirectory(), "snippets");
     }
 
-    private void loadRepository() throws FailedToLoadPageException, FailedToLoadTOCException, FailedToLoadMetadataException {
+    private void loadRepository(ProgressUI progress) throws FailedToLoadPageException, FailedToLoadTOCException, FailedToLoadMetadataException {
+        loadRepository(progress, null);
+    }
+
+    private void loadRepository(ProgressUI progress, ModelSnapshot snapshot) throws FailedToLoadPageException, FailedToLoadTOCException, FailedToLoadMetadataException {
+        lock.writeLock().lock();
+        try {
+            FileFilter markupFilter = new FileFilter() {
+                @Override
+                public boolean accept(File file) {
+                    return file.isFile()
+                    && !"toc.xml".equals(file.getName())
+                    && isSupportedMarkup(file);
+                }
+            };
+
+            File snippetsDir = getSnippetsDirectory();
+            List<File> snippetFiles;
+            List<File> pageFiles;
+            Map<File, PageMetadata> knownSnippetMetadata = new HashMap<>();
+            Map<File, PageMetadata> knownPageMetadata = new HashMap<>();
+
+            if (snapshot != null) {
+                snippetFiles = snapshot.getSnippetFiles(snippetsDir);
+                pageFiles = snapshot.getPageFiles(getDocumentationDirectory());
+            } else {
+                if (!snippetsDir.exists()) {
+                    if (!snippetsDir.mkdirs()) {
+                        throw new RuntimeException("Failed to create snippets directory!");
+                    }
+                    snippetFiles = Collections.emptyList();
+                } else {
+                    snippetFiles = Arrays.asList(snippetsDir.listFiles(markupFilter));
+                }
 
-        File snippetsDir = getSnippetsDirectory();
-        if (!snippetsDir.exists()) {
-            if (!snippetsDir.mkdirs()) {
-                throw new RuntimeException("Failed to create snippets directory!");
+                pageFiles = Arrays.asList(getDocumentationDirectory().listFiles(markupFilter));
             }
-        } else {
-            for (File child : snippetsDir.listFiles(
-                    new FileFilter() {
-                        @Override
-                        public boolean accept(File file) {
-                            return file.isFile()
-                            && !"toc.xml".equals(file.getName())
-                            && isSupportedMarkup(file);
-                        }
-                    })) {
+
+            MetadataIndex metadataIndex = null;
+            if (prefs.isMetadataIndexEnabled()) {
+                metadataIndex = new MetadataIndex(getDocumentationDirectory(), getRepositoryMetadataFile(MetadataIndex.FILE_NAME));
+                metadataIndex.load();
+
+                knownSnippetMetadata.putAll(metadataIndex.getMetadata(snippetFiles));
+                knownPageMetadata.putAll(metadataIndex.getMetadata(pageFiles));
+            }
+            if (snapshot != null) {
+                knownSnippetMetadata.putAll(snapshot.getSnippetMetadata(snippetsDir));
+                knownPageMetadata.putAll(snapshot.getPageMetadata(getDocumentationDirectory()));
+            }
+
+            int parallelism = prefs.isParallelLoadingEnabled() ? prefs.getLoaderThreads() : 1;
+            PageRefCache refCache = new PageRefCache(getRepositoryMetadataFile(PageRefCache.FILE_NAME));
+            refCache.load();
+            if (snapshot != null) {
+                snapshot.fillRefCache(refCache);
+            }
+
+            PageLoader loader = new PageLoader(this, prefs.getConditions(), getCustomStylesheet(),
+                    refCache, prefs.isLazyPageLoadingEnabled(), parallelism, progress, snippetFiles.size() + pageFiles.size());
+
+            // Pages and snippets are loaded first and registered only after all
+            // of them have been successfully loaded
+            List<Snippet> loadedSnippets = loader.loadSnippets(snippetFiles, knownSnippetMetadata);
+            List<Page> loadedPages = loader.loadPages(pageFiles, knownPageMetadata);
+
+            for (Snippet snippet : loadedSnippets) {
+                registerSnippet(snippet);
+            }
+            for (Page page : loadedPages) {
+                registerPage(page);
+            }
+
+            Set<String> cacheKeys = new HashSet<>();
+            for (Snippet snippet : loadedSnippets) {
+                cacheKeys.add(snippet.getCacheKey());
+            }
+            for (Page page : loadedPages) {
+                cacheKeys.add(page.getCacheKey());
+            }
+            refCache.retain(cacheKeys);
+            refCache.saveIfModified();
+
+            if (metadataIndex != null) {
+                List<Page> allPages = new ArrayList<>(loadedPages);
+                allPages.addAll(loadedSnippets);
+
+                metadataIndex.update(allPages);
+                metadataIndex.saveIfModified();
+            }
+
+            progress.setStatus("Loading table of contents...");
+            progress.setIndeterminate();
+
+            try {
+                if (snapshot != null && snapshot.hasValidTOC(getTOCFile())) {
+                    toc.restore(snapshot.createTOCNodes(toc.getFactory(), this));
+                } else {
+                    toc.load(getDocumentationDirectory(), this);
+                }
+            } catch (IOException | XMLStreamException | ClassNotFoundException ex) {
+                throw new FailedToLoadTOCException(ex);
+            }
+
+            // Adding unreferenced pages to the unorganized node
+            for (Page page : pages.values()) {
+
+                if (!toc.isReferenced(page)) {
+                    toc.addUnorganized(toc.getFactory().createNode(page));
+                }
+            }
+
+            // Loading documentation propeties
+            if (snapshot != null && snapshot.hasValidProperties(getDocumentationMetadataFile())) {
+                title = snapshot.getTitle();
+                language = snapshot.getLanguage();
+            } else {
                 try {
-                    Snippet snippet = new Snippet(child, this, prefs.getConditions(), getCustomStylesheet());
-                    registerSnippet(snippet);
+                    loadProperties();
                 } catch (IOException ex) {
-                    throw new FailedToLoadPageException(child, ex);
+                    throw new FailedToLoadMetadataException(ex);
                 }
             }
+        } finally {
+            lock.writeLock().unlock();
         }
+    }
 
-        for (File child : getDocumentationDirectory().listFiles(
-                new FileFilter() {
-                    @Override
-                    public boolean accept(File file) {
-                        return file.isFile()
-                        && !"toc.xml".equals(file.getName())
-                        && isSupportedMarkup(file);
-                    }
-                })) {
+    private File getTOCFile() {
+        return new File(getDocumentationDirectory(), "toc.xml");
+    }
 
-            try {
-                Page page = new Page(child, this, prefs.getConditions(), getCustomStylesheet());
-                registerPage(page);
-            } catch (IOException ex) {
-                throw new FailedToLoadPageException(child, ex);
-            }
-        }
+    private File getSnapshotFile() {
+        return new File(new File(versionControl.getRoot(), ".hg"), ModelSnapshot.FILE_NAME);
+    }
 
-        try {
-            toc.load(getDocumentationDirectory(), this);
-        } catch (SAXException | IOException | ParserConfigurationException | ClassNotFoundException ex) {
-            throw new FailedToLoadTOCException(ex);
+    private File getRepositoryMetadataFile(String fileName) {
+        File metadataDirectory = new File(versionControl.getRoot(), ".hg");
+        if (relativeRoot.isEmpty()) {
+            return new File(metadataDirectory, fileName);
         }
+        
+        // Documentations in different subdirectories of the same repository
+        // must not share their cache files
+        return new File(metadataDirectory, fileName + "-" + PageRefCache.hash(relativeRoot.replace('\\', '/')));
+    }
+
+    private ModelSnapshot loadSnapshot() {
 
-        // Adding unreferenced pages to the unorganized node
-        for (Page page : pages.values()) {
+        if (prefs.isModelSnapshotEnabled()) {
+            ModelSnapshot snapshot = ModelSnapshot.load(getSnapshotFile());
 
-            if (!toc.isReferenced(page)) {
-                toc.addUnorganized(toc.getFactory().createNode(page));
+            if (snapshot != null
+                && snapshot.isValid(relativeRoot, versionControl.getWorkingCopyRevision(), 
+                                    getDocumentationDirectory(), getSnippetsDirectory())) {
+                log.info("Restoring documentation from snapshot");
+                return snapshot;
             }
         }
 
-        // Loading documentation propeties
+        return null;
+    }
+
+    /**
+     * Writes a snapshot of the loaded documentation model
+     *
+     * <p>
+     * The snapshot is used to open the documentation faster next time, if the
+     * repository has not been changed in the meantime. It should be called
+     * when the application is closed, after saving every modification.
+     * Unsaved changes are not included in the snapshot, the affected files 
+     * are simply read again.
+     */
+    public void saveSnapshot() {
+        lock.readLock().lock();
         try {
-            loadProperties();
-        } catch (IOException ex) {
-            throw new FailedToLoadMetadataException(ex);
+            if (repositoryRoot != null && prefs.isModelSnapshotEnabled()) {
+
+                ModelSnapshot snapshot = new ModelSnapshot(relativeRoot, versionControl.getWorkingCopyRevision(),
+                        getDocumentationDirectory(), getSnippetsDirectory());
+
+                if (!globalMetadataChanged) {
+                    snapshot.setProperties(getDocumentationMetadataFile(), title, language);
+                }
+
+                for (Snippet snippet : snippets.values()) {
+                    snapshot.addSnippet(snippet);
+                }
+                for (Page page : pages.values()) {
+                    snapshot.addPage(page);
+                }
+
+                if (!toc.isModified()) {
+                    snapshot.setTOC(getTOCFile(), toc);
+                }
+
+                snapshot.save(getSnapshotFile());
+            }
+        } finally {
+            lock.readLock().unlock();
         }
     }
 
@@ -359,12 +628,30 @@ public class Documentation extends Observable implements Observer, SnippetCollec
      * @throws hu.distributeddocumentor.model.FailedToLoadMetadataException
      */
     public void reload() throws FailedToLoadPageException, FailedToLoadTOCException, FailedToLoadMetadataException {
+        lock.writeLock().lock();
+        try {
+            flushPendingWrites();
+            clearModel();
+            images.reload();
 
-        toc.clear();
-        pages.clear();
-        images.reload();
-
-        loadRepository();
+            loadRepository(silentProgress);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    private void clearModel() {
+        lock.writeLock().lock();
+        try {
+            toc.clear();
+            pages.clear();
+            linkGraph.clear();
+            snippets.clear();
+            snippetIndex.clear();
+            dirtyPages.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     private boolean isSupportedMarkup(File file) {
@@ -381,37 +668,46 @@ public class Documentation extends Observable implements Observer, SnippetCollec
      * @see Page
      */
     public void addNewPage(Page page) throws PageAlreadyExistsException, IOException {
+        lock.writeLock().lock();
+        try {
+            String id = page.getId();
+            if (!pages.containsKey(id)) {
+                registerPage(page);
+            } else {
+                throw new PageAlreadyExistsException();
+            }
 
-        String id = page.getId();
-        if (!pages.containsKey(id)) {
-            registerPage(page);
-        } else {
-            throw new PageAlreadyExistsException();
-        }
+            if (!toc.isPageReferenced(id)) {
+                toc.addToEnd(toc.getUnorganized(), toc.getFactory().createNode(page));
+            }
 
-        if (!toc.getReferencedPages().contains(id)) {
-            toc.addToEnd(toc.getUnorganized(), toc.getFactory().createNode(page));
-        }
+            File[] pageFiles = page.save(getDocumentationDirectory());
 
-        File[] pageFiles = page.save(getDocumentationDirectory());
+            for (File pageFile : pageFiles) {
+                log.info("Adding new file to repository: " + pageFile.getName());
+            }
 
-        for (File pageFile : pageFiles) {
-            log.info("Adding new file to repository: " + pageFile.getName());
+            versionControl.add(pageFiles);
+        } finally {
+            lock.writeLock().unlock();
         }
-
-        versionControl.add(pageFiles);        
     }
 
     private void registerPage(Page page) {
         pages.put(page.getId(), page);
+        page.setReferenceExtractionScheduler(refScheduler);
+        snippetIndex.updatePage(page);
+        linkGraph.updatePage(page);
 
-        page.addObserver(this);
+        page.getEvents().subscribe(pageSubscriber, DispatchPolicy.SYNCHRONOUS);
     }
 
     private void registerSnippet(Snippet snippet) {
         snippets.put(snippet.getId(), snippet);
+        snippet.setReferenceExtractionScheduler(refScheduler);
+        snippetIndex.updateSnippet(snippet);
 
-        snippet.addObserver(this);
+        snippet.getEvents().subscribe(pageSubscriber, DispatchPolicy.SYNCHRONOUS);
     }
 
     /**
@@ -420,7 +716,12 @@ public class Documentation extends Observable implements Observer, SnippetCollec
      * @return the collection of pages
      */
     public Collection<Page> getPages() {
-        return pages.values();
+        lock.readLock().lock();
+        try {
+            return Collections.unmodifiableList(new ArrayList<>(pages.values()));
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
     /**
@@ -431,7 +732,12 @@ public class Documentation extends Observable implements Observer, SnippetCollec
      * @see Page
      */
     public Page getPage(String id) {
-        return pages.get(id);
+        lock.readLock().lock();
+        try {
+            return pages.get(id);
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
     /**
@@ -448,37 +754,76 @@ public class Documentation extends Observable implements Observer, SnippetCollec
      *
      * <p>
      * This method only modifies the tracked files, but does not invoke commit
-     * on the repository!
+     * on the repository! It returns when every file has been written.
      *
      * @throws CouldNotSaveDocumentationException
      */
     public void saveAll() throws CouldNotSaveDocumentationException {
-
-        File root = getDocumentationDirectory();
-
+        scheduleSave();
+        
         try {
-            for (Page page : pages.values()) {
-                if (page.saveIfModified(root)) {
-                    ensurePageFilesAdded(page, getDocumentationDirectory());
-                }
-            }
+            saver.flush();
+        } catch (IOException ex) {
+            throw new CouldNotSaveDocumentationException(ex);
+        }
+    }
 
+    /**
+     * Saves the modified pages and snippets in the background, and the TOC
+     *
+     * <p>
+     * Only the pages and snippets which have been modified since the previous
+     * save are visited. Their contents are captured on the calling thread and
+     * written by the documentation's {@link BackgroundSaver}.
+     *
+     * @throws CouldNotSaveDocumentationException
+     */
+    public void scheduleSave() throws CouldNotSaveDocumentationException {
+        lock.writeLock().lock();
+        try {
+            File root = getDocumentationDirectory();
             File snippetsDir = getSnippetsDirectory();
-            for (Snippet snippet : snippets.values()) {
-                if (snippet.saveIfModified(snippetsDir)) {
-                    ensurePageFilesAdded(snippet, getSnippetsDirectory());
+            
+            List<BackgroundSaver.Write> batch = new ArrayList<>();
+            for (Page page : dirtyPages) {
+                BackgroundSaver.Write write = page.prepareSave(page instanceof Snippet ? snippetsDir : root);
+                if (write != null) {
+                    batch.add(write);
                 }
             }
+            dirtyPages.clear();
+            saver.queue(batch);
 
-            toc.saveIfModified(root);
+            try {
+                toc.saveIfModified(root);
 
-            if (globalMetadataChanged) {
-                saveProperties();
-            }
-        } catch (IOException | TransformerException ex) {
-            log.error(null, ex);
+                if (globalMetadataChanged) {
+                    saveProperties();
+                }
+            } catch (IOException ex) {
+                log.error(null, ex);
 
-            throw new CouldNotSaveDocumentationException(ex);
+                throw new CouldNotSaveDocumentationException(ex);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Gets the saver writing the modified pages in the background
+     * 
+     * @return the saver, which can be queried for its queue depth and latency
+     */
+    public BackgroundSaver getSaver() {
+        return saver;
+    }
+    
+    private void flushPendingWrites() {
+        try {
+            saver.flush();
+        } catch (IOException ex) {
+            log.error("Failed to save pending changes", ex);
         }
     }
 
@@ -492,25 +837,16 @@ public class Documentation extends Observable implements Observer, SnippetCollec
 
         boolean alreadyExisted = metadataFile.exists();
 
-        Properties metadata = new Properties();
+        Map<String, String> metadata = new HashMap<>();
         metadata.put("title", title);
         metadata.put("language", language.name());
 
-        try (OutputStream out = new FileOutputStream(metadataFile)) {
-            metadata.store(out, "Global documentation properties");
-        }
+        PropertiesUtils.store(metadata, metadataFile);
 
         if (!alreadyExisted) {
             versionControl.add(metadataFile);            
         }
 
-        // Removing comments to avoid merging conflicts                     
-        // TODO: merge with PageMetadata's similar code
-        final List<String> lines = Files.readLines(metadataFile, Charset.defaultCharset());
-        lines.remove(0);
-        lines.remove(0);
-        Files.write(Joiner.on('\n').join(lines), metadataFile, Charset.defaultCharset());
-
         globalMetadataChanged = false;
     }
 
@@ -572,47 +908,62 @@ public class Documentation extends Observable implements Observer, SnippetCollec
         return getDocumentationDirectory().getAbsolutePath();
     }
 
-    @Override
-    public void update(Observable o, Object o1) {
-
-        if (o instanceof Snippet) {
-
-            Snippet snippet = (Snippet) o;
+    private void pageChanged(PageEvent event) {
+        lock.writeLock().lock();
+        try {
+            if (event.getType() == PageEvent.Type.STYLESHEET_CHANGED) {
+                return;
+            }
+            if (event.getType() != PageEvent.Type.REFERENCES_UPDATED) {
+                dirtyPages.add(event.getPage());
+            }
+            if (event.getType() == PageEvent.Type.METADATA_CHANGED) {
+                return;
+            }
+            
+            if (event.getPage() instanceof Snippet) {
 
-            for (Page page : pages.values()) {
+                Snippet snippet = (Snippet) event.getPage();
+                snippetIndex.updateSnippet(snippet);
 
-                if (page.referencesSnippet(snippet)) {
-                    page.refresh();
+                if (event.getType() != PageEvent.Type.REFERENCES_UPDATED) {
+                    for (Page page : getPagesUsingSnippet(snippet.getId())) {
+                        page.refresh();
+                    }
                 }
-            }
-        } else if (o instanceof Page) {
+            } else {
 
-            Page page = (Page) o;
+                Page page = event.getPage();
+                snippetIndex.updatePage(page);
+                linkGraph.updatePage(page);
 
-            for (String pageId : page.getReferencedPages()) {
+                for (String pageId : page.getReferencedPages()) {
 
-                if (!pages.containsKey(pageId)) {
+                    if (!pages.containsKey(pageId)) {
 
-                    Page newPage = new Page(pageId, this, prefs.getConditions(), getCustomStylesheet());
+                        Page newPage = new Page(pageId, this, prefs.getConditions(), getCustomStylesheet());
 
-                    try {
-                        addNewPage(newPage);
-                    } catch (IOException | PageAlreadyExistsException ex) {
-                        log.error(null, ex);
-                    }
-                } else {
+                        try {
+                            addNewPage(newPage);
+                        } catch (IOException | PageAlreadyExistsException ex) {
+                            log.error(null, ex);
+                        }
+                    } else {
 
-                    Page existingPage = pages.get(pageId);
-                    if (toc.isInRecycleBin(existingPage)) {
+                        Page existingPage = pages.get(pageId);
+                        if (toc.isInRecycleBin(existingPage)) {
 
-                        // If a reference has been created to a page which is in the 
-                        // recycle bin, we move it to the unorganized pages node
-                        toc.removeFromRecycleBin(existingPage);
-                        toc.addToEnd(toc.getUnorganized(), toc.getFactory().createNode(existingPage));
+                            // If a reference has been created to a page which is in the 
+                            // recycle bin, we move it to the unorganized pages node
+                            toc.removeFromRecycleBin(existingPage);
+                            toc.addToEnd(toc.getUnorganized(), toc.getFactory().createNode(existingPage));
 
+                        }
                     }
                 }
             }
+        } finally {
+            lock.writeLock().unlock();
         }
     }
 
@@ -625,66 +976,89 @@ public class Documentation extends Observable implements Observer, SnippetCollec
     }
 
     /**
-     * Looks for orphaned pages and moves them to the recycle bin node in the
-     * TOC. Pages which has not been changed from the original template are
-     * immediately deleted and removed from the repository.
+     * Moves the orphaned pages to the recycle bin node in the TOC. Pages which
+     * has not been changed from the original template are immediately deleted 
+     * and removed from the repository.
+     * 
+     * <p>
+     * Only the pages which have lost their last reference since the previous
+     * call are examined.
+     * 
+     * @see PageLinkGraph
      */
     public void processOrphanedPages() {
+        lock.writeLock().lock();
+        try {
+            if (orphanedPageProcessingSuspended == 0 && !refScheduler.hasPendingExtractions()) {
 
-        if (orphanedPageProcessingSuspended == 0) {
-            log.info("Processing orphaned pages...");
-
-            // Collect all references
-            Set<String> referencedPages = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
-
-            // 'start' is always referenced
-            referencedPages.add("start");
+                Set<String> candidates = linkGraph.takeOrphanCandidates();
+                if (candidates.isEmpty()) {
+                    return;
+                }
 
-            // collecting pages which are referenced from other pages
-            for (Page page : pages.values()) {
-                referencedPages.addAll(page.getReferencedPages());
-            }
+                log.info("Processing orphaned pages...");
 
-        // collecting pages which are referenced in the TOC (except in the
-            // unorganized pages or recycle bin nodes)
-            referencedPages.addAll(toc.getReferencedPages());
+                for (String pageId : candidates) {
 
-            // Collect the pages which are NOT referenced
-            Set<String> orphanedPages = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
-            orphanedPages.addAll(pages.keySet());
-            orphanedPages.removeAll(referencedPages);
+                    Page page = pages.get(pageId);
+                    if (page == null || linkGraph.isReferenced(pageId)) {
+                        continue;
+                    }
 
-            for (String pageId : orphanedPages) {
+                    log.info("Found orphaned page: " + page.getId());
 
-                log.info("Found orphaned page: " + pageId);
+                    // If the page does not equals the default template
+                    if (!page.equalsTemplate()) {
+                    // ..then we don't delete it, but put into the recycle bin
+                        // node instead of the unorganized pages node
 
-                Page page = pages.get(pageId);
+                        // Checking if it is already in the recycle bin
+                        if (!toc.isInRecycleBin(page)) {
 
-                // If the page does not equals the default template
-                if (!page.equalsTemplate()) {
-                // ..then we don't delete it, but put into the recycle bin
-                    // node instead of the unorganized pages node
+                            // ..if not, we remove it from wherever it is and put it there
+                            log.info(" -> putting it to recycle bin");
 
-                    // Checking if it is already in the recycle bin
-                    if (!toc.isInRecycleBin(page)) {
+                            toc.remove(page);
+                            toc.addToEnd(toc.getRecycleBin(), toc.getFactory().createNode(page));
+                        }
+                    } else {
 
-                        // ..if not, we remove it from wherever it is and put it there
-                        log.info(" -> putting it to recycle bin");
+                        log.info(" -> was not modified, removing it");
 
-                        toc.remove(page);
-                        toc.addToEnd(toc.getRecycleBin(), toc.getFactory().createNode(page));
+                    // ..otherwise we don't keep reference to it in the TOC and
+                        // delete it from the repository as well                  
+                        deletePage(page);
                     }
-                } else {
+                }
 
-                    log.info(" -> was not modified, removing it");
+                log.info("Finished processing orphaned pages.");
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
 
-                // ..otherwise we don't keep reference to it in the TOC and
-                    // delete it from the repository as well                  
-                    deletePage(page);
+    /**
+     * Gets the pages which link to a given page
+     * 
+     * @param pageId the referenced page's identifier
+     * @return the pages having a link to the given page
+     */
+    public List<Page> getPagesLinkingTo(String pageId) {
+        lock.readLock().lock();
+        try {
+            List<Page> result = new ArrayList<>();
+
+            for (String sourceId : linkGraph.getLinksTo(pageId)) {
+                Page page = pages.get(sourceId);
+                if (page != null) {
+                    result.add(page);
                 }
             }
 
-            log.info("Finished processing orphaned pages.");
+            return result;
+        } finally {
+            lock.readLock().unlock();
         }
     }
 
@@ -721,7 +1095,12 @@ public class Documentation extends Observable implements Observer, SnippetCollec
      */
     @Override
     public Snippet getSnippet(String id) {
-        return snippets.get(id);
+        lock.readLock().lock();
+        try {
+            return snippets.get(id);
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
     /**
@@ -734,24 +1113,27 @@ public class Documentation extends Observable implements Observer, SnippetCollec
      */
     @Override
     public void addSnippet(Snippet snippet) throws IOException, PageAlreadyExistsException {
+        lock.writeLock().lock();
+        try {
+            String id = snippet.getId();
+            if (!snippets.containsKey(id)) {
+                registerSnippet(snippet);
+            } else {
+                throw new PageAlreadyExistsException();
+            }
 
-        String id = snippet.getId();
-        if (!snippets.containsKey(id)) {
-            registerSnippet(snippet);
-        } else {
-            throw new PageAlreadyExistsException();
-        }
-
-        File[] snippetFiles = snippet.save(getSnippetsDirectory());
+            File[] snippetFiles = snippet.save(getSnippetsDirectory());
 
-        for (File snippetFile : snippetFiles) {
-            log.info("Adding new snippet to repository: " + snippetFile.getName());
-        }
+            for (File snippetFile : snippetFiles) {
+                log.info("Adding new snippet to repository: " + snippetFile.getName());
+            }
 
-        versionControl.add(snippetFiles);        
+            versionControl.add(snippetFiles);        
 
-        setChanged();
-        notifyObservers();
+            events.publish(new DocumentationEvent(this, DocumentationEvent.Type.SNIPPET_ADDED));
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     /**
@@ -761,36 +1143,73 @@ public class Documentation extends Observable implements Observer, SnippetCollec
      */
     @Override
     public void removeSnippet(String id) {
+        lock.writeLock().lock();
+        try {
+            log.info("Removing snippet " + id + " from repository");
+            flushPendingWrites();
+
+            Snippet snippet = snippets.get(id);
+            snippets.remove(id);
+            snippetIndex.removeSnippet(id);
+            snippet.getEvents().unsubscribe(pageSubscriber);
+            dirtyPages.remove(snippet);
+
+            snippet.pinSnapshot();
+            File[] files = snippet.getFiles(getSnippetsDirectory());
+            versionControl.remove(files, true, false);
+
+            for (File f : files) {
+                if (!f.delete()) {
+                    log.error("Failed to delete snippet file " + f.getName());
+                }
+            }
 
-        log.info("Removing snippet " + id + " from repository");
-
-        Snippet snippet = snippets.get(id);
-        snippets.remove(id);
-        
-        File[] files = snippet.getFiles(getSnippetsDirectory());
-        versionControl.remove(files, true, false);
+            events.publish(new DocumentationEvent(this, DocumentationEvent.Type.SNIPPET_REMOVED));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Gets the pages including a snippet, directly or through other snippets
+     * 
+     * @param snippetId the snippet's identifier
+     * @return the pages depending on the snippet
+     */
+    public List<Page> getPagesUsingSnippet(String snippetId) {
+        lock.readLock().lock();
+        try {
+            List<Page> result = new ArrayList<>();
 
-        for (File f : files) {
-            if (!f.delete()) {
-                log.error("Failed to delete snippet file " + f.getName());
+            for (String pageId : snippetIndex.getPagesIncluding(snippetId)) {
+                Page page = pages.get(pageId);
+                if (page != null) {
+                    result.add(page);
+                }
             }
-        }
 
-        setChanged();
-        notifyObservers();
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
     }
     
     public Set<String> findAllUsedConditionals() {
-        Set<String> result = new HashSet<>();
-        
-        for (Page page : pages.values()) {
-            result.addAll(page.findUsedConditionals());
-        }
-        for (Snippet snippet : snippets.values()) {
-            result.addAll(snippet.findUsedConditionals());
+        lock.readLock().lock();
+        try {
+            Set<String> result = new HashSet<>();
+
+            for (Page page : pages.values()) {
+                result.addAll(page.findUsedConditionals());
+            }
+            for (Snippet snippet : snippets.values()) {
+                result.addAll(snippet.findUsedConditionals());
+            }
+
+            return result;
+        } finally {
+            lock.readLock().unlock();
         }
-        
-        return result;
     }
 
     private void fixMissingFiles() {
@@ -863,42 +1282,99 @@ public class Documentation extends Observable implements Observer, SnippetCollec
      * Changes the given page's identifier and modifies every other page that
      * refers to it.
      *
+     * <p>
+     * Only the pages linking to the renamed page are modified, and the page
+     * keeps its state, so the open editors remain valid.
+     *
      * @param page Page to be changed
      * @param newId New identifier of the page
      * @throws hu.distributeddocumentor.model.CouldNotSaveDocumentationException
-     * @throws hu.distributeddocumentor.model.FailedToLoadPageException
-     * @throws hu.distributeddocumentor.model.FailedToLoadTOCException
-     * @throws hu.distributeddocumentor.model.FailedToLoadMetadataException
      */
-    public void renamePage(Page page, String newId) throws CouldNotSaveDocumentationException, FailedToLoadPageException, FailedToLoadTOCException, FailedToLoadMetadataException {
-
+    public void renamePage(Page page, String newId) throws CouldNotSaveDocumentationException {
+        lock.writeLock().lock();
         try {
-            if (!page.getId().equals(newId)) {
+            String oldId = page.getId();
+            if (oldId.equals(newId)) {
+                return;
+            }
+            
+            flushPendingWrites();
+
+            File root = getDocumentationDirectory();
+
+            try {
+                Page existing = pages.get(newId);
+                if (existing != null && existing != page) {
+                    throw new IOException("Page " + newId + " already exists");
+                }
 
-                // Modify related pages
+                // The page's files must exist and be tracked to be renamed
+                if (page.saveIfModified(root)) {
+                    ensurePageFilesAdded(page, root);
+                }
+
+                // Modify related pages. Pages with pending reference extraction
+                // may refer to the page without being in the link graph yet.
+                Set<Page> referringPages = new LinkedHashSet<>(getPagesLinkingTo(oldId));
                 for (Page otherPage : pages.values()) {
-                    if (otherPage != page) {
-                        otherPage.modifyPageReferences(page.getId(), newId);
+                    if (otherPage.hasPendingReferences()) {
+                        referringPages.add(otherPage);
                     }
                 }
+                referringPages.remove(page);
 
-                saveAll();
+                // Rename the page. The referring pages are only modified
+                // once the files have been renamed, so a failed rename 
+                // leaves every page unchanged.
+                page.pinSnapshot();
+                File[] sources = page.getFiles(root);
+                page.changeId(root, newId);
+                File[] targets = page.getFiles(root);
 
-                // Rename the page            
-                for (File pageFile : page.getFiles(getDocumentationDirectory())) {
-                                        
-                    versionControl.rename(pageFile, new File(pageFile.toString().replace(page.getId(), newId)), true);                   
+                int renamed = 0;
+                try {
+                    for (; renamed < sources.length; renamed++) {
+                        versionControl.rename(sources[renamed], targets[renamed], true);
+                    }
+                } catch (RuntimeException ex) {
+                    for (int i = 0; i < renamed; i++) {
+                        versionControl.rename(targets[i], sources[i], true);
+                    }
+                    page.changeId(root, oldId);
+                    throw new IOException("Failed to rename page " + oldId, ex);
                 }
 
-                page.reload(getDocumentationDirectory(), newId);
-                toc.save(getDocumentationDirectory());
+                Pattern referencePattern = Page.createReferencePattern(oldId);
+                List<Page> modifiedPages = new ArrayList<>();
+                for (Page otherPage : referringPages) {
+                    if (otherPage.modifyPageReferences(referencePattern, newId)) {
+                        modifiedPages.add(otherPage);
+                    }
+                }
 
-                reload();
-            }
-        } catch (IOException | TransformerException ex) {
-            log.error(null, ex);
+                pages.remove(oldId);
+                pages.put(newId, page);
+                snippetIndex.removePage(oldId);
+                snippetIndex.updatePage(page);
+                linkGraph.renamePage(oldId, newId);
 
-            throw new CouldNotSaveDocumentationException(ex);
+                for (Page modifiedPage : modifiedPages) {
+                    if (modifiedPage.saveIfModified(root)) {
+                        ensurePageFilesAdded(modifiedPage, root);
+                    }
+                }
+
+                toc.onPageRenamed();
+                toc.save(root);
+
+                events.publish(new DocumentationEvent(this, DocumentationEvent.Type.PAGE_RENAMED));
+            } catch (IOException ex) {
+                log.error(null, ex);
+
+                throw new CouldNotSaveDocumentationException(ex);
+            }
+        } finally {
+            lock.writeLock().unlock();
         }
     }
 
@@ -911,18 +1387,30 @@ public class Documentation extends Observable implements Observer, SnippetCollec
      * @param page Page to be deleted
      */
     public void deletePage(Page page) {
-        toc.remove(page);
-        pages.remove(page.getId());
-        
-        File[] files = page.getFiles(getDocumentationDirectory());
-        
-        versionControl.remove(files, true, false);
-
-        for (File f : files) {
-            boolean deleteSucceeded = f.delete();
-            if (!deleteSucceeded) {
-                log.error("Failed to delete file " + f.getName());
+        lock.writeLock().lock();
+        try {
+            flushPendingWrites();
+            
+            toc.remove(page);
+            pages.remove(page.getId());
+            snippetIndex.removePage(page.getId());
+            linkGraph.removePage(page.getId());
+            page.getEvents().unsubscribe(pageSubscriber);
+            dirtyPages.remove(page);
+
+            page.pinSnapshot();
+            File[] files = page.getFiles(getDocumentationDirectory());
+
+            versionControl.remove(files, true, false);
+
+            for (File f : files) {
+                boolean deleteSucceeded = f.delete();
+                if (!deleteSucceeded) {
+                    log.error("Failed to delete file " + f.getName());
+                }
             }
+        } finally {
+            lock.writeLock().unlock();
         }
     }
     
@@ -934,9 +1422,28 @@ public class Documentation extends Observable implements Observer, SnippetCollec
         }
     }
     
-    public void markCustomStylesheetDirty() throws FailedToLoadPageException, FailedToLoadTOCException, FailedToLoadMetadataException {
+    /**
+     * Indicates that the custom stylesheet has been modified
+     * 
+     * <p>
+     * The stylesheet is added to the version control system, and every page
+     * is notified to refresh its views with the new stylesheet.
+     */
+    public void markCustomStylesheetDirty() {
         versionControl.add(getCustomStylesheet());
-        notifyObservers();
-        reload();
+        StylesheetProvider.forFile(getCustomStylesheet()).invalidate();
+        
+        List<Page> affectedPages = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            affectedPages.addAll(pages.values());
+            affectedPages.addAll(snippets.values());
+        } finally {
+            lock.readLock().unlock();
+        }
+        
+        for (Page page : affectedPages) {
+            page.stylesheetChanged();
+        }
     }
 }
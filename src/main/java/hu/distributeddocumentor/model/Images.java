@@ -1,28 +1,31 @@
 package hu.distributeddocumentor.model;
 
 import com.google.common.io.Files;
+import hu.distributeddocumentor.model.events.EventBus;
+import hu.distributeddocumentor.model.events.ImagesEvent;
 import hu.distributeddocumentor.vcs.VersionControl;
 import java.io.File;
 import java.io.IOException;
 import java.util.HashSet;
-import java.util.Observable;
 import java.util.Set;
 
 /**
- * The observable collection of images belonging to the documentation
+ * The collection of images belonging to the documentation
  * 
  * <p>
  * The images can be referenced from any page or snippet. They are currently 
  * represented by a flat list, and stored in the media subdirectory
- * of the documentation's root.
+ * of the documentation's root. Modifications are published as
+ * {@link ImagesEvent}s.
  * 
  * @author Daniel Vigovszky
  */
-public class Images extends Observable {
+public class Images {
     
     private final VersionControl versionControl;
     private final File mediaDir;
     private final Set<String> images;
+    private final EventBus<ImagesEvent> events = new EventBus<>();
 
     /**
      * Initializes the image collection
@@ -47,6 +50,15 @@ public class Images extends Observable {
         }                
     }
     
+    /**
+     * Gets the bus publishing the modifications of the collection
+     * 
+     * @return the collection's event bus
+     */
+    public EventBus<ImagesEvent> getEvents() {
+        return events;
+    }
+    
     /**
      * Reloads the images from the repository.
      * 
@@ -57,8 +69,7 @@ public class Images extends Observable {
         images.clear();
         collectImages();
         
-        setChanged();
-        notifyObservers();
+        events.publish(new ImagesEvent(this));
     }
     
     /**
@@ -88,8 +99,7 @@ public class Images extends Observable {
         
         images.add(name);
         
-        setChanged();
-        notifyObservers();
+        events.publish(new ImagesEvent(this));
     }
     
     /**
@@ -105,8 +115,7 @@ public class Images extends Observable {
                
         images.remove(name);
         
-        setChanged();
-        notifyObservers();
+        events.publish(new ImagesEvent(this));
     }
     
     /**
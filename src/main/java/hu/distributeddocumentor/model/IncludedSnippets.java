@@ -0,0 +1,85 @@
+package hu.distributeddocumentor.model;
+
+import java.util.*;
+
+/**
+ * The markup and versions of the snippets included by a page, captured at a
+ * given moment
+ *
+ * <p>
+ * The snippets are captured on the Swing event dispatch thread, so the
+ * page can be preprocessed and rendered on a background thread without
+ * touching the live snippets. Capturing is cheap, only the references to the
+ * snippets' immutable markup strings are copied.
+ *
+ * @author Daniel Vigovszky
+ * @see MarkupPreprocessor
+ * @see PageSnapshot
+ */
+final class IncludedSnippets {
+
+    private final Map<String, String> markup;
+    private final Map<String, Long> versions;
+
+    private IncludedSnippets(Map<String, String> markup, Map<String, Long> versions) {
+        this.markup = markup;
+        this.versions = versions;
+    }
+
+    /**
+     * Captures the directly and indirectly included snippets
+     *
+     * <p>
+     * Must be called on the thread the snippets are modified on.
+     *
+     * @param snippets the snippet collection, can be null
+     * @param directRefs identifiers of the snippets included directly
+     * @return the captured snippets
+     */
+    static IncludedSnippets capture(SnippetCollection snippets, Set<String> directRefs) {
+        Map<String, String> markup = new HashMap<>();
+        Map<String, Long> versions = new HashMap<>();
+        Deque<Set<String>> pending = new ArrayDeque<>();
+        pending.add(directRefs);
+
+        while (!pending.isEmpty()) {
+            Set<String> current = pending.remove();
+
+            for (String snippetId : current) {
+                if (!versions.containsKey(snippetId)) {
+                    Snippet snippet = snippets != null ? snippets.getSnippet(snippetId) : null;
+                    if (snippet != null) {
+                        markup.put(snippetId, snippet.getMarkup());
+                        versions.put(snippetId, snippet.getVersion());
+                        pending.add(snippet.getDirectSnippetRefs());
+                    } else {
+                        versions.put(snippetId, -1L);
+                    }
+                }
+            }
+        }
+
+        return new IncludedSnippets(markup, Collections.unmodifiableMap(versions));
+    }
+
+    /**
+     * Gets the captured markup of a snippet
+     *
+     * @param snippetId identifier of the snippet
+     * @return the snippet's markup, or null if it does not exist or was not
+     *         included
+     */
+    String getMarkup(String snippetId) {
+        return markup.get(snippetId);
+    }
+
+    /**
+     * Gets the versions of the captured snippets
+     *
+     * @return the snippet versions by identifier, -1 for the snippets which
+     *         do not exist
+     */
+    Map<String, Long> getVersions() {
+        return versions;
+    }
+}
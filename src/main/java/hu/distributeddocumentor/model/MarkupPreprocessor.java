@@ -0,0 +1,235 @@
+package hu.distributeddocumentor.model;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Expands the snippet references and applies the conditional blocks of a
+ * page's markup
+ *
+ * <p>
+ * The markup is scanned line by line only once. A <code>[Snippet:id]</code>
+ * line is replaced by the snippet's markup, which is expanded recursively;
+ * every snippet is expanded only once per run. References to non-existing
+ * snippets and recursive references of a snippet to itself are removed.
+ * <p>
+ * The lines between a <code>[When:condition]</code> and its <code>[End]</code>
+ * line are only kept if the condition is enabled. Conditional blocks may span
+ * snippet boundaries, exactly as if the snippets' markup were pasted into the
+ * page.
+ * <p>
+ * A preprocessor instance is not thread safe and should be used for only one
+ * page at a time. A preprocessor created from {@link IncludedSnippets} and a
+ * copy of the conditions does not touch the live snippets, so it can be used
+ * on a background thread.
+ *
+ * @author Daniel Vigovszky
+ * @see Page
+ * @see Conditions
+ */
+class MarkupPreprocessor {
+
+    private static final Logger log = LoggerFactory.getLogger(MarkupPreprocessor.class.getName());
+
+    static final Pattern SNIPPET_PATTERN = Pattern.compile("\\[Snippet\\:(\\w+)\\]");
+    static final Pattern CONDITIONAL_START_PATTERN = Pattern.compile("\\[When\\:(\\w+)\\]");
+    static final Pattern CONDITIONAL_END_PATTERN = Pattern.compile("\\[End\\]");
+
+    private final SnippetCollection snippets;
+    private final IncludedSnippets includedSnippets;
+    private final Conditions conditions;
+
+    private final Set<String> snippetRefs = new HashSet<>();
+    private final Map<String, List<String>> expandedSnippets = new HashMap<>();
+    private final Set<String> expanding = new HashSet<>();
+
+    private final Deque<Boolean> conditionalStack = new ArrayDeque<>();
+    private int disabledCount;
+    private int pendingEmptyLines;
+    private boolean isFirstLine;
+    private StringBuilder output;
+
+    /**
+     * Creates the preprocessor
+     *
+     * @param snippets the snippets which can be included, can be null
+     * @param conditions the enabled conditions
+     */
+    public MarkupPreprocessor(SnippetCollection snippets, Conditions conditions) {
+        this.snippets = snippets;
+        this.includedSnippets = null;
+        this.conditions = conditions;
+    }
+
+    /**
+     * Creates a preprocessor using captured snippets
+     *
+     * @param includedSnippets the snippets captured together with the markup
+     * @param conditions the enabled conditions
+     */
+    MarkupPreprocessor(IncludedSnippets includedSnippets, Conditions conditions) {
+        this.snippets = null;
+        this.includedSnippets = includedSnippets;
+        this.conditions = conditions;
+    }
+
+    /**
+     * Preprocesses a page's markup
+     *
+     * @param markup the page's markup
+     * @return the markup with the snippets expanded and the disabled conditional blocks removed
+     */
+    public String process(String markup) {
+
+        snippetRefs.clear();
+        expandedSnippets.clear();
+        conditionalStack.clear();
+        disabledCount = 0;
+        pendingEmptyLines = 0;
+        isFirstLine = true;
+        output = new StringBuilder(markup.length() + 256);
+
+        int start = 0;
+        int end;
+        do {
+            end = markup.indexOf('\n', start);
+            String line = end >= 0 ? markup.substring(start, end) : markup.substring(start);
+
+            String snippetId = getSnippetId(line);
+            if (snippetId != null) {
+                for (String snippetLine : expand(snippetId)) {
+                    emit(snippetLine);
+                }
+            } else {
+                emit(line);
+            }
+
+            start = end + 1;
+        } while (end >= 0);
+
+        String result = output.toString();
+        output = null;
+        return result;
+    }
+
+    /**
+     * Gets the snippets referenced during the last run
+     *
+     * @return identifiers of every directly or indirectly referenced snippet
+     */
+    public Set<String> getSnippetRefs() {
+        return Collections.unmodifiableSet(snippetRefs);
+    }
+
+    private String getSnippetId(String line) {
+        if (line.startsWith("[Snippet:")) {
+            Matcher snippetMatcher = SNIPPET_PATTERN.matcher(line);
+            if (snippetMatcher.matches()) {
+                String snippetId = snippetMatcher.group(1);
+                snippetRefs.add(snippetId);
+                return snippetId;
+            }
+        }
+        return null;
+    }
+
+    private List<String> expand(String snippetId) {
+        List<String> result = expandedSnippets.get(snippetId);
+        if (result != null) {
+            return result;
+        }
+
+        String markup = getSnippetMarkup(snippetId);
+        if (markup == null) {
+            return Collections.emptyList();
+        }
+
+        if (!expanding.add(snippetId)) {
+            log.warn("Snippet " + snippetId + " includes itself");
+            return Collections.emptyList();
+        }
+
+        try {
+            result = new ArrayList<>();
+
+            int start = 0;
+            int end;
+            do {
+                end = markup.indexOf('\n', start);
+                String line = end >= 0 ? markup.substring(start, end) : markup.substring(start);
+
+                String innerId = getSnippetId(line);
+                if (innerId != null) {
+                    result.addAll(expand(innerId));
+                } else {
+                    result.add(line);
+                }
+
+                start = end + 1;
+            } while (end >= 0);
+
+            expandedSnippets.put(snippetId, result);
+            return result;
+        } finally {
+            expanding.remove(snippetId);
+        }
+    }
+
+    private String getSnippetMarkup(String snippetId) {
+        if (includedSnippets != null) {
+            return includedSnippets.getMarkup(snippetId);
+        }
+
+        Snippet snippet = snippets != null ? snippets.getSnippet(snippetId) : null;
+        return snippet != null ? snippet.getMarkup() : null;
+    }
+
+    private void emit(String line) {
+        if (line.isEmpty()) {
+            // Trailing empty lines are dropped, so they are only written
+            // when a non-empty line follows
+            if (disabledCount == 0) {
+                pendingEmptyLines++;
+            }
+            return;
+        }
+
+        for (; pendingEmptyLines > 0; pendingEmptyLines--) {
+            append("");
+        }
+
+        if (line.charAt(0) == '[') {
+            Matcher conditionalStartMatcher = CONDITIONAL_START_PATTERN.matcher(line);
+            if (conditionalStartMatcher.matches()) {
+                boolean enabled = conditions.isEnabled(conditionalStartMatcher.group(1));
+                conditionalStack.push(enabled);
+                if (!enabled) {
+                    disabledCount++;
+                }
+                return;
+            }
+
+            if (CONDITIONAL_END_PATTERN.matcher(line).matches()) {
+                if (!conditionalStack.isEmpty() && !conditionalStack.pop()) {
+                    disabledCount--;
+                }
+                return;
+            }
+        }
+
+        if (disabledCount == 0) {
+            append(line);
+        }
+    }
+
+    private void append(String line) {
+        if (!isFirstLine) {
+            output.append('\n');
+        }
+        output.append(line);
+        isFirstLine = false;
+    }
+}
@@ -0,0 +1,228 @@
+package hu.distributeddocumentor.model;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Consolidated index of the page and snippet metadata files
+ *
+ * <p>
+ * Loading the metadata of every page means opening one extra file per page
+ * on startup. The index stores the contents of all the metadata files in a
+ * single binary file, together with their length and modification time, so
+ * the metadata of the unchanged pages can be read with one sequential read.
+ * <p>
+ * The per-page metadata files remain the source of truth: they are the ones
+ * stored in the repository and merged, and the index is rebuilt from them
+ * whenever they change. The index itself is stored in the version control
+ * repository's metadata directory, so it is never part of the working copy,
+ * and it is silently discarded if it cannot be read.
+ *
+ * @author Daniel Vigovszky
+ * @see PageMetadata
+ */
+public class MetadataIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(MetadataIndex.class.getName());
+
+    /**
+     * Name of the index file in the repository's metadata directory
+     */
+    public static final String FILE_NAME = "documentor.metadataindex";
+
+    private static final int MAGIC = 0x44444d49;
+    private static final int VERSION = 1;
+
+    private final File root;
+    private final File file;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicBoolean modified = new AtomicBoolean();
+
+    /**
+     * Indexed contents of a single metadata file
+     */
+    private static class Entry {
+
+        private final long length;
+        private final long lastModified;
+        private final Map<String, String> values;
+
+        public Entry(long length, long lastModified, Map<String, String> values) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.values = Collections.unmodifiableMap(new HashMap<>(values));
+        }
+
+        public boolean matches(File file) {
+            return file.length() == length && file.lastModified() == lastModified;
+        }
+    }
+
+    /**
+     * Creates an empty index
+     *
+     * @param root the documentation's root directory, where the metadata files lie
+     * @param file the index file
+     */
+    public MetadataIndex(File root, File file) {
+        this.root = root;
+        this.file = file;
+    }
+
+    private String getKey(File metadataFile) {
+        return root.toURI().relativize(metadataFile.toURI()).getPath();
+    }
+
+    /**
+     * Gets the indexed metadata of a set of pages or snippets
+     *
+     * <p>
+     * Pages whose metadata file has been changed since it was indexed are
+     * not included in the result.
+     *
+     * @param files the page or snippet files
+     * @return the metadata by page file
+     */
+    public Map<File, PageMetadata> getMetadata(List<File> files) {
+        Map<File, PageMetadata> result = new HashMap<>();
+
+        for (File pageFile : files) {
+            String fileName = pageFile.getName();
+            int lastDot = fileName.lastIndexOf('.');
+            String id = lastDot >= 0 ? fileName.substring(0, lastDot) : fileName;
+
+            PageMetadata metadata = new PageMetadata(id);
+            File metadataFile = metadata.getFile(pageFile.getParentFile());
+
+            Entry entry = entries.get(getKey(metadataFile));
+            if (entry != null && entry.matches(metadataFile)) {
+                metadata.restore(entry.values);
+                result.put(pageFile, metadata);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Updates the index from the loaded metadata of the given pages
+     *
+     * <p>
+     * Pages whose metadata has not been loaded or has unsaved changes keep
+     * their existing entry. Entries of any other metadata file are dropped.
+     *
+     * @param pages the pages and snippets of the documentation
+     */
+    public void update(Collection<? extends Page> pages) {
+        Set<String> keys = new HashSet<>();
+
+        for (Page page : pages) {
+            File source = page.getSourceFile();
+            if (source != null) {
+                File metadataFile = page.getFiles(source.getParentFile())[1];
+                String key = getKey(metadataFile);
+                keys.add(key);
+
+                PageMetadata metadata = page.getLoadedMetadata();
+                if (metadata != null) {
+                    Entry existing = entries.get(key);
+                    Map<String, String> values = metadata.getValues();
+
+                    if (existing == null
+                        || !existing.matches(metadataFile)
+                        || !existing.values.equals(values)) {
+                        entries.put(key, new Entry(metadataFile.length(), metadataFile.lastModified(), values));
+                        modified.set(true);
+                    }
+                }
+            }
+        }
+
+        if (entries.keySet().retainAll(keys)) {
+            modified.set(true);
+        }
+    }
+
+    /**
+     * Loads the index from its file
+     *
+     * <p>
+     * If the file does not exist or cannot be used, the index remains empty.
+     */
+    public void load() {
+
+        entries.clear();
+        modified.set(false);
+
+        if (file.exists()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    log.info("Ignoring metadata index with unknown format");
+                    return;
+                }
+
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    String key = in.readUTF();
+                    long length = in.readLong();
+                    long lastModified = in.readLong();
+
+                    Map<String, String> values = new HashMap<>();
+                    int valueCount = in.readInt();
+                    for (int j = 0; j < valueCount; j++) {
+                        values.put(in.readUTF(), in.readUTF());
+                    }
+
+                    entries.put(key, new Entry(length, lastModified, values));
+                }
+            } catch (IOException ex) {
+                log.warn("Failed to load metadata index: " + ex.getMessage());
+                entries.clear();
+            }
+        }
+    }
+
+    /**
+     * Writes the index to its file if it has been modified since it was loaded
+     */
+    public void saveIfModified() {
+        if (modified.getAndSet(false)) {
+            save();
+        }
+    }
+
+    /**
+     * Writes the index to its file
+     */
+    public void save() {
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            Map<String, Entry> snapshot = new HashMap<>(entries);
+            out.writeInt(snapshot.size());
+            for (Map.Entry<String, Entry> item : snapshot.entrySet()) {
+                Entry entry = item.getValue();
+
+                out.writeUTF(item.getKey());
+                out.writeLong(entry.length);
+                out.writeLong(entry.lastModified);
+
+                out.writeInt(entry.values.size());
+                for (Map.Entry<String, String> value : entry.values.entrySet()) {
+                    out.writeUTF(value.getKey());
+                    out.writeUTF(value.getValue());
+                }
+            }
+        } catch (IOException ex) {
+            log.warn("Failed to save metadata index: " + ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,609 @@
+package hu.distributeddocumentor.model;
+
+import hu.distributeddocumentor.model.toc.TOC;
+import hu.distributeddocumentor.model.toc.TOCNode;
+import hu.distributeddocumentor.model.toc.TOCNodeFactory;
+import hu.distributeddocumentor.model.toc.VirtualTOCNode;
+import java.io.*;
+import java.util.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Binary snapshot of a loaded documentation model
+ *
+ * <p>
+ * The snapshot is written when the application is closed, and contains
+ * everything needed to rebuild the model without walking the documentation
+ * directory, looking for missing files in the repository and parsing the TOC
+ * and the metadata files: the page and snippet identifiers, their metadata
+ * and references, the TOC structure including the virtual nodes and the
+ * global documentation properties.
+ * <p>
+ * A snapshot can only be used if the working copy's parent revision and the
+ * modification times of the documentation directories are the same as they
+ * were when it was written. Even then every file is checked by its length and
+ * modification time, and only the changed ones are read again.
+ *
+ * @author Daniel Vigovszky
+ * @see Documentation
+ */
+class ModelSnapshot {
+
+    private static final Logger log = LoggerFactory.getLogger(ModelSnapshot.class.getName());
+
+    /**
+     * Name of the snapshot file in the repository's metadata directory
+     */
+    public static final String FILE_NAME = "documentor.snapshot";
+
+    private static final int MAGIC = 0x44445350;
+    private static final int VERSION = 1;
+
+    private final String relativeRoot;
+    private final String revision;
+    private final long documentationModified;
+    private final long snippetsModified;
+
+    private Stamp propertiesStamp;
+    private String title;
+    private Language language;
+
+    private final List<PageState> snippets = new ArrayList<>();
+    private final List<PageState> pages = new ArrayList<>();
+
+    private Stamp tocStamp;
+    private final List<NodeState> tocNodes = new ArrayList<>();
+
+    /**
+     * Length and modification time of a file
+     */
+    private static class Stamp {
+
+        private final long length;
+        private final long lastModified;
+
+        public Stamp(long length, long lastModified) {
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+
+        public Stamp(File file) {
+            this(file.length(), file.lastModified());
+        }
+
+        public boolean matches(File file) {
+            return file.length() == length && file.lastModified() == lastModified;
+        }
+    }
+
+    /**
+     * Stored state of a single page or snippet
+     */
+    private static class PageState {
+
+        private String id;
+        private String fileName;
+        private String cacheKey;
+        private PageRefCache.Entry refs;
+        private Stamp metadataStamp;
+        private Map<String, String> metadata;
+    }
+
+    /**
+     * Stored state of a single TOC node
+     */
+    private static class NodeState {
+
+        private String title;
+        private String target;
+        private String virtualHierarchyBuilder;
+        private String sourcePath;
+        private final List<NodeState> children = new ArrayList<>();
+    }
+
+    /**
+     * Creates an empty snapshot of the current state of the documentation directories
+     *
+     * @param relativeRoot the documentation's path relative to the repository root
+     * @param revision the working copy's parent revision
+     * @param documentationDirectory the documentation's root directory
+     * @param snippetsDirectory the directory of the snippets
+     */
+    public ModelSnapshot(String relativeRoot, String revision, File documentationDirectory, File snippetsDirectory) {
+        this(relativeRoot, revision, documentationDirectory.lastModified(), snippetsDirectory.lastModified());
+    }
+
+    private ModelSnapshot(String relativeRoot, String revision, long documentationModified, long snippetsModified) {
+        this.relativeRoot = relativeRoot;
+        this.revision = revision != null ? revision : "";
+        this.documentationModified = documentationModified;
+        this.snippetsModified = snippetsModified;
+    }
+
+    /**
+     * Checks whether the snapshot still describes the given documentation
+     *
+     * @param relativeRoot the documentation's path relative to the repository root
+     * @param revision the working copy's current parent revision
+     * @param documentationDirectory the documentation's root directory
+     * @param snippetsDirectory the directory of the snippets
+     * @return true if the model can be restored from the snapshot
+     */
+    public boolean isValid(String relativeRoot, String revision, File documentationDirectory, File snippetsDirectory) {
+        return this.relativeRoot.equals(relativeRoot)
+               && this.revision.equals(revision != null ? revision : "")
+               && documentationDirectory.lastModified() == documentationModified
+               && snippetsDirectory.lastModified() == snippetsModified;
+    }
+
+    /**
+     * Stores the global documentation properties
+     *
+     * @param propertiesFile the file storing the properties
+     * @param title title of the documentation
+     * @param language language of the documentation
+     */
+    public void setProperties(File propertiesFile, String title, Language language) {
+        propertiesStamp = new Stamp(propertiesFile);
+        this.title = title;
+        this.language = language;
+    }
+
+    /**
+     * Checks if the stored global properties are still up to date
+     *
+     * @param propertiesFile the file storing the properties
+     * @return true if {@link #getTitle()} and {@link #getLanguage()} can be used
+     */
+    public boolean hasValidProperties(File propertiesFile) {
+        return propertiesStamp != null && propertiesStamp.matches(propertiesFile);
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public Language getLanguage() {
+        return language;
+    }
+
+    /**
+     * Stores the state of a snippet
+     *
+     * @param snippet the snippet to store
+     */
+    public void addSnippet(Snippet snippet) {
+        addPageState(snippets, snippet);
+    }
+
+    /**
+     * Stores the state of a page
+     *
+     * @param page the page to store
+     */
+    public void addPage(Page page) {
+        addPageState(pages, page);
+    }
+
+    private static void addPageState(List<PageState> target, Page page) {
+        File source = page.getSourceFile();
+
+        if (source != null) {
+            PageState state = new PageState();
+            state.id = page.getId();
+            state.fileName = source.getName();
+            state.cacheKey = page.getCacheKey();
+            state.refs = page.getRefCacheEntry();
+
+            PageMetadata metadata = page.getLoadedMetadata();
+            if (metadata != null) {
+                state.metadataStamp = new Stamp(metadata.getFile(source.getParentFile()));
+                state.metadata = metadata.getValues();
+            }
+
+            target.add(state);
+        }
+    }
+
+    /**
+     * Gets the snippet files stored in the snapshot
+     *
+     * @param snippetsDirectory the directory of the snippets
+     * @return the list of snippet files
+     */
+    public List<File> getSnippetFiles(File snippetsDirectory) {
+        return getFiles(snippets, snippetsDirectory);
+    }
+
+    /**
+     * Gets the page files stored in the snapshot
+     *
+     * @param documentationDirectory the documentation's root directory
+     * @return the list of page files
+     */
+    public List<File> getPageFiles(File documentationDirectory) {
+        return getFiles(pages, documentationDirectory);
+    }
+
+    private static List<File> getFiles(List<PageState> states, File directory) {
+        List<File> result = new ArrayList<>(states.size());
+        for (PageState state : states) {
+            result.add(new File(directory, state.fileName));
+        }
+        return result;
+    }
+
+    /**
+     * Gets the stored snippet metadata which is still up to date
+     *
+     * @param snippetsDirectory the directory of the snippets
+     * @return the metadata by snippet file
+     */
+    public Map<File, PageMetadata> getSnippetMetadata(File snippetsDirectory) {
+        return getMetadata(snippets, snippetsDirectory);
+    }
+
+    /**
+     * Gets the stored page metadata which is still up to date
+     *
+     * @param documentationDirectory the documentation's root directory
+     * @return the metadata by page file
+     */
+    public Map<File, PageMetadata> getPageMetadata(File documentationDirectory) {
+        return getMetadata(pages, documentationDirectory);
+    }
+
+    private static Map<File, PageMetadata> getMetadata(List<PageState> states, File directory) {
+        Map<File, PageMetadata> result = new HashMap<>();
+
+        for (PageState state : states) {
+            if (state.metadata != null) {
+                PageMetadata metadata = new PageMetadata(state.id);
+
+                if (state.metadataStamp.matches(metadata.getFile(directory))) {
+                    metadata.restore(state.metadata);
+                    result.put(new File(directory, state.fileName), metadata);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Adds the stored references to a reference cache
+     *
+     * <p>
+     * Entries already present in the cache with the same content are not
+     * replaced, so the cache is only marked as modified if it was out of date.
+     *
+     * @param refCache the reference cache to fill
+     */
+    public void fillRefCache(PageRefCache refCache) {
+        for (PageState state : snippets) {
+            fillRefCache(refCache, state);
+        }
+        for (PageState state : pages) {
+            fillRefCache(refCache, state);
+        }
+    }
+
+    private static void fillRefCache(PageRefCache refCache, PageState state) {
+        if (state.refs != null) {
+            PageRefCache.Entry existing = refCache.get(state.cacheKey, state.refs.getHash());
+
+            if (existing == null
+                || existing.getLength() != state.refs.getLength()
+                || existing.getLastModified() != state.refs.getLastModified()) {
+                refCache.put(state.cacheKey, state.refs);
+            }
+        }
+    }
+
+    /**
+     * Stores the structure of the TOC
+     *
+     * @param tocFile the file storing the TOC
+     * @param toc the TOC to store, which must not have unsaved modifications
+     */
+    public void setTOC(File tocFile, TOC toc) {
+        tocStamp = new Stamp(tocFile);
+        tocNodes.clear();
+
+        for (TOCNode node : toc.getRoot().getChildren()) {
+            if (node != toc.getUnorganized()
+                && node != toc.getRecycleBin()) {
+                tocNodes.add(createNodeState(node));
+            }
+        }
+    }
+
+    private static NodeState createNodeState(TOCNode node) {
+        NodeState state = new NodeState();
+        state.title = node.getTitle();
+        state.target = node.hasTarget() ? node.getTarget().getId() : null;
+
+        if (node instanceof VirtualTOCNode) {
+            VirtualTOCNode vnode = (VirtualTOCNode) node;
+            if (vnode.getVirtualHierarchyBuilder() != null) {
+                state.virtualHierarchyBuilder = vnode.getVirtualHierarchyBuilder().getName();
+                state.sourcePath = vnode.getSourcePath();
+            }
+        }
+
+        for (TOCNode child : node.getChildren()) {
+            state.children.add(createNodeState(child));
+        }
+
+        return state;
+    }
+
+    /**
+     * Checks if the stored TOC structure is still up to date
+     *
+     * @param tocFile the file storing the TOC
+     * @return true if {@link #createTOCNodes} can be used instead of loading the TOC
+     */
+    public boolean hasValidTOC(File tocFile) {
+        return tocStamp != null && tocStamp.matches(tocFile);
+    }
+
+    /**
+     * Creates the top level TOC nodes from the stored structure
+     *
+     * @param factory the TOC node factory to be used
+     * @param doc the documentation used to resolve the page references
+     * @return the top level nodes, without the special nodes
+     * @throws ClassNotFoundException if a virtual hierarchy builder class does not exist
+     */
+    public List<TOCNode> createTOCNodes(TOCNodeFactory factory, Documentation doc) throws ClassNotFoundException {
+        List<TOCNode> result = new ArrayList<>(tocNodes.size());
+        for (NodeState state : tocNodes) {
+            result.add(createNode(state, factory, doc));
+        }
+        return result;
+    }
+
+    private static TOCNode createNode(NodeState state, TOCNodeFactory factory, Documentation doc) throws ClassNotFoundException {
+        TOCNode node;
+
+        if (state.virtualHierarchyBuilder != null) {
+            VirtualTOCNode vnode = factory.createVirtualNode();
+            vnode.setTitle(state.title);
+            vnode.setVirtualHierarchyBuilder(Class.forName(state.virtualHierarchyBuilder));
+            vnode.setSourcePath(state.sourcePath);
+            node = vnode;
+        } else {
+            node = factory.createNode(state.title);
+        }
+
+        if (state.target != null) {
+            node.setTarget(doc.getPage(state.target));
+        }
+
+        for (NodeState childState : state.children) {
+            factory.getOperations(node).addToEnd(createNode(childState, factory, doc));
+        }
+
+        return node;
+    }
+
+    /**
+     * Loads a snapshot from its file
+     *
+     * @param file the snapshot file
+     * @return the loaded snapshot, or null if it does not exist or cannot be used
+     */
+    public static ModelSnapshot load(File file) {
+
+        if (!file.exists()) {
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                log.info("Ignoring model snapshot with unknown format");
+                return null;
+            }
+
+            ModelSnapshot snapshot = new ModelSnapshot(in.readUTF(), in.readUTF(), in.readLong(), in.readLong());
+
+            if (in.readBoolean()) {
+                snapshot.propertiesStamp = readStamp(in);
+                snapshot.title = in.readUTF();
+                snapshot.language = Language.valueOf(in.readUTF());
+            }
+
+            readPageStates(in, snapshot.snippets);
+            readPageStates(in, snapshot.pages);
+
+            if (in.readBoolean()) {
+                snapshot.tocStamp = readStamp(in);
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    snapshot.tocNodes.add(readNodeState(in));
+                }
+            }
+
+            return snapshot;
+        } catch (IOException | IllegalArgumentException ex) {
+            log.warn("Failed to load model snapshot: " + ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Writes the snapshot to a file
+     *
+     * @param file the snapshot file
+     */
+    public void save(File file) {
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            out.writeUTF(relativeRoot);
+            out.writeUTF(revision);
+            out.writeLong(documentationModified);
+            out.writeLong(snippetsModified);
+
+            out.writeBoolean(propertiesStamp != null);
+            if (propertiesStamp != null) {
+                writeStamp(out, propertiesStamp);
+                out.writeUTF(title);
+                out.writeUTF(language.name());
+            }
+
+            writePageStates(out, snippets);
+            writePageStates(out, pages);
+
+            out.writeBoolean(tocStamp != null);
+            if (tocStamp != null) {
+                writeStamp(out, tocStamp);
+                out.writeInt(tocNodes.size());
+                for (NodeState state : tocNodes) {
+                    writeNodeState(out, state);
+                }
+            }
+        } catch (IOException ex) {
+            log.warn("Failed to save model snapshot: " + ex.getMessage());
+
+            if (!file.delete()) {
+                log.warn("Failed to delete incomplete model snapshot");
+            }
+        }
+    }
+
+    private static Stamp readStamp(DataInputStream in) throws IOException {
+        return new Stamp(in.readLong(), in.readLong());
+    }
+
+    private static void writeStamp(DataOutputStream out, Stamp stamp) throws IOException {
+        out.writeLong(stamp.length);
+        out.writeLong(stamp.lastModified);
+    }
+
+    private static void readPageStates(DataInputStream in, List<PageState> target) throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            PageState state = new PageState();
+            state.id = in.readUTF();
+            state.fileName = in.readUTF();
+            state.cacheKey = in.readUTF();
+
+            if (in.readBoolean()) {
+                String hash = in.readUTF();
+                long length = in.readLong();
+                long lastModified = in.readLong();
+                List<String> refs = readStrings(in, new ArrayList<String>());
+                Set<String> snippetRefs = readStrings(in, new HashSet<String>());
+                Set<String> conditionals = readStrings(in, new HashSet<String>());
+
+                state.refs = new PageRefCache.Entry(hash, length, lastModified, refs, snippetRefs, conditionals);
+            }
+
+            if (in.readBoolean()) {
+                state.metadataStamp = readStamp(in);
+                state.metadata = new HashMap<>();
+
+                int valueCount = in.readInt();
+                for (int j = 0; j < valueCount; j++) {
+                    state.metadata.put(in.readUTF(), in.readUTF());
+                }
+            }
+
+            target.add(state);
+        }
+    }
+
+    private static void writePageStates(DataOutputStream out, List<PageState> states) throws IOException {
+        out.writeInt(states.size());
+        for (PageState state : states) {
+            out.writeUTF(state.id);
+            out.writeUTF(state.fileName);
+            out.writeUTF(state.cacheKey);
+
+            out.writeBoolean(state.refs != null);
+            if (state.refs != null) {
+                out.writeUTF(state.refs.getHash());
+                out.writeLong(state.refs.getLength());
+                out.writeLong(state.refs.getLastModified());
+                writeStrings(out, state.refs.getReferencedPages());
+                writeStrings(out, state.refs.getSnippets());
+                writeStrings(out, state.refs.getConditionals());
+            }
+
+            out.writeBoolean(state.metadata != null);
+            if (state.metadata != null) {
+                writeStamp(out, state.metadataStamp);
+
+                out.writeInt(state.metadata.size());
+                for (Map.Entry<String, String> item : state.metadata.entrySet()) {
+                    out.writeUTF(item.getKey());
+                    out.writeUTF(item.getValue());
+                }
+            }
+        }
+    }
+
+    private static NodeState readNodeState(DataInputStream in) throws IOException {
+        NodeState state = new NodeState();
+        state.title = readOptionalString(in);
+        state.target = readOptionalString(in);
+        state.virtualHierarchyBuilder = readOptionalString(in);
+        state.sourcePath = readOptionalString(in);
+
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            state.children.add(readNodeState(in));
+        }
+
+        return state;
+    }
+
+    private static void writeNodeState(DataOutputStream out, NodeState state) throws IOException {
+        writeOptionalString(out, state.title);
+        writeOptionalString(out, state.target);
+        writeOptionalString(out, state.virtualHierarchyBuilder);
+        writeOptionalString(out, state.sourcePath);
+
+        out.writeInt(state.children.size());
+        for (NodeState child : state.children) {
+            writeNodeState(out, child);
+        }
+    }
+
+    private static String readOptionalString(DataInputStream in) throws IOException {
+        if (in.readBoolean()) {
+            return in.readUTF();
+        } else {
+            return null;
+        }
+    }
+
+    private static void writeOptionalString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static <T extends Collection<String>> T readStrings(DataInputStream in, T target) throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            target.add(in.readUTF());
+        }
+        return target;
+    }
+
+    private static void writeStrings(DataOutputStream out, Collection<String> items) throws IOException {
+        out.writeInt(items.size());
+        for (String item : items) {
+            out.writeUTF(item);
+        }
+    }
+}
@@ -1,17 +1,20 @@
 package hu.distributeddocumentor.model;
 
 import hu.distributeddocumentor.model.builders.ExtendedHtmlDocumentBuilder;
-import hu.distributeddocumentor.model.builders.PageRefExtractor;
+import hu.distributeddocumentor.model.builders.MarkupLanguageProvider;
+import hu.distributeddocumentor.model.events.EventBus;
+import hu.distributeddocumentor.model.events.PageEvent;
+import hu.distributeddocumentor.utils.AtomicFiles;
 import java.io.*;
+import java.lang.ref.SoftReference;
 import java.nio.charset.Charset;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.apache.commons.lang3.StringUtils;
 import org.eclipse.mylyn.wikitext.core.parser.MarkupParser;
 import org.eclipse.mylyn.wikitext.core.parser.builder.HtmlDocumentBuilder;
-import org.eclipse.mylyn.wikitext.core.parser.markup.MarkupLanguage;
-import org.eclipse.mylyn.wikitext.core.util.ServiceLocator;
 
 /**
  * One page of the documentation, represented in a markup language which can 
@@ -23,37 +26,63 @@ import org.eclipse.mylyn.wikitext.core.util.ServiceLocator;
  * in the markup languages to link to other pages.
  * <p>
  * Every page has an assigned set of metadata as well.
+ * <p>
+ * Pages loaded in lazy mode do not keep their markup and metadata in memory
+ * until they are first needed. Once loaded, the markup of a lazy page is only
+ * softly referenced while the page is neither opened in an editor nor has
+ * unsaved changes, so it can be evicted under memory pressure and read again
+ * from the file system on demand.
+ * <p>
+ * The rendered HTML is kept in a shared {@link RenderedHTMLCache}. Every
+ * change of a page's markup gives it a new version, so the renderings of the
+ * pages including a changed snippet are not reused.
+ * <p>
+ * Modifications are published as {@link PageEvent}s on the page's
+ * {@link EventBus}.
  * 
  * @author Daniel Vigovszky
  * @see Snippet
  * @see TOC
  * @see PageMetadata
  */
-public class Page extends Observable {
+public class Page {
     
     private final static String TEMPLATE = "= Title =\n\nBody\n";
-    private static final Pattern SNIPPET_PATTERN = Pattern.compile("\\[Snippet\\:(\\w+)\\]");
-    private static final Pattern CONDITIONAL_START_PATTERN = Pattern.compile("\\[When\\:(\\w+)\\]");
-    private static final Pattern CONDITIONAL_END_PATTERN = Pattern.compile("\\[End\\]");
+    
+    private static final AtomicLong versionCounter = new AtomicLong();
+    private static final RenderedHTMLCache htmlCache = new RenderedHTMLCache(8 * 1024 * 1024);
     public static final String CHARSET = "UTF-8";
     
+    private final EventBus<PageEvent> events = new EventBus<>();
+    
     private String id;
     private String markupLanguage;
     private String markup;
+    private SoftReference<String> evictableMarkup;
+    
+    private boolean lazy;
+    private File source;
+    private long sourceLength;
+    private long sourceModified;
+    private String sourceHash;
+    private int openCount;
     
     private List<String> refs;
     private final Set<String> snippetRefs = new HashSet<>();
+    private Set<String> directSnippetRefs;
+    private volatile long version = versionCounter.incrementAndGet();
+    private ReferenceExtractionScheduler refScheduler;
+    private boolean hasPendingReferences;
+    private volatile PageSnapshot lastSnapshot;
+    private Set<String> usedConditionals;
     
-    private boolean isParserInitialized;
-    private MarkupParser parser;
-    private PageRefExtractor refExtractor;    
-    private MarkupLanguage language;
     
     private final SnippetCollection snippets;    
     private final Conditions conditions;
     private final File customStylesheet;
     
     private PageMetadata metadata;
+    private boolean isMetadataLoaded;
     
     private boolean hasChanged;
     
@@ -71,14 +100,13 @@ public class Page extends Observable {
         this.customStylesheet = customStylesheet;
         
         metadata = new PageMetadata(id);
+        isMetadataLoaded = true;
         
         markupLanguage = "MediaWiki";
         markup = TEMPLATE;
-        isParserInitialized = false;        
         hasChanged = true;
         
-        initializeParser();
-        refs = refExtractor.getReferencedPages(markup);
+        refs = extractReferences(markup);
         this.conditions = conditions;
     }
     
@@ -94,11 +122,56 @@ public class Page extends Observable {
      */
     public Page(File source, SnippetCollection snippets, Conditions conditions, File customStylesheet) throws FileNotFoundException, IOException {
         
+        this(source, snippets, conditions, customStylesheet, null, false);
+    }
+    
+    /**
+     * Loads a page object from the file system, using a reference cache
+     * 
+     * <p>
+     * If the reference cache has a valid entry for the page's markup, the
+     * markup is not parsed. Otherwise the extracted references are stored
+     * in the cache.
+     * <p>
+     * In lazy mode the page's markup and metadata are read only when they 
+     * are first needed. If the reference cache has a valid entry for the 
+     * page's file, the file is not even opened during construction.
+     * 
+     * @param source the file storing the page's markup
+     * @param snippets the snippet collection to be used to resolve snippet references
+     * @param conditions enabled conditions
+     * @param customStylesheet The documentation-specific custom stylesheet
+     * @param refCache the reference cache to be used, can be null
+     * @param lazy if true, the markup and metadata are loaded on demand
+     * @throws FileNotFoundException
+     * @throws IOException
+     */
+    public Page(File source, SnippetCollection snippets, Conditions conditions, File customStylesheet, PageRefCache refCache, boolean lazy) throws FileNotFoundException, IOException {
+        
+        this(source, snippets, conditions, customStylesheet, refCache, null, lazy);
+    }
+    
+    /**
+     * Loads a page object from the file system with already known metadata
+     * 
+     * @param source the file storing the page's markup
+     * @param snippets the snippet collection to be used to resolve snippet references
+     * @param conditions enabled conditions
+     * @param customStylesheet The documentation-specific custom stylesheet
+     * @param refCache the reference cache to be used, can be null
+     * @param knownMetadata the page's metadata if it is already known, otherwise null
+     * @param lazy if true, the markup and metadata are loaded on demand
+     * @throws FileNotFoundException
+     * @throws IOException
+     */
+    Page(File source, SnippetCollection snippets, Conditions conditions, File customStylesheet, PageRefCache refCache, PageMetadata knownMetadata, boolean lazy) throws FileNotFoundException, IOException {
+        
         this.snippets = snippets;          
         this.conditions = conditions;
         this.customStylesheet = customStylesheet;
+        this.lazy = lazy;
                 
-        load(source);
+        load(source, refCache, knownMetadata);
     }
     
     private File getFile(File targetDirectory) {
@@ -135,29 +208,151 @@ public class Page extends Observable {
     public File[] save(File targetDirectory) throws IOException {
         
         File[] targets = getFiles(targetDirectory);
+        String currentMarkup = getMarkup();
         
-        try (PrintWriter fwriter = new PrintWriter(
-                new OutputStreamWriter(
-                    new FileOutputStream(targets[0]), Charset.forName(CHARSET)))) {
-            
-            fwriter.print(markup);            
-            hasChanged = false;
-        }      
+        AtomicFiles.write(targets[0], currentMarkup, Charset.forName(CHARSET));
+        hasChanged = false;
+        
+        source = targets[0];
+        sourceLength = source.length();
+        sourceModified = source.lastModified();
+        sourceHash = PageRefCache.hash(currentMarkup);
+        
+        if (lazy && openCount == 0) {
+            evict(currentMarkup);
+        }
         
-        metadata.save(targetDirectory);
+        getMetadata().save(targetDirectory);
         
         return targets;
     }
+    
+    /**
+     * Captures the page's modified contents to be saved by a {@link BackgroundSaver}
+     * 
+     * <p>
+     * The page is considered saved once this method returns; its file 
+     * attributes are updated by {@link #saveCompleted(File)} when the write
+     * has been performed.
+     * 
+     * @param targetDirectory the target directory to be used
+     * @return the contents to be written, or null if the page has not been modified
+     */
+    BackgroundSaver.Write prepareSave(File targetDirectory) {
+        if (!hasChanged && !(isMetadataLoaded && metadata.hasChanged())) {
+            return null;
+        }
+        
+        File[] targets = getFiles(targetDirectory);
+        String currentMarkup = getMarkup();
+        PageMetadata currentMetadata = getMetadata();
+        
+        BackgroundSaver.Write write = new BackgroundSaver.Write(this, 
+                targets[0], currentMarkup, 
+                currentMetadata.getFile(targetDirectory), currentMetadata.getValues());
+        
+        hasChanged = false;
+        currentMetadata.markSaved();
+        
+        source = targets[0];
+        sourceHash = PageRefCache.hash(currentMarkup);
+        
+        if (lazy && openCount == 0) {
+            // The write holds the markup until the file has been written
+            evict(currentMarkup);
+        }
+        
+        return write;
+    }
+    
+    /**
+     * Updates the attributes of the page's file after a background save
+     * 
+     * @param file the written file
+     */
+    void saveCompleted(File file) {
+        if (file.equals(source)) {
+            sourceLength = source.length();
+            sourceModified = source.lastModified();
+        }
+    }
+
+    /**
+     * Gets the bus publishing the page's modifications
+     *
+     * @return the page's event bus
+     */
+    public EventBus<PageEvent> getEvents() {
+        return events;
+    }
 
     /**
      * Gets the unique identifier of the page
-     * 
+     *
      * @return the page identifier
      */
     public String getId() {
         return id;
     }    
     
+    /**
+     * Gets the key identifying this page in the reference cache
+     * 
+     * @return the page's key in the {@link PageRefCache}
+     */
+    protected String getCacheKey() {
+        return id;
+    }
+    
+    /**
+     * Gets the file the page was loaded from or last saved to
+     * 
+     * @return the page's file, or null if the page has never been saved
+     */
+    File getSourceFile() {
+        return source;
+    }
+    
+    /**
+     * Gets the reference cache entry describing the page's file
+     * 
+     * @return the entry, or null if the page has unsaved changes or its 
+     *         file's contents are not known
+     */
+    PageRefCache.Entry getRefCacheEntry() {
+        if (hasChanged || hasPendingReferences || source == null || sourceHash == null) {
+            return null;
+        }
+        
+        return new PageRefCache.Entry(sourceHash, sourceLength, sourceModified, 
+                refs, snippetRefs, findUsedConditionals());
+    }
+    
+    /**
+     * Gets the page's metadata if it is loaded and matches its file
+     * 
+     * @return the metadata, or null if it has not been loaded yet or has unsaved changes
+     */
+    PageMetadata getLoadedMetadata() {
+        if (isMetadataLoaded && !metadata.hasChanged()) {
+            return metadata;
+        } else {
+            return null;
+        }
+    }
+    
+    /**
+     * Stores a metadata value of the page
+     * 
+     * @param key key of the metadata value
+     * @param value the value itself
+     */
+    public void putMetadata(String key, Object value) {
+        getMetadata().put(key, value);
+        
+        events.publish(new PageEvent(this, PageEvent.Type.METADATA_CHANGED));
+    }
+    
     /**
      * Gets the associated metadata for this page
      
@@ -165,6 +360,10 @@ public class Page extends Observable {
      * @see PageMetadata
      */
     public PageMetadata getMetadata() {
+        if (!isMetadataLoaded) {
+            metadata.load(source.getParentFile());
+            isMetadataLoaded = true;
+        }
         return metadata;
     }
 
@@ -174,30 +373,188 @@ public class Page extends Observable {
      * @return the page's source in its selected markup language
      */
     public String getMarkup() {
-        return markup;
+        if (markup != null) {
+            return markup;
+        }
+        
+        String loaded = evictableMarkup != null ? evictableMarkup.get() : null;
+        if (loaded == null) {
+            try {
+                loaded = reloadMarkup();
+            } catch (IOException ex) {
+                throw new IllegalStateException("Failed to read page " + id, ex);
+            }
+        }
+        
+        if (openCount > 0) {
+            markup = loaded;
+        }
+        return loaded;
+    }
+    
+    /**
+     * Marks the page as opened in an editor
+     * 
+     * <p>
+     * The markup of an opened lazy page is kept in memory until it is closed.
+     * Every call must be paired with a call to {@link #markClosed()}.
+     */
+    public void markOpened() {
+        openCount++;
+        if (lazy && markup == null) {
+            markup = getMarkup();
+        }
+    }
+    
+    /**
+     * Marks that an editor of the page has been closed
+     * 
+     * <p>
+     * If the page was loaded lazily, it has no unsaved changes and no other
+     * editors are open, its markup becomes evictable.
+     */
+    public void markClosed() {
+        if (openCount > 0) {
+            openCount--;
+        }
+        if (lazy && openCount == 0 && !hasChanged && markup != null) {
+            evict(markup);
+        }
+    }
+    
+    /**
+     * Checks whether the page's markup is currently held in memory
+     * 
+     * @return false if the markup will be read from the file system on the next access
+     */
+    public boolean isMarkupLoaded() {
+        return markup != null || (evictableMarkup != null && evictableMarkup.get() != null);
+    }
+    
+    private void evict(String currentMarkup) {
+        evictableMarkup = new SoftReference<>(currentMarkup);
+        markup = null;
+    }
+    
+    private String reloadMarkup() throws IOException {
+        String loaded = readMarkup(source);
+        evictableMarkup = new SoftReference<>(loaded);
+        
+        if (source.length() != sourceLength || source.lastModified() != sourceModified) {
+            // The file has been changed outside of the editor
+            sourceLength = source.length();
+            sourceModified = source.lastModified();
+            sourceHash = PageRefCache.hash(loaded);
+            usedConditionals = null;
+            markupChanged();
+            
+            if (refScheduler != null) {
+                // The markup may be read from any thread, the new references 
+                // are published on the scheduler's executor
+                hasPendingReferences = true;
+                refScheduler.schedule(this, loaded, markupLanguage, createPreprocessor(), getVersion());
+            } else {
+                Set<String> previousSnippetRefs = new HashSet<>(snippetRefs);
+                List<String> reloadedRefs = extractReferences(preprocessMarkup(loaded));
+                hasPendingReferences = false;
+                
+                if (!reloadedRefs.equals(refs) || !snippetRefs.equals(previousSnippetRefs)) {
+                    refs = reloadedRefs;
+                    
+                    events.publish(new PageEvent(this, PageEvent.Type.REFERENCES_UPDATED));
+                }
+            }
+        }
+        
+        return loaded;
     }
 
     /**
-     * Sets the page markup and process it immediately
+     * Sets the page markup
+     * 
+     * <p>
+     * If the page has a reference extraction scheduler, only the new markup
+     * is recorded and the referenced pages are updated later in the
+     * background; a {@link PageEvent.Type#REFERENCES_UPDATED} event is
+     * published once they are ready. Otherwise the
+     * markup is processed immediately.
      * 
      * @param markup the page's source in its selected markup language
      */
     public void setMarkup(String markup) {
-        if (!this.markup.equals(markup)) {
+        String currentMarkup = getMarkup();
+        if (!currentMarkup.equals(markup)) {
+            pinSnapshot(currentMarkup);
+            
             this.markup = markup;        
+            evictableMarkup = null;
+            usedConditionals = null;
+            markupChanged();
               
-            if (!isParserInitialized) {
-                initializeParser();
+            if (refScheduler != null) {
+                hasPendingReferences = true;
+                refScheduler.schedule(this, markup, markupLanguage, createPreprocessor(), getVersion());
+            } else {
+                refs = extractReferences(preprocessMarkup(markup));
+                hasPendingReferences = false;
             }
 
-            refs = refExtractor.getReferencedPages(preprocessMarkup(markup));
-
-            setChanged();
-            notifyObservers();       
+            events.publish(new PageEvent(this, PageEvent.Type.CHANGED));
 
             hasChanged = true;
         }
     }
+    
+    /**
+     * Sets the scheduler used to extract the references of the edited markup
+     * 
+     * @param refScheduler the scheduler, or null to extract the references immediately
+     */
+    void setReferenceExtractionScheduler(ReferenceExtractionScheduler refScheduler) {
+        this.refScheduler = refScheduler;
+    }
+    
+    /**
+     * Creates a preprocessor using the current state of the snippets included 
+     * by the page and of the enabled conditions
+     * 
+     * <p>
+     * The snippets and conditions are captured, so the preprocessor can be 
+     * used on a background thread.
+     * 
+     * @return a new preprocessor
+     */
+    MarkupPreprocessor createPreprocessor() {
+        return new MarkupPreprocessor(IncludedSnippets.capture(snippets, getDirectSnippetRefs()), conditions.copy());
+    }
+    
+    /**
+     * Updates the page's references from a background extraction
+     * 
+     * <p>
+     * The results are ignored if the markup has been changed again since the
+     * extraction was scheduled.
+     * 
+     * @param extractedVersion the markup version the references were extracted from
+     * @param extractedRefs the referenced pages
+     * @param extractedSnippetRefs the directly or indirectly included snippets
+     */
+    void applyExtractedReferences(long extractedVersion, List<String> extractedRefs, Set<String> extractedSnippetRefs) {
+        if (extractedVersion != getVersion()) {
+            return;
+        }
+        
+        hasPendingReferences = false;
+        boolean snippetRefsChanged = !snippetRefs.equals(extractedSnippetRefs);
+        snippetRefs.clear();
+        snippetRefs.addAll(extractedSnippetRefs);
+        
+        if (!extractedRefs.equals(refs) || snippetRefsChanged) {
+            refs = extractedRefs;
+            
+            events.publish(new PageEvent(this, PageEvent.Type.REFERENCES_UPDATED));
+        }
+    }
 
     /**
      * Gets the markup language used by this page
@@ -220,12 +577,10 @@ public class Page extends Observable {
      * @param markupLanguage the markup language to be used by this page
      */
     public void setMarkupLanguage(String markupLanguage) {
+        pinSnapshot();
         this.markupLanguage = markupLanguage;
         
-        isParserInitialized = false;
-        
-        setChanged();
-        notifyObservers();
+        events.publish(new PageEvent(this, PageEvent.Type.CHANGED));
         
         hasChanged = true;        
     }
@@ -296,17 +651,14 @@ public class Page extends Observable {
     private void addStylesheets(ExtendedHtmlDocumentBuilder builder, boolean embedCSS, String pathToRoot) {
        HtmlDocumentBuilder.Stylesheet stylesheet, custom;
        if (embedCSS) {
+           // The stylesheets are kept in memory instead of being read for every rendering
            stylesheet = new HtmlDocumentBuilder.Stylesheet(
-                   new InputStreamReader(
-                    getClass().getResourceAsStream("/documentation.css")));
+                   new StringReader(StylesheetProvider.getDocumentationCSS()));
            
-           if (customStylesheet.exists()) {
-               try {
-                custom = new HtmlDocumentBuilder.Stylesheet(
-                        new InputStreamReader(new FileInputStream(customStylesheet)));
-               } catch (FileNotFoundException ex) {
-                   custom = null;
-               }
+           String customCSS = customStylesheet != null ? 
+                   StylesheetProvider.forFile(customStylesheet).getContents() : null;
+           if (customCSS != null) {
+               custom = new HtmlDocumentBuilder.Stylesheet(new StringReader(customCSS));
            } else {
                custom = null;
            }
@@ -325,23 +677,184 @@ public class Page extends Observable {
     }
         
     private String asHTML(boolean embedCSS, File root, boolean annotated, String pathToRoot) {
-       if (!isParserInitialized) {
-            initializeParser();
-        }
+       String currentMarkup = getMarkup();
+       IncludedSnippets included = IncludedSnippets.capture(snippets, getDirectSnippetRefs());
+       
+       String html = render(id, currentMarkup, markupLanguage, included, conditions, embedCSS, root, annotated, pathToRoot);
        
+       snippetRefs.clear();
+       snippetRefs.addAll(included.getVersions().keySet());
+       return html;
+    }
+    
+    /**
+     * Renders a snapshot of the page
+     * 
+     * <p>
+     * Only uses the data captured by the snapshot and touches neither the 
+     * page's nor the snippets' state, so it can be called from background 
+     * threads while the documentation is being edited.
+     * 
+     * @param snapshot a snapshot of this page
+     * @param embedCSS if true, the stylesheets are embedded into the HTML
+     * @param annotated if true, the HTML is annotated with the markup's line numbers
+     * @param pathToRoot relative path to the root where scripts and stylesheets lie
+     * @return returns the snapshot's markup converted to HTML
+     */
+    String renderSnapshot(PageSnapshot snapshot, boolean embedCSS, boolean annotated, String pathToRoot) {
+        return render(snapshot.getId(), snapshot.getMarkup(), snapshot.getMarkupLanguage(), 
+                      snapshot.getIncludedSnippets(), snapshot.getConditions(),
+                      embedCSS, null, annotated, pathToRoot);
+    }
+    
+    private String render(String pageId, String pageMarkup, String pageMarkupLanguage, 
+                          IncludedSnippets included, Conditions enabledConditions,
+                          boolean embedCSS, File root, boolean annotated, String pathToRoot) {
+       RenderedHTMLCache.Key key = new RenderedHTMLCache.Key(
+               pageId, PageRefCache.hash(pageMarkup), included.getVersions(), enabledConditions.getEnabledConditions(),
+               pathToRoot, root != null ? root.getAbsolutePath() : null, embedCSS, annotated, 
+               getStylesheetStamp());
+       
+       String cached = htmlCache.get(key);
+       if (cached != null) {
+           return cached;
+       }
+        
        StringWriter writer = new StringWriter();
        
        ExtendedHtmlDocumentBuilder builder = new ExtendedHtmlDocumentBuilder(writer, root, pathToRoot);       
        addStylesheets(builder, embedCSS, pathToRoot);
        
-       parser = new MarkupParser(language, builder);             
+       MarkupParser parser = MarkupLanguageProvider.getParser(pageMarkupLanguage, builder);
+       MarkupPreprocessor preprocessor = new MarkupPreprocessor(included, enabledConditions);
 
-       parser.parse(preprocessMarkup(annotateMarkup(annotated, markup)));
+       parser.parse(preprocessor.process(annotateMarkup(annotated, pageMarkup)));
        
        String fixed = StringUtils.replace(writer.toString(), "&#xc", " ");
+       htmlCache.put(key, fixed);
        return fixed;
     }
     
+    /**
+     * Takes an immutable snapshot of the page
+     * 
+     * <p>
+     * The same snapshot is returned until the page's markup, identifier, 
+     * markup language, included snippets, the enabled conditions or the 
+     * custom stylesheet change. 
+     * The markup of a lazy page which is not in 
+     * memory is not read until it is needed, but it is pinned into the 
+     * snapshot before the page or its file changes.
+     * <p>
+     * Must be called on the event dispatch thread.
+     * 
+     * @return snapshot of the page's current state
+     */
+    public PageSnapshot snapshot() {
+        String currentMarkup = markup;
+        if (currentMarkup == null && evictableMarkup != null) {
+            currentMarkup = evictableMarkup.get();
+        }
+        
+        PageSnapshot last = lastSnapshot;
+        boolean sameVersion = last != null && last.getVersion() == version;
+        if (sameVersion && currentMarkup != null) {
+            last.pin(currentMarkup);
+        }
+        
+        // Without the markup in memory the last extracted snippet references 
+        // are used, which include the indirectly included snippets as well
+        Set<String> includedRefs = currentMarkup != null ? getDirectSnippetRefs() : new HashSet<>(snippetRefs);
+        IncludedSnippets included = IncludedSnippets.capture(snippets, includedRefs);
+        long stylesheetStamp = getStylesheetStamp();
+        
+        if (sameVersion && 
+            last.getId().equals(id) && 
+            last.getMarkupLanguage().equals(markupLanguage) &&
+            last.getIncludedSnippets().getVersions().equals(included.getVersions()) &&
+            last.getConditions().equals(conditions) &&
+            last.getStylesheetStamp() == stylesheetStamp) {
+            return last;
+        }
+        
+        // Snapshots of the same version share the markup, so pinning the 
+        // last one pins all of them
+        PageSnapshot.Markup snapshotMarkup = sameVersion ? 
+                last.getSharedMarkup() : new PageSnapshot.Markup(currentMarkup, source);
+        
+        PageSnapshot result = new PageSnapshot(this, id, markupLanguage, version, snapshotMarkup, 
+                                               included, conditions.copy(), stylesheetStamp);
+        lastSnapshot = result;
+        return result;
+    }
+    
+    /**
+     * Stores the page's current markup in its last snapshot if the snapshot 
+     * has not read it yet
+     * 
+     * <p>
+     * Must be called before the page's file is modified, renamed or deleted.
+     */
+    void pinSnapshot() {
+        PageSnapshot last = lastSnapshot;
+        if (last != null && !last.isPinned()) {
+            pinSnapshot(getMarkup());
+        }
+    }
+    
+    private void pinSnapshot(String currentMarkup) {
+        PageSnapshot last = lastSnapshot;
+        if (last != null && last.getVersion() == version) {
+            last.pin(currentMarkup);
+        }
+    }
+    
+    /**
+     * Gets the shared cache of the rendered pages
+     * 
+     * @return the cache used by the asHTML methods
+     */
+    public static RenderedHTMLCache getRenderedHTMLCache() {
+        return htmlCache;
+    }
+    
+    /**
+     * Called when the page's markup has been changed or reloaded
+     */
+    protected void markupChanged() {
+        version = versionCounter.incrementAndGet();
+        directSnippetRefs = null;
+    }
+    
+    /**
+     * Gets the version of the page's markup
+     * 
+     * @return a number which changes every time the markup changes
+     */
+    public long getVersion() {
+        return version;
+    }
+    
+    /**
+     * Gets the snippets referenced directly from the page's markup
+     * 
+     * @return identifiers of the directly included snippets
+     */
+    Set<String> getDirectSnippetRefs() {
+        if (directSnippetRefs == null) {
+            directSnippetRefs = findDirectSnippetRefs(getMarkup());
+        }
+        return directSnippetRefs;
+    }
+    
+    private long getStylesheetStamp() {
+        if (customStylesheet != null) {
+            return StylesheetProvider.forFile(customStylesheet).getStamp();
+        } else {
+            return 0;
+        }
+    }
+    
     /**
      * Gets the list of referenced pages
      * 
@@ -371,8 +884,15 @@ public class Page extends Observable {
     public void refresh() {
         hasChanged = true;
         
-        setChanged();
-        notifyObservers();
+        events.publish(new PageEvent(this, PageEvent.Type.CHANGED));
+    }
+    
+    /**
+     * Indicates that the stylesheets used to render the page have changed and
+     * the attached views must be refreshed. The page itself is not modified.
+     */
+    public void stylesheetChanged() {
+        events.publish(new PageEvent(this, PageEvent.Type.STYLESHEET_CHANGED));
     }
     
     /**
@@ -385,7 +905,7 @@ public class Page extends Observable {
      */
     public boolean saveIfModified(File root) throws IOException {
         
-        if (hasChanged || metadata.hasChanged()) {
+        if (hasChanged || (isMetadataLoaded && metadata.hasChanged())) {
             save(root);  
             
             return true;
@@ -394,22 +914,84 @@ public class Page extends Observable {
         }
     }    
     
+    /**
+     * Replaces the references to a page with references to a new identifier
+     * 
+     * @param oldId the referenced page's old identifier
+     * @param newId the referenced page's new identifier
+     */
     public void modifyPageReferences(String oldId, String newId) {
-        // TODO: this should belong to a markup language specific location        
-        setMarkup(
-            markup.replaceAll("(?i)\\[\\["+oldId+"\\]\\]", "[["+newId+"]]")
-                  .replaceAll("(?i)\\["+oldId+"\\]", "["+newId+"]")
-                  .replaceAll("(?i)\\[\\["+oldId+"\\|([a-zA-Z0-9,!\\?\\. ]+)\\]\\]", "[["+newId+"|$1]]")
-                  .replaceAll("(?i)\\["+oldId+" ([a-zA-Z0-9,!\\?\\. ]+)\\]", "["+newId+" $1]"));
+        modifyPageReferences(createReferencePattern(oldId), newId);
+    }
+    
+    /**
+     * Replaces the references matched by a reference pattern with references
+     * to a new identifier
+     * 
+     * @param referencePattern pattern created by {@link #createReferencePattern(String)}
+     * @param newId the referenced page's new identifier
+     * @return true if the page's markup has been modified
+     */
+    boolean modifyPageReferences(Pattern referencePattern, String newId) {
+        Matcher matcher = referencePattern.matcher(getMarkup());
+        if (!matcher.find()) {
+            return false;
+        }
+        
+        StringBuffer result = new StringBuffer();
+        do {
+            String replacement;
+            if (matcher.group(1) != null) {
+                replacement = "[[" + newId + StringUtils.defaultString(matcher.group(2)) + "]]";
+            } else {
+                replacement = "[" + newId + StringUtils.defaultString(matcher.group(3)) + "]";
+            }
+            
+            matcher.appendReplacement(result, Matcher.quoteReplacement(replacement));
+        } while (matcher.find());
+        matcher.appendTail(result);
+        
+        setMarkup(result.toString());
+        return true;
+    }
+    
+    /**
+     * Creates a pattern matching every form of reference to a given page
+     * 
+     * <p>
+     * The pattern matches the <code>[[id]]</code>, <code>[[id|title]]</code>,
+     * <code>[id]</code> and <code>[id title]</code> forms, ignoring the case
+     * of the identifier. It can be reused for any number of pages.
+     * 
+     * @param id the referenced page's identifier
+     * @return the compiled pattern
+     */
+    static Pattern createReferencePattern(String id) {
+        // TODO: this should belong to a markup language specific location
+        String quotedId = Pattern.quote(id);
+        String title = "[a-zA-Z0-9,!\\?\\. ]+";
+        
+        return Pattern.compile(
+                "(\\[\\[" + quotedId + "(\\|" + title + ")?\\]\\])" +
+                "|\\[" + quotedId + "( " + title + ")?\\]",
+                Pattern.CASE_INSENSITIVE);
     }
     
     public Set<String> findUsedConditionals() {
+        if (usedConditionals == null) {
+            usedConditionals = findConditionals(getMarkup());
+        }
+        
+        return new HashSet<>(usedConditionals);
+    }
+    
+    private static Set<String> findConditionals(String markup) {
         Set<String> result = new HashSet<>();
 
         List<String> lines = Arrays.asList(markup.split("\n"));
 
         for (String line : lines) {
-            Matcher conditionalStartMatcher = CONDITIONAL_START_PATTERN.matcher(line);
+            Matcher conditionalStartMatcher = MarkupPreprocessor.CONDITIONAL_START_PATTERN.matcher(line);
             if (conditionalStartMatcher.matches()) {
                 String condition = conditionalStartMatcher.group(1);
                 result.add(condition);
@@ -418,19 +1000,37 @@ public class Page extends Observable {
         
         return result;
     }
-
-    private void initializeParser() {
-        ServiceLocator serviceLocator = ServiceLocator.getInstance();              
-        language = serviceLocator.getMarkupLanguage(markupLanguage);
-        language.setInternalLinkPattern("{0}");
+    
+    private static Set<String> findDirectSnippetRefs(String markup) {
+        Set<String> result = new HashSet<>();
         
-        refExtractor = new PageRefExtractor(markupLanguage);
+        int start = markup.startsWith("[Snippet:") ? 0 : findNextSnippetLine(markup, 0);
+        while (start >= 0) {
+            int end = markup.indexOf('\n', start);
+            String line = end >= 0 ? markup.substring(start, end) : markup.substring(start);
+            
+            Matcher snippetMatcher = MarkupPreprocessor.SNIPPET_PATTERN.matcher(line);
+            if (snippetMatcher.matches()) {
+                result.add(snippetMatcher.group(1));
+            }
+            
+            start = end >= 0 ? findNextSnippetLine(markup, end) : -1;
+        }
         
-        isParserInitialized = true;
+        return result;
+    }
+
+    private static int findNextSnippetLine(String markup, int from) {
+        int index = markup.indexOf("\n[Snippet:", from);
+        return index >= 0 ? index + 1 : -1;
+    }
+
+    private List<String> extractReferences(String markup) {
+        return MarkupLanguageProvider.getRefExtractor(markupLanguage).getReferencedPages(markup);
     }
 
     public boolean equalsTemplate() {
-        return markup.equals(TEMPLATE);
+        return getMarkup().equals(TEMPLATE);
     }
 
     private String fixMarkupLanguage(String substring) {
@@ -444,69 +1044,13 @@ public class Page extends Observable {
         
     }
     
-    private String preprocessSnippets(String markup) {
-        boolean mayHaveSnippetRefs = true;
-        snippetRefs.clear();
-
-        while (mayHaveSnippetRefs) {
-            mayHaveSnippetRefs = false;
-            List<String> lines = Arrays.asList(markup.split("\n"));
-            List<String> resultLines = new LinkedList<>();
-
-            for (String line : lines) {
-                Matcher snippetMatcher = SNIPPET_PATTERN.matcher(line);
-                if (snippetMatcher.matches()) {
-
-                    String snippetId = snippetMatcher.group(1);
-                    snippetRefs.add(snippetId);
-
-                    Snippet snippet = snippets.getSnippet(snippetId);
-                    if (snippet != null) {
-                        resultLines.add(snippet.getMarkup());
-                        mayHaveSnippetRefs = true;
-                    }
-                } else {
-                    resultLines.add(line);
-                }
-            }
-
-            markup = StringUtils.join(resultLines, '\n');
-        }
-
-        return markup;
-    }
-
-    private String preprocessConditionals(String markup) {
-        Stack<String> conditionalStack = new Stack<>();
-        List<String> lines = Arrays.asList(markup.split("\n"));
-        List<String> resultLines = new LinkedList<>();
-
-        for (String line : lines) {
-            Matcher conditionalStartMatcher = CONDITIONAL_START_PATTERN.matcher(line);
-            Matcher conditionalEndMatcher = CONDITIONAL_END_PATTERN.matcher(line);
-
-            if (conditionalStartMatcher.matches()) {
-                String condition = conditionalStartMatcher.group(1);
-                conditionalStack.push(condition);
-            } else if (conditionalEndMatcher.matches()) {
-                if (!conditionalStack.empty()) {
-                    conditionalStack.pop();
-                }
-            } else {
-                if (conditions.allEnabled(conditionalStack)) {
-                    resultLines.add(line);
-                }
-            }
-        }
-        markup = StringUtils.join(resultLines, '\n');
-
-        return markup;
-
-    }
-
     private String preprocessMarkup(String markup) {
-        return preprocessConditionals(
-                preprocessSnippets(markup));
+        MarkupPreprocessor preprocessor = new MarkupPreprocessor(snippets, conditions);
+        String result = preprocessor.process(markup);
+        
+        snippetRefs.clear();
+        snippetRefs.addAll(preprocessor.getSnippetRefs());
+        return result;
     }
 
     private String annotateMarkup(boolean annotated, String markup) {
@@ -583,34 +1127,123 @@ public class Page extends Observable {
     }
 
     /**
-     * Reloads a page from the file system, optionally changing its id 
+     * Changes the page's identifier without reloading it
+     * 
+     * <p>
+     * The page's files must have already been renamed in the given directory.
+     * The page keeps its markup, metadata and unsaved changes.
      * 
-     * This is useful when a page has been renamed for example.
      * @param documentationDirectory documentation's root directory where the page files lie
-     * @param newId new id, can be null if the id has not been changed
+     * @param newId the page's new identifier
      */
-    void reload(File documentationDirectory, String newId) throws IOException, FileNotFoundException {
-        if (newId != null && !id.equals(newId)) {
-            id = newId;
-            metadata.changeId(newId);
-        }
+    void changeId(File documentationDirectory, String newId) {
+        getMetadata();
         
-        load(new File(documentationDirectory, id+"."+markupLanguage));
+        id = newId;
+        metadata.changeId(newId);
+        
+        if (source != null) {
+            source = getFile(documentationDirectory);
+        }
         
-        setChanged();            
-        notifyObservers();       
+        events.publish(new PageEvent(this, PageEvent.Type.CHANGED));
+    }
+    
+    /**
+     * Checks whether the page's references are being extracted in the background
+     * 
+     * @return true if the references returned by the page may be out of date
+     */
+    boolean hasPendingReferences() {
+        return hasPendingReferences;
     }
 
-    private void load(File source) throws IOException, FileNotFoundException {
+    private void load(File source, PageRefCache refCache, PageMetadata knownMetadata) throws IOException, FileNotFoundException {
         final String fileName = source.getName();
         final int lastDot = fileName.lastIndexOf('.');
         
         id = fileName.substring(0, lastDot);
         markupLanguage = fixMarkupLanguage(fileName.substring(lastDot + 1));
         
-        metadata = new PageMetadata(id);
-        metadata.load(source.getParentFile());
+        this.source = source;
+        sourceLength = source.length();
+        sourceModified = source.lastModified();
+        
+        if (knownMetadata != null) {
+            metadata = knownMetadata;
+            isMetadataLoaded = true;
+        } else if (lazy) {
+            metadata = new PageMetadata(id);
+            isMetadataLoaded = false;
+        } else {
+            metadata = new PageMetadata(id);
+            metadata.load(source.getParentFile());
+            isMetadataLoaded = true;
+        }
+        
+        markup = null;
+        evictableMarkup = null;
+        usedConditionals = null;
+        sourceHash = null;
+        snippetRefs.clear();
+        hasChanged = false;
+        hasPendingReferences = false;
+        markupChanged();
         
+        if (lazy && refCache != null) {
+            PageRefCache.Entry cached = refCache.get(getCacheKey(), source);
+            if (cached != null) {
+                useCachedRefs(cached);
+                sourceHash = cached.getHash();
+                return;
+            }
+        }
+        
+        String loaded = readMarkup(source);
+            
+        if (refCache != null) {
+            String hash = PageRefCache.hash(loaded);
+            PageRefCache.Entry cached = refCache.get(getCacheKey(), hash);
+            sourceHash = hash;
+
+            if (cached != null) {
+                useCachedRefs(cached);
+                
+                if (!cached.matches(source)) {
+                    // Same content with a new timestamp, updating the entry so
+                    // the file does not have to be read next time
+                    refCache.put(getCacheKey(), new PageRefCache.Entry(hash, sourceLength, sourceModified, 
+                            cached.getReferencedPages(), cached.getSnippets(), cached.getConditionals()));
+                }
+            } else {
+                refs = extractReferences(loaded);
+                Set<String> directSnippetRefs = findDirectSnippetRefs(loaded);
+                snippetRefs.addAll(directSnippetRefs);
+                this.directSnippetRefs = directSnippetRefs;
+                usedConditionals = findConditionals(loaded);
+
+                refCache.put(getCacheKey(), new PageRefCache.Entry(hash, sourceLength, sourceModified, 
+                        refs, directSnippetRefs, usedConditionals));
+            }
+        } else {
+            refs = extractReferences(loaded);
+        }
+        
+        if (lazy && openCount == 0) {
+            evict(loaded);
+        } else {
+            markup = loaded;
+        }
+    }
+    
+    private void useCachedRefs(PageRefCache.Entry cached) {
+        refs = new LinkedList<>(cached.getReferencedPages());
+        snippetRefs.addAll(cached.getSnippets());
+        directSnippetRefs = new HashSet<>(cached.getSnippets());
+        usedConditionals = new HashSet<>(cached.getConditionals());
+    }
+    
+    static String readMarkup(File source) throws IOException, FileNotFoundException {
         final FileInputStream stream = new FileInputStream(source);
         try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream, Charset.forName(CHARSET)))) {     
             
@@ -621,13 +1254,7 @@ public class Page extends Observable {
                 builder.append("\n");
             }
 
-            markup = builder.toString();
-            
-            initializeParser();
-            refs = refExtractor.getReferencedPages(markup);
-        }
-        finally {            
-            hasChanged = false;
+            return builder.toString();
         }
     }
 
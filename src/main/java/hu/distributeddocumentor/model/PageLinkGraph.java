@@ -0,0 +1,250 @@
+package hu.distributeddocumentor.model;
+
+import hu.distributeddocumentor.model.toc.TOC;
+import java.util.*;
+
+/**
+ * Incrementally maintained graph of the references between the pages
+ *
+ * <p>
+ * For every page the graph stores the pages linking to it. The page
+ * references are updated whenever a page's references change. The number of
+ * TOC nodes referring to a page is taken from the TOC's own index; nodes in
+ * the 'Unorganized' and 'Recycle bin' nodes do not count as references.
+ * <p>
+ * Pages losing their last page or TOC reference are collected as orphan
+ * candidates, so orphaned pages can be found without scanning the whole
+ * documentation.
+ * The 'start' page is always referenced.
+ * <p>
+ * The page identifiers are case insensitive.
+ *
+ * @author Daniel Vigovszky
+ * @see Documentation#processOrphanedPages()
+ */
+public class PageLinkGraph {
+
+    private static final String START_PAGE = "start";
+
+    private final TOC toc;
+    private final Map<String, Set<String>> outgoing = new HashMap<>();
+    private final Map<String, Set<String>> incoming = new HashMap<>();
+    private final Set<String> orphanCandidates = new HashSet<>();
+
+    /**
+     * Creates the graph
+     *
+     * @param toc the documentation's TOC, counting the TOC references
+     */
+    public PageLinkGraph(TOC toc) {
+        this.toc = toc;
+    }
+
+    /**
+     * Updates the outgoing references of a page
+     *
+     * @param page the added or modified page
+     */
+    public void updatePage(Page page) {
+        String key = normalize(page.getId());
+
+        Set<String> targets = new HashSet<>();
+        for (String target : page.getReferencedPages()) {
+            targets.add(normalize(target));
+        }
+
+        Set<String> previous = outgoing.get(key);
+        if (previous == null) {
+            previous = Collections.emptySet();
+
+            if (!isReferenced(key)) {
+                orphanCandidates.add(key);
+            }
+        } else if (previous.equals(targets)) {
+            return;
+        }
+
+        for (String target : previous) {
+            if (!targets.contains(target)) {
+                removeLink(key, target);
+            }
+        }
+        for (String target : targets) {
+            if (!previous.contains(target)) {
+                addLink(key, target);
+            }
+        }
+
+        outgoing.put(key, targets);
+    }
+
+    /**
+     * Removes a page's outgoing references from the graph
+     *
+     * @param pageId identifier of the removed page
+     */
+    public void removePage(String pageId) {
+        String key = normalize(pageId);
+
+        Set<String> previous = outgoing.remove(key);
+        if (previous != null) {
+            for (String target : previous) {
+                removeLink(key, target);
+            }
+        }
+
+        orphanCandidates.remove(key);
+    }
+
+    /**
+     * Moves every reference from and to a page to its new identifier
+     *
+     * <p>
+     * The pages linking to the renamed page are treated as if they already
+     * referred to the new identifier.
+     *
+     * @param oldId the page's old identifier
+     * @param newId the page's new identifier
+     */
+    public void renamePage(String oldId, String newId) {
+        String oldKey = normalize(oldId);
+        String newKey = normalize(newId);
+
+        if (oldKey.equals(newKey)) {
+            return;
+        }
+
+        Set<String> targets = outgoing.remove(oldKey);
+        if (targets != null) {
+            for (String target : targets) {
+                unlink(oldKey, target);
+            }
+        }
+
+        Set<String> sources = incoming.remove(oldKey);
+        if (sources != null) {
+            for (String source : sources) {
+                Set<String> sourceTargets = outgoing.get(source);
+                sourceTargets.remove(oldKey);
+                sourceTargets.add(newKey);
+                addLink(source, newKey);
+            }
+        }
+
+        if (targets != null) {
+            Set<String> newTargets = new HashSet<>();
+            for (String target : targets) {
+                newTargets.add(target.equals(oldKey) ? newKey : target);
+            }
+            for (String target : newTargets) {
+                addLink(newKey, target);
+            }
+            outgoing.put(newKey, newTargets);
+        }
+
+        orphanCandidates.remove(oldKey);
+        if (!isReferenced(newKey)) {
+            orphanCandidates.add(newKey);
+        }
+    }
+
+    /**
+     * Removes every page reference from the graph
+     */
+    public void clear() {
+        outgoing.clear();
+        incoming.clear();
+        orphanCandidates.clear();
+    }
+
+    /**
+     * Gets the pages linking to a given page
+     *
+     * @param pageId the page's identifier
+     * @return the lower case identifiers of the pages referring the page
+     */
+    public Set<String> getLinksTo(String pageId) {
+        Set<String> sources = incoming.get(normalize(pageId));
+        if (sources != null) {
+            return Collections.unmodifiableSet(new HashSet<>(sources));
+        } else {
+            return Collections.emptySet();
+        }
+    }
+
+    /**
+     * Gets the number of pages and TOC nodes referring to a page
+     *
+     * @param pageId the page's identifier
+     * @return the number of inbound references
+     */
+    public int getReferenceCount(String pageId) {
+        String key = normalize(pageId);
+
+        Set<String> sources = incoming.get(key);
+
+        return (sources != null ? sources.size() : 0) + toc.getReferenceCount(key);
+    }
+
+    /**
+     * Checks whether a page is referenced by any page or TOC node
+     *
+     * @param pageId the page's identifier
+     * @return true if the page is not an orphan
+     */
+    public boolean isReferenced(String pageId) {
+        return normalize(pageId).equals(START_PAGE) || getReferenceCount(pageId) > 0;
+    }
+
+    /**
+     * Gets and forgets the pages which have lost their last reference
+     *
+     * <p>
+     * The candidates may have been referenced again since then, so they have
+     * to be checked with {@link #isReferenced(String)}.
+     *
+     * @return the lower case identifiers of the orphan candidates
+     */
+    public Set<String> takeOrphanCandidates() {
+        Set<String> result = new HashSet<>(orphanCandidates);
+        orphanCandidates.clear();
+
+        for (String pageId : toc.takeUnreferencedPages()) {
+            if (!isReferenced(pageId)) {
+                result.add(pageId);
+            }
+        }
+        return result;
+    }
+
+    private void addLink(String source, String target) {
+        Set<String> sources = incoming.get(target);
+        if (sources == null) {
+            sources = new HashSet<>();
+            incoming.put(target, sources);
+        }
+        sources.add(source);
+    }
+
+    private void removeLink(String source, String target) {
+        unlink(source, target);
+
+        if (!isReferenced(target)) {
+            orphanCandidates.add(target);
+        }
+    }
+
+    private void unlink(String source, String target) {
+        Set<String> sources = incoming.get(target);
+        if (sources != null) {
+            sources.remove(source);
+            if (sources.isEmpty()) {
+                incoming.remove(target);
+            }
+        }
+    }
+
+    private static String normalize(String id) {
+        return id.toLowerCase();
+    }
+}
@@ -0,0 +1,181 @@
+package hu.distributeddocumentor.model;
+
+import hu.distributeddocumentor.gui.ProgressUI;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads page and snippet files from the file system, optionally in parallel
+ *
+ * <p>
+ * Loading a page means reading and decoding its markup, loading its metadata
+ * and extracting its page references. These steps are independent for every
+ * page so they can run on a bounded fork-join pool. The loaded pages are
+ * returned in the order of the input files, registering them into the
+ * documentation is left to the caller.
+ *
+ * @author Daniel Vigovszky
+ * @see Documentation
+ */
+class PageLoader {
+
+    private final SnippetCollection snippets;
+    private final Conditions conditions;
+    private final File customStylesheet;
+    private final PageRefCache refCache;
+    private final boolean lazy;
+    private final int parallelism;
+    private final ProgressUI progress;
+    private final int total;
+    private final AtomicInteger loaded = new AtomicInteger();
+
+    /**
+     * Creates the loader
+     *
+     * @param snippets snippet collection to be passed to the loaded pages
+     * @param conditions enabled conditions
+     * @param customStylesheet the documentation-specific custom stylesheet
+     * @param refCache the reference cache to be used, can be null
+     * @param lazy if true, the pages' markup and metadata are loaded on demand
+     * @param parallelism number of worker threads, 1 means sequential loading
+     * @param progress progress report interface
+     * @param total total number of files to be loaded, used for progress reporting
+     */
+    public PageLoader(SnippetCollection snippets, Conditions conditions, File customStylesheet, PageRefCache refCache, boolean lazy, int parallelism, ProgressUI progress, int total) {
+        this.snippets = snippets;
+        this.conditions = conditions;
+        this.customStylesheet = customStylesheet;
+        this.refCache = refCache;
+        this.lazy = lazy;
+        this.parallelism = Math.max(1, parallelism);
+        this.progress = progress;
+        this.total = total;
+    }
+
+    /**
+     * Loads a set of snippets
+     *
+     * @param files the snippet files to load
+     * @return the loaded snippets in the order of the given files
+     * @throws FailedToLoadPageException
+     */
+    public List<Snippet> loadSnippets(List<File> files) throws FailedToLoadPageException {
+        return loadSnippets(files, Collections.<File, PageMetadata>emptyMap());
+    }
+
+    /**
+     * Loads a set of snippets, reusing already known metadata
+     *
+     * @param files the snippet files to load
+     * @param knownMetadata metadata of the snippets which does not have to be loaded again, by snippet file
+     * @return the loaded snippets in the order of the given files
+     * @throws FailedToLoadPageException
+     */
+    public List<Snippet> loadSnippets(List<File> files, final Map<File, PageMetadata> knownMetadata) throws FailedToLoadPageException {
+
+        List<Callable<Snippet>> tasks = new ArrayList<>(files.size());
+        for (final File file : files) {
+            tasks.add(new Callable<Snippet>() {
+                @Override
+                public Snippet call() throws IOException {
+                    Snippet snippet = new Snippet(file, snippets, conditions, customStylesheet, refCache, knownMetadata.get(file), lazy);
+                    reportLoaded();
+                    return snippet;
+                }
+            });
+        }
+
+        return run(files, tasks);
+    }
+
+    /**
+     * Loads a set of pages
+     *
+     * @param files the page files to load
+     * @return the loaded pages in the order of the given files
+     * @throws FailedToLoadPageException
+     */
+    public List<Page> loadPages(List<File> files) throws FailedToLoadPageException {
+        return loadPages(files, Collections.<File, PageMetadata>emptyMap());
+    }
+
+    /**
+     * Loads a set of pages, reusing already known metadata
+     *
+     * @param files the page files to load
+     * @param knownMetadata metadata of the pages which does not have to be loaded again, by page file
+     * @return the loaded pages in the order of the given files
+     * @throws FailedToLoadPageException
+     */
+    public List<Page> loadPages(List<File> files, final Map<File, PageMetadata> knownMetadata) throws FailedToLoadPageException {
+
+        List<Callable<Page>> tasks = new ArrayList<>(files.size());
+        for (final File file : files) {
+            tasks.add(new Callable<Page>() {
+                @Override
+                public Page call() throws IOException {
+                    Page page = new Page(file, snippets, conditions, customStylesheet, refCache, knownMetadata.get(file), lazy);
+                    reportLoaded();
+                    return page;
+                }
+            });
+        }
+
+        return run(files, tasks);
+    }
+
+    private <T> List<T> run(List<File> files, List<Callable<T>> tasks) throws FailedToLoadPageException {
+
+        List<T> result = new ArrayList<>(tasks.size());
+
+        if (parallelism == 1 || tasks.size() < 2) {
+            for (int i = 0; i < tasks.size(); i++) {
+                try {
+                    result.add(tasks.get(i).call());
+                } catch (Exception ex) {
+                    throw new FailedToLoadPageException(files.get(i), ex);
+                }
+            }
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                List<Future<T>> futures = pool.invokeAll(tasks);
+
+                for (int i = 0; i < futures.size(); i++) {
+                    try {
+                        result.add(futures.get(i).get());
+                    } catch (ExecutionException ex) {
+                        Throwable cause = ex.getCause();
+                        throw new FailedToLoadPageException(files.get(i),
+                                cause instanceof Exception ? (Exception) cause : ex);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        throw new FailedToLoadPageException(files.get(i), ex);
+                    }
+                }
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+
+        return result;
+    }
+
+    private void reportLoaded() {
+        int count = loaded.incrementAndGet();
+
+        if (total > 0) {
+            progress.setStatus("Loading documentation (" + count + "/" + total + " pages)...");
+            progress.setProgress((double)count / total);
+        }
+    }
+}
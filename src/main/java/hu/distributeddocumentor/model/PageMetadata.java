@@ -1,10 +1,9 @@
 package hu.distributeddocumentor.model;
 
-import com.google.common.base.Joiner;
-import com.google.common.io.Files;
+import hu.distributeddocumentor.utils.PropertiesUtils;
 import java.io.*;
-import java.nio.charset.Charset;
-import java.util.List;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Properties;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -81,33 +80,60 @@ public class PageMetadata {
         hasChanged = false;
     }
     
+    /**
+     * Gets a copy of every stored value
+     * 
+     * @return the stored values by their keys
+     */
+    Map<String, String> getValues() {
+        Map<String, String> result = new HashMap<>();
+        for (String key : metadata.stringPropertyNames()) {
+            result.put(key, metadata.getProperty(key));
+        }
+        return result;
+    }
+    
+    /**
+     * Restores previously stored values without loading them from the file
+     * 
+     * @param values the stored values by their keys
+     */
+    void restore(Map<String, String> values) {
+        metadata.clear();
+        metadata.putAll(values);
+        
+        hasChanged = false;
+    }
+    
     /**
      * Saves the metadata to the file system
      * 
+     * <p>
+     * The values are written in a single pass, sorted by their keys and 
+     * without any comments to avoid merging conflicts.
+     * 
      * @param root the directory where the file should be placed
      */
     public void save(File root) {
         File metadataFile = getFile(root);
         
         try {            
-            try (OutputStream out = new FileOutputStream(metadataFile)) {
-                metadata.store(out, "Metadata of page " + pageId);
-            }
-            
-            // Removing comments to avoid merging conflicts            
-            final List<String> lines = Files.readLines(metadataFile, Charset.defaultCharset());
-            lines.remove(0);
-            lines.remove(0);
-            Files.write(Joiner.on('\n').join(lines), metadataFile, Charset.defaultCharset());
+            PropertiesUtils.store(getValues(), metadataFile);
         }
         catch (IOException ex) {                
-            log.error("Failed to load page metadata", ex);
-            metadata.clear();
+            log.error("Failed to save page metadata", ex);
         }
         
         hasChanged = false;
     }
         
+    /**
+     * Marks the metadata saved, when it is written by a {@link BackgroundSaver}
+     */
+    void markSaved() {
+        hasChanged = false;
+    }
+        
     /**
      * Gets the file name of the metadata store
      * 
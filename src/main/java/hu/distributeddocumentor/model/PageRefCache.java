@@ -0,0 +1,279 @@
+package hu.distributeddocumentor.model;
+
+import com.google.common.hash.Hashing;
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persistent cache of the references extracted from the pages' markup
+ *
+ * <p>
+ * For every page the cache stores a hash of its markup together with the
+ * page references, the directly included snippets and the used conditionals
+ * found in it. If the page's markup has not changed since the cache was
+ * written, these can be used instead of parsing the markup again.
+ * <p>
+ * The cache is stored in a single binary file in the version control
+ * repository's metadata directory, next to the model snapshot, so it is
+ * never part of the working copy. It is silently discarded if it cannot be
+ * read or was written by a different format version.
+ * <p>
+ * The cache can be accessed concurrently while the pages are being loaded.
+ *
+ * @author Daniel Vigovszky
+ * @see Page
+ */
+public class PageRefCache {
+
+    private static final Logger log = LoggerFactory.getLogger(PageRefCache.class.getName());
+
+    /**
+     * Name of the cache file in the repository's metadata directory
+     */
+    public static final String FILE_NAME = "documentor.refcache";
+
+    private static final int MAGIC = 0x44445246;
+    private static final int VERSION = 2;
+
+    private final File file;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicBoolean modified = new AtomicBoolean();
+
+    /**
+     * Cached references of a single page
+     */
+    public static class Entry {
+
+        private final String hash;
+        private final long length;
+        private final long lastModified;
+        private final List<String> referencedPages;
+        private final Set<String> snippets;
+        private final Set<String> conditionals;
+
+        /**
+         * Creates a cache entry
+         *
+         * @param hash hash of the page's markup
+         * @param length length of the page's file
+         * @param lastModified last modification time of the page's file
+         * @param referencedPages identifiers of the referenced pages
+         * @param snippets identifiers of the directly included snippets
+         * @param conditionals conditions used in the page's markup
+         */
+        public Entry(String hash, long length, long lastModified, List<String> referencedPages, Set<String> snippets, Set<String> conditionals) {
+            this.hash = hash;
+            this.length = length;
+            this.lastModified = lastModified;
+            this.referencedPages = Collections.unmodifiableList(new ArrayList<>(referencedPages));
+            this.snippets = Collections.unmodifiableSet(new HashSet<>(snippets));
+            this.conditionals = Collections.unmodifiableSet(new HashSet<>(conditionals));
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * Checks if the entry was created from the given file's current version
+         *
+         * @param file the page's file
+         * @return true if the file's length and modification time still match
+         */
+        public boolean matches(File file) {
+            return file.length() == length && file.lastModified() == lastModified;
+        }
+
+        public List<String> getReferencedPages() {
+            return referencedPages;
+        }
+
+        public Set<String> getSnippets() {
+            return snippets;
+        }
+
+        public Set<String> getConditionals() {
+            return conditionals;
+        }
+    }
+
+    /**
+     * Creates an empty cache
+     *
+     * @param file the file used to persist the cache
+     */
+    public PageRefCache(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Calculates the hash of a page's markup as it is stored in the cache
+     *
+     * @param markup the page's markup
+     * @return hexadecimal representation of the hash
+     */
+    public static String hash(String markup) {
+        return Hashing.murmur3_128().hashString(markup, Charset.forName(Page.CHARSET)).toString();
+    }
+
+    /**
+     * Gets the cached references of a page if its markup has not changed
+     *
+     * @param key the page's cache key
+     * @param hash hash of the page's current markup
+     * @return the cached entry, or null if there is no valid entry for the page
+     */
+    public Entry get(String key, String hash) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.getHash().equals(hash)) {
+            return entry;
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Gets the cached references of a page if its file has not changed
+     *
+     * <p>
+     * This check does not require reading the page's file, but relies on its
+     * length and modification time only.
+     *
+     * @param key the page's cache key
+     * @param file the page's file
+     * @return the cached entry, or null if there is no valid entry for the file
+     */
+    public Entry get(String key, File file) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.matches(file)) {
+            return entry;
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Stores the references of a page
+     *
+     * @param key the page's cache key
+     * @param entry the references belonging to the page's current markup
+     */
+    public void put(String key, Entry entry) {
+        entries.put(key, entry);
+        modified.set(true);
+    }
+
+    /**
+     * Drops every entry whose key is not in the given set
+     *
+     * @param keys the keys of the existing pages
+     */
+    public void retain(Set<String> keys) {
+        if (entries.keySet().retainAll(keys)) {
+            modified.set(true);
+        }
+    }
+
+    /**
+     * Loads the cache from its file
+     *
+     * <p>
+     * If the file does not exist or cannot be used, the cache remains empty.
+     */
+    public void load() {
+
+        entries.clear();
+        modified.set(false);
+
+        if (file.exists()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    log.info("Ignoring reference cache with unknown format");
+                    return;
+                }
+
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    String key = in.readUTF();
+                    String hash = in.readUTF();
+                    long length = in.readLong();
+                    long lastModified = in.readLong();
+                    List<String> refs = readStrings(in, new ArrayList<String>());
+                    Set<String> snippets = readStrings(in, new HashSet<String>());
+                    Set<String> conditionals = readStrings(in, new HashSet<String>());
+
+                    entries.put(key, new Entry(hash, length, lastModified, refs, snippets, conditionals));
+                }
+            } catch (IOException ex) {
+                log.warn("Failed to load reference cache: " + ex.getMessage());
+                entries.clear();
+            }
+        }
+    }
+
+    /**
+     * Writes the cache to its file if it has been modified since it was loaded
+     */
+    public void saveIfModified() {
+        if (modified.getAndSet(false)) {
+            save();
+        }
+    }
+
+    /**
+     * Writes the cache to its file
+     */
+    public void save() {
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            Map<String, Entry> snapshot = new HashMap<>(entries);
+            out.writeInt(snapshot.size());
+            for (Map.Entry<String, Entry> item : snapshot.entrySet()) {
+                Entry entry = item.getValue();
+
+                out.writeUTF(item.getKey());
+                out.writeUTF(entry.getHash());
+                out.writeLong(entry.getLength());
+                out.writeLong(entry.getLastModified());
+                writeStrings(out, entry.getReferencedPages());
+                writeStrings(out, entry.getSnippets());
+                writeStrings(out, entry.getConditionals());
+            }
+        } catch (IOException ex) {
+            log.warn("Failed to save reference cache: " + ex.getMessage());
+        }
+    }
+
+    private static <T extends Collection<String>> T readStrings(DataInputStream in, T target) throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            target.add(in.readUTF());
+        }
+        return target;
+    }
+
+    private static void writeStrings(DataOutputStream out, Collection<String> items) throws IOException {
+        out.writeInt(items.size());
+        for (String item : items) {
+            out.writeUTF(item);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package hu.distributeddocumentor.model;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Immutable state of a page at a given markup version
+ *
+ * <p>
+ * Snapshots can be used from background threads, for example by the
+ * exporters, while the page itself keeps being edited. The included
+ * snippets and the enabled conditions are captured as well, so rendering a
+ * snapshot does not touch the live snippets. The page returns the
+ * same snapshot instance as long as its markup and identifier do not change.
+ * <p>
+ * The markup of a lazy page which is not held in memory is read from the
+ * page's file when it is first needed. The page pins its current markup into
+ * the snapshot before the markup is modified, or the file is renamed or
+ * deleted, so the snapshot never sees a newer state of the page.
+ *
+ * @author Daniel Vigovszky
+ * @see Page#snapshot()
+ */
+public final class PageSnapshot {
+
+    private final Page page;
+    private final String id;
+    private final String markupLanguage;
+    private final long version;
+    private final Markup markup;
+    private final IncludedSnippets includedSnippets;
+    private final Conditions conditions;
+    private final long stylesheetStamp;
+
+    PageSnapshot(Page page, String id, String markupLanguage, long version, Markup markup,
+                 IncludedSnippets includedSnippets, Conditions conditions, long stylesheetStamp) {
+        this.page = page;
+        this.id = id;
+        this.markupLanguage = markupLanguage;
+        this.version = version;
+        this.markup = markup;
+        this.includedSnippets = includedSnippets;
+        this.conditions = conditions;
+        this.stylesheetStamp = stylesheetStamp;
+    }
+
+    /**
+     * Gets the page the snapshot was taken of
+     *
+     * @return the live page object
+     */
+    public Page getPage() {
+        return page;
+    }
+
+    /**
+     * Gets the page's identifier at the time of the snapshot
+     *
+     * @return the page's identifier
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Gets the page's markup language at the time of the snapshot
+     *
+     * @return name of the markup language
+     */
+    public String getMarkupLanguage() {
+        return markupLanguage;
+    }
+
+    /**
+     * Gets the version of the page's markup at the time of the snapshot
+     *
+     * @return the markup version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Gets the page's markup
+     *
+     * @return the page's source in its markup language
+     */
+    public String getMarkup() {
+        return markup.get();
+    }
+
+    /**
+     * Gets the snippets included by the page at the time of the snapshot
+     *
+     * @return the captured snippets
+     */
+    IncludedSnippets getIncludedSnippets() {
+        return includedSnippets;
+    }
+
+    /**
+     * Gets the conditions enabled at the time of the snapshot
+     *
+     * @return a copy of the enabled conditions
+     */
+    Conditions getConditions() {
+        return conditions;
+    }
+
+    /**
+     * Gets the stamp of the custom stylesheet at the time of the snapshot
+     *
+     * @return the stylesheet's stamp
+     * @see StylesheetProvider#getStamp()
+     */
+    long getStylesheetStamp() {
+        return stylesheetStamp;
+    }
+
+    /**
+     * Checks whether the snapshot's markup is held in memory
+     *
+     * @return false if the markup would be read from the page's file
+     */
+    boolean isPinned() {
+        return markup.isPinned();
+    }
+
+    /**
+     * Stores the markup of the snapshot's version if it has not been read yet
+     *
+     * <p>
+     * Called by the page before its markup or its file changes.
+     *
+     * @param currentMarkup the page's markup at the snapshot's version
+     */
+    void pin(String currentMarkup) {
+        markup.pin(currentMarkup);
+    }
+
+    /**
+     * Gets the markup holder, to be shared with the next snapshot of the
+     * same markup version
+     *
+     * @return the holder of the snapshot's markup
+     */
+    Markup getSharedMarkup() {
+        return markup;
+    }
+
+    /**
+     * Gets the page's contents in HTML
+     *
+     * <p>
+     * The snippets and conditions are applied as they were when the
+     * snapshot was taken.
+     *
+     * @param pathToRoot relative path to the root where scripts and stylesheets lie
+     * @return returns the page markup converted to HTML
+     */
+    public String asHTML(String pathToRoot) {
+        return page.renderSnapshot(this, false, false, pathToRoot);
+    }
+
+    /**
+     * Gets the page's contents in HTML with the stylesheet embedded into it
+     *
+     * @return returns the page markup converted to HTML
+     * @see Page#asHTMLembeddingCSS()
+     */
+    public String asHTMLembeddingCSS() {
+        return page.renderSnapshot(this, true, false, "");
+    }
+
+    /**
+     * Gets the page's contents in HTML with the stylesheet embedded into it,
+     * annotated with the markup's line numbers
+     *
+     * @return returns the page markup converted to HTML
+     * @see Page#asAnnotatedHTMLembeddingCSS()
+     */
+    public String asAnnotatedHTMLembeddingCSS() {
+        return page.renderSnapshot(this, true, true, "");
+    }
+
+    /**
+     * The markup of a page version, shared by every snapshot taken of that
+     * version
+     */
+    static final class Markup {
+
+        private final File source;
+        private String text;         // guarded by this
+
+        /**
+         * Creates the holder
+         *
+         * @param text the markup, or null if it has to be read from the file
+         * @param source the page's file
+         */
+        Markup(String text, File source) {
+            this.text = text;
+            this.source = source;
+        }
+
+        synchronized String get() {
+            if (text == null) {
+                try {
+                    text = Page.readMarkup(source);
+                } catch (IOException ex) {
+                    throw new IllegalStateException("Failed to read " + source, ex);
+                }
+            }
+            return text;
+        }
+
+        synchronized boolean isPinned() {
+            return text != null;
+        }
+
+        synchronized void pin(String currentMarkup) {
+            if (text == null) {
+                text = currentMarkup;
+            }
+        }
+    }
+}
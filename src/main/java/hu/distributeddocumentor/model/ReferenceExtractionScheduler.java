@@ -0,0 +1,143 @@
+package hu.distributeddocumentor.model;
+
+import hu.distributeddocumentor.model.builders.MarkupLanguageProvider;
+import java.util.*;
+import java.util.concurrent.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Extracts the references of edited pages on a background thread
+ *
+ * <p>
+ * Extracting the references means preprocessing and parsing the whole page,
+ * which is too slow to be done on every keystroke. The scheduler waits until
+ * the page has not been changed for a short delay, and only processes the
+ * latest markup; the extractions requested in the meantime are dropped. The
+ * page's state is not touched on the background thread: the markup language
+ * and a preprocessor working on the captured snippets and conditions are
+ * passed in when the extraction is scheduled. The results are passed back to
+ * the page on the result executor, which is typically the UI thread.
+ *
+ * @author Daniel Vigovszky
+ * @see Page
+ */
+public class ReferenceExtractionScheduler {
+
+    private static final Logger log = LoggerFactory.getLogger(ReferenceExtractionScheduler.class.getName());
+
+    private final ScheduledExecutorService executor;
+    private final Executor resultExecutor;
+    private final long delay;
+
+    private final Map<Page, Long> pendingVersions = new HashMap<>();
+    private final Map<Page, ScheduledFuture<?>> pendingTasks = new HashMap<>();
+
+    /**
+     * Creates the scheduler
+     *
+     * @param resultExecutor executor used to pass the results to the pages
+     * @param delay milliseconds to wait for further changes before extracting the references
+     */
+    public ReferenceExtractionScheduler(Executor resultExecutor, long delay) {
+        this.resultExecutor = resultExecutor;
+        this.delay = delay;
+
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Reference extraction");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Schedules the extraction of a page's references, replacing any
+     * extraction of the same page not started yet
+     *
+     * <p>
+     * Must be called on the thread the page is modified on.
+     *
+     * @param page the changed page
+     * @param markup the page's new markup
+     * @param markupLanguage the page's markup language
+     * @param preprocessor preprocessor using the snippets and conditions
+     *                     captured together with the markup
+     * @param version the version of the page's new markup
+     */
+    void schedule(final Page page, final String markup, final String markupLanguage,
+                  final MarkupPreprocessor preprocessor, final long version) {
+        final String pageId = page.getId();
+
+        synchronized (pendingVersions) {
+            ScheduledFuture<?> previous = pendingTasks.get(page);
+            if (previous != null) {
+                previous.cancel(false);
+            }
+
+            pendingVersions.put(page, version);
+            pendingTasks.put(page, executor.schedule(new Runnable() {
+
+                @Override
+                public void run() {
+                    extract(page, pageId, markup, markupLanguage, preprocessor, version);
+                }
+            }, delay, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    /**
+     * Checks whether there are any extractions whose results have not been
+     * passed to their pages yet
+     *
+     * @return true if some pages' references may be out of date
+     */
+    public boolean hasPendingExtractions() {
+        synchronized (pendingVersions) {
+            return !pendingVersions.isEmpty();
+        }
+    }
+
+    private void extract(final Page page, String pageId, String markup, String markupLanguage,
+                         MarkupPreprocessor preprocessor, final long version) {
+        synchronized (pendingVersions) {
+            Long pendingVersion = pendingVersions.get(page);
+            if (pendingVersion == null || pendingVersion != version) {
+                return;
+            }
+            pendingTasks.remove(page);
+        }
+
+        try {
+            String preprocessed = preprocessor.process(markup);
+
+            final List<String> refs = MarkupLanguageProvider.getRefExtractor(markupLanguage)
+                                                            .getReferencedPages(preprocessed);
+            final Set<String> snippetRefs = new HashSet<>(preprocessor.getSnippetRefs());
+
+            resultExecutor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    completed(page, version);
+                    page.applyExtractedReferences(version, refs, snippetRefs);
+                }
+            });
+        } catch (RuntimeException ex) {
+            log.error("Failed to extract the references of page " + pageId, ex);
+            completed(page, version);
+        }
+    }
+
+    private void completed(Page page, long version) {
+        synchronized (pendingVersions) {
+            Long pendingVersion = pendingVersions.get(page);
+            if (pendingVersion != null && pendingVersion == version) {
+                pendingVersions.remove(page);
+            }
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package hu.distributeddocumentor.model;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of the HTML rendered from the pages' markup
+ *
+ * <p>
+ * Every entry is keyed by everything the rendered HTML depends on: the page's
+ * markup hash, the versions of the snippets it transitively includes, the
+ * enabled conditions, the path to the documentation root, the stylesheet
+ * embedding and annotation modes. A changed input simply produces a different
+ * key, so stale entries are never returned; they are dropped when a snippet
+ * they depend on changes, or evicted in least recently used order once the
+ * total size of the cached HTML exceeds the limit.
+ * <p>
+ * The cache can be used from multiple threads.
+ *
+ * @author Daniel Vigovszky
+ * @see Page
+ */
+public class RenderedHTMLCache {
+
+    private final long maxSize;
+    private final LinkedHashMap<Key, String> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Identifies one rendering of a page
+     */
+    static class Key {
+
+        private final String pageId;
+        private final String markupHash;
+        private final Map<String, Long> snippetVersions;
+        private final Set<String> conditions;
+        private final String pathToRoot;
+        private final String root;
+        private final boolean embedCSS;
+        private final boolean annotated;
+        private final long stylesheetStamp;
+
+        public Key(String pageId, String markupHash, Map<String, Long> snippetVersions, Iterable<String> conditions,
+                   String pathToRoot, String root, boolean embedCSS, boolean annotated, long stylesheetStamp) {
+            this.pageId = pageId;
+            this.markupHash = markupHash;
+            this.snippetVersions = new TreeMap<>(snippetVersions);
+            this.conditions = new TreeSet<>();
+            for (String condition : conditions) {
+                this.conditions.add(condition);
+            }
+            this.pathToRoot = pathToRoot;
+            this.root = root;
+            this.embedCSS = embedCSS;
+            this.annotated = annotated;
+            this.stylesheetStamp = stylesheetStamp;
+        }
+
+        public boolean dependsOn(String snippetId) {
+            return snippetVersions.containsKey(snippetId);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+
+            Key other = (Key) obj;
+            return pageId.equals(other.pageId)
+                   && markupHash.equals(other.markupHash)
+                   && snippetVersions.equals(other.snippetVersions)
+                   && conditions.equals(other.conditions)
+                   && pathToRoot.equals(other.pathToRoot)
+                   && Objects.equals(root, other.root)
+                   && embedCSS == other.embedCSS
+                   && annotated == other.annotated
+                   && stylesheetStamp == other.stylesheetStamp;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(pageId, markupHash, snippetVersions, conditions, pathToRoot, root,
+                                embedCSS, annotated, stylesheetStamp);
+        }
+    }
+
+    /**
+     * Creates the cache
+     *
+     * @param maxSize maximum number of cached HTML characters
+     */
+    public RenderedHTMLCache(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Gets a cached rendering and counts the hit or miss
+     *
+     * @param key the rendering's key
+     * @return the cached HTML or null
+     */
+    synchronized String get(Key key) {
+        String html = entries.get(key);
+        if (html != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return html;
+    }
+
+    /**
+     * Stores a rendering, evicting the least recently used ones if necessary
+     *
+     * @param key the rendering's key
+     * @param html the rendered HTML
+     */
+    synchronized void put(Key key, String html) {
+        if (html.length() > maxSize) {
+            return;
+        }
+
+        String previous = entries.put(key, html);
+        if (previous != null) {
+            size -= previous.length();
+        }
+        size += html.length();
+
+        Iterator<String> iterator = entries.values().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            size -= iterator.next().length();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Drops every rendering which includes the given snippet
+     *
+     * @param snippetId the changed snippet's identifier
+     */
+    synchronized void invalidateSnippet(String snippetId) {
+        Iterator<Map.Entry<Key, String>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Key, String> entry = iterator.next();
+            if (entry.getKey().dependsOn(snippetId)) {
+                size -= entry.getValue().length();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes every cached rendering
+     */
+    public synchronized void clear() {
+        entries.clear();
+        size = 0;
+    }
+
+    /**
+     * Gets the number of cached renderings
+     *
+     * @return the number of entries
+     */
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    /**
+     * Gets the total size of the cached HTML
+     *
+     * @return the number of cached characters
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Gets how many times a rendering was found in the cache
+     *
+     * @return the number of cache hits
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Gets how many times a page had to be rendered
+     *
+     * @return the number of cache misses
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+}
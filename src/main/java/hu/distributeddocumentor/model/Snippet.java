@@ -28,6 +28,39 @@ public class Snippet extends Page {
         super(source, snippets, conditions, customStylesheet);
     }
 
+    /**
+     * Loads a snippet from the file system, using a reference cache
+     * 
+     * @param source snippet file to load
+     * @param snippets the snippet collection to be used when resolving snippet references in the markup
+     * @param conditions enabled conditions
+     * @param customStylesheet The documentation-specific custom stylesheet
+     * @param refCache the reference cache to be used, can be null
+     * @param lazy if true, the markup and metadata are loaded on demand
+     * @throws FileNotFoundException
+     * @throws IOException
+     */
+    public Snippet(File source, SnippetCollection snippets, Conditions conditions, File customStylesheet, PageRefCache refCache, boolean lazy) throws FileNotFoundException, IOException {
+        super(source, snippets, conditions, customStylesheet, refCache, lazy);
+    }
+
+    /**
+     * Loads a snippet from the file system with already known metadata
+     * 
+     * @param source snippet file to load
+     * @param snippets the snippet collection to be used when resolving snippet references in the markup
+     * @param conditions enabled conditions
+     * @param customStylesheet The documentation-specific custom stylesheet
+     * @param refCache the reference cache to be used, can be null
+     * @param knownMetadata the snippet's metadata if it is already known, otherwise null
+     * @param lazy if true, the markup and metadata are loaded on demand
+     * @throws FileNotFoundException
+     * @throws IOException
+     */
+    Snippet(File source, SnippetCollection snippets, Conditions conditions, File customStylesheet, PageRefCache refCache, PageMetadata knownMetadata, boolean lazy) throws FileNotFoundException, IOException {
+        super(source, snippets, conditions, customStylesheet, refCache, knownMetadata, lazy);
+    }
+
     /**
      * Creates a new snippet
      * 
@@ -39,4 +72,15 @@ public class Snippet extends Page {
     public Snippet(String id, SnippetCollection snippets, Conditions conditions, File customStylesheet) {
         super(id, snippets, conditions, customStylesheet);
     }   
+
+    @Override
+    protected String getCacheKey() {
+        return "Snippet:" + getId();
+    }
+
+    @Override
+    protected void markupChanged() {
+        super.markupChanged();
+        getRenderedHTMLCache().invalidateSnippet(getId());
+    }
 }
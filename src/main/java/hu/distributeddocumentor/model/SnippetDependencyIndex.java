@@ -0,0 +1,146 @@
+package hu.distributeddocumentor.model;
+
+import java.util.*;
+
+/**
+ * Reverse index of the snippet inclusions
+ *
+ * <p>
+ * The index stores which pages and snippets include each snippet directly,
+ * based on the snippet references in their markup. The pages affected by a
+ * snippet, including the ones which include it only through other snippets,
+ * can be collected by walking the index upwards, without touching any page
+ * which does not depend on the snippet.
+ * <p>
+ * The identifiers are case insensitive, the same way as in the
+ * documentation's page and snippet collections.
+ *
+ * @author Daniel Vigovszky
+ * @see Snippet
+ */
+class SnippetDependencyIndex {
+
+    private final Map<String, Set<String>> pageIncludes = new HashMap<>();
+    private final Map<String, Set<String>> snippetIncludes = new HashMap<>();
+    private final Map<String, Set<String>> includingPages = new HashMap<>();
+    private final Map<String, Set<String>> includingSnippets = new HashMap<>();
+
+    /**
+     * Updates the snippet references of a page
+     *
+     * @param page the added or modified page
+     */
+    public void updatePage(Page page) {
+        update(pageIncludes, includingPages, page.getId(), page.getDirectSnippetRefs());
+    }
+
+    /**
+     * Updates the snippet references of a snippet
+     *
+     * @param snippet the added or modified snippet
+     */
+    public void updateSnippet(Snippet snippet) {
+        update(snippetIncludes, includingSnippets, snippet.getId(), snippet.getDirectSnippetRefs());
+    }
+
+    /**
+     * Removes a page from the index
+     *
+     * @param id the removed page's identifier
+     */
+    public void removePage(String id) {
+        update(pageIncludes, includingPages, id, Collections.<String>emptySet());
+    }
+
+    /**
+     * Removes a snippet's own references from the index
+     *
+     * <p>
+     * The pages and snippets referring the removed snippet are still
+     * reported as its users.
+     *
+     * @param id the removed snippet's identifier
+     */
+    public void removeSnippet(String id) {
+        update(snippetIncludes, includingSnippets, id, Collections.<String>emptySet());
+    }
+
+    /**
+     * Removes every entry from the index
+     */
+    public void clear() {
+        pageIncludes.clear();
+        snippetIncludes.clear();
+        includingPages.clear();
+        includingSnippets.clear();
+    }
+
+    /**
+     * Gets the pages which include a snippet directly or through other snippets
+     *
+     * @param snippetId the snippet's identifier
+     * @return the lower case identifiers of the pages including the snippet
+     */
+    public Set<String> getPagesIncluding(String snippetId) {
+        Set<String> result = new HashSet<>();
+        Set<String> visited = new HashSet<>();
+        Deque<String> pending = new ArrayDeque<>();
+        pending.add(normalize(snippetId));
+
+        while (!pending.isEmpty()) {
+            String current = pending.remove();
+
+            if (visited.add(current)) {
+                Set<String> pages = includingPages.get(current);
+                if (pages != null) {
+                    result.addAll(pages);
+                }
+
+                Set<String> snippets = includingSnippets.get(current);
+                if (snippets != null) {
+                    pending.addAll(snippets);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    private static void update(Map<String, Set<String>> includes, Map<String, Set<String>> including, String id, Set<String> snippetRefs) {
+        String key = normalize(id);
+
+        Set<String> previous = includes.remove(key);
+        if (previous != null) {
+            for (String snippetId : previous) {
+                Set<String> users = including.get(snippetId);
+                if (users != null) {
+                    users.remove(key);
+                    if (users.isEmpty()) {
+                        including.remove(snippetId);
+                    }
+                }
+            }
+        }
+
+        if (!snippetRefs.isEmpty()) {
+            Set<String> current = new HashSet<>();
+            for (String snippetId : snippetRefs) {
+                current.add(normalize(snippetId));
+            }
+            includes.put(key, current);
+
+            for (String snippetId : current) {
+                Set<String> users = including.get(snippetId);
+                if (users == null) {
+                    users = new HashSet<>();
+                    including.put(snippetId, users);
+                }
+                users.add(key);
+            }
+        }
+    }
+
+    private static String normalize(String id) {
+        return id.toLowerCase();
+    }
+}
@@ -0,0 +1,135 @@
+package hu.distributeddocumentor.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the contents of a stylesheet in memory for embedding it into the
+ * rendered pages
+ *
+ * <p>
+ * The built-in <code>documentation.css</code> is read from the class path
+ * only once. A custom stylesheet is read again when its modification time or
+ * size changes, or when it has been invalidated explicitly after the
+ * application itself modified it. There is one provider per stylesheet file,
+ * shared by every page rendered with it.
+ * <p>
+ * The providers can be used from multiple threads.
+ *
+ * @author Daniel Vigovszky
+ */
+public class StylesheetProvider {
+
+    private static final Logger log = LoggerFactory.getLogger(StylesheetProvider.class.getName());
+
+    private static final ConcurrentMap<File, StylesheetProvider> providers = new ConcurrentHashMap<>();
+    private static volatile String documentationCSS;
+
+    private final File file;
+    private String contents;
+    private long lastModified;
+    private long length;
+    private long version;
+    private boolean valid;
+
+    private StylesheetProvider(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Gets the provider of a custom stylesheet
+     *
+     * @param file the stylesheet file, which may not exist
+     * @return the shared provider of the given file
+     */
+    public static StylesheetProvider forFile(File file) {
+        File key = file.getAbsoluteFile();
+        StylesheetProvider provider = providers.get(key);
+        if (provider == null) {
+            StylesheetProvider newProvider = new StylesheetProvider(key);
+            provider = providers.putIfAbsent(key, newProvider);
+            if (provider == null) {
+                provider = newProvider;
+            }
+        }
+        return provider;
+    }
+
+    /**
+     * Gets the contents of the built-in stylesheet
+     *
+     * @return the contents of <code>documentation.css</code>
+     */
+    public static String getDocumentationCSS() {
+        String css = documentationCSS;
+        if (css == null) {
+            try (InputStream stream = StylesheetProvider.class.getResourceAsStream("/documentation.css")) {
+                css = IOUtils.toString(stream, Page.CHARSET);
+            } catch (IOException ex) {
+                log.error("Failed to read the built-in stylesheet", ex);
+                css = "";
+            }
+            documentationCSS = css;
+        }
+        return css;
+    }
+
+    /**
+     * Gets the contents of the stylesheet, reading it again if it has changed
+     *
+     * @return the stylesheet's contents, or null if the file does not exist
+     *         or cannot be read
+     */
+    public synchronized String getContents() {
+        validate();
+        return contents;
+    }
+
+    /**
+     * Gets a stamp identifying the current contents of the stylesheet
+     *
+     * @return a number which changes every time the stylesheet is read again
+     */
+    public synchronized long getStamp() {
+        validate();
+        return version;
+    }
+
+    /**
+     * Forces the stylesheet to be read again before its next use
+     */
+    public synchronized void invalidate() {
+        valid = false;
+    }
+
+    private void validate() {
+        long currentLastModified = file.lastModified();
+        long currentLength = file.length();
+
+        if (!valid || currentLastModified != lastModified || currentLength != length) {
+            if (currentLastModified == 0 && !file.exists()) {
+                contents = null;
+            } else {
+                try {
+                    contents = new String(Files.readAllBytes(file.toPath()), Charset.forName(Page.CHARSET));
+                } catch (IOException ex) {
+                    log.error("Failed to read " + file, ex);
+                    contents = null;
+                }
+            }
+
+            lastModified = currentLastModified;
+            length = currentLength;
+            valid = true;
+            version++;
+        }
+    }
+}
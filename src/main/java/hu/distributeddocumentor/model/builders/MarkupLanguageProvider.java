@@ -0,0 +1,107 @@
+package hu.distributeddocumentor.model.builders;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.eclipse.mylyn.wikitext.core.parser.DocumentBuilder;
+import org.eclipse.mylyn.wikitext.core.parser.MarkupParser;
+import org.eclipse.mylyn.wikitext.core.parser.markup.MarkupLanguage;
+import org.eclipse.mylyn.wikitext.core.util.ServiceLocator;
+
+/**
+ * Shared provider of configured markup languages and parsers
+ *
+ * <p>
+ * Looking up a markup language through the {@link ServiceLocator} and setting
+ * it up is expensive, so every language is looked up only once and kept as a
+ * template. Markup language instances hold state while parsing, so they
+ * cannot be shared between threads: every thread gets its own copy of the
+ * template, together with a parser and a reference extractor, which are then
+ * reused for every page processed on that thread.
+ * <p>
+ * The returned parsers and extractors must not be used recursively, for
+ * example from a document builder driven by the same parser.
+ *
+ * @author Daniel Vigovszky
+ * @see PageRefExtractor
+ */
+public class MarkupLanguageProvider {
+
+    private static final Map<String, MarkupLanguage> templates = new ConcurrentHashMap<>();
+
+    private static final ThreadLocal<Map<String, MarkupParser>> parsers = new ThreadLocal<Map<String, MarkupParser>>() {
+
+        @Override
+        protected Map<String, MarkupParser> initialValue() {
+            return new HashMap<>();
+        }
+    };
+
+    private static final ThreadLocal<Map<String, PageRefExtractor>> refExtractors = new ThreadLocal<Map<String, PageRefExtractor>>() {
+
+        @Override
+        protected Map<String, PageRefExtractor> initialValue() {
+            return new HashMap<>();
+        }
+    };
+
+    /**
+     * Creates a new, configured instance of a markup language
+     *
+     * @param markupLanguage name of the markup language
+     * @return a markup language instance owned by the caller
+     */
+    public static MarkupLanguage createMarkupLanguage(String markupLanguage) {
+        MarkupLanguage template = templates.get(markupLanguage);
+
+        if (template == null) {
+            ServiceLocator serviceLocator = ServiceLocator.getInstance();
+            template = serviceLocator.getMarkupLanguage(markupLanguage);
+            template.setInternalLinkPattern("{0}");
+
+            templates.put(markupLanguage, template);
+        }
+
+        synchronized (template) {
+            return template.clone();
+        }
+    }
+
+    /**
+     * Gets the current thread's parser for a markup language
+     *
+     * @param markupLanguage name of the markup language
+     * @param builder the document builder to be driven by the parser
+     * @return the parser, reused by later calls on the same thread
+     */
+    public static MarkupParser getParser(String markupLanguage, DocumentBuilder builder) {
+        Map<String, MarkupParser> threadParsers = parsers.get();
+
+        MarkupParser parser = threadParsers.get(markupLanguage);
+        if (parser == null) {
+            parser = new MarkupParser(createMarkupLanguage(markupLanguage));
+            threadParsers.put(markupLanguage, parser);
+        }
+
+        parser.setBuilder(builder);
+        return parser;
+    }
+
+    /**
+     * Gets the current thread's reference extractor for a markup language
+     *
+     * @param markupLanguage name of the markup language
+     * @return the reference extractor, reused by later calls on the same thread
+     */
+    public static PageRefExtractor getRefExtractor(String markupLanguage) {
+        Map<String, PageRefExtractor> threadExtractors = refExtractors.get();
+
+        PageRefExtractor extractor = threadExtractors.get(markupLanguage);
+        if (extractor == null) {
+            extractor = new PageRefExtractor(createMarkupLanguage(markupLanguage));
+            threadExtractors.put(markupLanguage, extractor);
+        }
+
+        return extractor;
+    }
+}
@@ -6,7 +6,6 @@ import org.eclipse.mylyn.wikitext.core.parser.Attributes;
 import org.eclipse.mylyn.wikitext.core.parser.DocumentBuilder;
 import org.eclipse.mylyn.wikitext.core.parser.MarkupParser;
 import org.eclipse.mylyn.wikitext.core.parser.markup.MarkupLanguage;
-import org.eclipse.mylyn.wikitext.core.util.ServiceLocator;
 
 public class PageRefExtractor extends DocumentBuilder {
     
@@ -14,10 +13,10 @@ public class PageRefExtractor extends DocumentBuilder {
     private List<String> refs;
     
     public PageRefExtractor(String markupLanguage) {
-        ServiceLocator serviceLocator = ServiceLocator.getInstance();              
-        MarkupLanguage language = serviceLocator.getMarkupLanguage(markupLanguage);                
-        language.setInternalLinkPattern("{0}");
-        
+        this(MarkupLanguageProvider.createMarkupLanguage(markupLanguage));
+    }
+    
+    public PageRefExtractor(MarkupLanguage language) {
         parser = new MarkupParser(language, this);         
     }
     
@@ -0,0 +1,26 @@
+package hu.distributeddocumentor.model.events;
+
+/**
+ * Defines how the events are delivered to a subscriber of an {@link EventBus}
+ *
+ * @author Daniel Vigovszky
+ */
+public enum DispatchPolicy {
+
+    /**
+     * Every event is delivered immediately, on the publishing thread
+     */
+    SYNCHRONOUS,
+
+    /**
+     * The events published within the bus' coalescing window are merged and
+     * only the latest one is delivered, on the bus' coalescing executor
+     * (the Swing event dispatch thread by default)
+     */
+    COALESCED,
+
+    /**
+     * Every event is delivered in order on a shared background thread
+     */
+    BACKGROUND
+}
@@ -0,0 +1,65 @@
+package hu.distributeddocumentor.model.events;
+
+import hu.distributeddocumentor.model.Documentation;
+
+/**
+ * Event published when the set of pages or snippets of the documentation
+ * has been modified
+ *
+ * @author Daniel Vigovszky
+ */
+public final class DocumentationEvent {
+
+    /**
+     * Kind of the modification
+     */
+    public enum Type {
+
+        /**
+         * A new snippet has been added
+         */
+        SNIPPET_ADDED,
+
+        /**
+         * A snippet has been removed
+         */
+        SNIPPET_REMOVED,
+
+        /**
+         * A page or snippet has been renamed
+         */
+        PAGE_RENAMED
+    }
+
+    private final Documentation documentation;
+    private final Type type;
+
+    /**
+     * Creates the event
+     *
+     * @param documentation the modified documentation
+     * @param type kind of the modification
+     */
+    public DocumentationEvent(Documentation documentation, Type type) {
+        this.documentation = documentation;
+        this.type = type;
+    }
+
+    /**
+     * Gets the modified documentation
+     *
+     * @return the documentation which published the event
+     */
+    public Documentation getDocumentation() {
+        return documentation;
+    }
+
+    /**
+     * Gets the kind of the modification
+     *
+     * @return the event type
+     */
+    public Type getType() {
+        return type;
+    }
+}
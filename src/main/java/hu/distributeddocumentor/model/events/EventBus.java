@@ -0,0 +1,192 @@
+package hu.distributeddocumentor.model.events;
+
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.swing.SwingUtilities;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Typed event bus with per-subscriber dispatch policies
+ *
+ * <p>
+ * Replaces the synchronous observer pattern, where every change was
+ * delivered to every observer on the publishing thread. Expensive
+ * subscribers, like the HTML preview, can be registered with the
+ * {@link DispatchPolicy#COALESCED} policy, so they only process the latest
+ * of the events published while they were waiting, for example during
+ * typing.
+ * <p>
+ * Events can be published from any thread. A subscriber throwing an
+ * exception does not prevent the delivery to the others.
+ *
+ * @author Daniel Vigovszky
+ * @param <E> type of the events
+ * @see DispatchPolicy
+ */
+public class EventBus<E> {
+
+    private static final Logger log = LoggerFactory.getLogger(EventBus.class.getName());
+
+    /**
+     * Default length of the coalescing window in milliseconds
+     */
+    public static final long DEFAULT_COALESCING_WINDOW = 200;
+
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("Event coalescing"));
+    private static final ExecutorService background = Executors.newSingleThreadExecutor(new DaemonThreadFactory("Event dispatch"));
+
+    private static final Executor swingExecutor = new Executor() {
+
+        @Override
+        public void execute(Runnable command) {
+            SwingUtilities.invokeLater(command);
+        }
+    };
+
+    private final List<Subscription<E>> subscriptions = new CopyOnWriteArrayList<>();
+    private final Executor coalescingExecutor;
+    private final long coalescingWindow;
+
+    /**
+     * Creates a bus delivering the coalesced events on the Swing event
+     * dispatch thread, using the default coalescing window
+     */
+    public EventBus() {
+        this(swingExecutor, DEFAULT_COALESCING_WINDOW);
+    }
+
+    /**
+     * Creates a bus
+     *
+     * @param coalescingExecutor executor used to deliver the coalesced events
+     * @param coalescingWindow milliseconds to wait for further events before
+     *                         delivering the latest one to the coalesced subscribers
+     */
+    public EventBus(Executor coalescingExecutor, long coalescingWindow) {
+        this.coalescingExecutor = coalescingExecutor;
+        this.coalescingWindow = coalescingWindow;
+    }
+
+    /**
+     * Registers a subscriber
+     *
+     * @param subscriber the subscriber to be registered
+     * @param policy defines how the events are delivered to the subscriber
+     */
+    public void subscribe(EventSubscriber<? super E> subscriber, DispatchPolicy policy) {
+        subscriptions.add(new Subscription<E>(subscriber, policy));
+    }
+
+    /**
+     * Removes a subscriber
+     *
+     * <p>
+     * The events which have not been delivered to the subscriber yet are
+     * dropped.
+     *
+     * @param subscriber the subscriber to be removed
+     */
+    public void unsubscribe(EventSubscriber<? super E> subscriber) {
+        for (Subscription<E> subscription : subscriptions) {
+            if (subscription.subscriber == subscriber) {
+                subscription.active = false;
+                subscriptions.remove(subscription);
+            }
+        }
+    }
+
+    /**
+     * Publishes an event to every subscriber
+     *
+     * @param event the event to be published, must not be null
+     */
+    public void publish(E event) {
+        for (Subscription<E> subscription : subscriptions) {
+            switch (subscription.policy) {
+                case SYNCHRONOUS:
+                    subscription.deliver(event);
+                    break;
+                case COALESCED:
+                    publishCoalesced(subscription, event);
+                    break;
+                case BACKGROUND:
+                    publishInBackground(subscription, event);
+                    break;
+            }
+        }
+    }
+
+    private void publishCoalesced(final Subscription<E> subscription, E event) {
+        if (subscription.pending.getAndSet(event) == null) {
+            // No delivery is scheduled yet, the latest event will be
+            // delivered at the end of the window
+            scheduler.schedule(new Runnable() {
+
+                @Override
+                public void run() {
+                    coalescingExecutor.execute(new Runnable() {
+
+                        @Override
+                        public void run() {
+                            E latest = subscription.pending.getAndSet(null);
+                            if (latest != null) {
+                                subscription.deliver(latest);
+                            }
+                        }
+                    });
+                }
+            }, coalescingWindow, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void publishInBackground(final Subscription<E> subscription, final E event) {
+        background.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                subscription.deliver(event);
+            }
+        });
+    }
+
+    private static class Subscription<E> {
+
+        private final EventSubscriber<? super E> subscriber;
+        private final DispatchPolicy policy;
+        private final AtomicReference<E> pending = new AtomicReference<>();
+        private volatile boolean active = true;
+
+        Subscription(EventSubscriber<? super E> subscriber, DispatchPolicy policy) {
+            this.subscriber = subscriber;
+            this.policy = policy;
+        }
+
+        void deliver(E event) {
+            if (active) {
+                try {
+                    subscriber.onEvent(event);
+                } catch (RuntimeException ex) {
+                    log.error("Event subscriber failed", ex);
+                }
+            }
+        }
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+
+        private final String name;
+
+        DaemonThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, name);
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
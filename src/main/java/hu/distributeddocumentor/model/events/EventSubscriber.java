@@ -0,0 +1,21 @@
+package hu.distributeddocumentor.model.events;
+
+/**
+ * Receives the events published on an {@link EventBus}
+ *
+ * @author Daniel Vigovszky
+ * @param <E> type of the events
+ */
+public interface EventSubscriber<E> {
+
+    /**
+     * Called when an event is delivered to the subscriber
+     *
+     * <p>
+     * The thread the method is called on depends on the
+     * {@link DispatchPolicy} the subscriber was registered with.
+     *
+     * @param event the published event
+     */
+    void onEvent(E event);
+}
@@ -0,0 +1,31 @@
+package hu.distributeddocumentor.model.events;
+
+import hu.distributeddocumentor.model.Images;
+
+/**
+ * Event published when the set of images has been modified
+ *
+ * @author Daniel Vigovszky
+ */
+public final class ImagesEvent {
+
+    private final Images images;
+
+    /**
+     * Creates the event
+     *
+     * @param images the modified image collection
+     */
+    public ImagesEvent(Images images) {
+        this.images = images;
+    }
+
+    /**
+     * Gets the modified image collection
+     *
+     * @return the image collection which published the event
+     */
+    public Images getImages() {
+        return images;
+    }
+}
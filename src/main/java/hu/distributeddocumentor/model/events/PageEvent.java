@@ -0,0 +1,72 @@
+package hu.distributeddocumentor.model.events;
+
+import hu.distributeddocumentor.model.Page;
+
+/**
+ * Event published when a page has been modified
+ *
+ * @author Daniel Vigovszky
+ */
+public final class PageEvent {
+
+    /**
+     * Kind of the modification
+     */
+    public enum Type {
+
+        /**
+         * The page's markup, markup language or identifier has changed
+         */
+        CHANGED,
+
+        /**
+         * The page's links and snippet references have been extracted
+         * in the background, or have been changed by reloading the page's
+         * file modified outside of the editor
+         */
+        REFERENCES_UPDATED,
+
+        /**
+         * The page's metadata has changed
+         */
+        METADATA_CHANGED,
+
+        /**
+         * The stylesheets used to render the page have changed, the page
+         * itself did not change
+         */
+        STYLESHEET_CHANGED
+    }
+
+    private final Page page;
+    private final Type type;
+
+    /**
+     * Creates the event
+     *
+     * @param page the modified page
+     * @param type kind of the modification
+     */
+    public PageEvent(Page page, Type type) {
+        this.page = page;
+        this.type = type;
+    }
+
+    /**
+     * Gets the modified page
+     *
+     * @return the page which published the event
+     */
+    public Page getPage() {
+        return page;
+    }
+
+    /**
+     * Gets the kind of the modification
+     *
+     * @return the event type
+     */
+    public Type getType() {
+        return type;
+    }
+}
@@ -3,14 +3,15 @@ package hu.distributeddocumentor.model.toc;
 import hu.distributeddocumentor.model.Documentation;
 import hu.distributeddocumentor.model.ExportableNode;
 import hu.distributeddocumentor.model.Page;
+import hu.distributeddocumentor.model.PageSnapshot;
 import hu.distributeddocumentor.model.virtual.builders.VirtualNodeException;
 import hu.distributeddocumentor.prefs.DocumentorPreferences;
 import java.io.File;
+import java.io.IOException;
 import java.util.*;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 /**
  * A node of the TOC tree
@@ -18,17 +19,36 @@ import org.w3c.dom.NodeList;
  * <p> To modify TOC nodes use methods in the {@link TOC} class itself, so it
  * can notify its listeners about the change and maintain consistency.
  *
+ * <p> The children are stored in an array list, and every child remembers
+ * its index in its parent, so looking up a child's index does not have to
+ * scan the list. The indices following an insertion or removal are
+ * renumbered lazily, on the next lookup. The node's path is cached as well,
+ * and rebuilt only when an ancestor's path changes.
+ *
+ * <p> The node's last snapshot is kept as well, and reused as long as the
+ * node, its target page and its children's snapshots are unchanged.
+ *
  * @author Daniel Vigovszky
  * @see TOC
  */
 public class DefaultTOCNode implements TOCNode, TOCNodeOperations, TOCNodeSerialization {
     protected static final Collection<File> noExtraImages = new HashSet<>();
+    private static final Object[] noPath = new Object[0];
     
     protected final TOCNodeFactory factory;
     private String title;
     private Page target;
     private TOCNode parent;
     private final List<TOCNode> children;
+    private final List<TOCNode> childrenView;
+    
+    private int indexInParent = -1;
+    private int validIndexCount;
+    
+    private Object[] path;
+    private Object[] pathOfParent;
+    
+    private volatile TOCSnapshot.Node snapshot;
 
     /**
      * Creates a new empty node
@@ -37,7 +57,8 @@ public class DefaultTOCNode implements TOCNode, TOCNodeOperations, TOCNodeSerial
      */
     public DefaultTOCNode(TOCNodeFactory factory) {
         this.factory = factory;
-        children = new LinkedList<>();
+        children = new ArrayList<>();
+        childrenView = new ChildrenView();
     }
 
     /**
@@ -86,7 +107,7 @@ public class DefaultTOCNode implements TOCNode, TOCNodeOperations, TOCNodeSerial
      */
     @Override
     public List<TOCNode> getChildren() {
-        return Collections.unmodifiableList(children);
+        return childrenView;
     }
 
     /**
@@ -117,6 +138,7 @@ public class DefaultTOCNode implements TOCNode, TOCNodeOperations, TOCNodeSerial
     @Override
     public void setTarget(Page target) {
         this.target = target;
+        invalidateSnapshot();
     }
 
     /**
@@ -137,6 +159,7 @@ public class DefaultTOCNode implements TOCNode, TOCNodeOperations, TOCNodeSerial
     @Override
     public void setTitle(String title) {
         this.title = title;
+        invalidateSnapshot();
     }
 
     /**
@@ -146,8 +169,7 @@ public class DefaultTOCNode implements TOCNode, TOCNodeOperations, TOCNodeSerial
      */
     @Override
     public void addToEnd(TOCNode child) {
-        children.add(child);
-        factory.getOperations(child).setParent(this);
+        insertChild(children.size(), child);
     }
 
     /**
@@ -158,8 +180,7 @@ public class DefaultTOCNode implements TOCNode, TOCNodeOperations, TOCNodeSerial
      */
     @Override
     public void addBefore(TOCNode existingChild, TOCNode newChild) {
-        children.add(children.indexOf(existingChild), newChild);
-        factory.getOperations(newChild).setParent(this);
+        insertChild(indexOfChild(existingChild), newChild);
     }
 
     /**
@@ -170,8 +191,7 @@ public class DefaultTOCNode implements TOCNode, TOCNodeOperations, TOCNodeSerial
      */
     @Override
     public void addAfter(TOCNode existingChild, TOCNode newChild) {
-        children.add(children.indexOf(existingChild) + 1, newChild);
-        factory.getOperations(newChild).setParent(this);
+        insertChild(indexOfChild(existingChild) + 1, newChild);
     }
 
     /**
@@ -192,6 +212,8 @@ public class DefaultTOCNode implements TOCNode, TOCNodeOperations, TOCNodeSerial
     @Override
     public void setParent(TOCNode parent) {
         this.parent = parent;
+        path = null;
+        pathOfParent = null;
     }
 
     @Override
@@ -210,84 +232,139 @@ public class DefaultTOCNode implements TOCNode, TOCNodeOperations, TOCNodeSerial
     }
 
     /**
-     * Creates the node's XML representation for serialization
+     * Writes the node's and its children's XML representation
      *
-     * @param doc the XML document being constructed
-     * @return returns the XML node representing this TOC node
+     * @param writer the XML writer to be used
+     * @throws IOException
      */
     @Override
-    public Node toXML(Document doc) {
+    public void toXML(TOCXMLWriter writer) throws IOException {
 
-        Element elem = doc.createElement("Node");
-        fillXMLElement(elem);
+        Map<String, String> attributes = new TreeMap<>();
+        fillXMLAttributes(attributes);
 
+        writer.writeStartElement("Node", attributes);
         for (TOCNode node : children) {
-            elem.appendChild(factory.getSerialization(node).toXML(doc));
+            factory.getSerialization(node).toXML(writer);
         }
+        writer.writeEndElement("Node");
+    }
 
-        return elem;
+    /**
+     * Takes an immutable snapshot of the node and its children
+     *
+     * @return the previous snapshot if nothing has changed in the subtree
+     * since it was taken, otherwise a new one sharing the unchanged children
+     */
+    @Override
+    public TOCSnapshot.Node toSnapshot() {
+        PageSnapshot targetSnapshot = target != null ? target.snapshot() : null;
+        
+        TOCSnapshot.Node last = snapshot;
+        boolean unchanged = last != null && 
+                            last.getTarget() == targetSnapshot && 
+                            last.getChildren().size() == children.size();
+        
+        List<TOCSnapshot.Node> childSnapshots = new ArrayList<>(children.size());
+        for (TOCNode child : children) {
+            TOCSnapshot.Node childSnapshot = factory.getSerialization(child).toSnapshot();
+            if (unchanged && last.getChildren().get(childSnapshots.size()) != childSnapshot) {
+                unchanged = false;
+            }
+            childSnapshots.add(childSnapshot);
+        }
+        
+        if (unchanged) {
+            return last;
+        }
+        
+        Map<String, String> attributes = new TreeMap<>();
+        fillXMLAttributes(attributes);
+        
+        TOCSnapshot.Node result = new TOCSnapshot.Node(this, title, targetSnapshot, attributes, childSnapshots, 
+                                                       createVirtualHierarchy());
+        snapshot = result;
+        return result;
+    }
+    
+    /**
+     * Captures the settings needed to generate the node's subtree in a 
+     * snapshot
+     * 
+     * @return the hierarchy generator, or null if this is not a virtual root node
+     */
+    protected TOCSnapshot.VirtualHierarchy createVirtualHierarchy() {
+        return null;
+    }
+    
+    /**
+     * Forgets the node's last snapshot, must be called when any data 
+     * written by {@link #fillXMLAttributes(Map)} changes
+     */
+    protected void invalidateSnapshot() {
+        snapshot = null;
     }
 
     /**
-     * Fills an XML Element with the node specific data
+     * Fills the XML attributes with the node specific data
      *
-     * @param elem element to fill with information
+     * @param attributes attributes of the node's XML element to fill
      */
-    protected void fillXMLElement(Element elem) {
-        elem.setAttribute("title", title);
+    protected void fillXMLAttributes(Map<String, String> attributes) {
+        if (title != null) {
+            attributes.put("title", title);
+        }
 
         if (target != null) {
-            elem.setAttribute("target", target.getId());
+            attributes.put("target", target.getId());
         }
     }
 
     /**
-     * Loads the node from its XML representation
+     * Loads the node and its children from their XML representation
      *
-     * @param node the XML node representing this TOC node
-     * @param doc the XML document being loaded
+     * @param reader the XML stream, positioned on the node's start element
+     * @param doc the documentation used to resolve the page references
      * @param factory the TOCNode class factory
+     * @throws XMLStreamException if the XML representation is invalid
      * @throws ClassNotFoundException if the referenced virtual hierarchy
      * builder class does not exist
      */
     @Override
-    public void fromXML(Node node, Documentation doc, TOCNodeFactory factory) throws ClassNotFoundException {
+    public void fromXML(XMLStreamReader reader, Documentation doc, TOCNodeFactory factory) throws XMLStreamException, ClassNotFoundException {
 
-        Node sibling;
-        for (sibling = node; sibling != null; sibling = sibling.getNextSibling()) {
-            if (sibling.getNodeType() == Node.ELEMENT_NODE) {
-                break;
-            }
+        Map<String, String> attributes = new HashMap<>();
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            attributes.put(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
         }
 
-        if (sibling != null) {
-            Element elem = (Element) sibling;
-
-            fromXMLElement(elem, doc);
+        fromXMLAttributes(attributes, doc);
+        invalidateSnapshot();
 
-            children.clear();
+        clearChildren();
 
-            NodeList childNodes = elem.getChildNodes();
-            for (int i = 0; i < childNodes.getLength(); i++) {
-                Node childNode = childNodes.item(i);
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
 
-                if (childNode.getNodeType() == Node.ELEMENT_NODE) {
+            TOCNode child = factory.fromXML(reader);
+            factory.getSerialization(child).fromXML(reader, doc, factory);
 
-                    TOCNode child = factory.fromXML(childNode);
-                    factory.getSerialization(child).fromXML(childNode, doc, factory);
-                    factory.getOperations(child).setParent(this);
-
-                    children.add(child);
-                }
-            }
+            insertChild(children.size(), child);
         }
     }
 
-    protected void fromXMLElement(Element elem, Documentation doc) throws ClassNotFoundException {
-        title = elem.getAttribute("title");
+    /**
+     * Loads the node specific data from the XML attributes
+     *
+     * @param attributes attributes of the node's XML element
+     * @param doc the documentation used to resolve the page references
+     * @throws ClassNotFoundException if the referenced virtual hierarchy
+     * builder class does not exist
+     */
+    protected void fromXMLAttributes(Map<String, String> attributes, Documentation doc) throws ClassNotFoundException {
+        title = attributes.containsKey("title") ? attributes.get("title") : "";
 
-        if (elem.hasAttribute("target")) {
-            String targetId = elem.getAttribute("target");
+        if (attributes.containsKey("target")) {
+            String targetId = attributes.get("target");
 
             target = doc.getPage(targetId);
 
@@ -326,7 +403,10 @@ public class DefaultTOCNode implements TOCNode, TOCNodeOperations, TOCNodeSerial
      */
     @Override
     public void remove(TOCNode child) {
-        children.remove(child);
+        int idx = indexOfChild(child);
+        if (idx >= 0) {
+            removeChild(idx);
+        }
     }
 
     /**
@@ -336,7 +416,7 @@ public class DefaultTOCNode implements TOCNode, TOCNodeOperations, TOCNodeSerial
      */
     @Override
     public void deepRemove(TOCNode child) {
-        children.remove(child);
+        remove(child);
 
         for (TOCNode childNode : children) {
             factory.getOperations(childNode).deepRemove(child);
@@ -363,7 +443,7 @@ public class DefaultTOCNode implements TOCNode, TOCNodeOperations, TOCNodeSerial
         }
 
         for (TOCNode childNode : toRemove) {
-            children.remove(childNode);
+            remove(childNode);
         }
     }
 
@@ -410,10 +490,10 @@ public class DefaultTOCNode implements TOCNode, TOCNodeOperations, TOCNodeSerial
      */
     @Override
     public void replaceChild(TOCNode child, TOCNode newChild) {
-        int idx = children.indexOf(child);
+        int idx = indexOfChild(child);
         if (idx >= 0) {
-            children.remove(idx);
-            children.add(idx, newChild);
+            children.set(idx, newChild);
+            setIndexInParent(newChild, idx);
             factory.getOperations(newChild).setParent(this);
         }
     }
@@ -421,19 +501,26 @@ public class DefaultTOCNode implements TOCNode, TOCNodeOperations, TOCNodeSerial
     /**
      * Converts this node to a node path
      *
+     * <p> The returned array is cached and shared, it must not be modified.
+     *
      * @return an array where every array item belongs to one level, first item
      * being the root.
      */
     @Override
     public Object[] toPath() {
 
-        Object[] parentPath = parent == null ? new Object[0] : parent.toPath();
-        Object[] result = new Object[parentPath.length + 1];
+        Object[] parentPath = parent == null ? noPath : parent.toPath();
+        if (path == null || pathOfParent != parentPath) {
+            Object[] result = new Object[parentPath.length + 1];
 
-        System.arraycopy(parentPath, 0, result, 0, parentPath.length);
-        result[parentPath.length] = this;
+            System.arraycopy(parentPath, 0, result, 0, parentPath.length);
+            result[parentPath.length] = this;
 
-        return result;
+            path = result;
+            pathOfParent = parentPath;
+        }
+
+        return path;
     }
 
     /**
@@ -463,6 +550,7 @@ public class DefaultTOCNode implements TOCNode, TOCNodeOperations, TOCNodeSerial
     @Override
     public void clearChildren() {
         children.clear();
+        validIndexCount = 0;
     }
 
     /**
@@ -480,4 +568,88 @@ public class DefaultTOCNode implements TOCNode, TOCNodeOperations, TOCNodeSerial
 
         return new ExportableNode(this, null, noExtraImages);        
     }
+
+    private void insertChild(int index, TOCNode child) {
+        children.add(index, child);
+        factory.getOperations(child).setParent(this);
+
+        // The children following the new one have been shifted
+        validIndexCount = Math.min(validIndexCount, index);
+        if (validIndexCount == index) {
+            setIndexInParent(child, index);
+            validIndexCount++;
+        }
+    }
+
+    private void removeChild(int index) {
+        children.remove(index);
+        validIndexCount = Math.min(validIndexCount, index);
+    }
+
+    private int indexOfChild(Object child) {
+        if (!(child instanceof DefaultTOCNode)) {
+            return children.indexOf(child);
+        }
+
+        DefaultTOCNode node = (DefaultTOCNode) child;
+        if (node.parent != this) {
+            return -1;
+        }
+
+        // The indices of the first validIndexCount children are up to date,
+        // so a stale index can only belong to a child following them
+        int idx = node.indexInParent;
+        if (idx < 0 || idx >= validIndexCount || children.get(idx) != node) {
+            for (int i = validIndexCount; i < children.size(); i++) {
+                setIndexInParent(children.get(i), i);
+            }
+            validIndexCount = children.size();
+
+            idx = node.indexInParent;
+        }
+
+        if (idx >= 0 && idx < children.size() && children.get(idx) == node) {
+            return idx;
+        } else {
+            return -1;
+        }
+    }
+
+    private static void setIndexInParent(TOCNode child, int index) {
+        if (child instanceof DefaultTOCNode) {
+            ((DefaultTOCNode) child).indexInParent = index;
+        }
+    }
+
+    /**
+     * Read-only view of the child nodes, looking up the children's indices
+     * without scanning the list
+     */
+    private class ChildrenView extends AbstractList<TOCNode> implements RandomAccess {
+
+        @Override
+        public TOCNode get(int index) {
+            return children.get(index);
+        }
+
+        @Override
+        public int size() {
+            return children.size();
+        }
+
+        @Override
+        public int indexOf(Object o) {
+            return indexOfChild(o);
+        }
+
+        @Override
+        public int lastIndexOf(Object o) {
+            return indexOfChild(o);
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return indexOfChild(o) >= 0;
+        }
+    }
 }
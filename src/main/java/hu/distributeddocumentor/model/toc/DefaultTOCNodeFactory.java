@@ -2,8 +2,7 @@ package hu.distributeddocumentor.model.toc;
 
 import hu.distributeddocumentor.model.Page;
 import java.io.File;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
+import javax.xml.stream.XMLStreamReader;
 
 
 public class DefaultTOCNodeFactory implements TOCNodeFactory {   
@@ -14,20 +13,9 @@ public class DefaultTOCNodeFactory implements TOCNodeFactory {
     }
 
     @Override
-    public TOCNode fromXML(Node node) {
-        Node sibling;
-        for (sibling = node; sibling != null; sibling = sibling.getNextSibling()) {
-            if (sibling.getNodeType() == Node.ELEMENT_NODE) {
-                break;
-            }
-        }
-        
-        if (sibling != null) {
-            Element elem = (Element)sibling;
-            
-            if (elem.hasAttribute("virtual-hierarchy-builder")) {
-                return new DefaultVirtualTOCNode(this, customStylesheet);
-            }
+    public TOCNode fromXML(XMLStreamReader reader) {
+        if (reader.getAttributeValue(null, "virtual-hierarchy-builder") != null) {
+            return new DefaultVirtualTOCNode(this, customStylesheet);
         }
         
         return new DefaultTOCNode(this);
@@ -8,10 +8,10 @@ import hu.distributeddocumentor.model.virtual.builders.VirtualNodeException;
 import hu.distributeddocumentor.prefs.DocumentorPreferences;
 import java.io.File;
 import java.lang.reflect.InvocationTargetException;
+import java.util.Map;
 import org.apache.commons.lang3.reflect.ConstructorUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.w3c.dom.Element;
 
 
 public class DefaultVirtualTOCNode extends DefaultTOCNode implements VirtualTOCNode {
@@ -48,6 +48,7 @@ public class DefaultVirtualTOCNode extends DefaultTOCNode implements VirtualTOCN
     @Override
     public void setSourcePath(String sourcePath) {
         this.sourcePath = sourcePath;
+        invalidateSnapshot();
     }
 
     /**
@@ -71,25 +72,26 @@ public class DefaultVirtualTOCNode extends DefaultTOCNode implements VirtualTOCN
     @Override
     public void setVirtualHierarchyBuilder(Class virtualHierarchyBuilder) {
         this.virtualHierarchyBuilder = virtualHierarchyBuilder;
+        invalidateSnapshot();
     }        
 
     @Override
-    protected void fillXMLElement(Element elem) {
-        super.fillXMLElement(elem);
+    protected void fillXMLAttributes(Map<String, String> attributes) {
+        super.fillXMLAttributes(attributes);
  
         if (virtualHierarchyBuilder != null) {
-            elem.setAttribute("virtual-hierarchy-builder", virtualHierarchyBuilder.getName());
-            elem.setAttribute("source", sourcePath);
+            attributes.put("virtual-hierarchy-builder", virtualHierarchyBuilder.getName());
+            attributes.put("source", sourcePath);
         } 
     }
 
     @Override
-    protected void fromXMLElement(Element elem, Documentation doc) throws ClassNotFoundException {
-        super.fromXMLElement(elem, doc);
+    protected void fromXMLAttributes(Map<String, String> attributes, Documentation doc) throws ClassNotFoundException {
+        super.fromXMLAttributes(attributes, doc);
                     
-        if (elem.hasAttribute("virtual-hierarchy-builder")) {
-            String className = elem.getAttribute("virtual-hierarchy-builder");
-            sourcePath = elem.getAttribute("source");
+        if (attributes.containsKey("virtual-hierarchy-builder")) {
+            String className = attributes.get("virtual-hierarchy-builder");
+            sourcePath = attributes.containsKey("source") ? attributes.get("source") : "";
                                 
             virtualHierarchyBuilder = Class.forName(className);                
         }
@@ -97,36 +99,68 @@ public class DefaultVirtualTOCNode extends DefaultTOCNode implements VirtualTOCN
 
     @Override
     public ExportableNode getRealNode(File repositoryRoot, DocumentorPreferences prefs) throws VirtualNodeException {
-        if (virtualHierarchyBuilder == null) {
-            return new ExportableNode(this, null, noExtraImages);
+        ExportableNode result = null;
+        if (virtualHierarchyBuilder != null) {
+            result = build(virtualHierarchyBuilder, sourcePath, getTitle(), factory, customStylesheet, 
+                           repositoryRoot, prefs);
+        }
+        
+        if (result != null) {
+            return result;
         } else {
-            try {
-                VirtualHierarchyBuilder builder = (VirtualHierarchyBuilder) ConstructorUtils.invokeConstructor(
-                        virtualHierarchyBuilder, 
-                        new File(repositoryRoot, sourcePath), 
-                        getTitle(), 
-                        "MediaWiki", 
-                        factory, 
-                        prefs.getConditions(), 
-                        customStylesheet);
-                
+            return new ExportableNode(this, null, noExtraImages);
+        }
+    }
+
+    @Override
+    protected TOCSnapshot.VirtualHierarchy createVirtualHierarchy() {
+        if (virtualHierarchyBuilder == null) {
+            return null;
+        }
+        
+        final Class builderClass = virtualHierarchyBuilder;
+        final String builderSourcePath = sourcePath;
+        final String title = getTitle();
+        
+        return new TOCSnapshot.VirtualHierarchy() {
+
+            @Override
+            public ExportableNode build(File repositoryRoot, DocumentorPreferences prefs) throws VirtualNodeException {
+                return DefaultVirtualTOCNode.build(builderClass, builderSourcePath, title, factory, customStylesheet, 
+                                                   repositoryRoot, prefs);
+            }
+        };
+    }
+    
+    private static ExportableNode build(Class builderClass, String sourcePath, String title, 
+                                        TOCNodeFactory factory, File customStylesheet,
+                                        File repositoryRoot, DocumentorPreferences prefs) throws VirtualNodeException {
+        try {
+            VirtualHierarchyBuilder builder = (VirtualHierarchyBuilder) ConstructorUtils.invokeConstructor(
+                    builderClass, 
+                    new File(repositoryRoot, sourcePath), 
+                    title, 
+                    "MediaWiki", 
+                    factory, 
+                    prefs.getConditions(), 
+                    customStylesheet);
+
 // public DocumentationMerger(File innerDocumentationRoot, String title, String markupLanguage, TOCNodeFactory factory) {
-                if (builder instanceof UsesPreferences) {
-                    UsesPreferences up = (UsesPreferences) builder;
-                    up.setPreferences(prefs);
-                }
-
-                TOCNode result = builder.build();
-                if (result != null) {
-                    return new ExportableNode(result, builder.getScope(), builder.getExtraImages());
-                } else {
-                    return new ExportableNode(this, null, noExtraImages);
-                }
-            } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException | InstantiationException ex) {
-                log.error("Failed to create virtual hierarcby builder", ex);
-
-                return new ExportableNode(this, null, noExtraImages);
+            if (builder instanceof UsesPreferences) {
+                UsesPreferences up = (UsesPreferences) builder;
+                up.setPreferences(prefs);
             }
+
+            TOCNode result = builder.build();
+            if (result != null) {
+                return new ExportableNode(result, builder.getScope(), builder.getExtraImages());
+            } else {
+                return null;
+            }
+        } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException | InstantiationException ex) {
+            log.error("Failed to create virtual hierarcby builder", ex);
+
+            return null;
         }
     }       
 }
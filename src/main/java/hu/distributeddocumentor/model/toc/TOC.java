@@ -2,23 +2,18 @@ package hu.distributeddocumentor.model.toc;
 
 import hu.distributeddocumentor.model.Documentation;
 import hu.distributeddocumentor.model.Page;
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.IOException;
+import java.io.*;
+import java.nio.charset.Charset;
 import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import javax.swing.event.TreeModelEvent;
 import javax.swing.event.TreeModelListener;
 import javax.swing.tree.TreePath;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.*;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-import org.apache.xerces.dom.DocumentImpl;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.xml.sax.SAXException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 /**
  * Table of Contents for the documentation with two special nodes
@@ -33,12 +28,26 @@ import org.xml.sax.SAXException;
  * The TOC consists of a tree of {@link TOCNode} nodes.
  * <p>
  * It is also observable through the {@link TreeModelListener} interface.
+ * <p>
+ * The TOC keeps an index of the nodes referring to each page, so the page
+ * lookups do not have to walk the tree. The index is only maintained if the
+ * tree is modified through the TOC's methods. It also counts the references
+ * of every page from the organized part of the TOC, by case insensitive page
+ * identifier, and collects the pages losing their last such reference for
+ * the {@link hu.distributeddocumentor.model.PageLinkGraph}.
+ * <p>
+ * The TOC shares its documentation's read/write lock: the modifying methods
+ * take the write lock and the queries take the read lock. The nodes 
+ * themselves must not be accessed from background threads, use 
+ * {@link #snapshot()} instead.
  * 
  * @author Daniel Vigovszky
  * @see TOCNode
  */
 public class TOC {
     
+    private static final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+    
     private final TOCNode root;
     private final TOCNodeOperations rootOp;
     
@@ -46,9 +55,14 @@ public class TOC {
     private final TOCNode recycleBin;    
     private final Documentation documentation;
     private final TOCNodeFactory factory;
+    private final ReadWriteLock lock;
     
     private final List<TreeModelListener> listeners = new LinkedList<>();
     
+    private final Map<Page, List<TOCNode>> pageNodes = new IdentityHashMap<>();
+    private final Map<String, Integer> referencedPageCounts = new HashMap<>();
+    private final Set<String> unreferencedPages = new HashSet<>();
+    
     private boolean modified;
             
     /**
@@ -58,6 +72,7 @@ public class TOC {
     public TOC(Documentation documentation, TOCNodeFactory factory) {
         this.documentation = documentation;
         this.factory = factory;
+        this.lock = documentation != null ? documentation.getLock() : new ReentrantReadWriteLock();
                 
         root = factory.createNode("Root");        
         rootOp = factory.getOperations(root);
@@ -109,13 +124,16 @@ public class TOC {
      * Saves the TOC if it has been modified
      * 
      * @param targetDirectory target directory where the TOC's XML representation should be put
-     * @throws FileNotFoundException
-     * @throws TransformerConfigurationException
-     * @throws TransformerException 
+     * @throws IOException
      */
-    public void saveIfModified(File targetDirectory) throws FileNotFoundException, TransformerConfigurationException, TransformerException {
-        if (modified) {
-            save(targetDirectory);
+    public void saveIfModified(File targetDirectory) throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (modified) {
+                save(targetDirectory);
+            }
+        } finally {
+            lock.writeLock().unlock();
         }
     }
     
@@ -124,45 +142,53 @@ public class TOC {
      * 
      * <p>
      * The implementation currently uses an XML representation for the TOC in a 
-     * single file.
+     * single file, written from the TOC's snapshot by {@link TOCXMLWriter}. The
+     * special nodes are not saved.
      * 
      * @param targetDirectory target directory where the TOC's XML representation will be put
-     * @throws FileNotFoundException
-     * @throws TransformerConfigurationException
-     * @throws TransformerException
+     * @throws IOException
      */
-    public void save(File targetDirectory) throws FileNotFoundException, TransformerConfigurationException, TransformerException {
-        
-        File target = new File(targetDirectory, "toc.xml");
-                
-        Document doc = new DocumentImpl();
-        Element docRoot = doc.createElement("TOC");
-        
-        rootOp.remove(unorganized);
-        rootOp.remove(recycleBin);
-        try {                                            
-            docRoot.appendChild(factory.getSerialization(root).toXML(doc));        
+    public void save(File targetDirectory) throws IOException {
+        lock.writeLock().lock();
+        try {
+            File target = new File(targetDirectory, "toc.xml");
+
+            try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(target), Charset.forName("UTF-8")))) {
+
+                TOCXMLWriter writer = new TOCXMLWriter(out);
+                writer.writeStartDocument();
+                writer.writeStartElement("TOC");
+
+                snapshot().toXML(writer);
+
+                writer.writeEndElement("TOC");
+                writer.writeEndDocument();
+            }
+
+            modified = false;
+        } finally {
+            lock.writeLock().unlock();
         }
-        finally {
-            rootOp.addToEnd(unorganized);
-            rootOp.addToEnd(recycleBin);
+    }
+
+    /**
+     * Takes an immutable snapshot of the TOC
+     * 
+     * <p>
+     * The subtrees which have not changed since the previous snapshot are 
+     * shared with it. Only the read lock is taken; the nodes publish their
+     * cached snapshots atomically. Must be called on the event dispatch 
+     * thread, as the snapshots of the target pages are taken as well.
+     * 
+     * @return snapshot of the whole TOC tree, including the special nodes
+     */
+    public TOCSnapshot snapshot() {
+        lock.readLock().lock();
+        try {
+            return new TOCSnapshot(factory.getSerialization(root).toSnapshot(), unorganized, recycleBin, factory);
+        } finally {
+            lock.readLock().unlock();
         }
-        
-        doc.appendChild(docRoot);
-        
-        Source source = new DOMSource(doc);
-        Result result = new StreamResult(target);
-        
-        TransformerFactory transformerFactory = TransformerFactory.newInstance();
-        transformerFactory.setAttribute("indent-number", Integer.valueOf(4));
-        
-        Transformer xformer = transformerFactory.newTransformer();
-        xformer.setOutputProperty(OutputKeys.INDENT, "yes");        
-        xformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "4");        
-        
-        xformer.transform(source, result);
-                
-        modified = false;
     }
 
     /**
@@ -170,30 +196,86 @@ public class TOC {
      * 
      * @param sourceDirectory the directory where the TOC file was saved
      * @param documentation documentation the TOC belongs to, used to resolve page references
-     * @throws SAXException
      * @throws IOException
-     * @throws ParserConfigurationException
+     * @throws XMLStreamException
      * @throws ClassNotFoundException
      */
-    public void load(File sourceDirectory, Documentation documentation) throws SAXException, IOException, ParserConfigurationException, ClassNotFoundException {
-        
-        File source = new File(sourceDirectory, "toc.xml");
-        
-        DocumentBuilderFactory builderFactory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder builder = builderFactory.newDocumentBuilder();
-        Document doc = builder.parse(source);
-        
-        doc.getDocumentElement().normalize();
-        
-        factory.getSerialization(root).fromXML(doc.getDocumentElement().getFirstChild(), documentation, factory);
-        rootOp.addToEnd(unorganized);
-        rootOp.addToEnd(recycleBin);
-        
-        for (TreeModelListener listener : listeners) {
-            listener.treeStructureChanged(new TreeModelEvent(this, new TreePath(root)));
+    public void load(File sourceDirectory, Documentation documentation) throws IOException, XMLStreamException, ClassNotFoundException {
+        lock.writeLock().lock();
+        try {
+            File source = new File(sourceDirectory, "toc.xml");
+
+            try (InputStream in = new BufferedInputStream(new FileInputStream(source))) {
+
+                XMLStreamReader reader = inputFactory.createXMLStreamReader(in);
+                try {
+                    reader.nextTag();
+                    reader.require(XMLStreamConstants.START_ELEMENT, null, "TOC");
+
+                    if (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+                        factory.getSerialization(root).fromXML(reader, documentation, factory);
+                    } else {
+                        root.clearChildren();
+                    }
+                }
+                finally {
+                    reader.close();
+                }
+            }
+
+            rootOp.addToEnd(unorganized);
+            rootOp.addToEnd(recycleBin);
+
+            reindex();
+
+            for (TreeModelListener listener : listeners) {
+                listener.treeStructureChanged(new TreeModelEvent(this, new TreePath(root)));
+            }
+
+            modified = false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Restores the TOC from already loaded nodes instead of its XML representation
+     * 
+     * <p>
+     * The TOC must be empty when calling this method.
+     * 
+     * @param nodes the top level nodes, without the special nodes
+     */
+    public void restore(List<TOCNode> nodes) {
+        lock.writeLock().lock();
+        try {
+            for (TOCNode node : nodes) {
+                rootOp.addBefore(unorganized, node);
+                indexSubtree(node, 1);
+            }
+
+            for (TreeModelListener listener : listeners) {
+                listener.treeStructureChanged(new TreeModelEvent(this, new TreePath(root)));
+            }
+
+            modified = false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Checks if the TOC has been modified since it was saved or loaded
+     * 
+     * @return true if the TOC has unsaved modifications
+     */
+    public boolean isModified() {
+        lock.readLock().lock();
+        try {
+            return modified;
+        } finally {
+            lock.readLock().unlock();
         }
-        
-        modified = false;
     }
 
     /**
@@ -203,18 +285,24 @@ public class TOC {
      * @param child the new child node to be added
      */
     public void addToEnd(TOCNode parent, TOCNode child) {
-        
-        if (parent == root) {
-            factory.getOperations(parent).addBefore(unorganized, child);
-            
-        } else {            
-            factory.getOperations(parent).addToEnd(child);
+        lock.writeLock().lock();
+        try {
+            if (parent == root) {
+                factory.getOperations(parent).addBefore(unorganized, child);
+
+            } else {            
+                factory.getOperations(parent).addToEnd(child);
+            }
+
+            notifyInsert(parent, child);
+        } finally {
+            lock.writeLock().unlock();
         }
-        
-        notifyInsert(parent, child);
     }
     
     private void notifyInsert(TOCNode parent, TOCNode child) {
+        indexSubtree(child, 1);
+        
         Object[] arr = new Object[1];
         arr[0] = child;
         int[] indices = new int[1];
@@ -239,17 +327,21 @@ public class TOC {
      * @param newChild the new child to be added
      */
     public void addBefore(TOCNode existingNode, TOCNode newChild) {
-        
-        TOCNode parent = existingNode.getParent();
-        
-        if (existingNode == recycleBin) {
-            factory.getOperations(parent).addBefore(unorganized, newChild);
-        } // keeping the two special nodes at the end
-        else {
-            factory.getOperations(parent).addBefore(existingNode, newChild);
+        lock.writeLock().lock();
+        try {
+            TOCNode parent = existingNode.getParent();
+
+            if (existingNode == recycleBin) {
+                factory.getOperations(parent).addBefore(unorganized, newChild);
+            } // keeping the two special nodes at the end
+            else {
+                factory.getOperations(parent).addBefore(existingNode, newChild);
+            }
+
+            notifyInsert(parent, newChild);
+        } finally {
+            lock.writeLock().unlock();
         }
-        
-        notifyInsert(parent, newChild);        
     }
 
     /**
@@ -259,18 +351,22 @@ public class TOC {
      * @param newChild the new child node to be added
      */
     public void addAfter(TOCNode existingNode, TOCNode newChild) {
-        
-        // keeping the two special nodes at the end
-        if (existingNode == unorganized ||
-            existingNode == recycleBin) {
-         
-            addBefore(unorganized, newChild);
-        } else {                    
-            TOCNode parent = existingNode.getParent();
+        lock.writeLock().lock();
+        try {
+            // keeping the two special nodes at the end
+            if (existingNode == unorganized ||
+                existingNode == recycleBin) {
+
+                addBefore(unorganized, newChild);
+            } else {                    
+                TOCNode parent = existingNode.getParent();
 
-            factory.getOperations(parent).addAfter(existingNode, newChild);
+                factory.getOperations(parent).addAfter(existingNode, newChild);
 
-            notifyInsert(parent, newChild);        
+                notifyInsert(parent, newChild);        
+            }
+        } finally {
+            lock.writeLock().unlock();
         }
     }
 
@@ -281,34 +377,39 @@ public class TOC {
      * @param node the node to be removed
      */
     public void remove(TOCNode node) {
-        
-        TOCNode parent = node.getParent();
-        int idx = parent.getChildren().indexOf(node);
-        factory.getOperations(parent).remove(node);
-        
-        Object[] arr = new Object[1];
-        arr[0] = node;
-        int[] indices = new int[1];
-        indices[0] = idx;
-        
-        TreeModelEvent evt = new TreeModelEvent(this, parent.toPath(), indices, arr);
-        for (TreeModelListener listener : listeners) {
-            listener.treeNodesRemoved(evt);
-        }
-        
-        // Removing nodes from recycle bin does not count 
-        // as a modification to be saved
-        if (parent != recycleBin) {
-            modified = true;
-        } else {
-            // but removing a node from the recycle bin means permanent deletion
-            // of the referred page
-            
-            if (node.hasTarget()) {
-                
-                Page page = node.getTarget();                
-                documentation.deletePage(page);
+        lock.writeLock().lock();
+        try {
+            TOCNode parent = node.getParent();
+            int idx = parent.getChildren().indexOf(node);
+            indexSubtree(node, -1);
+            factory.getOperations(parent).remove(node);
+
+            Object[] arr = new Object[1];
+            arr[0] = node;
+            int[] indices = new int[1];
+            indices[0] = idx;
+
+            TreeModelEvent evt = new TreeModelEvent(this, parent.toPath(), indices, arr);
+            for (TreeModelListener listener : listeners) {
+                listener.treeNodesRemoved(evt);
             }
+
+            // Removing nodes from recycle bin does not count 
+            // as a modification to be saved
+            if (parent != recycleBin) {
+                modified = true;
+            } else {
+                // but removing a node from the recycle bin means permanent deletion
+                // of the referred page
+
+                if (node.hasTarget()) {
+
+                    Page page = node.getTarget();                
+                    documentation.deletePage(page);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
         }
     }
     
@@ -318,11 +419,16 @@ public class TOC {
      * @param page the page to look for
      */
     public void remove(Page page) {
-        TOCNode node = rootOp.findReferenceTo(page);
-        
-        if (node != null) {
-            remove(node);
-        }        
+        lock.writeLock().lock();
+        try {
+            TOCNode node = findReferenceTo(page);
+
+            if (node != null) {
+                remove(node);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     /**
@@ -350,30 +456,33 @@ public class TOC {
      * @param title the new title of the node
      */
     public void changeNodeTitle(TOCNode node, String title) {
-        
-        if (node != root &&
-            node != unorganized &&
-            node != recycleBin) {
-            
-            node.setTitle(title);            
+        lock.writeLock().lock();
+        try {
+            if (node != root &&
+                node != unorganized &&
+                node != recycleBin) {
 
-            TOCNode parent = node.getParent();
-            int[] indices = new int[1];
-            indices[0] = parent.getChildren().indexOf(node);
-            Object[] objs = new Object[1];
-            objs[0] = node;
-            
-            TreeModelEvent evt = new TreeModelEvent(this, 
-                                                    parent.toPath(),
-                                                    indices,
-                                                    objs);
-            for (TreeModelListener listener : listeners) {
-                listener.treeNodesChanged(evt);
+                node.setTitle(title);            
+
+                TOCNode parent = node.getParent();
+                int[] indices = new int[1];
+                indices[0] = parent.getChildren().indexOf(node);
+                Object[] objs = new Object[1];
+                objs[0] = node;
+
+                TreeModelEvent evt = new TreeModelEvent(this, 
+                                                        parent.toPath(),
+                                                        indices,
+                                                        objs);
+                for (TreeModelListener listener : listeners) {
+                    listener.treeNodesChanged(evt);
+                }
+
+                modified = true;
             }
-            
-            modified = true;
+        } finally {
+            lock.writeLock().unlock();
         }
-        
     }
     
     /**
@@ -383,28 +492,35 @@ public class TOC {
      * @param target the new target page
      */
     public void changeNodeTarget(TOCNode node, Page target) {
-        
-        if (node != root &&
-            node != unorganized &&
-            node != recycleBin) {
-            
-            node.setTarget(target);
-            
-            TOCNode parent = node.getParent();
-            int[] indices = new int[1];
-            indices[0] = parent.getChildren().indexOf(node);
-            Object[] objs = new Object[1];
-            objs[0] = node;
-            
-            TreeModelEvent evt = new TreeModelEvent(this, 
-                                                    parent.toPath(),
-                                                    indices,
-                                                    objs);
-            for (TreeModelListener listener : listeners) {
-                listener.treeNodesChanged(evt);
+        lock.writeLock().lock();
+        try {
+            if (node != root &&
+                node != unorganized &&
+                node != recycleBin) {
+
+                boolean organized = isOrganized(node);
+                indexNode(node, -1, organized);
+                node.setTarget(target);
+                indexNode(node, 1, organized);
+
+                TOCNode parent = node.getParent();
+                int[] indices = new int[1];
+                indices[0] = parent.getChildren().indexOf(node);
+                Object[] objs = new Object[1];
+                objs[0] = node;
+
+                TreeModelEvent evt = new TreeModelEvent(this, 
+                                                        parent.toPath(),
+                                                        indices,
+                                                        objs);
+                for (TreeModelListener listener : listeners) {
+                    listener.treeNodesChanged(evt);
+                }
+
+                modified = true;
             }
-            
-            modified = true;
+        } finally {
+            lock.writeLock().unlock();
         }
     }
     
@@ -416,32 +532,39 @@ public class TOC {
      * @param relativeSource source path for the hierarchy builder
      */
     public void convertToVirtualRoot(TOCNode node, Class hierarchyBuilder, String relativeSource) {
-        if (node != root &&
-            node != unorganized &&
-            node != recycleBin) {
-            
-            VirtualTOCNode vnode = factory.createVirtualNode();
-            vnode.setTitle(node.getTitle());
-            vnode.setVirtualHierarchyBuilder(hierarchyBuilder);
-            vnode.setSourcePath(relativeSource);
-            
-            factory.getOperations(node).replace(vnode);
-            
-            TOCNode parent = vnode.getParent();
-            int[] indices = new int[1];
-            indices[0] = parent.getChildren().indexOf(vnode);
-            Object[] objs = new Object[1];
-            objs[0] = vnode;
-            
-            TreeModelEvent evt = new TreeModelEvent(this, 
-                                                    parent.toPath(),
-                                                    indices,
-                                                    objs);
-            for (TreeModelListener listener : listeners) {
-                listener.treeNodesChanged(evt);
+        lock.writeLock().lock();
+        try {
+            if (node != root &&
+                node != unorganized &&
+                node != recycleBin) {
+
+                VirtualTOCNode vnode = factory.createVirtualNode();
+                vnode.setTitle(node.getTitle());
+                vnode.setVirtualHierarchyBuilder(hierarchyBuilder);
+                vnode.setSourcePath(relativeSource);
+
+                indexSubtree(node, -1);
+                factory.getOperations(node).replace(vnode);
+                indexSubtree(vnode, 1);
+
+                TOCNode parent = vnode.getParent();
+                int[] indices = new int[1];
+                indices[0] = parent.getChildren().indexOf(vnode);
+                Object[] objs = new Object[1];
+                objs[0] = vnode;
+
+                TreeModelEvent evt = new TreeModelEvent(this, 
+                                                        parent.toPath(),
+                                                        indices,
+                                                        objs);
+                for (TreeModelListener listener : listeners) {
+                    listener.treeNodesChanged(evt);
+                }
+
+                modified = true;
             }
-            
-            modified = true;
+        } finally {
+            lock.writeLock().unlock();
         }
     }
 
@@ -456,32 +579,36 @@ public class TOC {
      * @param node the node to be moved
      */
     public void moveUp(TOCNode node) {
-        
-        if (node != root &&
-            node != unorganized &&
-            node != recycleBin &&
-            node.getParent() != null &&
-            node.getParent() != recycleBin) {
-            
-            
-            TOCNode parent = node.getParent();
-            int idx = parent.getChildren().indexOf(node);
+        lock.writeLock().lock();
+        try {
+            if (node != root &&
+                node != unorganized &&
+                node != recycleBin &&
+                node.getParent() != null &&
+                node.getParent() != recycleBin) {
 
-            if (idx == 0 && parent != root) {
-                
-                remove(node);                
-                addBefore(parent, node);
-            } else if (idx > 0 || parent != root) {
-                
-                remove(node);                
-                if (parent.getChildren().size() >= idx) {
-                    addBefore(parent.getChildren().get(idx-1), node);
-                }
-                else {
-                    addBefore(parent.getChildren().get(parent.getChildren().size()-1), node);
+
+                TOCNode parent = node.getParent();
+                int idx = parent.getChildren().indexOf(node);
+
+                if (idx == 0 && parent != root) {
+
+                    remove(node);                
+                    addBefore(parent, node);
+                } else if (idx > 0 || parent != root) {
+
+                    remove(node);                
+                    if (parent.getChildren().size() >= idx) {
+                        addBefore(parent.getChildren().get(idx-1), node);
+                    }
+                    else {
+                        addBefore(parent.getChildren().get(parent.getChildren().size()-1), node);
+                    }
                 }
             }
-        }        
+        } finally {
+            lock.writeLock().unlock();
+        }
     }    
     
     /**
@@ -494,31 +621,35 @@ public class TOC {
      * @param node the node to be moved
      */
     public void moveDown(TOCNode node) {
-        
-        if (node != root &&
-            node != unorganized &&
-            node != recycleBin &&
-            node.getParent() != null &&
-            node.getParent() != recycleBin) {
-            
-            TOCNode parent = node.getParent();
-            int idx = parent.getChildren().indexOf(node);
-            int originalSize = parent.getChildren().size();
-        
-            remove(node);
-                
-            if (idx == (originalSize - 1) && parent != root) {
-                addAfter(parent, node);
+        lock.writeLock().lock();
+        try {
+            if (node != root &&
+                node != unorganized &&
+                node != recycleBin &&
+                node.getParent() != null &&
+                node.getParent() != recycleBin) {
 
-            } else {             
-                
-                if (idx > 0) {
-                    addAfter(parent.getChildren().get(idx), node);
-                }
-                else {
-                    addAfter(parent.getChildren().get(0), node);
-                }
-            }            
+                TOCNode parent = node.getParent();
+                int idx = parent.getChildren().indexOf(node);
+                int originalSize = parent.getChildren().size();
+
+                remove(node);
+
+                if (idx == (originalSize - 1) && parent != root) {
+                    addAfter(parent, node);
+
+                } else {             
+
+                    if (idx > 0) {
+                        addAfter(parent.getChildren().get(idx), node);
+                    }
+                    else {
+                        addAfter(parent.getChildren().get(0), node);
+                    }
+                }            
+            }
+        } finally {
+            lock.writeLock().unlock();
         }
     }
     
@@ -528,20 +659,24 @@ public class TOC {
      * @param node the node to be moved
      */
     public void moveLeft(TOCNode node) {
-     
-        if (node != root &&
-            node != unorganized &&
-            node != recycleBin) {
-            
-            TOCNode parent = node.getParent();
-            
-            if (parent != null && 
-                parent != recycleBin &&
-                parent.getParent() != null) {
-                
-                remove(node);
-                addBefore(parent, node);
-            }            
+        lock.writeLock().lock();
+        try {
+            if (node != root &&
+                node != unorganized &&
+                node != recycleBin) {
+
+                TOCNode parent = node.getParent();
+
+                if (parent != null && 
+                    parent != recycleBin &&
+                    parent.getParent() != null) {
+
+                    remove(node);
+                    addBefore(parent, node);
+                }            
+            }
+        } finally {
+            lock.writeLock().unlock();
         }
     }
     
@@ -551,25 +686,29 @@ public class TOC {
      * @param node the node to be moved
      */
     public void moveRight(TOCNode node) {
-        
-        if (node != root &&
-            node != unorganized &&
-            node != recycleBin) {
-            
-            TOCNode parent = node.getParent();
-            
-            if (parent != null && 
-                parent != recycleBin) {
-        
-                int idx = parent.getChildren().indexOf(node);
-                if (idx > 0) {
-                 
-                    TOCNode prev = parent.getChildren().get(idx-1);
-                    
-                    remove(node);
-                    addToEnd(prev, node);                    
-                }                
+        lock.writeLock().lock();
+        try {
+            if (node != root &&
+                node != unorganized &&
+                node != recycleBin) {
+
+                TOCNode parent = node.getParent();
+
+                if (parent != null && 
+                    parent != recycleBin) {
+
+                    int idx = parent.getChildren().indexOf(node);
+                    if (idx > 0) {
+
+                        TOCNode prev = parent.getChildren().get(idx-1);
+
+                        remove(node);
+                        addToEnd(prev, node);                    
+                    }                
+                }
             }
+        } finally {
+            lock.writeLock().unlock();
         }
     }
 
@@ -577,42 +716,138 @@ public class TOC {
      * Clears the TOC
      */
     public void clear() {
-        
-        root.clearChildren();
-        unorganized.clearChildren();
-        recycleBin.clearChildren();
-                
-        rootOp.addToEnd(unorganized);
-        rootOp.addToEnd(recycleBin);
-        
-        modified = false;
+        lock.writeLock().lock();
+        try {
+            root.clearChildren();
+            unorganized.clearChildren();
+            recycleBin.clearChildren();
+
+            rootOp.addToEnd(unorganized);
+            rootOp.addToEnd(recycleBin);
+
+            pageNodes.clear();
+            referencedPageCounts.clear();
+            unreferencedPages.clear();
+
+            modified = false;
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     /**
      * Get a collection of all the referenced page's unique identifiers
-     * @return a collection of string page identifiers
+     * 
+     * <p>
+     * Nodes in the 'Unorganized' and 'Recycle bin' nodes are not counted.
+     * The returned collection is a read-only copy, use 
+     * {@link #isPageReferenced(String)} to check a single page.
+     * 
+     * @return a collection of lower case page identifiers
      */
     public Collection<String> getReferencedPages() {
-        Set<String> pages = new HashSet<>();
-        
-        for (TOCNode child : root.getChildren()) {
-            if (child != unorganized &&
-                child != recycleBin) {
-                
-                pages.addAll(child.getReferencedPages());
-            }
+        lock.readLock().lock();
+        try {
+            return Collections.unmodifiableSet(new HashSet<>(referencedPageCounts.keySet()));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Checks whether a page is referenced by any node outside of the special 
+     * nodes
+     * 
+     * @param id the page's identifier
+     * @return true if the page is referenced from the organized part of the TOC
+     */
+    public boolean isPageReferenced(String id) {
+        lock.readLock().lock();
+        try {
+            return referencedPageCounts.containsKey(normalize(id));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the number of nodes outside of the special nodes referring to a page
+     * 
+     * @param id the page's identifier, case insensitive
+     * @return the number of organized TOC nodes referring to the page
+     */
+    public int getReferenceCount(String id) {
+        lock.readLock().lock();
+        try {
+            Integer count = referencedPageCounts.get(normalize(id));
+            return count != null ? count : 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets and forgets the pages which have lost their last reference from
+     * the organized part of the TOC
+     * 
+     * <p>
+     * The pages may have been referenced again since then.
+     * 
+     * @return the lower case identifiers of the pages
+     */
+    public Set<String> takeUnreferencedPages() {
+        lock.writeLock().lock();
+        try {
+            Set<String> result = new HashSet<>(unreferencedPages);
+            unreferencedPages.clear();
+            return result;
+        } finally {
+            lock.writeLock().unlock();
         }
-        
-        return pages;
     }
 
     /**
      * Finds the TOCNode that refers to the given page
+     * 
+     * <p>
+     * If there are more such nodes, the nodes outside of the special nodes
+     * are preferred, then the unorganized ones.
+     * 
      * @param page page to look for
      * @return returns the node that refers to the page, or null
      */
     public TOCNode findReferenceTo(Page page) {
-        return rootOp.findReferenceTo(page);
+        lock.readLock().lock();
+        try {
+            List<TOCNode> nodes = pageNodes.get(page);
+            if (nodes == null) {
+                return null;
+            }
+
+            TOCNode result = null;
+            int resultRank = Integer.MAX_VALUE;
+            for (TOCNode node : nodes) {
+                TOCNode topLevelNode = getTopLevelNode(node);
+
+                int rank;
+                if (topLevelNode == recycleBin) {
+                    rank = 2;
+                } else if (topLevelNode == unorganized) {
+                    rank = 1;
+                } else {
+                    rank = 0;
+                }
+
+                if (rank < resultRank) {
+                    result = node;
+                    resultRank = rank;
+                }
+            }
+
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
     /**
@@ -621,7 +856,12 @@ public class TOC {
      * @return returns true if there is a node which refers to the page
      */
     public boolean isReferenced(Page page) {
-        return rootOp.isReferenced(page);
+        lock.readLock().lock();
+        try {
+            return pageNodes.containsKey(page);
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
     /**
@@ -629,7 +869,13 @@ public class TOC {
      * @param newNode node to be added
      */
     public void addUnorganized(TOCNode newNode) {
-        factory.getOperations(unorganized).addToEnd(newNode);
+        lock.writeLock().lock();
+        try {
+            factory.getOperations(unorganized).addToEnd(newNode);
+            indexSubtree(newNode, 1);
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     /**
@@ -639,7 +885,21 @@ public class TOC {
      *         recycle bin
      */
     public boolean isInRecycleBin(Page existingPage) {
-        return factory.getOperations(recycleBin).isReferenced(existingPage);
+        lock.readLock().lock();
+        try {
+            List<TOCNode> nodes = pageNodes.get(existingPage);
+            if (nodes != null) {
+                for (TOCNode node : nodes) {
+                    if (getTopLevelNode(node) == recycleBin) {
+                        return true;
+                    }
+                }
+            }
+
+            return false;
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
     /**
@@ -647,15 +907,119 @@ public class TOC {
      * @param existingPage page to look for
      */
     public void removeFromRecycleBin(Page existingPage) {
-        factory.getOperations(recycleBin).removeReferenceTo(existingPage);
+        lock.writeLock().lock();
+        try {
+            List<TOCNode> nodes = pageNodes.get(existingPage);
+            if (nodes != null) {
+                for (TOCNode node : new ArrayList<>(nodes)) {
+                    // The node may have been removed together with its parent
+                    List<TOCNode> current = pageNodes.get(existingPage);
+                    if (current != null && 
+                        current.contains(node) &&
+                        getTopLevelNode(node) == recycleBin) {
+
+                        indexSubtree(node, -1);
+                        factory.getOperations(node.getParent()).remove(node);
+                    }
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     /**
      * Called when a page as been renamed
      */
     public void onPageRenamed() {
-        for (TreeModelListener listener : listeners) {        
-            listener.treeStructureChanged(new TreeModelEvent(this, new TreePath(root)));
+        lock.writeLock().lock();
+        try {
+            reindex();
+
+            for (TreeModelListener listener : listeners) {        
+                listener.treeStructureChanged(new TreeModelEvent(this, new TreePath(root)));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    private TOCNode getTopLevelNode(TOCNode node) {
+        while (node.getParent() != null && node.getParent() != root) {
+            node = node.getParent();
+        }
+        return node;
+    }
+    
+    private boolean isOrganized(TOCNode node) {
+        TOCNode topLevelNode = getTopLevelNode(node);
+        
+        return topLevelNode.getParent() == root &&
+               topLevelNode != unorganized &&
+               topLevelNode != recycleBin;
+    }
+    
+    private void reindex() {
+        Set<String> previous = new HashSet<>(referencedPageCounts.keySet());
+        pageNodes.clear();
+        referencedPageCounts.clear();
+        
+        for (TOCNode child : root.getChildren()) {
+            indexSubtree(child, 1, child != unorganized && child != recycleBin);
+        }
+        
+        previous.removeAll(referencedPageCounts.keySet());
+        unreferencedPages.addAll(previous);
+    }
+    
+    private void indexSubtree(TOCNode node, int delta) {
+        indexSubtree(node, delta, isOrganized(node));
+    }
+    
+    private void indexSubtree(TOCNode node, int delta, boolean organized) {
+        indexNode(node, delta, organized);
+        
+        for (TOCNode child : node.getChildren()) {
+            indexSubtree(child, delta, organized);
         }
     }
+    
+    private void indexNode(TOCNode node, int delta, boolean organized) {
+        if (!node.hasTarget()) {
+            return;
+        }
+        
+        Page page = node.getTarget();
+        List<TOCNode> nodes = pageNodes.get(page);
+        if (delta > 0) {
+            if (nodes == null) {
+                nodes = new ArrayList<>(1);
+                pageNodes.put(page, nodes);
+            }
+            nodes.add(node);
+        } else if (nodes != null) {
+            nodes.remove(node);
+            if (nodes.isEmpty()) {
+                pageNodes.remove(page);
+            }
+        }
+        
+        if (organized) {
+            String id = normalize(page.getId());
+            Integer count = referencedPageCounts.get(id);
+            int newCount = (count != null ? count : 0) + delta;
+            if (newCount > 0) {
+                referencedPageCounts.put(id, newCount);
+            } else {
+                referencedPageCounts.remove(id);
+                if (count != null) {
+                    unreferencedPages.add(id);
+                }
+            }
+        }
+    }
+    
+    private static String normalize(String id) {
+        return id.toLowerCase();
+    }
 }
@@ -1,7 +1,7 @@
 package hu.distributeddocumentor.model.toc;
 
 import hu.distributeddocumentor.model.Page;
-import org.w3c.dom.Node;
+import javax.xml.stream.XMLStreamReader;
 
 /**
  *
@@ -13,7 +13,12 @@ public interface TOCNodeFactory {
     TOCNode createNode(Page target);    
     VirtualTOCNode createVirtualNode();
     
-    TOCNode fromXML(Node node);
+    /**
+     * Creates the node for the current element of a TOC XML stream
+     * @param reader the XML stream, positioned on the node's start element
+     * @return a new, empty node of the type matching the element
+     */
+    TOCNode fromXML(XMLStreamReader reader);
         
     /**
      * Gets the interface for TOC operations, to be used by the TOC class
@@ -1,29 +1,43 @@
-
 package hu.distributeddocumentor.model.toc;
 
 import hu.distributeddocumentor.model.Documentation;
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
+import java.io.IOException;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 public interface TOCNodeSerialization {
 
     /**
-     * Loads the node from its XML representation
+     * Loads the node and its children from their XML representation
      *
-     * @param node the XML node representing this TOC node
-     * @param doc the XML document being loaded
+     * @param reader the XML stream, positioned on the node's start element.
+     *               When the method returns, it is positioned on the node's
+     *               end element.
+     * @param doc the documentation used to resolve the page references
      * @param factory the TOCNode class factory
+     * @throws XMLStreamException if the XML representation is invalid
      * @throws ClassNotFoundException if the referenced virtual hierarchy
      * builder class does not exist
      */
-    void fromXML(Node node, Documentation doc, TOCNodeFactory factory) throws ClassNotFoundException;
+    void fromXML(XMLStreamReader reader, Documentation doc, TOCNodeFactory factory) throws XMLStreamException, ClassNotFoundException;
 
     /**
-     * Creates the node's XML representation for serialization
+     * Writes the node's and its children's XML representation
+     *
+     * @param writer the XML writer to be used
+     * @throws IOException
+     */
+    void toXML(TOCXMLWriter writer) throws IOException;
+    
+    /**
+     * Takes an immutable snapshot of the node and its children
+     * 
+     * <p>
+     * Implementations should return the previous snapshot if the node and 
+     * its subtree have not changed since it was taken.
      *
-     * @param doc the XML document being constructed
-     * @return returns the XML node representing this TOC node
+     * @return snapshot of the node
      */
-    Node toXML(Document doc);
+    TOCSnapshot.Node toSnapshot();
     
 }
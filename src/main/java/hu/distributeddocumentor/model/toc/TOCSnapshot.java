@@ -0,0 +1,247 @@
+package hu.distributeddocumentor.model.toc;
+
+import hu.distributeddocumentor.model.ExportableNode;
+import hu.distributeddocumentor.model.PageSnapshot;
+import hu.distributeddocumentor.model.virtual.builders.VirtualNodeException;
+import hu.distributeddocumentor.prefs.DocumentorPreferences;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Immutable snapshot of the TOC tree
+ *
+ * <p>
+ * The snapshot can be read from background threads, for example while
+ * exporting or saving the documentation, while the TOC itself is being
+ * edited. Taking a snapshot is cheap: every node reuses its previous
+ * snapshot if neither the node nor its subtree has changed since then, so
+ * consecutive snapshots share every unchanged subtree.
+ *
+ * @author Daniel Vigovszky
+ * @see TOC#snapshot()
+ */
+public final class TOCSnapshot {
+
+    private final Node root;
+    private final Node unorganized;
+    private final Node recycleBin;
+    private final TOCNodeFactory factory;
+
+    TOCSnapshot(Node root, TOCNode unorganized, TOCNode recycleBin, TOCNodeFactory factory) {
+        this.root = root;
+        this.factory = factory;
+
+        Node unorganizedNode = null;
+        Node recycleBinNode = null;
+        for (Node child : root.getChildren()) {
+            if (child.getSource() == unorganized) {
+                unorganizedNode = child;
+            } else if (child.getSource() == recycleBin) {
+                recycleBinNode = child;
+            }
+        }
+
+        this.unorganized = unorganizedNode;
+        this.recycleBin = recycleBinNode;
+    }
+
+    /**
+     * Gets the snapshot of the TOC's root node
+     *
+     * @return the root node
+     */
+    public Node getRoot() {
+        return root;
+    }
+
+    /**
+     * Gets the snapshot of the 'Unorganized' special node
+     *
+     * @return the unorganized node
+     */
+    public Node getUnorganized() {
+        return unorganized;
+    }
+
+    /**
+     * Gets the snapshot of the 'Recycle bin' special node
+     *
+     * @return the recycle bin node
+     */
+    public Node getRecycleBin() {
+        return recycleBin;
+    }
+
+    /**
+     * Takes a snapshot of a node which is not part of the TOC, for example
+     * the result of a virtual hierarchy builder
+     *
+     * @param node the node to be captured
+     * @return snapshot of the node and its subtree
+     */
+    public Node capture(TOCNode node) {
+        return factory.getSerialization(node).toSnapshot();
+    }
+
+    /**
+     * Writes the TOC's XML representation, without the special nodes
+     *
+     * @param writer the XML writer to be used
+     * @throws IOException
+     */
+    public void toXML(TOCXMLWriter writer) throws IOException {
+        writer.writeStartElement("Node", root.attributes);
+        for (Node child : root.getChildren()) {
+            if (child != unorganized && child != recycleBin) {
+                child.toXML(writer);
+            }
+        }
+        writer.writeEndElement("Node");
+    }
+
+    /**
+     * Generates the subtree of a virtual root node, using the node's settings
+     * captured by the snapshot
+     */
+    public interface VirtualHierarchy {
+
+        /**
+         * Runs the node's hierarchy builder
+         *
+         * @param repositoryRoot the repository's root directory
+         * @param prefs the application's preferences, the builder may need it
+         * @return the generated subtree, or null if the node should be used
+         *         as it is
+         * @throws VirtualNodeException
+         */
+        ExportableNode build(File repositoryRoot, DocumentorPreferences prefs) throws VirtualNodeException;
+    }
+
+    /**
+     * Immutable snapshot of a single TOC node and its subtree
+     */
+    public static final class Node {
+
+        private final TOCNode source;
+        private final String title;
+        private final PageSnapshot target;
+        private final Map<String, String> attributes;
+        private final List<Node> children;
+        private final VirtualHierarchy virtualHierarchy;
+
+        /**
+         * Creates the snapshot of a node
+         *
+         * @param source the node the snapshot was taken of
+         * @param title title of the node
+         * @param target snapshot of the target page, or null
+         * @param attributes the node's XML attributes
+         * @param children snapshots of the child nodes
+         */
+        public Node(TOCNode source, String title, PageSnapshot target, Map<String, String> attributes, List<Node> children) {
+            this(source, title, target, attributes, children, null);
+        }
+
+        /**
+         * Creates the snapshot of a virtual root node
+         *
+         * @param source the node the snapshot was taken of
+         * @param title title of the node
+         * @param target snapshot of the target page, or null
+         * @param attributes the node's XML attributes
+         * @param children snapshots of the child nodes
+         * @param virtualHierarchy generates the node's subtree, or null if
+         *                         the node is not a virtual root node
+         */
+        public Node(TOCNode source, String title, PageSnapshot target, Map<String, String> attributes, List<Node> children, VirtualHierarchy virtualHierarchy) {
+            this.source = source;
+            this.title = title;
+            this.target = target;
+            this.attributes = Collections.unmodifiableMap(new TreeMap<>(attributes));
+            this.children = Collections.unmodifiableList(new ArrayList<>(children));
+            this.virtualHierarchy = virtualHierarchy;
+        }
+
+        /**
+         * Gets the live node the snapshot was taken of
+         *
+         * @return the TOC node
+         */
+        public TOCNode getSource() {
+            return source;
+        }
+
+        /**
+         * Gets the title of the node
+         *
+         * @return the title of the node
+         */
+        public String getTitle() {
+            return title;
+        }
+
+        /**
+         * Checks if the node refers to a page
+         *
+         * @return true if the node has a target page
+         */
+        public boolean hasTarget() {
+            return target != null;
+        }
+
+        /**
+         * Gets the snapshot of the page the node refers to
+         *
+         * @return the target page's snapshot, or null
+         */
+        public PageSnapshot getTarget() {
+            return target;
+        }
+
+        /**
+         * Gets the child nodes
+         *
+         * @return read only list of the child nodes' snapshots
+         */
+        public List<Node> getChildren() {
+            return children;
+        }
+
+        /**
+         * Generates the subtree of a virtual root node
+         *
+         * <p>
+         * Only the settings captured by the snapshot are used, the live
+         * node is not accessed.
+         *
+         * @param repositoryRoot the repository's root directory
+         * @param prefs the application's preferences, the builder may need it
+         * @return the generated subtree, or null if this node should be
+         *         exported as it is
+         * @throws VirtualNodeException
+         */
+        public ExportableNode buildVirtualHierarchy(File repositoryRoot, DocumentorPreferences prefs) throws VirtualNodeException {
+            return virtualHierarchy != null ? virtualHierarchy.build(repositoryRoot, prefs) : null;
+        }
+
+        /**
+         * Writes the node's and its children's XML representation
+         *
+         * @param writer the XML writer to be used
+         * @throws IOException
+         */
+        public void toXML(TOCXMLWriter writer) throws IOException {
+            writer.writeStartElement("Node", attributes);
+            for (Node child : children) {
+                child.toXML(writer);
+            }
+            writer.writeEndElement("Node");
+        }
+
+        @Override
+        public String toString() {
+            return title;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package hu.distributeddocumentor.model.toc;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Streaming writer producing the TOC's XML representation
+ *
+ * <p>
+ * The output is exactly the same as the indenting XML serializer produced
+ * from the TOC's DOM representation: an XML declaration, every element on its
+ * own line indented by four spaces per level, attributes in alphabetical
+ * order, and the same character escaping. This keeps the saved TOC files
+ * stable, so they can be merged cleanly in the repository.
+ *
+ * @author Daniel Vigovszky
+ * @see TOC
+ */
+public class TOCXMLWriter {
+
+    private static final String INDENT = "    ";
+
+    private final Writer out;
+    private final String lineSeparator;
+    private int depth;
+    private boolean startTagOpen;
+
+    /**
+     * Creates the writer
+     *
+     * @param out the target writer, which must use UTF-8 encoding
+     */
+    public TOCXMLWriter(Writer out) {
+        this.out = out;
+        this.lineSeparator = System.getProperty("line.separator");
+    }
+
+    /**
+     * Writes the XML declaration
+     *
+     * @throws IOException
+     */
+    public void writeStartDocument() throws IOException {
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>");
+        out.write(lineSeparator);
+    }
+
+    /**
+     * Finishes the document
+     *
+     * @throws IOException
+     */
+    public void writeEndDocument() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Starts a new element without attributes
+     *
+     * @param name name of the element
+     * @throws IOException
+     */
+    public void writeStartElement(String name) throws IOException {
+        writeStartElement(name, new TreeMap<String, String>());
+    }
+
+    /**
+     * Starts a new element
+     *
+     * <p>
+     * The element is closed with an empty-element tag if it has no children.
+     *
+     * @param name name of the element
+     * @param attributes attributes of the element, written in alphabetical order
+     * @throws IOException
+     */
+    public void writeStartElement(String name, Map<String, String> attributes) throws IOException {
+        closeStartTag();
+
+        writeIndent();
+        out.write('<');
+        out.write(name);
+
+        for (Map.Entry<String, String> attribute : new TreeMap<>(attributes).entrySet()) {
+            out.write(' ');
+            out.write(attribute.getKey());
+            out.write("=\"");
+            writeEscaped(attribute.getValue());
+            out.write('"');
+        }
+
+        startTagOpen = true;
+        depth++;
+    }
+
+    /**
+     * Closes the last started element
+     *
+     * @param name name of the element
+     * @throws IOException
+     */
+    public void writeEndElement(String name) throws IOException {
+        depth--;
+
+        if (startTagOpen) {
+            out.write("/>");
+            out.write(lineSeparator);
+            startTagOpen = false;
+        } else {
+            writeIndent();
+            out.write("</");
+            out.write(name);
+            out.write('>');
+            out.write(lineSeparator);
+        }
+    }
+
+    private void closeStartTag() throws IOException {
+        if (startTagOpen) {
+            out.write('>');
+            out.write(lineSeparator);
+            startTagOpen = false;
+        }
+    }
+
+    private void writeIndent() throws IOException {
+        for (int i = 0; i < depth; i++) {
+            out.write(INDENT);
+        }
+    }
+
+    private void writeEscaped(String value) throws IOException {
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+
+            switch (ch) {
+                case '&':
+                    out.write("&amp;");
+                    break;
+                case '<':
+                    out.write("&lt;");
+                    break;
+                case '>':
+                    out.write("&gt;");
+                    break;
+                case '"':
+                    out.write("&quot;");
+                    break;
+                default:
+                    if (ch < 0x20) {
+                        writeCharacterReference(ch);
+                    } else if (Character.isHighSurrogate(ch)
+                               && i + 1 < value.length()
+                               && Character.isLowSurrogate(value.charAt(i + 1))) {
+                        writeCharacterReference(Character.toCodePoint(ch, value.charAt(i + 1)));
+                        i++;
+                    } else {
+                        out.write(ch);
+                    }
+                    break;
+            }
+        }
+    }
+
+    private void writeCharacterReference(int codePoint) throws IOException {
+        out.write("&#");
+        out.write(Integer.toString(codePoint));
+        out.write(';');
+    }
+}
@@ -296,6 +296,51 @@ public class DocumentorPreferences extends Observable {
         fireChanged("spellchecking");
     }
     
+    public boolean isParallelLoadingEnabled() {
+        return prefs.getBoolean("parallelloading", true);
+    }
+    
+    public void setParallelLoading(boolean enabled) {
+        prefs.putBoolean("parallelloading", enabled);
+        fireChanged("parallelloading");
+    }
+    
+    public int getLoaderThreads() {
+        return prefs.getInt("loaderthreads", Runtime.getRuntime().availableProcessors());
+    }
+    
+    public void setLoaderThreads(int threads) {
+        prefs.putInt("loaderthreads", threads);
+        fireChanged("loaderthreads");
+    }
+    
+    public boolean isLazyPageLoadingEnabled() {
+        return prefs.getBoolean("lazypageloading", false);
+    }
+    
+    public void setLazyPageLoading(boolean enabled) {
+        prefs.putBoolean("lazypageloading", enabled);
+        fireChanged("lazypageloading");
+    }
+    
+    public boolean isModelSnapshotEnabled() {
+        return prefs.getBoolean("modelsnapshot", true);
+    }
+    
+    public void setModelSnapshot(boolean enabled) {
+        prefs.putBoolean("modelsnapshot", enabled);
+        fireChanged("modelsnapshot");
+    }
+    
+    public boolean isMetadataIndexEnabled() {
+        return prefs.getBoolean("metadataindex", true);
+    }
+    
+    public void setMetadataIndex(boolean enabled) {
+        prefs.putBoolean("metadataindex", enabled);
+        fireChanged("metadataindex");
+    }
+    
     public PreviewMode getPreviewMode() {
         return PreviewMode.valueOf(PreviewMode.class, prefs.get("previewmode", PreviewMode.VerticalSplit.name()));
     }
@@ -0,0 +1,49 @@
+package hu.distributeddocumentor.utils;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Writes files atomically
+ *
+ * <p>
+ * The contents are written to a temporary file in the target's directory,
+ * which is then renamed to the target. Readers of the target, like the
+ * version control system, either see the old or the new contents, never a
+ * partially written file.
+ *
+ * @author Daniel Vigovszky
+ */
+public abstract class AtomicFiles {
+
+    /**
+     * Replaces the contents of a file atomically
+     *
+     * @param target the file to be written
+     * @param contents the new contents of the file
+     * @param charset the character set used to encode the contents
+     * @throws IOException
+     */
+    public static void write(File target, String contents, Charset charset) throws IOException {
+        File temp = File.createTempFile("." + target.getName(), ".tmp", target.getAbsoluteFile().getParentFile());
+
+        try {
+            try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), charset))) {
+                out.write(contents);
+            }
+
+            try {
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            if (temp.exists() && !temp.delete()) {
+                temp.deleteOnExit();
+            }
+        }
+    }
+}
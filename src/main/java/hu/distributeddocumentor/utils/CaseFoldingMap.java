@@ -0,0 +1,385 @@
+package hu.distributeddocumentor.utils;
+
+import java.util.*;
+
+/**
+ * Case-insensitive and case-preserving hash map from <code>String</code> keys
+ *
+ * <p>
+ * Unlike {@link CaseInsensitiveMap}, the keys are not wrapped: every entry
+ * stores its original key together with its case folded hash code, which is
+ * computed character by character, so lookups do not allocate. Keys are
+ * compared the same way as {@link String#equalsIgnoreCase(String)}, with a
+ * fast path for ASCII characters.
+ * <p>
+ * <strong>Concurrent Semantics</strong><br />
+ * Lookups and iterations may run concurrently with a single modifying
+ * thread. They see every modification either completely or not at all, and
+ * the iterators never throw {@link ConcurrentModificationException}.
+ * Concurrent modifications must be synchronized externally.
+ *
+ * @author Daniel Vigovszky
+ * @param <V> type of the values
+ */
+public class CaseFoldingMap<V> extends AbstractMap<String, V> {
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private volatile Node<V>[] table;
+    private volatile int size;
+    private int threshold;
+
+    private Set<Entry<String, V>> entrySet;
+
+    /**
+     * Creates an empty map
+     */
+    public CaseFoldingMap() {
+        table = newTable(INITIAL_CAPACITY);
+        threshold = (int) (INITIAL_CAPACITY * LOAD_FACTOR);
+    }
+
+    /**
+     * Creates a map containing the given mappings
+     *
+     * @param source the map whose mappings are copied
+     */
+    public CaseFoldingMap(Map<String, ? extends V> source) {
+        this();
+        putAll(source);
+    }
+
+    /**
+     * Computes the case folded hash code of a key
+     *
+     * <p>
+     * Keys equal by {@link String#equalsIgnoreCase(String)} have the same
+     * hash code.
+     *
+     * @param key the key
+     * @return the key's hash code
+     */
+    static int hash(String key) {
+        int h = 0;
+        for (int i = 0; i < key.length(); i++) {
+            h = 31 * h + fold(key.charAt(i));
+        }
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Compares two keys the same way as {@link String#equalsIgnoreCase(String)}
+     *
+     * @param a the first key
+     * @param b the second key
+     * @return true if the keys are equal ignoring case
+     */
+    static boolean equalsFolded(String a, String b) {
+        if (a == b) {
+            return true;
+        }
+        int length = a.length();
+        if (length != b.length()) {
+            return false;
+        }
+
+        for (int i = 0; i < length; i++) {
+            char c1 = a.charAt(i);
+            char c2 = b.charAt(i);
+            if (c1 != c2 && fold(c1) != fold(c2)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static char fold(char c) {
+        if (c < 128) {
+            return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+        } else {
+            return Character.toLowerCase(Character.toUpperCase(c));
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof String && findNode((String) key) != null;
+    }
+
+    @Override
+    public V get(Object key) {
+        if (key instanceof String) {
+            Node<V> node = findNode((String) key);
+            if (node != null) {
+                return node.value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Associates a value with a key
+     *
+     * <p>
+     * If the map already contains the key with a different case, the
+     * original key is kept.
+     *
+     * @param key the key, must not be null
+     * @param value the value
+     * @return the previous value, or null
+     */
+    @Override
+    public V put(String key, V value) {
+        if (key == null) {
+            throw new NullPointerException("CaseFoldingMap does not permit null keys");
+        }
+
+        int hash = hash(key);
+        Node<V>[] tab = table;
+        int index = hash & (tab.length - 1);
+
+        for (Node<V> node = tab[index]; node != null; node = node.next) {
+            if (node.hash == hash && equalsFolded(node.key, key)) {
+                V previous = node.value;
+                node.value = value;
+                return previous;
+            }
+        }
+
+        if (size >= threshold) {
+            tab = resize();
+            index = hash & (tab.length - 1);
+        }
+
+        tab[index] = new Node<>(key, hash, value, tab[index]);
+        table = tab;
+        size++;
+        return null;
+    }
+
+    @Override
+    public V remove(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+
+        String name = (String) key;
+        int hash = hash(name);
+        Node<V>[] tab = table;
+        int index = hash & (tab.length - 1);
+
+        Node<V> head = tab[index];
+        for (Node<V> node = head; node != null; node = node.next) {
+            if (node.hash == hash && equalsFolded(node.key, name)) {
+                // The nodes preceding the removed one are copied, so
+                // concurrent readers never see a half modified chain
+                Node<V> chain = node.next;
+                for (Node<V> previous = head; previous != node; previous = previous.next) {
+                    chain = new Node<>(previous.key, previous.hash, previous.value, chain);
+                }
+
+                tab[index] = chain;
+                table = tab;
+                size--;
+                return node.value;
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public void clear() {
+        table = newTable(INITIAL_CAPACITY);
+        threshold = (int) (INITIAL_CAPACITY * LOAD_FACTOR);
+        size = 0;
+    }
+
+    @Override
+    public Set<Entry<String, V>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new EntrySet();
+        }
+        return entrySet;
+    }
+
+    private Node<V> findNode(String key) {
+        int hash = hash(key);
+        Node<V>[] tab = table;
+
+        for (Node<V> node = tab[hash & (tab.length - 1)]; node != null; node = node.next) {
+            if (node.hash == hash && equalsFolded(node.key, key)) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    private Node<V>[] resize() {
+        Node<V>[] oldTable = table;
+        Node<V>[] newTable = newTable(oldTable.length * 2);
+        int mask = newTable.length - 1;
+
+        for (Node<V> head : oldTable) {
+            for (Node<V> node = head; node != null; node = node.next) {
+                int index = node.hash & mask;
+                newTable[index] = new Node<>(node.key, node.hash, node.value, newTable[index]);
+            }
+        }
+
+        threshold = (int) (newTable.length * LOAD_FACTOR);
+        table = newTable;
+        return newTable;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> Node<V>[] newTable(int capacity) {
+        return (Node<V>[]) new Node[capacity];
+    }
+
+    private static final class Node<V> implements Entry<String, V> {
+
+        private final String key;
+        private final int hash;
+        private final Node<V> next;
+        private volatile V value;
+
+        Node(String key, int hash, V value, Node<V> next) {
+            this.key = key;
+            this.hash = hash;
+            this.value = value;
+            this.next = next;
+        }
+
+        @Override
+        public String getKey() {
+            return key;
+        }
+
+        @Override
+        public V getValue() {
+            return value;
+        }
+
+        @Override
+        public V setValue(V value) {
+            V previous = this.value;
+            this.value = value;
+            return previous;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Entry)) {
+                return false;
+            }
+            Entry<?, ?> other = (Entry<?, ?>) obj;
+            return key.equals(other.getKey()) && Objects.equals(value, other.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode() ^ Objects.hashCode(value);
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + value;
+        }
+    }
+
+    private final class EntryIterator implements Iterator<Entry<String, V>> {
+
+        private final Node<V>[] tab = table;
+        private int index;
+        private Node<V> next;
+        private Node<V> current;
+
+        EntryIterator() {
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Entry<String, V> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            current = next;
+            next = next.next;
+            if (next == null) {
+                advance();
+            }
+            return current;
+        }
+
+        @Override
+        public void remove() {
+            if (current == null) {
+                throw new IllegalStateException();
+            }
+            CaseFoldingMap.this.remove(current.key);
+            current = null;
+        }
+
+        private void advance() {
+            while (next == null && index < tab.length) {
+                next = tab[index++];
+            }
+        }
+    }
+
+    private final class EntrySet extends AbstractSet<Entry<String, V>> {
+
+        @Override
+        public Iterator<Entry<String, V>> iterator() {
+            return new EntryIterator();
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (o instanceof Entry) {
+                Entry<?, ?> entry = (Entry<?, ?>) o;
+                if (entry.getKey() instanceof String) {
+                    Node<V> node = findNode((String) entry.getKey());
+                    return node != null && Objects.equals(node.value, entry.getValue());
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            if (contains(o)) {
+                CaseFoldingMap.this.remove(((Entry<?, ?>) o).getKey());
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void clear() {
+            CaseFoldingMap.this.clear();
+        }
+    }
+}
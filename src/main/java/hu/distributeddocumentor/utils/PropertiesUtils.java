@@ -0,0 +1,112 @@
+package hu.distributeddocumentor.utils;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Writes property files in a stable, merge friendly form
+ *
+ * <p>
+ * The output can be read by {@link java.util.Properties#load(InputStream)},
+ * and uses the same escaping as {@link java.util.Properties#store(OutputStream, String)},
+ * but it has no comment lines, the keys are sorted and the lines are separated
+ * by a single newline character. This way the files only change when their
+ * values change, which avoids merge conflicts in the repository.
+ *
+ * @author Daniel Vigovszky
+ */
+public abstract class PropertiesUtils {
+
+    private static final char[] hexDigits = "0123456789ABCDEF".toCharArray();
+
+    /**
+     * Writes a set of properties to a file in a single pass
+     *
+     * <p>
+     * The file is replaced atomically.
+     *
+     * @param values the properties to write
+     * @param target the target file
+     * @throws IOException
+     */
+    public static void store(Map<String, String> values, File target) throws IOException {
+        AtomicFiles.write(target, toString(values), Charset.forName("ISO-8859-1"));
+    }
+
+    /**
+     * Converts a set of properties to its stored form
+     *
+     * @param values the properties to convert
+     * @return the lines of the properties file
+     */
+    public static String toString(Map<String, String> values) {
+        StringBuilder builder = new StringBuilder();
+
+        for (Map.Entry<String, String> entry : new TreeMap<>(values).entrySet()) {
+            if (builder.length() > 0) {
+                builder.append('\n');
+            }
+
+            escape(builder, entry.getKey(), true);
+            builder.append('=');
+            escape(builder, entry.getValue(), false);
+        }
+
+        return builder.toString();
+    }
+
+    private static void escape(StringBuilder builder, String value, boolean isKey) {
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+
+            if (ch > 61 && ch < 127) {
+                if (ch == '\\') {
+                    builder.append("\\\\");
+                } else {
+                    builder.append(ch);
+                }
+                continue;
+            }
+
+            switch (ch) {
+                case ' ':
+                    if (i == 0 || isKey) {
+                        builder.append('\\');
+                    }
+                    builder.append(' ');
+                    break;
+                case '\t':
+                    builder.append("\\t");
+                    break;
+                case '\n':
+                    builder.append("\\n");
+                    break;
+                case '\r':
+                    builder.append("\\r");
+                    break;
+                case '\f':
+                    builder.append("\\f");
+                    break;
+                case '=':
+                case ':':
+                case '#':
+                case '!':
+                    builder.append('\\').append(ch);
+                    break;
+                default:
+                    if (ch < 0x20 || ch > 0x7e) {
+                        builder.append("\\u")
+                               .append(hexDigits[(ch >> 12) & 0xF])
+                               .append(hexDigits[(ch >> 8) & 0xF])
+                               .append(hexDigits[(ch >> 4) & 0xF])
+                               .append(hexDigits[ch & 0xF]);
+                    } else {
+                        builder.append(ch);
+                    }
+                    break;
+            }
+        }
+    }
+}
@@ -132,4 +132,10 @@ public interface VersionControl {
      * @return true if the file is added to the repository
      */
     public boolean isAdded(File item);
+    
+    /**
+     * Gets the identifier of the working copy's parent revision
+     * @return the revision identifier, or null if the working copy has no parent
+     */
+    public String getWorkingCopyRevision();
 }
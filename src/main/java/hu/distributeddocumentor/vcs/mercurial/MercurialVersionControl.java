@@ -1,5 +1,6 @@
 package hu.distributeddocumentor.vcs.mercurial;
 
+import com.aragost.javahg.Changeset;
 import com.aragost.javahg.Repository;
 import com.aragost.javahg.RepositoryConfiguration;
 import com.aragost.javahg.commands.*;
@@ -191,6 +192,13 @@ public class MercurialVersionControl implements VersionControl {
         return result.getUnknown().isEmpty();
     }
 
+    @Override
+    public String getWorkingCopyRevision() {
+        Changeset parent = repository.workingCopy().getParent1();
+        
+        return parent != null ? parent.getNode() : null;
+    }
+
     public Repository getRepository() {
         return repository;
     }
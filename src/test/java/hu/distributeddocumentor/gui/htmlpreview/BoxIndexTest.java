@@ -0,0 +1,70 @@
+package hu.distributeddocumentor.gui.htmlpreview;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.junit.*;
+import org.w3c.dom.Document;
+import org.xhtmlrenderer.render.BlockBox;
+import org.xhtmlrenderer.render.Box;
+import static org.junit.Assert.*;
+
+public class BoxIndexTest {
+
+    private Document document;
+
+    @Before
+    public void setUp() throws Exception {
+        document = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+    }
+
+    private Box createBox(String id) {
+        BlockBox box = new BlockBox();
+        box.setElement(document.createElement("p"));
+        if (id != null) {
+            box.getElement().setAttribute("id", id);
+        }
+        return box;
+    }
+
+    @Test
+    public void missingLinesAreMappedToThePrecedingLine() {
+        Box root = createBox(null);
+        Box line0 = createBox("line0");
+        Box line3 = createBox("line3");
+        root.addChild(line0);
+        root.addChild(line3);
+
+        BoxIndex index = new BoxIndex(root);
+
+        assertSame(line0, index.findId("line0"));
+        assertSame(line0, index.findId("line2"));
+        assertSame(line3, index.findId("line3"));
+        assertSame(line3, index.findId("line10"));
+    }
+
+    @Test
+    public void anchorsAreMatchedBySuffix() {
+        Box root = createBox(null);
+        Box header = createBox("line4Introduction");
+        root.addChild(createBox("line1"));
+        root.addChild(header);
+
+        BoxIndex index = new BoxIndex(root);
+
+        assertSame(header, index.findId("line4Introduction"));
+        assertSame(header, index.findId("Introduction"));
+        assertNull(index.findId("Summary"));
+    }
+
+    @Test
+    public void indexIsOutdatedAfterRelayout() {
+        Box root = createBox(null);
+        root.addChild(createBox("line0"));
+
+        BoxIndex index = new BoxIndex(root);
+        assertTrue(index.isCurrent(root));
+
+        root.removeAllChildren();
+        root.addChild(createBox("line0"));
+        assertFalse(index.isCurrent(root));
+    }
+}
@@ -0,0 +1,64 @@
+package hu.distributeddocumentor.gui.htmlpreview;
+
+import java.io.StringReader;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.junit.*;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.InputSource;
+import static org.junit.Assert.*;
+
+public class PreviewDocumentTest {
+    
+    private static PreviewDocument parse(String body) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        
+        Document document = factory.newDocumentBuilder().parse(new InputSource(new StringReader(
+                "<html xmlns='http://www.w3.org/1999/xhtml'><head><style>p {}</style></head><body>" + body + "</body></html>")));
+        return PreviewDocument.analyze(document);
+    }
+    
+    private static Element findLine(PreviewDocument document, int line) {
+        return (Element) document.getDocument().getElementsByTagNameNS("*", "span").item(line);
+    }
+    
+    @Test
+    public void onlyTheChangedBlocksAreReplaced() throws Exception {
+        PreviewDocument shown = parse(
+                "<h1><span id='line0'/>Title</h1>" +
+                "<p><span id='line2'/>First</p>" +
+                "<p><span id='line4'/>Second</p>");
+        Element title = findLine(shown, 0);
+        Element last = findLine(shown, 2);
+        
+        PreviewDocument edited = parse(
+                "<h1><span id='line0'/>Title</h1>" +
+                "<p><span id='line2'/>First, edited <span id='line3'/>in two lines</p>" +
+                "<p><span id='line5'/>Second</p>");
+        
+        assertEquals(2, shown.update(edited));
+        assertEquals(3, shown.getBlockCount());
+        assertSame(title, findLine(shown, 0));
+        assertSame(last, findLine(shown, 3));
+        assertEquals("line5", last.getAttribute("id"));
+        assertEquals("First, edited in two lines", shown.getDocument().getElementsByTagNameNS("*", "p").item(0).getTextContent());
+        
+        assertEquals(0, shown.update(parse(
+                "<h1><span id='line0'/>Title</h1>" +
+                "<p><span id='line2'/>First, edited <span id='line3'/>in two lines</p>" +
+                "<p><span id='line5'/>Second</p>")));
+    }
+    
+    @Test
+    public void changedStylesheetsCannotBePatched() throws Exception {
+        PreviewDocument shown = parse("<p>Text</p>");
+        
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        Document restyled = factory.newDocumentBuilder().parse(new InputSource(new StringReader(
+                "<html xmlns='http://www.w3.org/1999/xhtml'><head><style>p { color: red; }</style></head><body><p>Text</p></body></html>")));
+        
+        assertEquals(-1, shown.update(PreviewDocument.analyze(restyled)));
+    }
+}
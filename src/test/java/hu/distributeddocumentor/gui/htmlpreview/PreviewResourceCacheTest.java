@@ -0,0 +1,79 @@
+package hu.distributeddocumentor.gui.htmlpreview;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class PreviewResourceCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private int loads;
+
+    private final PreviewResourceCache.Loader<String> loader = new PreviewResourceCache.Loader<String>() {
+
+        @Override
+        public String load(String uri) throws IOException {
+            loads++;
+            return new String(Files.readAllBytes(new File(URI.create(uri)).toPath()), StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public long getSize(String resource) {
+            return resource.length();
+        }
+    };
+
+    private String createFile(String name, String contents) throws IOException {
+        File file = new File(folder.getRoot(), name);
+        Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+        return file.toURI().toString();
+    }
+
+    @Test
+    public void fileIsLoadedAgainOnlyIfChanged() throws IOException {
+        PreviewResourceCache cache = new PreviewResourceCache(1024);
+        String uri = createFile("a.svg", "first");
+
+        assertEquals("first", cache.get(uri, loader));
+        assertEquals("first", cache.get(uri, loader));
+        assertEquals(1, loads);
+
+        createFile("a.svg", "second version");
+
+        assertEquals("second version", cache.get(uri, loader));
+        assertEquals(2, loads);
+        assertEquals(1, cache.getEntryCount());
+        assertEquals("second version".length(), cache.getSize());
+    }
+
+    @Test
+    public void leastRecentlyUsedEntriesAreEvicted() throws IOException {
+        PreviewResourceCache cache = new PreviewResourceCache(10);
+        String a = createFile("a.png", "aaaa");
+        String b = createFile("b.png", "bbbb");
+        String c = createFile("c.png", "cccc");
+
+        cache.get(a, loader);
+        cache.get(b, loader);
+        cache.get(a, loader);
+        cache.get(c, loader);
+
+        assertEquals(2, cache.getEntryCount());
+        assertEquals(8, cache.getSize());
+
+        loads = 0;
+        cache.get(a, loader);
+        cache.get(c, loader);
+        assertEquals(0, loads);
+
+        cache.get(b, loader);
+        assertEquals(1, loads);
+    }
+}
@@ -0,0 +1,93 @@
+package hu.distributeddocumentor.gui.spellcheck;
+
+import com.swabunga.spell.engine.SpellDictionaryHashMap;
+import com.swabunga.spell.event.SpellChecker;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class SpellCheckServiceTest {
+
+    private SpellCheckService service;
+
+    @Before
+    public void setUp() throws Exception {
+        SpellDictionaryHashMap dictionary = new SpellDictionaryHashMap(
+                new StringReader("this\nis\na\nsimple\ntext\nsample\n"));
+        service = new SpellCheckService(new SpellChecker(dictionary));
+    }
+
+    private List<SpellCheckService.SpellingError> check(String text) throws InterruptedException {
+        final List<SpellCheckService.SpellingError> result = new ArrayList<>();
+        final CountDownLatch done = new CountDownLatch(1);
+
+        service.check(text, new SpellCheckService.CheckCallback() {
+
+            @Override
+            public void checked(List<SpellCheckService.SpellingError> errors) {
+                result.addAll(errors);
+                done.countDown();
+            }
+        });
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        return result;
+    }
+
+    @Test
+    public void misspelledWordsAreReportedWithTheirOffsets() throws Exception {
+        List<SpellCheckService.SpellingError> errors = check("This is a simpel text\nwith erors");
+
+        assertEquals(3, errors.size());
+        assertEquals("simpel", errors.get(0).getWord());
+        assertEquals(10, errors.get(0).getOffset());
+        assertEquals("with", errors.get(1).getWord());
+        assertEquals("erors", errors.get(2).getWord());
+        assertEquals(27, errors.get(2).getOffset());
+    }
+
+    @Test
+    public void wordResultsAreCached() throws Exception {
+        check("this is a text, this is a text");
+        assertEquals(4, service.getCachedWordCount());
+
+        assertEquals(1, check("this is a sampel").size());
+        assertEquals(5, service.getCachedWordCount());
+    }
+
+    @Test
+    public void suggestionsAreComputedInTheBackground() throws Exception {
+        final List<String> result = new ArrayList<>();
+        final CountDownLatch done = new CountDownLatch(1);
+
+        service.suggest("simpel", new SpellCheckService.SuggestionCallback() {
+
+            @Override
+            public void suggested(List<String> suggestions) {
+                result.addAll(suggestions);
+                done.countDown();
+            }
+        });
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertTrue(result.contains("simple"));
+    }
+
+    @Test
+    public void callbackIsCalledWhenTheSpellCheckerFails() throws Exception {
+        SpellDictionaryHashMap dictionary = new SpellDictionaryHashMap(new StringReader("text\n")) {
+
+            @Override
+            public boolean isCorrect(String word) {
+                throw new IllegalStateException("Broken dictionary");
+            }
+        };
+        service = new SpellCheckService(new SpellChecker(dictionary));
+
+        assertTrue(check("some text").isEmpty());
+    }
+}
@@ -0,0 +1,108 @@
+package hu.distributeddocumentor.model;
+
+import hu.distributeddocumentor.vcs.VersionControl;
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.Executor;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class BackgroundSaverTest {
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    private final List<File> addedFiles = new ArrayList<>();
+    private int addCalls;
+    
+    private VersionControl createVersionControl() {
+        return (VersionControl) Proxy.newProxyInstance(
+                VersionControl.class.getClassLoader(),
+                new Class<?>[] { VersionControl.class },
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("add")) {
+                            addCalls++;
+                            addedFiles.addAll(Arrays.asList((File[]) args[0]));
+                        }
+                        return null;
+                    }
+                });
+    }
+    
+    @Test
+    public void writesOnlyModifiedPagesAndAddsNewFilesInOneBatch() throws Exception {
+        Executor direct = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+        BackgroundSaver saver = new BackgroundSaver(createVersionControl(), direct);
+        File root = folder.getRoot();
+        
+        Page first = new Page("first", null, new Conditions(), new File("custom.css"));
+        Page second = new Page("second", null, new Conditions(), new File("custom.css"));
+        first.setMarkup("first page");
+        
+        List<BackgroundSaver.Write> batch = new ArrayList<>();
+        batch.add(first.prepareSave(root));
+        batch.add(second.prepareSave(root));
+        saver.queue(batch);
+        
+        first.setMarkup("edited while saving");
+        saver.flush();
+        
+        assertEquals("first page", new String(Files.readAllBytes(new File(root, "first.MediaWiki").toPath()), Charset.forName(Page.CHARSET)));
+        assertEquals(1, addCalls);
+        assertEquals(4, addedFiles.size());
+        assertEquals(0, saver.getQueueDepth());
+        
+        assertNull(second.prepareSave(root));
+        saver.queue(Collections.singletonList(first.prepareSave(root)));
+        saver.flush();
+        
+        assertEquals("edited while saving", new String(Files.readAllBytes(new File(root, "first.MediaWiki").toPath()), Charset.forName(Page.CHARSET)));
+        assertEquals(1, addCalls);
+        assertEquals(6, saver.getWrittenFiles());
+    }
+    
+    @Test
+    public void failureIsNotReportedOnceTheWriteHasBeenRetried() throws Exception {
+        Executor direct = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+        BackgroundSaver saver = new BackgroundSaver(createVersionControl(), direct);
+        File missing = new File(folder.getRoot(), "missing");
+        
+        Page page = new Page("retried", null, new Conditions(), new File("custom.css"));
+        saver.queue(Collections.singletonList(page.prepareSave(missing)));
+        waitForWrites(saver);
+        
+        assertTrue(missing.mkdir());
+        Page other = new Page("other", null, new Conditions(), new File("custom.css"));
+        saver.queue(Collections.singletonList(other.prepareSave(missing)));
+        waitForWrites(saver);
+        
+        saver.flush();
+        assertTrue(new File(missing, "retried.MediaWiki").exists());
+    }
+    
+    private static void waitForWrites(BackgroundSaver saver) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (saver.getQueueDepth() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, saver.getQueueDepth());
+    }
+}
@@ -0,0 +1,66 @@
+package hu.distributeddocumentor.model;
+
+import com.google.common.io.Files;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class MetadataIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File docDir;
+
+    @Before
+    public void setUp() throws Exception {
+        docDir = folder.newFolder("doc");
+    }
+
+    @Test
+    public void metadataIsStoredSortedWithoutComments() throws Exception {
+        Page page = PageTest.createFilePage(docDir, "first", "text\n", false);
+        page.getMetadata().put("status", "Completed");
+        page.getMetadata().put("author", "Somebody Else");
+        page.save(docDir);
+
+        File metadataFile = page.getFiles(docDir)[1];
+        assertEquals("author=Somebody Else\nstatus=Completed",
+                     Files.toString(metadataFile, Charset.forName("ISO-8859-1")));
+
+        Properties props = new Properties();
+        try (InputStream in = new FileInputStream(metadataFile)) {
+            props.load(in);
+        }
+        assertEquals("Somebody Else", props.getProperty("author"));
+    }
+
+    @Test
+    public void indexSurvivesSaveAndLoad() throws Exception {
+        Page page = PageTest.createFilePage(docDir, "first", "text\n", false);
+        page.getMetadata().put("status", "Completed");
+        page.save(docDir);
+
+        MetadataIndex index = new MetadataIndex(docDir, new File(folder.getRoot(), MetadataIndex.FILE_NAME));
+        index.update(Collections.singletonList(page));
+        index.saveIfModified();
+
+        MetadataIndex loaded = new MetadataIndex(docDir, new File(folder.getRoot(), MetadataIndex.FILE_NAME));
+        loaded.load();
+
+        File pageFile = page.getFiles(docDir)[0];
+        Map<File, PageMetadata> metadata = loaded.getMetadata(Arrays.asList(pageFile));
+        assertEquals("Completed", metadata.get(pageFile).get("status"));
+
+        Files.write("status=Reviewed", page.getFiles(docDir)[1], Charset.forName("ISO-8859-1"));
+        assertTrue(loaded.getMetadata(Arrays.asList(pageFile)).isEmpty());
+    }
+}
@@ -0,0 +1,77 @@
+package hu.distributeddocumentor.model;
+
+import com.google.common.io.Files;
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class ModelSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File docDir;
+    private File snippetsDir;
+    private File snapshotFile;
+
+    @Before
+    public void setUp() throws Exception {
+        docDir = folder.newFolder("doc");
+        snippetsDir = folder.newFolder("doc", "snippets");
+        snapshotFile = folder.newFile(ModelSnapshot.FILE_NAME);
+    }
+
+    @Test
+    public void pagesSurviveSaveAndLoad() throws Exception {
+        Page page = PageTest.createFilePage(docDir, "first", "[[second]]\n", false);
+        page.getMetadata().put("status", "Completed");
+        page.save(docDir);
+
+        ModelSnapshot snapshot = new ModelSnapshot("", "rev", docDir, snippetsDir);
+        snapshot.setProperties(new File(docDir, "documentation.properties"), "Title", Language.ENGLISH);
+        snapshot.addPage(page);
+        snapshot.save(snapshotFile);
+
+        ModelSnapshot loaded = ModelSnapshot.load(snapshotFile);
+        assertNotNull(loaded);
+        assertTrue(loaded.isValid("", "rev", docDir, snippetsDir));
+        assertFalse(loaded.isValid("", "other", docDir, snippetsDir));
+
+        assertTrue(loaded.hasValidProperties(new File(docDir, "documentation.properties")));
+        assertEquals("Title", loaded.getTitle());
+        assertFalse(loaded.hasValidTOC(new File(docDir, "toc.xml")));
+
+        File pageFile = page.getFiles(docDir)[0];
+        assertEquals(Collections.singletonList(pageFile), loaded.getPageFiles(docDir));
+
+        Map<File, PageMetadata> metadata = loaded.getPageMetadata(docDir);
+        assertEquals("Completed", metadata.get(pageFile).get("status"));
+
+        PageRefCache cache = new PageRefCache(new File(folder.getRoot(), "other" + PageRefCache.FILE_NAME));
+        loaded.fillRefCache(cache);
+        PageRefCache.Entry entry = cache.get("first", pageFile);
+        assertNotNull(entry);
+        assertEquals(Arrays.asList("second"), entry.getReferencedPages());
+    }
+
+    @Test
+    public void changedMetadataIsNotRestored() throws Exception {
+        Page page = PageTest.createFilePage(docDir, "first", "text\n", false);
+        page.getMetadata().put("status", "Completed");
+        page.save(docDir);
+
+        ModelSnapshot snapshot = new ModelSnapshot("", "rev", docDir, snippetsDir);
+        snapshot.addPage(page);
+        snapshot.save(snapshotFile);
+
+        Files.write("status=Reviewed\nother=value\n", page.getMetadata().getFile(docDir), Charset.defaultCharset());
+
+        ModelSnapshot loaded = ModelSnapshot.load(snapshotFile);
+        assertTrue(loaded.getPageMetadata(docDir).isEmpty());
+    }
+}
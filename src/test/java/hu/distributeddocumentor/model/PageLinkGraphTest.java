@@ -0,0 +1,107 @@
+package hu.distributeddocumentor.model;
+
+import hu.distributeddocumentor.model.events.DispatchPolicy;
+import hu.distributeddocumentor.model.events.EventSubscriber;
+import hu.distributeddocumentor.model.events.PageEvent;
+import hu.distributeddocumentor.model.toc.DefaultTOCNodeFactory;
+import hu.distributeddocumentor.model.toc.TOC;
+import hu.distributeddocumentor.model.toc.TOCNode;
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Collections;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class PageLinkGraphTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TOC toc;
+    private PageLinkGraph graph;
+
+    @Before
+    public void setUp() {
+        toc = new TOC(null, new DefaultTOCNodeFactory(new File("custom.css")));
+        graph = new PageLinkGraph(toc);
+    }
+
+    @Test
+    public void pagesLosingTheirLastLinkBecomeCandidates() {
+        Page first = PageTest.createPage("first", "[[Second]]");
+        Page second = PageTest.createPage("second", "Text");
+
+        graph.updatePage(first);
+        graph.updatePage(second);
+        assertTrue(graph.isReferenced("SECOND"));
+        assertEquals(Collections.singleton("first"), graph.getLinksTo("second"));
+        assertEquals(Collections.singleton("first"), graph.takeOrphanCandidates());
+
+        first.setMarkup("No links");
+        graph.updatePage(first);
+        assertFalse(graph.isReferenced("second"));
+        assertEquals(Collections.singleton("second"), graph.takeOrphanCandidates());
+    }
+
+    @Test
+    public void tocReferencesAreCounted() {
+        Page page = PageTest.createPage("page", "Text");
+        graph.updatePage(page);
+        graph.takeOrphanCandidates();
+
+        TOCNode node = toc.getFactory().createNode(page);
+        toc.addToEnd(toc.getRoot(), node);
+        assertEquals(1, graph.getReferenceCount("page"));
+
+        toc.addToEnd(toc.getUnorganized(), toc.getFactory().createNode(page));
+        assertEquals(1, graph.getReferenceCount("page"));
+
+        toc.remove(node);
+        assertFalse(graph.isReferenced("page"));
+        assertEquals(Collections.singleton("page"), graph.takeOrphanCandidates());
+    }
+
+    @Test
+    public void renamingMovesTheReferences() {
+        Page first = PageTest.createPage("first", "[[Second]]");
+        Page second = PageTest.createPage("second", "[[First]]");
+        graph.updatePage(first);
+        graph.updatePage(second);
+        toc.addToEnd(toc.getRoot(), toc.getFactory().createNode(second));
+        graph.takeOrphanCandidates();
+
+        second.changeId(new File("."), "Renamed");
+        graph.renamePage("Second", "Renamed");
+        toc.onPageRenamed();
+        assertEquals(Collections.singleton("first"), graph.getLinksTo("renamed"));
+        assertEquals(Collections.singleton("renamed"), graph.getLinksTo("first"));
+        assertEquals(2, graph.getReferenceCount("renamed"));
+        assertFalse(graph.isReferenced("second"));
+        assertFalse(graph.takeOrphanCandidates().contains("renamed"));
+    }
+
+    @Test
+    public void reloadedPageUpdatesTheGraph() throws Exception {
+        Page page = PageTest.createFilePage(folder.getRoot(), "reloaded", "[[First]]\n", true);
+        assertFalse(page.isMarkupLoaded());
+
+        page.getEvents().subscribe(new EventSubscriber<PageEvent>() {
+
+            @Override
+            public void onEvent(PageEvent event) {
+                graph.updatePage(event.getPage());
+            }
+        }, DispatchPolicy.SYNCHRONOUS);
+        graph.updatePage(page);
+        assertEquals(Collections.singleton("reloaded"), graph.getLinksTo("first"));
+
+        Files.write(page.getFiles(folder.getRoot())[0].toPath(), "[[Second]] and [[Third]]\n".getBytes(Charset.forName(Page.CHARSET)));
+        page.getMarkup();
+
+        assertTrue(graph.getLinksTo("first").isEmpty());
+        assertEquals(Collections.singleton("reloaded"), graph.getLinksTo("second"));
+        assertEquals(Collections.singleton("reloaded"), graph.getLinksTo("third"));
+    }
+}
@@ -0,0 +1,66 @@
+package hu.distributeddocumentor.model;
+
+import com.google.common.io.Files;
+import hu.distributeddocumentor.gui.ProgressUI;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+
+public class PageLoaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ProgressUI progress = new ProgressUI() {
+        @Override
+        public void setStatus(String status) {
+        }
+
+        @Override
+        public void setProgress(double percentage) {
+        }
+
+        @Override
+        public void setIndeterminate() {
+        }
+    };
+
+    private List<File> createPages(int count) throws IOException {
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            File f = folder.newFile("page" + i + ".mediawiki");
+            Files.write("= Page " + i + " =\n\n[[page" + (i + 1) + "]]\n", f, Charset.forName(Page.CHARSET));
+            files.add(f);
+        }
+        return files;
+    }
+
+    @Test
+    public void parallelLoadKeepsOrderAndReferences() throws Exception {
+        List<File> files = createPages(50);
+
+        PageLoader loader = new PageLoader(null, new Conditions(), new File("custom.css"), null, false, 4, progress, files.size());
+        List<Page> pages = loader.loadPages(files);
+
+        assertEquals(50, pages.size());
+        for (int i = 0; i < pages.size(); i++) {
+            assertEquals("page" + i, pages.get(i).getId());
+            assertEquals(Arrays.asList("page" + (i + 1)), pages.get(i).getReferencedPages());
+        }
+    }
+
+    @Test(expected = FailedToLoadPageException.class)
+    public void failureIsReported() throws Exception {
+        List<File> files = new ArrayList<>(createPages(3));
+        files.add(new File(folder.getRoot(), "missing.mediawiki"));
+
+        PageLoader loader = new PageLoader(null, new Conditions(), new File("custom.css"), null, false, 4, progress, files.size());
+        loader.loadPages(files);
+    }
+}
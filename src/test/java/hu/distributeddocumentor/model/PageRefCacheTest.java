@@ -0,0 +1,85 @@
+package hu.distributeddocumentor.model;
+
+import com.google.common.io.Files;
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class PageRefCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void entriesSurviveSaveAndLoad() throws Exception {
+        File cacheFile = new File(folder.getRoot(), PageRefCache.FILE_NAME);
+
+        PageRefCache cache = new PageRefCache(cacheFile);
+        cache.put("test", new PageRefCache.Entry("abc", 10, 20, Arrays.asList("a", "b"),
+                new HashSet<>(Arrays.asList("snip")), new HashSet<>(Arrays.asList("COND"))));
+        cache.saveIfModified();
+
+        PageRefCache loaded = new PageRefCache(cacheFile);
+        loaded.load();
+
+        assertNull(loaded.get("test", "other"));
+        PageRefCache.Entry entry = loaded.get("test", "abc");
+        assertNotNull(entry);
+        assertEquals(Arrays.asList("a", "b"), entry.getReferencedPages());
+        assertEquals(Collections.singleton("snip"), entry.getSnippets());
+        assertEquals(Collections.singleton("COND"), entry.getConditionals());
+        assertEquals(10, entry.getLength());
+        assertEquals(20, entry.getLastModified());
+    }
+
+    @Test
+    public void matchingEntryIsUsedInsteadOfParsing() throws Exception {
+        File pageFile = folder.newFile("page.mediawiki");
+        String markup = "[[real]]\n[Snippet:s1]\n[When:X]\nline\n[End]\n";
+        Files.write(markup, pageFile, Charset.forName(Page.CHARSET));
+
+        PageRefCache cache = new PageRefCache(new File(folder.getRoot(), PageRefCache.FILE_NAME));
+
+        Page parsed = new Page(pageFile, null, new Conditions(), new File("custom.css"), cache, false);
+        assertTrue(parsed.getReferencedPages().contains("real"));
+
+        PageRefCache.Entry entry = cache.get("page", PageRefCache.hash(markup));
+        assertNotNull(entry);
+        assertEquals(parsed.getReferencedPages(), entry.getReferencedPages());
+        assertEquals(Collections.singleton("s1"), entry.getSnippets());
+        assertEquals(Collections.singleton("X"), entry.getConditionals());
+
+        // A matching entry is trusted without parsing the markup
+        cache.put("page", new PageRefCache.Entry(PageRefCache.hash(markup), 0, 0, Arrays.asList("cached"),
+                Collections.<String>emptySet(), Collections.<String>emptySet()));
+        Page fromCache = new Page(pageFile, null, new Conditions(), new File("custom.css"), cache, false);
+        assertEquals(Arrays.asList("cached"), fromCache.getReferencedPages());
+    }
+
+    @Test
+    public void lazyPageReadsMarkupOnDemand() throws Exception {
+        File pageFile = folder.newFile("lazy.mediawiki");
+        String markup = "[[other]]\n";
+        Files.write(markup, pageFile, Charset.forName(Page.CHARSET));
+
+        PageRefCache cache = new PageRefCache(new File(folder.getRoot(), PageRefCache.FILE_NAME));
+        new Page(pageFile, null, new Conditions(), new File("custom.css"), cache, true);
+
+        // With an up-to-date cache entry the file is not read at all
+        Page page = new Page(pageFile, null, new Conditions(), new File("custom.css"), cache, true);
+        assertFalse(page.isMarkupLoaded());
+        assertEquals(Arrays.asList("other"), page.getReferencedPages());
+
+        assertEquals(markup, page.getMarkup());
+
+        page.markOpened();
+        assertTrue(page.isMarkupLoaded());
+        page.markClosed();
+        assertEquals(markup, page.getMarkup());
+    }
+}
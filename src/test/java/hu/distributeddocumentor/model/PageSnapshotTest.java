@@ -0,0 +1,105 @@
+package hu.distributeddocumentor.model;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class PageSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void lazySnapshotIsNotAffectedBySavingThePage() throws Exception {
+        Page page = PageTest.createFilePage(folder.getRoot(), "lazy", "= Original =\n", true);
+        PageSnapshot snapshot = page.snapshot();
+        assertFalse(snapshot.isPinned());
+
+        page.setMarkup("= Modified =\n");
+        page.save(folder.getRoot());
+
+        assertEquals("= Original =\n", snapshot.getMarkup());
+        assertEquals("= Modified =\n", page.snapshot().getMarkup());
+    }
+
+    @Test
+    public void lazySnapshotIsNotAffectedByDeletingTheFile() throws Exception {
+        Page page = PageTest.createFilePage(folder.getRoot(), "deleted", "= Original =\n", true);
+        PageSnapshot snapshot = page.snapshot();
+        assertFalse(snapshot.isPinned());
+
+        page.pinSnapshot();
+        assertTrue(page.getFiles(folder.getRoot())[0].delete());
+
+        assertEquals("= Original =\n", snapshot.getMarkup());
+    }
+
+    @Test
+    public void snapshotIsRenderedWithTheCapturedSnippetsAndConditions() throws Exception {
+        SnippetCollection snippets = PageTest.createSnippetCollection();
+        Conditions conditions = new Conditions();
+        conditions.enable("TEST");
+
+        Snippet snippet = new Snippet("capturedsnippet", snippets, conditions, new File("custom.css"));
+        snippet.setMarkup("Snippet line");
+        snippets.addSnippet(snippet);
+
+        Page page = new Page("capturedpage", snippets, conditions, new File("custom.css"));
+        page.setMarkup("[Snippet:capturedsnippet]\n\n[When:TEST]\nConditional line\n[End]");
+        PageSnapshot snapshot = page.snapshot();
+
+        snippet.setMarkup("Changed line");
+        conditions.reset();
+
+        String html = snapshot.asHTML("/");
+        assertTrue(html.contains("<p>Snippet line</p>"));
+        assertTrue(html.contains("<p>Conditional line</p>"));
+    }
+
+    @Test
+    public void snapshotIsReusedOnlyWhileTheRenderInputsAreUnchanged() throws Exception {
+        SnippetCollection snippets = PageTest.createSnippetCollection();
+        Conditions conditions = new Conditions();
+
+        Snippet snippet = new Snippet("reusedsnippet", snippets, conditions, new File("custom.css"));
+        snippet.setMarkup("Snippet line");
+        snippets.addSnippet(snippet);
+
+        Page page = new Page("reusedpage", snippets, conditions, new File("custom.css"));
+        page.setMarkup("[Snippet:reusedsnippet]");
+        PageSnapshot snapshot = page.snapshot();
+        assertSame(snapshot, page.snapshot());
+
+        snippet.setMarkup("Changed line");
+        PageSnapshot afterSnippetChange = page.snapshot();
+        assertNotSame(snapshot, afterSnippetChange);
+        assertTrue(afterSnippetChange.asHTML("/").contains("<p>Changed line</p>"));
+
+        conditions.enable("TEST");
+        assertNotSame(afterSnippetChange, page.snapshot());
+    }
+
+    @Test
+    public void changedStylesheetGivesNewSnapshotAndHTML() throws Exception {
+        File customStylesheet = new File(folder.getRoot(), "custom.css");
+        Files.write(customStylesheet.toPath(), "p { color: red; }".getBytes(Charset.forName(Page.CHARSET)));
+
+        Page page = new Page("styled", null, new Conditions(), customStylesheet);
+        page.setMarkup("Styled line");
+        PageSnapshot snapshot = page.snapshot();
+        String html = snapshot.asHTMLembeddingCSS();
+        assertTrue(html.contains("color: red"));
+
+        Files.write(customStylesheet.toPath(), "p { color: green; }".getBytes(Charset.forName(Page.CHARSET)));
+        StylesheetProvider.forFile(customStylesheet).invalidate();
+
+        PageSnapshot restyled = page.snapshot();
+        assertNotSame(snapshot, restyled);
+        String restyledHTML = restyled.asHTMLembeddingCSS();
+        assertNotEquals(html, restyledHTML);
+        assertTrue(restyledHTML.contains("color: green"));
+    }
+}
@@ -1,11 +1,65 @@
 package hu.distributeddocumentor.model;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import org.junit.*;
-import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.*;
 
 public class PageTest {
 
+    static SnippetCollection createSnippetCollection() {
+        final Map<String, Snippet> snippetMap = new HashMap<>();
+        return new SnippetCollection() {
+
+            @Override
+            public Collection<Snippet> getSnippets() {
+                return snippetMap.values();
+            }
+
+            @Override
+            public Snippet getSnippet(String id) {
+                return snippetMap.get(id);
+            }
+
+            @Override
+            public void addSnippet(Snippet snippet) {
+                snippetMap.put(snippet.getId(), snippet);
+            }
+
+            @Override
+            public void removeSnippet(String id) {
+                snippetMap.remove(id);
+            }
+        };
+    }
+
+    static Page createPage(String id, String markup) {
+        Page page = new Page(id, null, new Conditions(), new File("custom.css"));
+        page.setMarkup(markup);
+        return page;
+    }
+
+    static Page createFilePage(File directory, String id, String markup, boolean lazy) throws IOException {
+        File file = new File(directory, id + ".MediaWiki");
+        Files.write(file.toPath(), markup.getBytes(Charset.forName(Page.CHARSET)));
+
+        PageRefCache cache = new PageRefCache(new File(directory, PageRefCache.FILE_NAME));
+        if (lazy) {
+            // With an up-to-date cache entry the markup is not read while loading
+            new Page(file, null, new Conditions(), new File("custom.css"), cache, true);
+        }
+        return new Page(file, null, new Conditions(), new File("custom.css"), cache, lazy);
+    }
+    
     @Test
     public void testModifyPageReferences() {
         
@@ -19,6 +73,17 @@ public class PageTest {
         assertEquals("[[FirstLink]]\n[[SL|the second link]]\n[[THL]]\n[[THL|third link again]]\n[[FourthLink]]", p.getMarkup());
     }
     
+    @Test
+    public void testModifyAllReferenceForms() {
+        
+        Page p = new Page("test", null, new Conditions(), new File("custom.css"));
+        p.setMarkupLanguage("MediaWiki");
+        p.setMarkup("[old.page] [Old.Page with title] [[OLD.PAGE]] [[old.page|title]] [oldXpage] [[old.page.2]]");
+
+        p.modifyPageReferences("old.page", "new$1");
+        assertEquals("[new$1] [new$1 with title] [[new$1]] [[new$1|title]] [oldXpage] [[old.page.2]]", p.getMarkup());
+    }
+    
     @Test
     public void simpleConditionals() {
         Conditions conditions = new Conditions();
@@ -53,4 +118,77 @@ public class PageTest {
         String html3 = p.asHTML("/");
         assertEquals("<?xml version='1.0' encoding='utf-8' ?><html xmlns=\"http://www.w3.org/1999/xhtml\"><head><meta http-equiv=\"Content-Type\" content=\"text/html; charset=utf-8\"/><link type=\"text/css\" rel=\"stylesheet\" href=\"/documentation.css\"/></head><body><p>First line</p><p>Outer conditional line</p><p>Inner conditional line</p><p>Last line</p></body></html>", html3);                
     }
+    
+    @Test
+    public void renderedHTMLIsCachedUntilIncludedSnippetChanges() throws Exception {
+        SnippetCollection snippets = createSnippetCollection();
+        
+        Conditions conditions = new Conditions();
+        Snippet snippet = new Snippet("cachedsnippet", snippets, conditions, new File("custom.css"));
+        snippet.setMarkup("Snippet line");
+        snippets.addSnippet(snippet);
+        
+        Page p = new Page("cachedpage", snippets, conditions, new File("custom.css"));
+        p.setMarkup("First line\n\n[Snippet:cachedsnippet]\n\nLast line");
+        
+        RenderedHTMLCache cache = Page.getRenderedHTMLCache();
+        String html = p.asHTML("/");
+        assertTrue(html.contains("<p>Snippet line</p>"));
+        
+        long hits = cache.getHitCount();
+        assertSame(html, p.asHTML("/"));
+        assertEquals(hits + 1, cache.getHitCount());
+        
+        snippet.setMarkup("Changed line");
+        String html2 = p.asHTML("/");
+        assertTrue(html2.contains("<p>Changed line</p>"));
+        assertTrue(p.referencesSnippet(snippet));
+    }
+    
+    @Test
+    public void recursiveSnippetsAreExpandedOnce() throws Exception {
+        SnippetCollection snippets = createSnippetCollection();
+        Conditions conditions = new Conditions();
+        
+        Snippet outer = new Snippet("outer", snippets, conditions, new File("custom.css"));
+        outer.setMarkup("Outer line\n[Snippet:inner]");
+        snippets.addSnippet(outer);
+        
+        Snippet inner = new Snippet("inner", snippets, conditions, new File("custom.css"));
+        inner.setMarkup("[When:TEST]\nInner line\n[End]\n[Snippet:outer]");
+        snippets.addSnippet(inner);
+        
+        conditions.enable("TEST");
+        
+        Page p = new Page("recursive", snippets, conditions, new File("custom.css"));
+        p.setMarkup("[Snippet:outer]\n\nLast line");
+        
+        String html = p.asHTML("/");
+        assertTrue(html.contains("<p>Outer line\nInner line</p><p>Last line</p>"));
+        assertTrue(p.referencesSnippet(inner));
+    }
+    
+    @Test
+    public void referencesAreExtractedInBackground() throws Exception {
+        final CountDownLatch applied = new CountDownLatch(1);
+        ReferenceExtractionScheduler scheduler = new ReferenceExtractionScheduler(new Executor() {
+
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+                applied.countDown();
+            }
+        }, 50);
+        
+        Page p = new Page("background", null, new Conditions(), new File("custom.css"));
+        p.setReferenceExtractionScheduler(scheduler);
+        
+        p.setMarkup("[[First]]");
+        p.setMarkup("[[First]]\n[[Second]]");
+        assertTrue(scheduler.hasPendingExtractions());
+        
+        assertTrue(applied.await(10, TimeUnit.SECONDS));
+        assertFalse(scheduler.hasPendingExtractions());
+        assertEquals(Arrays.asList("First", "Second"), p.getReferencedPages());
+    }
 }
@@ -0,0 +1,48 @@
+package hu.distributeddocumentor.model;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class SnippetDependencyIndexTest {
+
+    private Snippet createSnippet(String id, String markup) {
+        Snippet snippet = new Snippet(id, null, new Conditions(), new File("custom.css"));
+        snippet.setMarkup(markup);
+        return snippet;
+    }
+
+    @Test
+    public void nestedInclusionsAreFollowed() {
+        SnippetDependencyIndex index = new SnippetDependencyIndex();
+
+        index.updateSnippet(createSnippet("outer", "Text\n[Snippet:Inner]\n"));
+        index.updateSnippet(createSnippet("inner", "Inner text"));
+        index.updatePage(PageTest.createPage("First", "[Snippet:outer]\nText"));
+        index.updatePage(PageTest.createPage("second", "Text\n[Snippet:inner]"));
+        index.updatePage(PageTest.createPage("third", "Text [Snippet:inner]"));
+
+        assertEquals(new HashSet<>(Arrays.asList("first", "second")), index.getPagesIncluding("INNER"));
+        assertEquals(Collections.singleton("first"), index.getPagesIncluding("outer"));
+
+        index.updateSnippet(createSnippet("outer", "No inclusion"));
+        assertEquals(Collections.singleton("second"), index.getPagesIncluding("inner"));
+
+        index.removePage("Second");
+        assertTrue(index.getPagesIncluding("inner").isEmpty());
+    }
+
+    @Test
+    public void recursiveSnippetsDoNotLoop() {
+        SnippetDependencyIndex index = new SnippetDependencyIndex();
+
+        index.updateSnippet(createSnippet("a", "[Snippet:b]"));
+        index.updateSnippet(createSnippet("b", "[Snippet:a]"));
+        index.updatePage(PageTest.createPage("page", "[Snippet:a]"));
+
+        assertEquals(Collections.singleton("page"), index.getPagesIncluding("b"));
+    }
+}
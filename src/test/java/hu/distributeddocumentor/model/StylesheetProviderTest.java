@@ -0,0 +1,45 @@
+package hu.distributeddocumentor.model;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class StylesheetProviderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private void write(File file, String css) throws Exception {
+        Files.write(file.toPath(), css.getBytes(Charset.forName(Page.CHARSET)));
+    }
+
+    @Test
+    public void contentsAreReadAgainOnlyWhenChanged() throws Exception {
+        File file = new File(folder.getRoot(), "custom.css");
+        StylesheetProvider provider = StylesheetProvider.forFile(file);
+
+        assertNull(provider.getContents());
+        long missingStamp = provider.getStamp();
+
+        write(file, "p { color: red; }");
+        assertEquals("p { color: red; }", provider.getContents());
+
+        long stamp = provider.getStamp();
+        assertNotEquals(missingStamp, stamp);
+        assertEquals(stamp, provider.getStamp());
+
+        provider.invalidate();
+        assertNotEquals(stamp, provider.getStamp());
+    }
+
+    @Test
+    public void providersAreSharedPerFile() {
+        File file = new File(folder.getRoot(), "custom.css");
+
+        assertSame(StylesheetProvider.forFile(file), StylesheetProvider.forFile(file.getAbsoluteFile()));
+        assertFalse(StylesheetProvider.getDocumentationCSS().isEmpty());
+    }
+}
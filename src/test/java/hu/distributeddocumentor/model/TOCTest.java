@@ -1,13 +1,24 @@
 package hu.distributeddocumentor.model;
 
+import com.google.common.io.Files;
 import hu.distributeddocumentor.model.toc.DefaultTOCNode;
 import hu.distributeddocumentor.model.toc.DefaultTOCNodeFactory;
 import hu.distributeddocumentor.model.toc.TOC;
+import hu.distributeddocumentor.model.toc.TOCNode;
+import hu.distributeddocumentor.model.toc.TOCSnapshot;
+import hu.distributeddocumentor.model.toc.VirtualTOCNode;
 import java.io.File;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
 import org.junit.*;
-import static org.junit.Assert.assertEquals;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
 
 public class TOCTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
     private DefaultTOCNodeFactory factory;
     
     public TOCTest() {
@@ -634,4 +645,162 @@ public class TOCTest {
         assertEquals(node21, node2.getChildren().get(0));
         assertEquals(2, node11.getChildren().size());
     }
+
+    /**
+     * Test of save and load methods, of class TOC.
+     */
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        
+        TOC toc = new TOC(null, factory);
+        
+        TOCNode node1 = factory.createNode("First & \"last\" <chapter>");
+        toc.addToEnd(toc.getRoot(), node1);
+        toc.addToEnd(node1, factory.createNode("Line\nbreak"));
+        
+        VirtualTOCNode node2 = factory.createVirtualNode();
+        node2.setTitle("Virtual");
+        node2.setVirtualHierarchyBuilder(String.class);
+        node2.setSourcePath("inner");
+        toc.addToEnd(toc.getRoot(), node2);
+        
+        toc.addToEnd(toc.getUnorganized(), factory.createNode("Unorganized"));
+        
+        File dir = folder.getRoot();
+        toc.save(dir);
+        
+        String nl = System.getProperty("line.separator");
+        String expected = 
+                "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>" + nl +
+                "<TOC>" + nl +
+                "    <Node title=\"Root\">" + nl +
+                "        <Node title=\"First &amp; &quot;last&quot; &lt;chapter&gt;\">" + nl +
+                "            <Node title=\"Line&#10;break\"/>" + nl +
+                "        </Node>" + nl +
+                "        <Node source=\"inner\" title=\"Virtual\" virtual-hierarchy-builder=\"java.lang.String\"/>" + nl +
+                "    </Node>" + nl +
+                "</TOC>" + nl;
+        File saved = new File(dir, "toc.xml");
+        assertEquals(expected, Files.toString(saved, Charset.forName("UTF-8")));
+        
+        TOC loaded = new TOC(null, factory);
+        loaded.load(dir, null);
+        
+        assertEquals(4, loaded.getRoot().getChildren().size());
+        assertEquals("First & \"last\" <chapter>", loaded.getRoot().getChildren().get(0).getTitle());
+        assertEquals("Line\nbreak", loaded.getRoot().getChildren().get(0).getChildren().get(0).getTitle());
+        
+        VirtualTOCNode loadedVirtual = (VirtualTOCNode) loaded.getRoot().getChildren().get(1);
+        assertEquals(String.class, loadedVirtual.getVirtualHierarchyBuilder());
+        assertEquals("inner", loadedVirtual.getSourcePath());
+        assertEquals(loaded.getUnorganized(), loaded.getRoot().getChildren().get(2));
+        
+        File resaved = folder.newFolder("resaved");
+        loaded.save(resaved);
+        assertEquals(expected, Files.toString(new File(resaved, "toc.xml"), Charset.forName("UTF-8")));
+    }
+    
+    @Test
+    public void testPageIndex() {
+        
+        TOC toc = new TOC(null, factory);
+        Page page = new Page("page", null, new Conditions(), new File("custom.css"));
+        
+        DefaultTOCNode chapter = new DefaultTOCNode(factory, "Chapter");
+        DefaultTOCNode node = new DefaultTOCNode(factory, "Page", page);
+        toc.addToEnd(toc.getRoot(), chapter);
+        toc.addToEnd(chapter, node);
+        
+        assertTrue(toc.isReferenced(page));
+        assertEquals(node, toc.findReferenceTo(page));
+        assertTrue(toc.getReferencedPages().contains("page"));
+        assertTrue(toc.isPageReferenced("page"));
+        
+        toc.remove(chapter);
+        assertFalse(toc.isReferenced(page));
+        assertFalse(toc.getReferencedPages().contains("page"));
+        assertFalse(toc.isPageReferenced("page"));
+        
+        toc.addToEnd(toc.getRecycleBin(), chapter);
+        assertTrue(toc.isInRecycleBin(page));
+        assertTrue(toc.getReferencedPages().isEmpty());
+        
+        toc.removeFromRecycleBin(page);
+        assertFalse(toc.isInRecycleBin(page));
+        assertFalse(toc.isReferenced(page));
+        assertEquals(0, chapter.getChildren().size());
+    }
+    
+    @Test
+    public void testIndicesAndPathsAfterMoves() {
+        
+        TOC toc = new TOC(null, factory);
+        DefaultTOCNode chapter = new DefaultTOCNode(factory, "Chapter");
+        toc.addToEnd(toc.getRoot(), chapter);
+        
+        List<TOCNode> nodes = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            DefaultTOCNode node = new DefaultTOCNode(factory, "Node" + i);
+            toc.addToEnd(chapter, node);
+            nodes.add(node);
+        }
+        
+        toc.moveUp(nodes.get(5));
+        toc.remove(nodes.get(0));
+        toc.addBefore(nodes.get(9), nodes.get(0));
+        
+        for (int i = 0; i < chapter.getChildren().size(); i++) {
+            assertEquals(i, chapter.getChildren().indexOf(chapter.getChildren().get(i)));
+        }
+        assertEquals(8, chapter.getChildren().indexOf(nodes.get(0)));
+        assertEquals(-1, chapter.getChildren().indexOf(toc.getUnorganized()));
+        
+        TOCNode moved = nodes.get(3);
+        assertArrayEquals(new Object[] { toc.getRoot(), chapter, moved }, moved.toPath());
+        assertSame(moved.toPath(), moved.toPath());
+        
+        toc.moveLeft(moved);
+        assertArrayEquals(new Object[] { toc.getRoot(), moved }, moved.toPath());
+        assertEquals(0, toc.getRoot().getChildren().indexOf(moved));
+        assertEquals(1, toc.getRoot().getChildren().indexOf(chapter));
+    }
+    
+    @Test
+    public void testSnapshotSharesUnchangedSubtrees() {
+        
+        TOC toc = new TOC(null, factory);
+        Page page = new Page("page", null, new Conditions(), new File("custom.css"));
+        page.setMarkup("original");
+        
+        DefaultTOCNode chapter1 = new DefaultTOCNode(factory, "Chapter1");
+        DefaultTOCNode chapter2 = new DefaultTOCNode(factory, "Chapter2");
+        DefaultTOCNode node = new DefaultTOCNode(factory, "Page", page);
+        toc.addToEnd(toc.getRoot(), chapter1);
+        toc.addToEnd(toc.getRoot(), chapter2);
+        toc.addToEnd(chapter2, node);
+        
+        TOCSnapshot first = toc.snapshot();
+        assertSame(first.getRoot(), toc.snapshot().getRoot());
+        assertEquals(4, first.getRoot().getChildren().size());
+        assertSame(toc.getUnorganized(), first.getUnorganized().getSource());
+        
+        TOCSnapshot.Node pageNode = first.getRoot().getChildren().get(1).getChildren().get(0);
+        assertEquals("page", pageNode.getTarget().getId());
+        assertEquals("original", pageNode.getTarget().getMarkup());
+        
+        toc.changeNodeTitle(chapter1, "Renamed");
+        
+        TOCSnapshot second = toc.snapshot();
+        assertNotSame(first.getRoot(), second.getRoot());
+        assertEquals("Chapter1", first.getRoot().getChildren().get(0).getTitle());
+        assertEquals("Renamed", second.getRoot().getChildren().get(0).getTitle());
+        assertSame(first.getRoot().getChildren().get(1), second.getRoot().getChildren().get(1));
+        
+        page.setMarkup("changed");
+        
+        TOCSnapshot third = toc.snapshot();
+        assertSame(second.getRoot().getChildren().get(0), third.getRoot().getChildren().get(0));
+        assertEquals("original", pageNode.getTarget().getMarkup());
+        assertEquals("changed", third.getRoot().getChildren().get(1).getChildren().get(0).getTarget().getMarkup());
+    }
 }
@@ -0,0 +1,81 @@
+package hu.distributeddocumentor.model.events;
+
+import java.util.*;
+import java.util.concurrent.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class EventBusTest {
+    
+    private static final Executor direct = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+    
+    @Test
+    public void synchronousSubscribersReceiveEveryEvent() {
+        EventBus<String> bus = new EventBus<>(direct, 50);
+        final List<String> received = new ArrayList<>();
+        EventSubscriber<String> subscriber = new EventSubscriber<String>() {
+            @Override
+            public void onEvent(String event) {
+                received.add(event);
+            }
+        };
+        
+        bus.subscribe(subscriber, DispatchPolicy.SYNCHRONOUS);
+        bus.publish("a");
+        bus.publish("b");
+        bus.unsubscribe(subscriber);
+        bus.publish("c");
+        
+        assertEquals(Arrays.asList("a", "b"), received);
+    }
+    
+    @Test
+    public void coalescedSubscribersReceiveOnlyTheLatestEvent() throws InterruptedException {
+        EventBus<String> bus = new EventBus<>(direct, 100);
+        final List<String> received = new CopyOnWriteArrayList<>();
+        final CountDownLatch delivered = new CountDownLatch(1);
+        
+        bus.subscribe(new EventSubscriber<String>() {
+            @Override
+            public void onEvent(String event) {
+                received.add(event);
+                delivered.countDown();
+            }
+        }, DispatchPolicy.COALESCED);
+        
+        for (int i = 0; i < 100; i++) {
+            bus.publish("event" + i);
+        }
+        
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        Thread.sleep(200);
+        assertEquals(Collections.singletonList("event99"), received);
+    }
+    
+    @Test
+    public void backgroundSubscribersReceiveEveryEventInOrder() throws InterruptedException {
+        EventBus<Integer> bus = new EventBus<>(direct, 50);
+        final List<Integer> received = new CopyOnWriteArrayList<>();
+        final CountDownLatch delivered = new CountDownLatch(10);
+        
+        bus.subscribe(new EventSubscriber<Integer>() {
+            @Override
+            public void onEvent(Integer event) {
+                received.add(event);
+                delivered.countDown();
+            }
+        }, DispatchPolicy.BACKGROUND);
+        
+        for (int i = 0; i < 10; i++) {
+            bus.publish(i);
+        }
+        
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), received);
+    }
+}
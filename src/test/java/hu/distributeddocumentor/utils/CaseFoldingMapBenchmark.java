@@ -0,0 +1,77 @@
+package hu.distributeddocumentor.utils;
+
+import java.util.*;
+
+/**
+ * Compares the page lookup performance of {@link CaseFoldingMap} and 
+ * {@link CaseInsensitiveMap}
+ * 
+ * <p>
+ * Not a unit test; run it manually with the test classpath:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.mainClass=hu.distributeddocumentor.utils.CaseFoldingMapBenchmark -Dexec.classpathScope=test
+ * </pre>
+ * 
+ * @author Daniel Vigovszky
+ */
+public class CaseFoldingMapBenchmark {
+    
+    private static final int PAGES = 5000;
+    private static final int LOOKUPS = 2000000;
+    private static final int ROUNDS = 10;
+    
+    public static void main(String[] args) {
+        
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < PAGES; i++) {
+            ids.add("Documentation_Page_" + i);
+        }
+        
+        List<String> lookups = new ArrayList<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 4096; i++) {
+            String id = ids.get(random.nextInt(PAGES));
+            lookups.add(random.nextBoolean() ? id.toLowerCase() : id);
+        }
+        
+        for (int round = 0; round < ROUNDS; round++) {
+            report(round, "CaseInsensitiveMap", run(new CaseInsensitiveMap<Integer>(), ids, lookups));
+            report(round, "CaseFoldingMap", run(new CaseFoldingMap<Integer>(), ids, lookups));
+        }
+    }
+    
+    private static long[] run(Map<String, Integer> map, List<String> ids, List<String> lookups) {
+        
+        long start = System.nanoTime();
+        for (int i = 0; i < ids.size(); i++) {
+            map.put(ids.get(i), i);
+        }
+        long filled = System.nanoTime();
+        
+        long found = 0;
+        for (int i = 0; i < LOOKUPS; i++) {
+            if (map.get(lookups.get(i & 4095)) != null) {
+                found++;
+            }
+        }
+        long looked = System.nanoTime();
+        
+        for (int i = 0; i < 100; i++) {
+            for (String id : map.keySet()) {
+                found += id.length();
+            }
+        }
+        long iterated = System.nanoTime();
+        
+        if (found == 0) {
+            throw new IllegalStateException();
+        }
+        
+        return new long[] { filled - start, looked - filled, iterated - looked };
+    }
+    
+    private static void report(int round, String name, long[] times) {
+        System.out.println(String.format("#%d %-20s put: %6d us, get: %6d us, iterate: %6d us", 
+                round, name, times[0] / 1000, times[1] / 1000, times[2] / 1000));
+    }
+}
@@ -0,0 +1,65 @@
+package hu.distributeddocumentor.utils;
+
+import java.util.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class CaseFoldingMapTest {
+    
+    @Test
+    public void lookupsIgnoreCaseAndKeepTheOriginalKey() {
+        CaseFoldingMap<Integer> map = new CaseFoldingMap<>();
+        
+        assertNull(map.put("StartPage", 1));
+        assertEquals(Integer.valueOf(1), map.put("startpage", 2));
+        
+        assertEquals(1, map.size());
+        assertEquals(Integer.valueOf(2), map.get("STARTPAGE"));
+        assertTrue(map.containsKey("startPage"));
+        assertTrue(map.keySet().contains("STARTPAGE"));
+        assertEquals("StartPage", map.keySet().iterator().next());
+        assertFalse(map.containsKey(1));
+        
+        assertEquals(Integer.valueOf(2), map.remove("STARTpage"));
+        assertTrue(map.isEmpty());
+        assertNull(map.get("StartPage"));
+    }
+    
+    @Test
+    public void behavesLikeTheReferenceImplementation() {
+        CaseFoldingMap<Integer> map = new CaseFoldingMap<>();
+        Map<String, Integer> reference = new HashMap<>();
+        Random random = new Random(42);
+        
+        for (int i = 0; i < 20000; i++) {
+            String key = "Page" + random.nextInt(500);
+            if (random.nextBoolean()) {
+                key = key.toUpperCase();
+            }
+            
+            if (random.nextInt(3) == 0) {
+                assertEquals(reference.remove(key.toLowerCase()), map.remove(key));
+            } else {
+                assertEquals(reference.put(key.toLowerCase(), i), map.put(key, i));
+            }
+            assertEquals(reference.size(), map.size());
+        }
+        
+        int count = 0;
+        for (Map.Entry<String, Integer> entry : map.entrySet()) {
+            assertEquals(reference.get(entry.getKey().toLowerCase()), entry.getValue());
+            count++;
+        }
+        assertEquals(reference.size(), count);
+        
+        Iterator<String> iterator = map.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().endsWith("7")) {
+                iterator.remove();
+            }
+        }
+        for (String key : reference.keySet()) {
+            assertEquals(!key.endsWith("7"), map.containsKey(key));
+        }
+    }
+}